@@ -0,0 +1,57 @@
+package net.sothatsit.audiostream.benchmark;
+
+import net.sothatsit.audiostream.audio.AudioWriter;
+import net.sothatsit.audiostream.metrics.MetricsRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import javax.sound.sampled.AudioFormat;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures writing 10 ms chunks of audio through an AudioWriter to a line that discards them,
+ * so that the cost of the writer's delay buffer and underrun checks is measured without a device.
+ *
+ * @author Paddy Lamont
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AudioWriterBenchmark {
+
+    private static final AudioFormat FORMAT = new AudioFormat(48000, 16, 2, true, false);
+    private static final int CHUNK_MS = 10;
+    private static final int BUFFER_MS = 100;
+
+    @Param({ "0", "40" })
+    public int bufferDelayMS;
+
+    private AudioWriter writer;
+    private byte[] chunk;
+
+    @Setup
+    public void setup() {
+        int bytesPerMS = (int) (FORMAT.getFrameRate() / 1000) * FORMAT.getFrameSize();
+
+        writer = new AudioWriter(new NullSourceDataLine(), FORMAT, bufferDelayMS * bytesPerMS, BUFFER_MS * bytesPerMS);
+        writer.setMetrics(new MetricsRegistry("benchmark"));
+        chunk = new byte[CHUNK_MS * bytesPerMS];
+    }
+
+    @Setup(Level.Iteration)
+    public void start() throws Exception {
+        writer.start();
+    }
+
+    @TearDown(Level.Iteration)
+    public void stop() {
+        writer.stop();
+    }
+
+    @Benchmark
+    public void write() {
+        writer.write(chunk, 0, chunk.length);
+    }
+}
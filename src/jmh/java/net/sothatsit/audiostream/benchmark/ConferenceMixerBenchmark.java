@@ -0,0 +1,54 @@
+package net.sothatsit.audiostream.benchmark;
+
+import net.sothatsit.audiostream.communication.conference.ConferenceMixer;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures mixing one 20 ms period of 48 kHz mono audio for a conference of 16 participants,
+ * which must take well under 20 ms for the conference host to keep up. Run with -prof gc to
+ * check that mixing does not allocate.
+ *
+ * @author Paddy Lamont
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConferenceMixerBenchmark {
+
+    private static final int SAMPLE_RATE = 48000;
+    private static final int PERIOD_MS = 20;
+    private static final int PARTICIPANTS = 16;
+
+    private ConferenceMixer mixer;
+    private short[][] inputs;
+    private short[][] outputs;
+
+    @Setup
+    public void setup() {
+        int samples = SAMPLE_RATE * PERIOD_MS / 1000;
+        mixer = new ConferenceMixer(samples);
+        inputs = new short[PARTICIPANTS][samples];
+        outputs = new short[PARTICIPANTS][samples];
+
+        // Quiet enough that the mix only sometimes clips, as in a real conference
+        Random random = new Random(0);
+        for (short[] input : inputs) {
+            for (int index = 0; index < samples; ++index) {
+                input[index] = (short) (random.nextGaussian() * 4000);
+            }
+        }
+    }
+
+    @Benchmark
+    public void mix(Blackhole blackhole) {
+        mixer.mix(inputs, outputs, PARTICIPANTS);
+        blackhole.consume(outputs);
+    }
+}
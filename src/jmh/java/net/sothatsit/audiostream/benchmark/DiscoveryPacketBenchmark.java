@@ -0,0 +1,91 @@
+package net.sothatsit.audiostream.benchmark;
+
+import net.sothatsit.audiostream.communication.packet.PacketBuilder;
+import net.sothatsit.audiostream.communication.packet.PacketReader;
+import net.sothatsit.audiostream.communication.packet.PacketType;
+import net.sothatsit.audiostream.encryption.EncryptionVerification;
+import net.sothatsit.audiostream.model.RemoteAudioServerDetails;
+import net.sothatsit.audiostream.model.RemoteServerDetails;
+import org.openjdk.jmh.annotations.*;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building and reading back the discovery packets that servers broadcast.
+ *
+ * @author Paddy Lamont
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DiscoveryPacketBenchmark {
+
+    private InetAddress address;
+    private RemoteServerDetails details;
+    private byte[] request;
+    private byte[] response;
+
+    @Setup
+    public void setup() throws IOException {
+        address = InetAddress.getLoopbackAddress();
+        RemoteAudioServerDetails audioServerDetails = new RemoteAudioServerDetails(
+                new InetSocketAddress(address, 7001),
+                Arrays.asList(
+                        new AudioFormat(48000, 16, 2, true, false),
+                        new AudioFormat(44100, 16, 2, true, false),
+                        new AudioFormat(48000, 16, 1, true, false)
+                )
+        );
+        details = new RemoteServerDetails(
+                1, new InetSocketAddress(address, 7000), audioServerDetails, EncryptionVerification.create(null)
+        );
+
+        request = buildRequest();
+        response = buildResponse();
+    }
+
+    @Benchmark
+    public byte[] buildRequest() throws IOException {
+        return PacketBuilder.create()
+                            .writeType(PacketType.DISCOVERY_REQUEST)
+                            .writeInt(7000)
+                            .build();
+    }
+
+    @Benchmark
+    public byte[] buildResponse() throws IOException {
+        PacketBuilder builder = PacketBuilder.create();
+        builder.writeType(PacketType.DISCOVERY_RESPONSE);
+        details.writeTo(builder);
+        return builder.build();
+    }
+
+    @Benchmark
+    public int readRequest() throws IOException {
+        PacketReader reader = PacketReader.create(request);
+        reader.readType();
+        return reader.readInt();
+    }
+
+    @Benchmark
+    public RemoteServerDetails readResponse() throws IOException {
+        PacketReader reader = PacketReader.create(response);
+        reader.readType();
+        return RemoteServerDetails.readFrom(reader, address);
+    }
+
+    @Benchmark
+    public RemoteServerDetails responseRoundTrip() throws IOException {
+        PacketReader reader = PacketReader.create(buildResponse());
+        reader.readType();
+        return RemoteServerDetails.readFrom(reader, address);
+    }
+}
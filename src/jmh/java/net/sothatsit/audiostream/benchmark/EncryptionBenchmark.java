@@ -0,0 +1,47 @@
+package net.sothatsit.audiostream.benchmark;
+
+import net.sothatsit.audiostream.encryption.Encryption;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures encrypting and decrypting packets of audio of different sizes.
+ *
+ * @author Paddy Lamont
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EncryptionBenchmark {
+
+    /**
+     * The size of each packet, where 3872 bytes is a header and 20 ms of 48 kHz 16-bit stereo audio.
+     */
+    @Param({ "128", "992", "3872" })
+    public int packetBytes;
+
+    private Encryption encryption;
+    private byte[] packet;
+    private byte[] encrypted;
+
+    @Setup
+    public void setup() {
+        encryption = new Encryption("benchmark secret");
+        packet = new byte[packetBytes];
+        encrypted = encryption.encrypt(packet);
+    }
+
+    @Benchmark
+    public byte[] encrypt() {
+        return encryption.encrypt(packet);
+    }
+
+    @Benchmark
+    public byte[] decrypt() {
+        return encryption.decrypt(encrypted);
+    }
+}
@@ -0,0 +1,70 @@
+package net.sothatsit.audiostream.benchmark;
+
+import net.sothatsit.audiostream.audio.FormatConverter;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.sound.sampled.AudioFormat;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures converting 10 ms chunks of 44.1 kHz stereo audio to 48 kHz, as when a source
+ * feeds a device that only runs at 48 kHz.
+ *
+ * The audioSeconds counter is the number of seconds of audio converted each second, and its
+ * inverse is the real-time factor, the fraction of a core that conversion needs to keep up.
+ *
+ * @author Paddy Lamont
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FormatConverterBenchmark {
+
+    private static final float INPUT_SAMPLE_RATE = 44100;
+    private static final float OUTPUT_SAMPLE_RATE = 48000;
+    private static final int CHANNELS = 2;
+    private static final int CHUNK_MS = 10;
+
+    @Param({ "16", "24" })
+    public int sampleBits;
+
+    private FormatConverter converter;
+    private byte[] audio;
+    private float[] converted;
+
+    @Setup
+    public void setup() {
+        AudioFormat format = new AudioFormat(INPUT_SAMPLE_RATE, sampleBits, CHANNELS, true, false);
+        converter = new FormatConverter(format, OUTPUT_SAMPLE_RATE, CHANNELS);
+
+        audio = new byte[(int) (INPUT_SAMPLE_RATE * CHUNK_MS / 1000) * format.getFrameSize()];
+        new Random(0).nextBytes(audio);
+        converted = new float[converter.getMaxOutputFrames(audio.length) * CHANNELS];
+    }
+
+    @Benchmark
+    public void convert(AudioCounters counters, Blackhole blackhole) {
+        blackhole.consume(converter.convert(audio, 0, audio.length, converted, 0));
+        counters.audioSeconds += CHUNK_MS / 1000.0;
+    }
+
+    /**
+     * Counts the seconds of audio converted.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class AudioCounters {
+
+        public double audioSeconds;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            audioSeconds = 0;
+        }
+    }
+}
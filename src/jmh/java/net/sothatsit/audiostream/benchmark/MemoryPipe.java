@@ -0,0 +1,153 @@
+package net.sothatsit.audiostream.benchmark;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+
+/**
+ * An in-memory pipe, so that packets can be framed and read back without any sockets.
+ *
+ * Bytes written to the pipe are read back in the same order. Reading more than has been
+ * written ends the stream, as a benchmark that does so is broken. The storage is reused
+ * once everything written has been read, so a benchmark that reads back everything
+ * it writes does not allocate.
+ *
+ * This class is NOT thread safe and should
+ * always be used from a single thread.
+ *
+ * @author Paddy Lamont
+ */
+public class MemoryPipe {
+
+    private byte[] buffer;
+    private int readIndex;
+    private int writeIndex;
+
+    public MemoryPipe(int initialCapacity) {
+        this.buffer = new byte[initialCapacity];
+    }
+
+    public int available() {
+        return writeIndex - readIndex;
+    }
+
+    public void write(byte[] bytes, int offset, int length) {
+        if (writeIndex + length > buffer.length) {
+            compact(length);
+        }
+
+        System.arraycopy(bytes, offset, buffer, writeIndex, length);
+        writeIndex += length;
+    }
+
+    /**
+     * @return The number of bytes read, or -1 if there are none left to read.
+     */
+    public int read(byte[] bytes, int offset, int length) {
+        int available = available();
+        if (available == 0)
+            return -1;
+
+        int read = Math.min(available, length);
+        System.arraycopy(buffer, readIndex, bytes, offset, read);
+        advance(read);
+        return read;
+    }
+
+    private void advance(int bytes) {
+        readIndex += bytes;
+        if (readIndex == writeIndex) {
+            readIndex = 0;
+            writeIndex = 0;
+        }
+    }
+
+    /**
+     * Move the unread bytes to the start of the buffer, growing it if there is still not room for {@param length} more.
+     */
+    private void compact(int length) {
+        int available = available();
+        byte[] destination = buffer;
+        if (available + length > buffer.length) {
+            destination = new byte[Math.max(available + length, 2 * buffer.length)];
+        }
+
+        System.arraycopy(buffer, readIndex, destination, 0, available);
+        buffer = destination;
+        readIndex = 0;
+        writeIndex = available;
+    }
+
+    public InputStream getInputStream() {
+        return new InputStream() {
+            @Override
+            public int read() {
+                byte[] single = new byte[1];
+                return (MemoryPipe.this.read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF);
+            }
+
+            @Override
+            public int read(byte[] bytes, int offset, int length) {
+                return MemoryPipe.this.read(bytes, offset, length);
+            }
+
+            @Override
+            public int available() {
+                return MemoryPipe.this.available();
+            }
+        };
+    }
+
+    public OutputStream getOutputStream() {
+        return new OutputStream() {
+            @Override
+            public void write(int value) {
+                MemoryPipe.this.write(new byte[] { (byte) value }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] bytes, int offset, int length) {
+                MemoryPipe.this.write(bytes, offset, length);
+            }
+        };
+    }
+
+    public ByteChannel getChannel() {
+        return new ByteChannel() {
+            @Override
+            public int read(ByteBuffer destination) {
+                int available = MemoryPipe.this.available();
+                if (available == 0)
+                    return -1;
+
+                int read = Math.min(available, destination.remaining());
+                destination.put(buffer, readIndex, read);
+                advance(read);
+                return read;
+            }
+
+            @Override
+            public int write(ByteBuffer source) {
+                int length = source.remaining();
+                if (writeIndex + length > buffer.length) {
+                    compact(length);
+                }
+
+                source.get(buffer, writeIndex, length);
+                writeIndex += length;
+                return length;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+                // Nothing to release
+            }
+        };
+    }
+}
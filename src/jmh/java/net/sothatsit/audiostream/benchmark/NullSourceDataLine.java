@@ -0,0 +1,152 @@
+package net.sothatsit.audiostream.benchmark;
+
+import javax.sound.sampled.*;
+
+/**
+ * A SourceDataLine that discards everything written to it, so that writers can be measured without an audio device.
+ *
+ * The line always reports half of its buffer as queued, as a line that is being kept
+ * fed would, so that writers never see it as having underrun.
+ *
+ * @author Paddy Lamont
+ */
+public class NullSourceDataLine implements SourceDataLine {
+
+    private static final Line.Info INFO = new Line.Info(SourceDataLine.class);
+
+    private AudioFormat format;
+    private int bufferSize;
+    private long bytesWritten;
+    private boolean open;
+    private boolean running;
+
+    @Override
+    public void open(AudioFormat format, int bufferSize) {
+        this.format = format;
+        this.bufferSize = bufferSize;
+        this.open = true;
+    }
+
+    @Override
+    public void open(AudioFormat format) {
+        open(format, (int) format.getFrameRate() * format.getFrameSize() / 10);
+    }
+
+    @Override
+    public void open() {
+        throw new IllegalStateException("The format of the line must be given");
+    }
+
+    @Override
+    public void close() {
+        open = false;
+        running = false;
+    }
+
+    @Override
+    public int write(byte[] bytes, int offset, int length) {
+        bytesWritten += length;
+        return length;
+    }
+
+    @Override
+    public void drain() {
+        // Everything written has already been discarded
+    }
+
+    @Override
+    public void flush() {
+        // Everything written has already been discarded
+    }
+
+    @Override
+    public void start() {
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public boolean isActive() {
+        return running;
+    }
+
+    @Override
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    @Override
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    @Override
+    public int available() {
+        return bufferSize / 2;
+    }
+
+    @Override
+    public int getFramePosition() {
+        return (int) getLongFramePosition();
+    }
+
+    @Override
+    public long getLongFramePosition() {
+        long queuedBytes = bufferSize / 2;
+        return Math.max(0, bytesWritten - queuedBytes) / format.getFrameSize();
+    }
+
+    @Override
+    public long getMicrosecondPosition() {
+        return (long) (getLongFramePosition() * 1e6 / format.getFrameRate());
+    }
+
+    @Override
+    public float getLevel() {
+        return AudioSystem.NOT_SPECIFIED;
+    }
+
+    @Override
+    public Line.Info getLineInfo() {
+        return INFO;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public Control[] getControls() {
+        return new Control[0];
+    }
+
+    @Override
+    public boolean isControlSupported(Control.Type control) {
+        return false;
+    }
+
+    @Override
+    public Control getControl(Control.Type control) {
+        throw new IllegalArgumentException("Unsupported control type " + control);
+    }
+
+    @Override
+    public void addLineListener(LineListener listener) {
+        // The line never changes state on its own
+    }
+
+    @Override
+    public void removeLineListener(LineListener listener) {
+        // The line never changes state on its own
+    }
+}
@@ -0,0 +1,59 @@
+package net.sothatsit.audiostream.benchmark;
+
+import net.sothatsit.audiostream.communication.packet.PacketChannel;
+import net.sothatsit.audiostream.communication.packet.PacketInputStream;
+import net.sothatsit.audiostream.communication.packet.PacketOutputStream;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures writing a packet and reading it back through each of the ways packets are framed
+ * on a stream, over an in-memory pipe so that only the framing itself is measured.
+ *
+ * @author Paddy Lamont
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PacketFramingBenchmark {
+
+    /**
+     * The size of each packet, where 3872 bytes is a header and 20 ms of 48 kHz 16-bit stereo audio.
+     */
+    @Param({ "128", "992", "3872" })
+    public int packetBytes;
+
+    private byte[] packet;
+
+    private PacketOutputStream outputStream;
+    private PacketInputStream inputStream;
+    private PacketChannel channel;
+
+    @Setup
+    public void setup() {
+        packet = new byte[packetBytes];
+
+        MemoryPipe streamPipe = new MemoryPipe(2 * packetBytes);
+        outputStream = new PacketOutputStream(streamPipe.getOutputStream());
+        inputStream = new PacketInputStream(streamPipe.getInputStream());
+
+        channel = new PacketChannel(new MemoryPipe(2 * packetBytes).getChannel());
+    }
+
+    @Benchmark
+    public byte[] streamRoundTrip() throws IOException {
+        outputStream.writePacket(packet);
+        return inputStream.readPacket();
+    }
+
+    @Benchmark
+    public byte[] channelRoundTrip() throws IOException {
+        channel.writePacket(packet);
+        return channel.readPacket();
+    }
+}
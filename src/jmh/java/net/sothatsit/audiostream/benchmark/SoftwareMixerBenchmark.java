@@ -0,0 +1,64 @@
+package net.sothatsit.audiostream.benchmark;
+
+import net.sothatsit.audiostream.audio.SoftwareMixer;
+import org.openjdk.jmh.annotations.*;
+
+import javax.sound.sampled.AudioFormat;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures writing 10 ms of audio to each input of a SoftwareMixer and mixing it, which the mixer
+ * must do well within 10 ms to keep its line fed. Inputs at 44.1 kHz are also resampled to the
+ * 48 kHz of the mixer as they are written.
+ *
+ * @author Paddy Lamont
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SoftwareMixerBenchmark {
+
+    private static final AudioFormat MIXER_FORMAT = new AudioFormat(48000, 16, 2, true, false);
+    private static final int CHUNK_MS = 10;
+    private static final int BUFFER_MS = 100;
+
+    @Param({ "1", "8" })
+    public int inputCount;
+
+    @Param({ "48000", "44100" })
+    public float inputSampleRate;
+
+    private SoftwareMixer mixer;
+    private SoftwareMixer.Input[] inputs;
+    private byte[] chunk;
+    private byte[] mixed;
+
+    @Setup
+    public void setup() {
+        // The mixer is not started, so that the benchmark mixes each period itself
+        mixer = new SoftwareMixer("benchmark", new NullSourceDataLine(), MIXER_FORMAT, BUFFER_MS, 0);
+
+        AudioFormat inputFormat = new AudioFormat(inputSampleRate, 16, 2, true, false);
+        inputs = new SoftwareMixer.Input[inputCount];
+        for (int index = 0; index < inputCount; ++index) {
+            inputs[index] = mixer.addInput(inputFormat, 0);
+            inputs[index].setGain(1.0f / inputCount);
+        }
+
+        chunk = new byte[(int) (inputSampleRate * CHUNK_MS / 1000) * inputFormat.getFrameSize()];
+        new Random(0).nextBytes(chunk);
+        mixed = new byte[(int) (MIXER_FORMAT.getFrameRate() * CHUNK_MS / 1000) * MIXER_FORMAT.getFrameSize()];
+    }
+
+    @Benchmark
+    public int mix() {
+        for (SoftwareMixer.Input input : inputs) {
+            input.write(chunk, 0, chunk.length);
+        }
+        return mixer.mixPeriod(mixed);
+    }
+}
@@ -0,0 +1,48 @@
+package net.sothatsit.audiostream.benchmark;
+
+import net.sothatsit.audiostream.StreamMonitor;
+import net.sothatsit.audiostream.metrics.MetricsRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import javax.sound.sampled.AudioFormat;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures monitoring 20 ms packets of audio as a client receives them.
+ *
+ * @author Paddy Lamont
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StreamMonitorBenchmark {
+
+    private static final int PACKET_MS = 20;
+
+    @Param({ "1", "2" })
+    public int channels;
+
+    @Param({ "16", "24" })
+    public int sampleBits;
+
+    private StreamMonitor monitor;
+    private byte[] audio;
+
+    @Setup
+    public void setup() {
+        AudioFormat format = new AudioFormat(48000, sampleBits, channels, true, false);
+        monitor = new StreamMonitor(new MetricsRegistry("benchmark"), format);
+
+        audio = new byte[(int) (format.getFrameRate() * PACKET_MS / 1000) * format.getFrameSize()];
+        new Random(0).nextBytes(audio);
+    }
+
+    @Benchmark
+    public void update() {
+        monitor.update(audio, 0, audio.length);
+    }
+}
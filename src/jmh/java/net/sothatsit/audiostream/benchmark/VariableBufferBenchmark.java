@@ -0,0 +1,71 @@
+package net.sothatsit.audiostream.benchmark;
+
+import net.sothatsit.audiostream.util.VariableBuffer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures pushing audio into a VariableBuffer from one thread while another pops it,
+ * as a capture thread and a connection thread do on the server.
+ *
+ * The pusher skips pushing while the buffer is full, so the score of pop is
+ * the rate at which chunks are handed between the threads.
+ *
+ * @author Paddy Lamont
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VariableBufferBenchmark {
+
+    /**
+     * The size of each chunk of audio, where 3840 bytes is 20 ms of 48 kHz 16-bit stereo audio.
+     */
+    @Param({ "192", "3840" })
+    public int chunkBytes;
+
+    /**
+     * The most bytes that are let build up in the buffer, so that the pusher cannot run away from the popper.
+     */
+    private static final int MAX_QUEUED_CHUNKS = 16;
+
+    private VariableBuffer buffer;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        buffer = new VariableBuffer(chunkBytes * MAX_QUEUED_CHUNKS);
+    }
+
+    @State(Scope.Thread)
+    public static class Chunk {
+        public byte[] bytes;
+
+        @Setup
+        public void setup(VariableBufferBenchmark benchmark) {
+            bytes = new byte[benchmark.chunkBytes];
+        }
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public void push(Chunk chunk) {
+        if (buffer.size() < chunkBytes * MAX_QUEUED_CHUNKS) {
+            buffer.push(chunk.bytes, 0, chunkBytes);
+        }
+    }
+
+    /**
+     * Times out rather than blocking forever, so that the iteration can end once the pusher stops.
+     */
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public boolean pop(Chunk chunk) {
+        return buffer.pop(chunk.bytes, 0, chunkBytes, 1, TimeUnit.MILLISECONDS);
+    }
+}
@@ -1,11 +1,15 @@
 package net.sothatsit.audiostream;
 
+import net.sothatsit.audiostream.metrics.JmxExporter;
+import net.sothatsit.audiostream.metrics.PrometheusExporter;
 import net.sothatsit.audiostream.model.AudioStreamModel;
 import net.sothatsit.audiostream.util.RemovableListener;
 import net.sothatsit.audiostream.view.AudioStreamWindow;
 import net.sothatsit.audiostream.view.AudioStreamTrayIcon;
 
+import javax.sound.sampled.AudioFormat;
 import java.awt.*;
+import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
@@ -23,30 +27,46 @@ public class AudioStream {
     public static Dimension DEFAULT_GUI_SIZE = new Dimension(640, 480);
 
     public static InetAddress MULTICAST_ADDRESS;
+    public static InetAddress MULTICAST_ADDRESS_V6;
     public static int MULTICAST_PORT = 5647;
     public static InetSocketAddress MULTICAST_SOCKET_ADDRESS;
+    public static InetSocketAddress MULTICAST_SOCKET_ADDRESS_V6;
     public static String AUDIOSTREAM_PREFIX = "AudioStream";
     static {
         try {
             MULTICAST_ADDRESS = InetAddress.getByName("235.236.234.237");
+            MULTICAST_ADDRESS_V6 = InetAddress.getByName("ff02::eb:ecea:ed");
         } catch (UnknownHostException e) {
             throw new RuntimeException(e);
         }
         MULTICAST_SOCKET_ADDRESS = new InetSocketAddress(MULTICAST_ADDRESS, MULTICAST_PORT);
+        MULTICAST_SOCKET_ADDRESS_V6 = new InetSocketAddress(MULTICAST_ADDRESS_V6, MULTICAST_PORT);
     }
 
     public static final int DEFAULT_BUFFER_DELAY_MS = 100;
     public static final int MAX_BUFFER_DELAY_MS = 10_000;
+    public static final int DEFAULT_MAX_LATENCY_MS = 500;
+    public static final int DEFAULT_PRESENTATION_DELAY_MS = 250;
+    public static final double DEFAULT_SILENCE_THRESHOLD_DB = -70;
+    public static final int DEFAULT_SILENCE_HANGOVER_MS = 500;
+    public static final int MAX_GROWN_BUFFER_MS = 500;
     public static final double DEFAULT_REPORT_INTERVAL_SECS = 0.5;
+    public static final AudioFormat CONFERENCE_FORMAT = new AudioFormat(48000, 16, 1, true, false);
+    public static final int CONFERENCE_PERIOD_MS = 20;
 
     private final AudioStreamModel model;
     private final AudioStreamWindow gui;
     private final AudioStreamTrayIcon trayIcon;
+    private final JmxExporter jmxExporter;
+    private final PrometheusExporter prometheusExporter;
 
     private boolean running = false;
     private RemovableListener dockListener;
 
-    public AudioStream() {
+    /**
+     * @param metricsPort The local port to serve metrics over HTTP from, or null to not serve them.
+     */
+    public AudioStream(Integer metricsPort) {
         if (Taskbar.getTaskbar().isSupported(Taskbar.Feature.ICON_IMAGE)) {
             Taskbar.getTaskbar().setIconImage(AudioStreamIcons.AUDIO_STREAM_DOCK_ICON);
         }
@@ -54,6 +74,8 @@ public class AudioStream {
         this.model = new AudioStreamModel();
         this.gui = new AudioStreamWindow(model);
         this.trayIcon = new AudioStreamTrayIcon(model);
+        this.jmxExporter = new JmxExporter(model.metrics);
+        this.prometheusExporter = (metricsPort != null ? new PrometheusExporter(model.metrics, metricsPort) : null);
 
         MenuItem openItem = new MenuItem("Open Window");
         openItem.addActionListener(e -> gui.show());
@@ -71,6 +93,16 @@ public class AudioStream {
 
         running = true;
 
+        jmxExporter.start();
+        if (prometheusExporter != null) {
+            try {
+                prometheusExporter.open();
+            } catch (IOException exception) {
+                String exceptionString = exception.getClass() + ": " + exception.getMessage();
+                System.err.println("Error serving metrics over HTTP, " + exceptionString);
+            }
+        }
+
         trayIcon.addToSystemTray();
         trayIcon.scheduleThread();
 
@@ -96,5 +128,10 @@ public class AudioStream {
             dockListener.remove();
             dockListener = null;
         }
+
+        jmxExporter.close();
+        if (prometheusExporter != null) {
+            prometheusExporter.close();
+        }
     }
 }
@@ -1,5 +1,12 @@
 package net.sothatsit.audiostream;
 
+import net.sothatsit.audiostream.audio.virtual.FileGenerator;
+import net.sothatsit.audiostream.audio.virtual.VirtualMixerProvider;
+
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+
 /**
  * The entry point to the AudioStream application.
  *
@@ -9,16 +16,54 @@ public class Main {
 
     public static void displayUsage() {
         System.err.println("Usage:");
-        System.err.println("  java -jar AudioStream.jar");
+        System.err.println("  java -jar AudioStream.jar [--metrics-port <port>] [--virtual-audio] [--virtual-input <file>]");
+        System.err.println();
+        System.err.println("Options:");
+        System.err.println("  --metrics-port <port>  Serve metrics in the Prometheus format at http://localhost:<port>/metrics");
+        System.err.println("  --virtual-audio        Add a virtual loopback device, and a virtual input device that captures a tone");
+        System.err.println("  --virtual-input <file> Add a virtual input device that captures the audio in <file> on repeat");
         System.exit(1);
     }
 
     public static void main(String[] args) {
-        if (args.length != 0) {
-            displayUsage();
-            return;
+        Integer metricsPort = null;
+
+        for (int index = 0; index < args.length; ++index) {
+            if ("--metrics-port".equals(args[index]) && index + 1 < args.length) {
+                metricsPort = parsePort(args[++index]);
+                if (metricsPort == null) {
+                    displayUsage();
+                    return;
+                }
+            } else if ("--virtual-audio".equals(args[index])) {
+                VirtualMixerProvider.registerDefaultMixers();
+            } else if ("--virtual-input".equals(args[index]) && index + 1 < args.length) {
+                File file = new File(args[++index]);
+                try {
+                    VirtualMixerProvider.registerFileMixer(new FileGenerator(file));
+                } catch (IOException | UnsupportedAudioFileException exception) {
+                    System.err.println("Unable to read audio from " + file + ", " + exception.getMessage());
+                    System.exit(1);
+                    return;
+                }
+            } else {
+                displayUsage();
+                return;
+            }
         }
 
-        new AudioStream().start();
+        new AudioStream(metricsPort).start();
+    }
+
+    /**
+     * @return {@param portString} converted to an Integer, or null if invalid.
+     */
+    private static Integer parsePort(String portString) {
+        try {
+            int port = Integer.parseInt(portString.trim());
+            return (port > 0 && port <= 0xFFFF ? port : null);
+        } catch (NumberFormatException e) {
+            return null;
+        }
     }
 }
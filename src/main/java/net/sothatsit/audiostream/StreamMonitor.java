@@ -1,82 +1,183 @@
 package net.sothatsit.audiostream;
 
+import net.sothatsit.audiostream.audio.LevelMeter;
+import net.sothatsit.audiostream.audio.SampleCodec;
+import net.sothatsit.audiostream.metrics.Counter;
+import net.sothatsit.audiostream.metrics.Gauge;
+import net.sothatsit.audiostream.metrics.MetricsRegistry;
+
+import javax.sound.sampled.AudioFormat;
+import java.util.function.IntFunction;
+
 /**
  * Monitors the data transferred within a stream.
  *
+ * Updating the monitor counts the data and measures the levels of each of its channels into a
+ * MetricsRegistry, and a {@link Reporter} turns those metrics into a human readable status
+ * whenever it is asked for one.
+ *
  * @author Paddy Lamont
  */
 public class StreamMonitor {
 
-    private final double reportIntervalSecs;
-    private final int bytesPerSample;
-
-    private long lastTime;
-    private int bytesRead;
-    private int zerosRead;
-    private String status;
-
-    public StreamMonitor(double reportIntervalSecs, int bytesPerSample) {
-        this.reportIntervalSecs = reportIntervalSecs;
-        this.bytesPerSample = bytesPerSample;
-        this.lastTime = -1;
-        this.bytesRead = 0;
-        this.zerosRead = 0;
-        this.status = "";
-    }
-
-    private int countZeroSampleBytes(byte[] bytes, int offset, int length) {
-        int zeros = 0;
-
-        for (int sampleStart = 0; sampleStart < length; sampleStart += bytesPerSample) {
-            boolean allZeroes = true;
-            for (int i=0; i < bytesPerSample; ++i) {
-                if (bytes[offset + sampleStart + i] != 0) {
-                    allZeroes = false;
-                }
-            }
-            if (allZeroes) {
-                zeros += bytesPerSample;
-            }
+    public static final String BYTES_METRIC = "stream.bytes";
+    public static final String CHANNELS_METRIC = "stream.channels";
+
+    private final Counter bytes;
+    private final LevelMeter levelMeter;
+    private final Counter[] clippedSamples;
+
+    /**
+     * Monitor a stream of audio in the format {@param format}. The levels of the audio are
+     * only measured if it is in a format supported by {@link SampleCodec}.
+     */
+    public StreamMonitor(MetricsRegistry metrics, AudioFormat format) {
+        this.bytes = metrics.counter(BYTES_METRIC);
+        this.levelMeter = (SampleCodec.isSupported(format) ? new LevelMeter(format) : null);
+
+        int channels = (levelMeter != null ? levelMeter.getChannels() : 0);
+        this.clippedSamples = new Counter[channels];
+        metrics.gauge(CHANNELS_METRIC, () -> channels);
+
+        for (int channel = 0; channel < channels; ++channel) {
+            int gaugeChannel = channel;
+            clippedSamples[channel] = metrics.counter(getClippedMetric(channel));
+            metrics.gauge(getPeakMetric(channel), () -> Math.round(levelMeter.getPeakDBFS(gaugeChannel)));
+            metrics.gauge(getRmsMetric(channel), () -> Math.round(levelMeter.getRmsDBFS(gaugeChannel)));
         }
+    }
 
-        return zeros;
+    /**
+     * @return The name of the gauge holding the peak level of {@param channel} in dBFS.
+     */
+    public static String getPeakMetric(int channel) {
+        return "stream.channel" + channel + ".peak.dbfs";
     }
 
-    private double getSecondsSinceLastStatus() {
-        return (System.nanoTime() - lastTime) * 1e-9d;
+    /**
+     * @return The name of the gauge holding the RMS level of {@param channel} in dBFS.
+     */
+    public static String getRmsMetric(int channel) {
+        return "stream.channel" + channel + ".rms.dbfs";
     }
 
-    private void createNextStatus() {
-        double bytesPerSec = bytesRead / getSecondsSinceLastStatus();
-        double zerosPercent;
-        if (bytesRead > 0) {
-            zerosPercent = 100.0 * (double) zerosRead / (double) bytesRead;
-        } else {
-            zerosPercent = 0;
-        }
+    /**
+     * @return The name of the counter of samples of {@param channel} that were clipped.
+     */
+    public static String getClippedMetric(int channel) {
+        return "stream.channel" + channel + ".clipped.samples";
+    }
 
-        bytesRead = 0;
-        zerosRead = 0;
-        lastTime = System.nanoTime();
+    public void update(byte[] bytes, int offset, int length) {
+        this.bytes.add(length);
+        if (levelMeter == null)
+            return;
 
-        double kbsPerSec = bytesPerSec / 1024.0;
-        kbsPerSec = Math.round(kbsPerSec * 10) / 10.0;
+        levelMeter.update(bytes, offset, length);
+        for (int channel = 0; channel < clippedSamples.length; ++channel) {
+            int clipped = levelMeter.getClippedSamples(channel);
+            if (clipped > 0) {
+                clippedSamples[channel].add(clipped);
+            }
+        }
+    }
 
-        status = kbsPerSec + " KB / sec, " + ((int) zerosPercent) + "% zeros";
+    /**
+     * Count {@param frames} frames of silence that were not sent, so that the levels fall to silence.
+     */
+    public void updateSilence(int frames) {
+        if (levelMeter != null) {
+            levelMeter.updateSilence(frames);
+        }
     }
 
-    public String update(byte[] bytes, int offset, int length) {
-        bytesRead += length;
-        zerosRead += countZeroSampleBytes(bytes, offset, length);
+    /**
+     * Reports the rate of data transferred within a stream since the last report,
+     * along with the levels of each of its channels.
+     *
+     * This class is NOT thread safe and should
+     * always be used from a single thread.
+     */
+    public static class Reporter {
+
+        private final MetricsRegistry metrics;
+        private final Counter bytes;
+
+        private long lastTime;
+        private long lastBytes;
+        private long lastClipped;
+        private String status;
+
+        /**
+         * Report on the data counted into {@param metrics} by a StreamMonitor.
+         */
+        public Reporter(MetricsRegistry metrics) {
+            this.metrics = metrics;
+            this.bytes = metrics.counter(BYTES_METRIC);
+            this.lastTime = System.nanoTime();
+            this.lastBytes = bytes.get();
+            this.lastClipped = countClipped();
+            this.status = "";
+        }
+
+        /**
+         * The gauges are looked up on each report, as they are replaced each time the stream reconnects.
+         */
+        private int getChannels() {
+            Gauge channels = metrics.getGauges().get(CHANNELS_METRIC);
+            return (channels != null ? (int) channels.get() : 0);
+        }
 
-        if (lastTime < 0) {
-            lastTime = System.nanoTime();
+        private long countClipped() {
+            long clipped = 0;
+            for (int channel = 0; channel < getChannels(); ++channel) {
+                clipped += metrics.counter(getClippedMetric(channel)).get();
+            }
+            return clipped;
         }
 
-        if(getSecondsSinceLastStatus() > reportIntervalSecs) {
-            createNextStatus();
+        /**
+         * @return The levels of each channel read from the gauges named by {@param metricName}, separated by slashes.
+         */
+        private String formatLevels(int channels, IntFunction<String> metricName) {
+            StringBuilder builder = new StringBuilder();
+            for (int channel = 0; channel < channels; ++channel) {
+                Gauge gauge = metrics.getGauges().get(metricName.apply(channel));
+                if (channel > 0) {
+                    builder.append(" / ");
+                }
+                builder.append(gauge != null ? gauge.get() : (long) LevelMeter.SILENCE_DBFS);
+            }
+            return builder.toString();
         }
 
-        return status;
+        /**
+         * @return A status describing the data transferred since the last status, if at
+         *         least {@param intervalSecs} seconds have passed, or else the last status.
+         */
+        public String report(double intervalSecs) {
+            long time = System.nanoTime();
+            double seconds = (time - lastTime) * 1e-9d;
+            if (seconds < intervalSecs)
+                return status;
+
+            long bytesRead = bytes.get() - lastBytes;
+            long clipped = countClipped();
+            long clippedSamples = Math.max(0, clipped - lastClipped);
+            lastTime = time;
+            lastBytes += bytesRead;
+            lastClipped = clipped;
+
+            double kbsPerSec = Math.round(bytesRead / seconds / 1024.0 * 10) / 10.0;
+            status = kbsPerSec + " KB / sec";
+
+            int channels = getChannels();
+            if (channels > 0) {
+                status += ", peak " + formatLevels(channels, StreamMonitor::getPeakMetric) + " dB"
+                        + ", RMS " + formatLevels(channels, StreamMonitor::getRmsMetric) + " dB"
+                        + (clippedSamples > 0 ? ", " + clippedSamples + " clipped" : "");
+            }
+            return status;
+        }
     }
 }
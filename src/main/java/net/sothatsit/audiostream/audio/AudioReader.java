@@ -1,5 +1,9 @@
 package net.sothatsit.audiostream.audio;
 
+import net.sothatsit.audiostream.metrics.Counter;
+import net.sothatsit.audiostream.metrics.LatencyTrace;
+import net.sothatsit.audiostream.metrics.MetricsRegistry;
+import net.sothatsit.audiostream.metrics.jfr.CaptureOverrunEvent;
 import net.sothatsit.audiostream.util.LoopedThread;
 import net.sothatsit.audiostream.util.VariableBuffer;
 
@@ -10,51 +14,152 @@ import java.util.List;
 /**
  * A class that reads a stream of audio from the OS.
  *
+ * Also keeps an estimate of the time at which each frame was captured, so that the audio
+ * can be timestamped for synchronized playback. This estimate is smoothed over many reads,
+ * so that it follows the clock of the audio device without picking up the jitter of each read.
+ *
+ * Before each read, the line is checked for having filled up since the last read, in which case
+ * the device has had to throw away some of the audio it captured. The amount lost is estimated from
+ * both the time since the last read and the frame position of the line. Overruns are counted in the
+ * metrics, and if a maximum buffer size is set the line is re-opened with a larger buffer after each.
+ * The audio that is lost, including while the line is re-opened, is replaced with silence, so that the
+ * index of each frame keeps following the clock of the device, and its capture time jumps with the gap.
+ *
  * @author Paddy Lamont
  */
-public class AudioReader {
+public class AudioReader implements AudioSource {
+
+    private static final double CAPTURE_CLOCK_GAIN = 1.0 / 16.0;
+    private static final double BUFFER_GROWTH = 1.5;
 
     private final AudioFormat format;
     private final TargetDataLine line;
     private final byte[] buffer;
+    private final byte[] silence;
 
     private final List<VariableBuffer> outBuffers;
     private final LoopedThread readThread;
+    private final double nanosPerFrame;
+    private final int frameSize;
+
+    private long framesRead;
+    private long linePositionOffset;
+    private long lastReadNanos;
+    private long lastReadAvailableFrames;
+    private volatile int lineBufferBytes;
+    private volatile int maxLineBufferBytes;
+    private volatile long lastOverrunTimeMS;
+    private volatile double captureOffsetNanos = Double.NaN;
+    private volatile LatencyTrace latencyTrace;
+    private volatile Counter capturedBytes;
+    private volatile Counter capturedFrames;
+    private volatile Counter overruns;
+    private volatile Counter lostFrames;
+    private volatile Counter bufferGrowths;
 
     public AudioReader(Mixer.Info mixer,
                        AudioFormat format,
                        int bufferSamples) throws LineUnavailableException {
 
+        this(AudioSystem.getTargetDataLine(format, mixer), format, bufferSamples);
+    }
+
+    /**
+     * Read audio from {@param line}, which is opened when this reader is started.
+     */
+    public AudioReader(TargetDataLine line,
+                       AudioFormat format,
+                       int bufferSamples) {
+
         this.format = format;
-        this.line = AudioSystem.getTargetDataLine(format, mixer);
+        this.line = line;
 
         // The bufferSize must be a multiple of the sample size and the frame size
         int bufferSize = bufferSamples * format.getSampleSizeInBits() / 8;
         bufferSize = (bufferSize / format.getFrameSize()) * format.getFrameSize();
         this.buffer = new byte[bufferSize];
+        this.silence = PlaybackScheduler.createSilence(format, bufferSize / format.getFrameSize());
 
         this.outBuffers = new ArrayList<>();
         this.readThread = new LoopedThread("readThread", this::readAudio);
+        this.nanosPerFrame = 1e9 / format.getFrameRate();
+        this.frameSize = format.getFrameSize();
     }
 
-    public void addOutBuffer(VariableBuffer outBuffer) {
+    @Override
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    @Override
+    public long addOutBuffer(VariableBuffer outBuffer) {
         synchronized (outBuffers) {
             outBuffers.add(outBuffer);
+            return framesRead;
         }
     }
 
+    @Override
     public void removeOutBuffer(VariableBuffer outBuffer) {
         synchronized (outBuffers) {
             outBuffers.remove(outBuffer);
         }
     }
 
+    @Override
+    public long getCaptureTimeNanos(long frameIndex) {
+        double offsetNanos = captureOffsetNanos;
+        if (Double.isNaN(offsetNanos))
+            return System.nanoTime();
+
+        return Math.round(offsetNanos + frameIndex * nanosPerFrame);
+    }
+
+    /**
+     * Record the audio captured, how long it takes to be read from the line, and any overruns, into {@param metrics}.
+     */
+    public void setMetrics(MetricsRegistry metrics) {
+        this.capturedBytes = metrics.counter("capture.bytes");
+        this.capturedFrames = metrics.counter("capture.frames");
+        this.overruns = metrics.counter("capture.overruns");
+        this.lostFrames = metrics.counter("capture.frames.lost");
+        this.bufferGrowths = metrics.counter("capture.buffer.growths");
+        metrics.gauge("capture.buffer.bytes", () -> lineBufferBytes);
+        metrics.gauge("capture.overrun.time.ms", () -> lastOverrunTimeMS);
+        this.latencyTrace = new LatencyTrace(metrics);
+    }
+
+    /**
+     * Grow the buffer of the line each time it overruns, up to {@param maxBufferBytes} bytes.
+     * By default, the buffer of the line is never grown.
+     */
+    public void setMaxBufferBytes(int maxBufferBytes) {
+        this.maxLineBufferBytes = maxBufferBytes;
+    }
+
+    /**
+     * @return The time of the last overrun, in milliseconds since the epoch, or 0 if there have been none.
+     */
+    public long getLastOverrunTimeMS() {
+        return lastOverrunTimeMS;
+    }
+
     public void start() throws LineUnavailableException {
-        line.open(format, buffer.length);
-        line.start();
+        openLine(buffer.length);
         readThread.start();
     }
 
+    private void openLine(int bufferBytes) throws LineUnavailableException {
+        line.open(format, bufferBytes);
+        line.start();
+
+        // Frame positions restart from zero when a line is re-opened, so keep them following on from the last
+        linePositionOffset = framesRead - line.getLongFramePosition();
+        lineBufferBytes = line.getBufferSize();
+        lastReadNanos = System.nanoTime();
+        lastReadAvailableFrames = 0;
+    }
+
     public void stop() {
         readThread.stop();
         line.stop();
@@ -62,6 +167,8 @@ public class AudioReader {
     }
 
     private synchronized void readAudio() {
+        checkOverrun();
+
         int read = line.read(buffer, 0, buffer.length);
         if (read < 0)
             throw new RuntimeException("Invalid audio read, " + read);
@@ -69,10 +176,144 @@ public class AudioReader {
         if (read == 0)
             return;
 
+        long readTimeNanos = System.nanoTime();
+        long capturedFrames = line.getLongFramePosition() + linePositionOffset;
+
+        // The first frame read has waited for every frame captured after it
+        LatencyTrace latencyTrace = this.latencyTrace;
+        if (latencyTrace != null) {
+            long waitingFrames = capturedFrames - framesRead;
+            latencyTrace.record(LatencyTrace.Stage.CAPTURE, Math.round(waitingFrames * nanosPerFrame));
+            this.capturedBytes.add(read);
+            this.capturedFrames.add(read / format.getFrameSize());
+        }
+
+        push(buffer, read);
+        updateCaptureClock(readTimeNanos, Math.max(framesRead, capturedFrames));
+
+        lastReadNanos = System.nanoTime();
+        lastReadAvailableFrames = line.available() / frameSize;
+    }
+
+    /**
+     * Push the first {@param length} bytes of {@param bytes} to the out buffers, as the next frames captured.
+     */
+    private void push(byte[] bytes, int length) {
         synchronized (outBuffers) {
             for (VariableBuffer outBuffer : outBuffers) {
-                outBuffer.push(buffer, 0, read);
+                outBuffer.push(bytes, 0, length);
             }
+
+            framesRead += length / frameSize;
+        }
+    }
+
+    /**
+     * Push {@param frames} frames of silence in place of audio that was lost, so that the frame
+     * indices of the audio captured after it still match the position of the device.
+     */
+    private void pushSilence(long frames) {
+        int silenceFrames = silence.length / frameSize;
+        while (frames > 0) {
+            int pushFrames = (int) Math.min(frames, silenceFrames);
+            push(silence, pushFrames * frameSize);
+            frames -= pushFrames;
+        }
+    }
+
+    /**
+     * Check whether the line filled up since it was last read, so that the device had to throw audio away.
+     */
+    private void checkOverrun() {
+        int lineBufferBytes = this.lineBufferBytes;
+        if (line.available() < lineBufferBytes)
+            return;
+
+        // Estimate the audio lost from both how long it has been since the last read, and how
+        // far the device has moved on past the audio that we have read or can still read
+        long lineBufferFrames = lineBufferBytes / frameSize;
+        long elapsedFrames = Math.round((System.nanoTime() - lastReadNanos) / nanosPerFrame);
+        long lostByTime = lastReadAvailableFrames + elapsedFrames - lineBufferFrames;
+        long lostByPosition = (line.getLongFramePosition() + linePositionOffset) - (framesRead + lineBufferFrames);
+        long lost = Math.max(0, Math.max(lostByTime, lostByPosition));
+
+        lastOverrunTimeMS = System.currentTimeMillis();
+        CaptureOverrunEvent.emit(null, format.toString(), lost);
+        if (overruns != null) {
+            overruns.increment();
+            lostFrames.add(lost);
+        }
+
+        // The audio in the line was captured before the audio that was lost
+        drainLine();
+        pushSilence(lost);
+
+        if (lineBufferBytes < maxLineBufferBytes) {
+            growLine(lineBufferBytes);
+        }
+    }
+
+    /**
+     * Read all of the audio that is available in the line, without blocking.
+     */
+    private void drainLine() {
+        int available;
+        while ((available = Math.min(line.available(), buffer.length)) >= frameSize) {
+            int read = line.read(buffer, 0, available - available % frameSize);
+            if (read <= 0)
+                return;
+
+            push(buffer, read);
+            if (capturedBytes != null) {
+                capturedBytes.add(read);
+                capturedFrames.add(read / frameSize);
+            }
+        }
+    }
+
+    /**
+     * Re-open the line with a buffer larger than {@param lineBufferBytes}, to make it less likely to overrun again.
+     */
+    private void growLine(int lineBufferBytes) {
+        int grownBytes = (int) Math.min(maxLineBufferBytes, lineBufferBytes * BUFFER_GROWTH);
+        grownBytes -= grownBytes % frameSize;
+
+        long stopNanos = System.nanoTime();
+        line.stop();
+
+        // The audio still in the line would be thrown away when it is closed
+        drainLine();
+        line.close();
+        try {
+            openLine(grownBytes);
+        } catch (LineUnavailableException exception) {
+            throw new RuntimeException("Unable to re-open the line with a larger buffer", exception);
+        }
+
+        // Nothing was captured from when the line was stopped until it was started again
+        long gapFrames = Math.round((lastReadNanos - stopNanos) / nanosPerFrame);
+        pushSilence(gapFrames);
+        linePositionOffset += gapFrames;
+
+        if (bufferGrowths != null) {
+            bufferGrowths.increment();
+            lostFrames.add(gapFrames);
+        }
+    }
+
+    /**
+     * Update the estimate of capture times given that {@param capturedFrames} frames had been
+     * captured by the audio device at {@param timeNanos}.
+     */
+    private void updateCaptureClock(long timeNanos, long capturedFrames) {
+        // The time at which the frame with index zero would have been captured
+        double measuredOffsetNanos = timeNanos - capturedFrames * nanosPerFrame;
+
+        double offsetNanos = captureOffsetNanos;
+        if (Double.isNaN(offsetNanos)) {
+            captureOffsetNanos = measuredOffsetNanos;
+        } else {
+            captureOffsetNanos = offsetNanos + CAPTURE_CLOCK_GAIN * (measuredOffsetNanos - offsetNanos);
         }
     }
 }
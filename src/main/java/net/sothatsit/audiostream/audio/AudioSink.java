@@ -0,0 +1,23 @@
+package net.sothatsit.audiostream.audio;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Something that audio can be written to, to be played.
+ *
+ * @author Paddy Lamont
+ */
+public interface AudioSink {
+
+    /**
+     * @return The format of the audio that is written to this sink.
+     */
+    public AudioFormat getFormat();
+
+    /**
+     * @return The number of frames that have been written but have not yet been played.
+     */
+    public long getQueuedFrames();
+
+    public void write(byte[] bytes, int offset, int length);
+}
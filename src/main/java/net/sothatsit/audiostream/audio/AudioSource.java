@@ -0,0 +1,32 @@
+package net.sothatsit.audiostream.audio;
+
+import net.sothatsit.audiostream.util.VariableBuffer;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Something that produces a stream of audio.
+ *
+ * @author Paddy Lamont
+ */
+public interface AudioSource {
+
+    /**
+     * @return The format of the audio that this source produces.
+     */
+    public AudioFormat getFormat();
+
+    /**
+     * Start pushing the audio that is produced to {@param outBuffer}.
+     *
+     * @return The index of the first frame that will be pushed to {@param outBuffer}.
+     */
+    public long addOutBuffer(VariableBuffer outBuffer);
+
+    public void removeOutBuffer(VariableBuffer outBuffer);
+
+    /**
+     * @return The estimated System.nanoTime() at which the frame {@param frameIndex} was captured.
+     */
+    public long getCaptureTimeNanos(long frameIndex);
+}
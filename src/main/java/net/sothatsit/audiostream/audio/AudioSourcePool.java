@@ -0,0 +1,96 @@
+package net.sothatsit.audiostream.audio;
+
+import javax.sound.sampled.AudioFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shares the audio from one AudioSource in many formats, converting it at
+ * most once for each distinct format and source channel that is in use.
+ *
+ * @author Paddy Lamont
+ */
+public class AudioSourcePool {
+
+    private final AudioSource source;
+    private final List<ConvertedAudioSource> converted;
+    private final Map<ConvertedAudioSource, Integer> users;
+
+    public AudioSourcePool(AudioSource source) {
+        this.source = source;
+        this.converted = new ArrayList<>();
+        this.users = new HashMap<>();
+    }
+
+    /**
+     * Get a source of the audio in the format {@param format}, starting a new conversion if required.
+     * Every call to this method should be matched with a call to {@link #release(AudioSource)}.
+     */
+    public synchronized AudioSource acquire(AudioFormat format) {
+        return acquire(format, -1);
+    }
+
+    /**
+     * Get a source of the audio in the format {@param format}, starting a new conversion if required.
+     * Every call to this method should be matched with a call to {@link #release(AudioSource)}.
+     *
+     * @param sourceChannel The channel of the audio to use on its own, or -1 to map all of its channels.
+     */
+    public synchronized AudioSource acquire(AudioFormat format, int sourceChannel) {
+        if (sourceChannel < 0 && isSameFormat(format, source.getFormat()))
+            return source;
+
+        ConvertedAudioSource convertedSource = null;
+        for (ConvertedAudioSource candidate : converted) {
+            if (isSameFormat(format, candidate.getFormat()) && sourceChannel == candidate.getSourceChannel()) {
+                convertedSource = candidate;
+                break;
+            }
+        }
+
+        if (convertedSource == null) {
+            convertedSource = new ConvertedAudioSource(source, format, sourceChannel);
+            convertedSource.start();
+            converted.add(convertedSource);
+        }
+
+        users.merge(convertedSource, 1, Integer::sum);
+        return convertedSource;
+    }
+
+    /**
+     * Stop using {@param audioSource}, stopping its conversion if nothing else is using it.
+     */
+    public synchronized void release(AudioSource audioSource) {
+        if (audioSource == source)
+            return;
+
+        Integer count = users.get(audioSource);
+        if (count == null)
+            throw new IllegalArgumentException("audioSource is not a part of this pool");
+
+        if (count > 1) {
+            users.put((ConvertedAudioSource) audioSource, count - 1);
+            return;
+        }
+
+        users.remove(audioSource);
+        converted.remove(audioSource);
+        ((ConvertedAudioSource) audioSource).stop();
+    }
+
+    /**
+     * Stop all conversions.
+     */
+    public synchronized void stop() {
+        converted.forEach(ConvertedAudioSource::stop);
+        converted.clear();
+        users.clear();
+    }
+
+    private static boolean isSameFormat(AudioFormat a, AudioFormat b) {
+        return a.matches(b) && b.matches(a);
+    }
+}
@@ -30,7 +30,7 @@ public enum AudioType {
         @Override
         public Line.Info[] findAvailableLines(Mixer mixer, AudioFormat format) {
             DataLine.Info target = new DataLine.Info(SourceDataLine.class, format);
-            return mixer.getTargetLineInfo(target);
+            return mixer.getSourceLineInfo(target);
         }
     };
 
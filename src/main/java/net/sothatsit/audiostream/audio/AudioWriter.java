@@ -1,29 +1,70 @@
 package net.sothatsit.audiostream.audio;
 
+import net.sothatsit.audiostream.metrics.Counter;
+import net.sothatsit.audiostream.metrics.MetricsRegistry;
+import net.sothatsit.audiostream.metrics.jfr.BufferUnderrunEvent;
+
 import javax.sound.sampled.*;
 
 /**
  * A class that allows the writing of audio to the OS.
  *
+ * Before each write, the line is checked for having played everything written to it, in which case
+ * there was a gap in the audio. The length of the gap is estimated from how long it has been since
+ * the last write. Underruns are counted in the metrics, and if a maximum buffer size is set the line
+ * is re-opened with a larger buffer after each, which loses nothing as the line is already empty.
+ *
  * @author Paddy Lamont
  */
-public class AudioWriter {
+public class AudioWriter implements AudioSink {
+
+    private static final double BUFFER_GROWTH = 1.5;
 
     private final AudioFormat format;
     private final SourceDataLine line;
     private final int bufferBytes;
+    private final int frameSize;
+    private final double nanosPerFrame;
 
     private final byte[] delayBuffer;
     private int delayBufferFilled;
+    private long bytesWritten;
+    private long lastWriteNanos;
+    private long lastWriteQueuedFrames;
+    private volatile long linePositionOffset;
+    private volatile int lineBufferBytes;
+    private volatile int maxLineBufferBytes;
+    private volatile long lastUnderrunTimeMS;
+
+    private String connectionId;
+    private String streamId;
+    private volatile Counter underruns;
+    private volatile Counter missedFrames;
+    private volatile Counter bufferGrowths;
 
     public AudioWriter(Mixer.Info mixer,
                        AudioFormat format,
                        int bufferDelayBytes,
                        int bufferBytes) throws LineUnavailableException {
 
+        this(AudioSystem.getSourceDataLine(format, mixer), format, bufferDelayBytes, bufferBytes);
+        this.streamId = (mixer != null ? mixer.getName() : "default");
+    }
+
+    /**
+     * Write audio to {@param line}, which is opened when this writer is started.
+     */
+    public AudioWriter(SourceDataLine line,
+                       AudioFormat format,
+                       int bufferDelayBytes,
+                       int bufferBytes) {
+
         this.format = format;
-        this.line =  AudioSystem.getSourceDataLine(format, mixer);
+        this.line = line;
+        this.frameSize = format.getFrameSize();
+        this.nanosPerFrame = 1e9 / format.getFrameRate();
         this.delayBuffer = new byte[bufferDelayBytes];
+        this.streamId = "line";
 
         // The buffer size must be a multiple of the sample size and the frame size
         this.bufferBytes = roundToMultipleOfAll(
@@ -31,9 +72,52 @@ public class AudioWriter {
         );
     }
 
+    /**
+     * Set the identifiers of the connection and stream of audio that this writer plays,
+     * which are used to identify it in diagnostics. By default, it is identified by its mixer.
+     */
+    public void setStreamIds(String connectionId, String streamId) {
+        this.connectionId = connectionId;
+        this.streamId = streamId;
+    }
+
+    /**
+     * Record any underruns of the line into {@param metrics}.
+     */
+    public void setMetrics(MetricsRegistry metrics) {
+        this.underruns = metrics.counter("playback.underruns");
+        this.missedFrames = metrics.counter("playback.frames.missed");
+        this.bufferGrowths = metrics.counter("playback.buffer.growths");
+        metrics.gauge("playback.buffer.bytes", () -> lineBufferBytes);
+        metrics.gauge("playback.underrun.time.ms", () -> lastUnderrunTimeMS);
+    }
+
+    /**
+     * Grow the buffer of the line each time it underruns, up to {@param maxBufferBytes} bytes.
+     * By default, the buffer of the line is never grown.
+     */
+    public void setMaxBufferBytes(int maxBufferBytes) {
+        this.maxLineBufferBytes = maxBufferBytes;
+    }
+
+    /**
+     * @return The time of the last underrun, in milliseconds since the epoch, or 0 if there have been none.
+     */
+    public long getLastUnderrunTimeMS() {
+        return lastUnderrunTimeMS;
+    }
+
     public void start() throws LineUnavailableException {
+        openLine(bufferBytes);
+    }
+
+    private void openLine(int bufferBytes) throws LineUnavailableException {
         line.open(format, bufferBytes);
         line.start();
+
+        // Frame positions restart from zero when a line is re-opened, so keep them following on from the last
+        linePositionOffset = bytesWritten / frameSize - line.getLongFramePosition();
+        lineBufferBytes = line.getBufferSize();
     }
 
     public void stop() {
@@ -41,11 +125,28 @@ public class AudioWriter {
         line.close();
     }
 
+    @Override
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * @return The number of frames that have been written but have not yet been played.
+     */
+    @Override
+    public long getQueuedFrames() {
+        long writtenFrames = (bytesWritten + delayBufferFilled) / frameSize;
+        return Math.max(0, writtenFrames - (line.getLongFramePosition() + linePositionOffset));
+    }
+
     public void write(byte[] bytes) {
         write(bytes, 0, bytes.length);
     }
 
+    @Override
     public void write(byte[] bytes, int offset, int length) {
+        checkUnderrun();
+
         // Try write the audio to the audio output.
         int newDelayBufferFilled = delayBufferFilled + length;
         if (newDelayBufferFilled > delayBuffer.length) {
@@ -56,14 +157,14 @@ public class AudioWriter {
 
             // Write from the delay buffer.
             if (bytesToWriteFromDelayBuffer > 0) {
-                line.write(delayBuffer, 0, bytesToWriteFromDelayBuffer);
+                bytesWritten += line.write(delayBuffer, 0, bytesToWriteFromDelayBuffer);
                 delayBufferFilled -= bytesToWriteFromDelayBuffer;
                 System.arraycopy(delayBuffer, bytesToWriteFromDelayBuffer, delayBuffer, 0, delayBufferFilled);
             }
 
             // Write from bytes.
             if (bytesToWriteFromBytes > 0) {
-                line.write(bytes, offset, bytesToWriteFromBytes);
+                bytesWritten += line.write(bytes, offset, bytesToWriteFromBytes);
                 offset += bytesToWriteFromBytes;
                 length -= bytesToWriteFromBytes;
             }
@@ -72,6 +173,63 @@ public class AudioWriter {
         // Write the remaining bytes to the delay buffer.
         System.arraycopy(bytes, offset, delayBuffer, delayBufferFilled, length);
         delayBufferFilled += length;
+
+        lastWriteNanos = System.nanoTime();
+        lastWriteQueuedFrames = getLineQueuedFrames();
+    }
+
+    /**
+     * @return The number of frames that have been written to the line but have not yet been played.
+     */
+    private long getLineQueuedFrames() {
+        return Math.max(0, bytesWritten / frameSize - (line.getLongFramePosition() + linePositionOffset));
+    }
+
+    /**
+     * Check whether the line played everything written to it before this write, leaving a gap in the audio.
+     */
+    private void checkUnderrun() {
+        if (bytesWritten == 0)
+            return;
+
+        int lineBufferBytes = this.lineBufferBytes;
+        if (getLineQueuedFrames() > 0 && line.available() < lineBufferBytes)
+            return;
+
+        // Estimate the length of the gap from how long it has been since the line last had audio queued
+        long elapsedFrames = Math.round((System.nanoTime() - lastWriteNanos) / nanosPerFrame);
+        long missingFrames = Math.max(0, elapsedFrames - lastWriteQueuedFrames);
+
+        lastUnderrunTimeMS = System.currentTimeMillis();
+        BufferUnderrunEvent.emit(connectionId, streamId, "line", missingFrames);
+        if (underruns != null) {
+            underruns.increment();
+            missedFrames.add(missingFrames);
+        }
+
+        if (lineBufferBytes < maxLineBufferBytes) {
+            growLine(lineBufferBytes);
+        }
+    }
+
+    /**
+     * Re-open the line with a buffer larger than {@param lineBufferBytes}, to make it less likely to underrun again.
+     */
+    private void growLine(int lineBufferBytes) {
+        int grownBytes = (int) Math.min(maxLineBufferBytes, lineBufferBytes * BUFFER_GROWTH);
+        grownBytes -= grownBytes % frameSize;
+
+        line.stop();
+        line.close();
+        try {
+            openLine(grownBytes);
+        } catch (LineUnavailableException exception) {
+            throw new RuntimeException("Unable to re-open the line with a larger buffer", exception);
+        }
+
+        if (bufferGrowths != null) {
+            bufferGrowths.increment();
+        }
     }
 
     private static int roundToMultipleOfAll(int number, int... factors) {
@@ -0,0 +1,78 @@
+package net.sothatsit.audiostream.audio;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Generates quiet background noise to play in place of audio that was not sent because it was silent.
+ *
+ * Playing nothing at all during silences makes the audio sound like it has cut out, especially when
+ * the background noise of the source is audible, so noise at the level of the source is played instead.
+ *
+ * This class is NOT thread safe and should
+ * always be used from a single thread.
+ *
+ * @author Paddy Lamont
+ */
+public class ComfortNoise {
+
+    /**
+     * Noise is never made louder than this, in case a loud source was mistaken for silence.
+     */
+    private static final float MAX_LEVEL = 0.01f;
+
+    /**
+     * The standard deviation of the sum of two uniform values in [-1, 1).
+     */
+    private static final float NOISE_RMS = (float) Math.sqrt(2.0 / 3.0);
+
+    private final SampleCodec codec;
+    private final int frameSize;
+    private final int channels;
+
+    private float[] samples;
+    private byte[] bytes;
+    private int state;
+
+    public ComfortNoise(AudioFormat format) {
+        this.codec = new SampleCodec(format);
+        this.frameSize = format.getFrameSize();
+        this.channels = format.getChannels();
+        this.samples = new float[0];
+        this.bytes = new byte[0];
+        this.state = 0x6A09E667;
+    }
+
+    /**
+     * Generate {@param frames} frames of noise with the RMS level {@param level}.
+     *
+     * @return A buffer containing the noise in its first {@param frames} frames,
+     *         which is reused and overwritten by the next call to this method.
+     */
+    public byte[] generate(int frames, float level) {
+        int sampleCount = frames * channels;
+        if (samples.length < sampleCount) {
+            samples = new float[sampleCount];
+            bytes = new byte[frames * frameSize];
+        }
+
+        float scale = Math.min(level, MAX_LEVEL) / NOISE_RMS;
+        for (int index = 0; index < sampleCount; ++index) {
+            samples[index] = (nextUniform() + nextUniform()) * scale;
+        }
+
+        codec.encode(samples, 0, bytes, 0, sampleCount);
+        return bytes;
+    }
+
+    /**
+     * @return A pseudo-random value in [-1, 1), using a xorshift generator so that no objects are allocated.
+     */
+    private float nextUniform() {
+        int x = state;
+        x ^= x << 13;
+        x ^= x >>> 17;
+        x ^= x << 5;
+        state = x;
+        return x * (1.0f / 2147483648f);
+    }
+}
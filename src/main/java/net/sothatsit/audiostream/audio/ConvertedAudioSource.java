@@ -0,0 +1,154 @@
+package net.sothatsit.audiostream.audio;
+
+import net.sothatsit.audiostream.util.LoopedThread;
+import net.sothatsit.audiostream.util.VariableBuffer;
+
+import javax.sound.sampled.AudioFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Converts the audio from another AudioSource to a different format.
+ *
+ * The conversion is done once, on this source's own thread, no matter how
+ * many buffers the converted audio is pushed to. When the sample size is
+ * reduced the audio is dithered, so that quiet passages do not distort.
+ *
+ * @author Paddy Lamont
+ */
+public class ConvertedAudioSource implements AudioSource {
+
+    private static final int PERIOD_MS = 10;
+    private static final long POP_WAIT_MS = 100;
+
+    private final AudioSource source;
+    private final AudioFormat format;
+    private final int sourceChannel;
+    private final FormatConverter converter;
+    private final Dither dither;
+    private final SampleCodec codec;
+    private final double sourceFramesPerFrame;
+
+    private final byte[] inBytes;
+    private final float[] converted;
+    private final byte[] outBytes;
+    private final VariableBuffer inBuffer;
+
+    private final List<VariableBuffer> outBuffers;
+    private final LoopedThread thread;
+
+    private long sourceStartFrame;
+    private long framesConverted;
+
+    /**
+     * @param sourceChannel The channel of {@param source} to use on its own, or -1 to map all of its channels.
+     */
+    public ConvertedAudioSource(AudioSource source, AudioFormat format, int sourceChannel) {
+        AudioFormat sourceFormat = source.getFormat();
+
+        this.source = source;
+        this.format = format;
+        this.sourceChannel = sourceChannel;
+        this.converter = new FormatConverter(
+                sourceFormat, format.getSampleRate(), format.getChannels(), sourceChannel
+        );
+        this.dither = (needsDither(sourceFormat, format) ? new Dither(format.getSampleSizeInBits()) : null);
+        this.codec = new SampleCodec(format);
+        this.sourceFramesPerFrame = sourceFormat.getFrameRate() / format.getFrameRate();
+
+        int periodFrames = Math.max(1, (int) (sourceFormat.getFrameRate() * PERIOD_MS / 1000));
+        this.inBytes = new byte[periodFrames * sourceFormat.getFrameSize()];
+        int maxFrames = converter.getMaxOutputFrames(inBytes.length);
+        this.converted = new float[maxFrames * format.getChannels()];
+        this.outBytes = new byte[maxFrames * format.getFrameSize()];
+        this.inBuffer = new VariableBuffer(8 * inBytes.length);
+
+        this.outBuffers = new ArrayList<>();
+        this.thread = new LoopedThread("convertThread(" + format + ")", this::convertNext);
+    }
+
+    @Override
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    public int getSourceChannel() {
+        return sourceChannel;
+    }
+
+    public void start() {
+        sourceStartFrame = source.addOutBuffer(inBuffer);
+        thread.start();
+    }
+
+    public void stop() {
+        source.removeOutBuffer(inBuffer);
+        thread.stop();
+    }
+
+    @Override
+    public long addOutBuffer(VariableBuffer outBuffer) {
+        synchronized (outBuffers) {
+            outBuffers.add(outBuffer);
+            return framesConverted;
+        }
+    }
+
+    @Override
+    public void removeOutBuffer(VariableBuffer outBuffer) {
+        synchronized (outBuffers) {
+            outBuffers.remove(outBuffer);
+        }
+    }
+
+    @Override
+    public long getCaptureTimeNanos(long frameIndex) {
+        double sourceFrame = sourceStartFrame + frameIndex * sourceFramesPerFrame - converter.getDelayFrames();
+        return source.getCaptureTimeNanos(Math.round(sourceFrame));
+    }
+
+    private void convertNext() {
+        // Wake up periodically so that we notice when we are stopped
+        if (!inBuffer.pop(inBytes, 0, inBytes.length, POP_WAIT_MS, TimeUnit.MILLISECONDS))
+            return;
+
+        int frames = converter.convert(inBytes, 0, inBytes.length, converted, 0);
+        if (frames == 0)
+            return;
+
+        int samples = frames * format.getChannels();
+        if (dither != null) {
+            dither.apply(converted, 0, samples);
+        }
+        codec.encode(converted, 0, outBytes, 0, samples);
+
+        synchronized (outBuffers) {
+            int length = frames * format.getFrameSize();
+            for (VariableBuffer outBuffer : outBuffers) {
+                outBuffer.push(outBytes, 0, length);
+            }
+
+            framesConverted += frames;
+        }
+    }
+
+    /**
+     * @return Whether converting from {@param from} to {@param to} reduces the precision of integer samples.
+     */
+    private static boolean needsDither(AudioFormat from, AudioFormat to) {
+        AudioFormat.Encoding encoding = to.getEncoding();
+        if (!AudioFormat.Encoding.PCM_SIGNED.equals(encoding) && !AudioFormat.Encoding.PCM_UNSIGNED.equals(encoding))
+            return false;
+
+        // Floating point and companded audio has more precision than its sample size suggests
+        int fromBits = from.getSampleSizeInBits();
+        if (AudioFormat.Encoding.PCM_FLOAT.equals(from.getEncoding())) {
+            fromBits = 24;
+        } else if (AudioFormat.Encoding.ULAW.equals(from.getEncoding())
+                || AudioFormat.Encoding.ALAW.equals(from.getEncoding())) {
+            fromBits = 14;
+        }
+        return to.getSampleSizeInBits() < fromBits;
+    }
+}
@@ -0,0 +1,50 @@
+package net.sothatsit.audiostream.audio;
+
+/**
+ * Adds triangular (TPDF) dither to audio before its sample size is reduced.
+ *
+ * Without dither, reducing the sample size turns quiet audio into distortion that follows the
+ * signal. Adding noise of up to one step of the reduced sample size either side of each sample
+ * turns that distortion into a constant, much less noticeable, hiss.
+ *
+ * This class is NOT thread safe and should
+ * always be used from a single thread.
+ *
+ * @author Paddy Lamont
+ */
+public class Dither {
+
+    private final float stepSize;
+    private int state;
+
+    /**
+     * @param sampleSizeInBits The sample size that the audio is being reduced to.
+     */
+    public Dither(int sampleSizeInBits) {
+        this.stepSize = 1.0f / (1L << (sampleSizeInBits - 1));
+        this.state = 0x2545F491;
+    }
+
+    /**
+     * Add dither to {@param count} samples from {@param samples} starting at {@param offset}.
+     */
+    public void apply(float[] samples, int offset, int count) {
+        for (int index = 0; index < count; ++index) {
+            // The sum of two uniform random values in [0, 1) has a triangular distribution over [0, 2)
+            float noise = nextUniform() + nextUniform() - 1.0f;
+            samples[offset + index] += noise * stepSize;
+        }
+    }
+
+    /**
+     * @return A pseudo-random value in [0, 1), using a xorshift generator so that no objects are allocated.
+     */
+    private float nextUniform() {
+        int x = state;
+        x ^= x << 13;
+        x ^= x >>> 17;
+        x ^= x << 5;
+        state = x;
+        return (x >>> 8) * (1.0f / (1 << 24));
+    }
+}
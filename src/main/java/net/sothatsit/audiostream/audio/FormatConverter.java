@@ -0,0 +1,154 @@
+package net.sothatsit.audiostream.audio;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Converts audio in any format supported by SampleCodec into interleaved floating
+ * point samples with a given sample rate and number of channels.
+ *
+ * The audio is decoded, then its channels are mapped, and then it is resampled if required.
+ * Buffers are reused between conversions, so once they have grown to fit the largest chunk
+ * of audio converted no allocation is done.
+ *
+ * This class is NOT thread safe and should
+ * always be used from a single thread.
+ *
+ * @author Paddy Lamont
+ */
+public class FormatConverter {
+
+    private final AudioFormat inputFormat;
+    private final SampleCodec codec;
+    private final int inputChannels;
+    private final int inputFrameSize;
+    private final int outputChannels;
+    private final int sourceChannel;
+    private final Resampler resampler;
+
+    private float[] decoded;
+    private float[] mapped;
+
+    /**
+     * @param inputFormat The format of the audio to convert.
+     * @param outputSampleRate The sample rate to convert the audio to.
+     * @param outputChannels The number of channels to convert the audio to.
+     */
+    public FormatConverter(AudioFormat inputFormat, float outputSampleRate, int outputChannels) {
+        this(inputFormat, outputSampleRate, outputChannels, -1);
+    }
+
+    /**
+     * @param sourceChannel The channel of the input to copy to every output channel,
+     *                      or -1 to map all of the input channels to the output.
+     */
+    public FormatConverter(AudioFormat inputFormat, float outputSampleRate, int outputChannels, int sourceChannel) {
+        if (sourceChannel >= inputFormat.getChannels())
+            throw new IllegalArgumentException("The input does not have the channel " + sourceChannel);
+
+        this.inputFormat = inputFormat;
+        this.codec = new SampleCodec(inputFormat);
+        this.inputChannels = inputFormat.getChannels();
+        this.inputFrameSize = inputFormat.getFrameSize();
+        this.outputChannels = outputChannels;
+        this.sourceChannel = sourceChannel;
+
+        boolean resample = (Math.round(inputFormat.getSampleRate()) != Math.round(outputSampleRate));
+        this.resampler = (resample ? new Resampler(inputFormat.getSampleRate(), outputSampleRate, outputChannels) : null);
+
+        this.decoded = new float[0];
+        this.mapped = new float[0];
+    }
+
+    public AudioFormat getInputFormat() {
+        return inputFormat;
+    }
+
+    /**
+     * @return The number of input frames that converted audio is delayed by.
+     */
+    public int getDelayFrames() {
+        return (resampler != null ? resampler.getDelayFrames() : 0);
+    }
+
+    /**
+     * @return The largest number of frames that converting {@param inputBytes} bytes could produce.
+     */
+    public int getMaxOutputFrames(int inputBytes) {
+        int inputFrames = inputBytes / inputFrameSize;
+        return (resampler != null ? resampler.getMaxOutputFrames(inputFrames) : inputFrames);
+    }
+
+    /**
+     * Convert {@param length} bytes of audio from {@param in} starting at {@param inOffset},
+     * and write the converted samples to {@param out} starting at sample {@param outOffset}.
+     *
+     * @return The number of frames written to {@param out}.
+     */
+    public int convert(byte[] in, int inOffset, int length, float[] out, int outOffset) {
+        int frames = length / inputFrameSize;
+        if (frames == 0)
+            return 0;
+
+        int inputSamples = frames * inputChannels;
+        if (decoded.length < inputSamples) {
+            decoded = new float[inputSamples];
+        }
+        codec.decode(in, inOffset, decoded, 0, inputSamples);
+
+        if (resampler == null) {
+            mapChannels(decoded, frames, out, outOffset);
+            return frames;
+        }
+
+        int mappedSamples = frames * outputChannels;
+        if (mapped.length < mappedSamples) {
+            mapped = new float[mappedSamples];
+        }
+        mapChannels(decoded, frames, mapped, 0);
+
+        return resampler.process(mapped, 0, frames, out, outOffset);
+    }
+
+    /**
+     * Map the channels of {@param frames} frames from {@param in} into {@param out} starting at sample {@param outOffset}.
+     *
+     * If a source channel was chosen, it is copied to every output channel. Otherwise,
+     * audio is downmixed to mono by averaging all of its channels, or extra input
+     * channels are dropped and missing ones copy the last input channel.
+     */
+    private void mapChannels(float[] in, int frames, float[] out, int outOffset) {
+        if (sourceChannel >= 0) {
+            for (int frame = 0; frame < frames; ++frame) {
+                float sample = in[frame * inputChannels + sourceChannel];
+                for (int channel = 0; channel < outputChannels; ++channel) {
+                    out[outOffset + frame * outputChannels + channel] = sample;
+                }
+            }
+            return;
+        }
+
+        if (inputChannels == outputChannels) {
+            System.arraycopy(in, 0, out, outOffset, frames * inputChannels);
+            return;
+        }
+
+        if (outputChannels == 1) {
+            float scale = 1.0f / inputChannels;
+            for (int frame = 0; frame < frames; ++frame) {
+                float sum = 0;
+                for (int channel = 0; channel < inputChannels; ++channel) {
+                    sum += in[frame * inputChannels + channel];
+                }
+                out[outOffset + frame] = sum * scale;
+            }
+            return;
+        }
+
+        for (int frame = 0; frame < frames; ++frame) {
+            for (int channel = 0; channel < outputChannels; ++channel) {
+                int inputChannel = Math.min(channel, inputChannels - 1);
+                out[outOffset + frame * outputChannels + channel] = in[frame * inputChannels + inputChannel];
+            }
+        }
+    }
+}
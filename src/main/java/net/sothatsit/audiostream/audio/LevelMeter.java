@@ -0,0 +1,209 @@
+package net.sothatsit.audiostream.audio;
+
+import javax.sound.sampled.AudioFormat;
+import java.util.Arrays;
+
+/**
+ * Measures the peak and RMS levels of each channel of a stream of audio, and counts its clipped samples.
+ *
+ * Audio is decoded once per chunk and each channel is copied into its own contiguous buffer, so
+ * that the peak, sum of squares and clip count are each a simple loop over a primitive array that
+ * the JIT can unroll and vectorize. The levels are decimated into windows of {@link #WINDOW_MS}
+ * milliseconds, and the levels of the last complete window may be read from any thread.
+ *
+ * Updating the meter is NOT thread safe, and should
+ * always be done from a single thread.
+ *
+ * @author Paddy Lamont
+ */
+public class LevelMeter {
+
+    public static final int WINDOW_MS = 100;
+
+    /**
+     * The level reported for channels that are completely silent.
+     */
+    public static final float SILENCE_DBFS = -120;
+
+    /**
+     * Samples at or above this magnitude are counted as clipped, which allows for the
+     * largest positive value of integer formats being just below full scale.
+     */
+    private static final float CLIP_LEVEL = 0.999f;
+
+    private final SampleCodec codec;
+    private final int channels;
+    private final int frameSize;
+    private final long windowFrames;
+
+    private float[] samples;
+    private float[] channelSamples;
+    private final int[] clippedSamples;
+
+    private final float[] windowPeaks;
+    private final double[] windowSumSquares;
+    private long windowFramesCounted;
+
+    private final float[] peakDBFS;
+    private final float[] rmsDBFS;
+    private volatile long windowsCompleted;
+
+    public LevelMeter(AudioFormat format) {
+        this.codec = new SampleCodec(format);
+        this.channels = format.getChannels();
+        this.frameSize = format.getFrameSize();
+        this.windowFrames = Math.max(1, (long) (format.getFrameRate() * WINDOW_MS / 1000));
+
+        this.samples = new float[0];
+        this.channelSamples = new float[0];
+
+        this.windowPeaks = new float[channels];
+        this.windowSumSquares = new double[channels];
+        this.peakDBFS = new float[channels];
+        this.rmsDBFS = new float[channels];
+        this.clippedSamples = new int[channels];
+        Arrays.fill(peakDBFS, SILENCE_DBFS);
+        Arrays.fill(rmsDBFS, SILENCE_DBFS);
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    /**
+     * @return The peak level of {@param channel} in the last complete window, in dBFS.
+     */
+    public float getPeakDBFS(int channel) {
+        // Reading the volatile count makes the levels written before it visible
+        if (windowsCompleted == 0)
+            return SILENCE_DBFS;
+
+        return peakDBFS[channel];
+    }
+
+    /**
+     * @return The RMS level of {@param channel} in the last complete window, in dBFS.
+     */
+    public float getRmsDBFS(int channel) {
+        if (windowsCompleted == 0)
+            return SILENCE_DBFS;
+
+        return rmsDBFS[channel];
+    }
+
+    /**
+     * @return The number of samples of {@param channel} that were clipped in the last audio measured.
+     */
+    public int getClippedSamples(int channel) {
+        return clippedSamples[channel];
+    }
+
+    /**
+     * Measure {@param length} bytes of audio from {@param bytes} starting at {@param offset}.
+     */
+    public void update(byte[] bytes, int offset, int length) {
+        Arrays.fill(clippedSamples, 0);
+
+        int frames = length / frameSize;
+        if (frames == 0)
+            return;
+
+        int sampleCount = frames * channels;
+        if (samples.length < sampleCount) {
+            samples = new float[sampleCount];
+        }
+        codec.decode(bytes, offset, samples, 0, sampleCount);
+
+        for (int channel = 0; channel < channels; ++channel) {
+            float[] measured;
+            if (channels == 1) {
+                measured = samples;
+            } else {
+                if (channelSamples.length < frames) {
+                    channelSamples = new float[frames];
+                }
+                for (int frame = 0; frame < frames; ++frame) {
+                    channelSamples[frame] = samples[frame * channels + channel];
+                }
+                measured = channelSamples;
+            }
+
+            windowPeaks[channel] = Math.max(windowPeaks[channel], peak(measured, frames));
+            windowSumSquares[channel] += sumSquares(measured, frames);
+            clippedSamples[channel] = countClipped(measured, frames);
+        }
+
+        addFrames(frames);
+    }
+
+    /**
+     * Count {@param frames} frames of silence towards the current window,
+     * so that the levels fall when audio is not being sent.
+     */
+    public void updateSilence(long frames) {
+        addFrames(frames);
+    }
+
+    private void addFrames(long frames) {
+        windowFramesCounted += frames;
+        if (windowFramesCounted < windowFrames)
+            return;
+
+        for (int channel = 0; channel < channels; ++channel) {
+            double meanSquare = windowSumSquares[channel] / windowFramesCounted;
+            peakDBFS[channel] = toDBFS(windowPeaks[channel]);
+            rmsDBFS[channel] = toDBFS(Math.sqrt(meanSquare));
+
+            windowPeaks[channel] = 0;
+            windowSumSquares[channel] = 0;
+        }
+        windowFramesCounted = 0;
+        windowsCompleted += 1;
+    }
+
+    private static float peak(float[] samples, int length) {
+        float peak = 0;
+        for (int index = 0; index < length; ++index) {
+            peak = Math.max(peak, Math.abs(samples[index]));
+        }
+        return peak;
+    }
+
+    /**
+     * The sum is split into four independent partial sums, as the JIT
+     * will not reorder floating point additions to vectorize them itself.
+     */
+    private static double sumSquares(float[] samples, int length) {
+        float sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+        int index = 0;
+        for (; index + 3 < length; index += 4) {
+            float s0 = samples[index];
+            float s1 = samples[index + 1];
+            float s2 = samples[index + 2];
+            float s3 = samples[index + 3];
+            sum0 += s0 * s0;
+            sum1 += s1 * s1;
+            sum2 += s2 * s2;
+            sum3 += s3 * s3;
+        }
+        for (; index < length; ++index) {
+            sum0 += samples[index] * samples[index];
+        }
+        return (double) sum0 + sum1 + sum2 + sum3;
+    }
+
+    private static int countClipped(float[] samples, int length) {
+        int clipped = 0;
+        for (int index = 0; index < length; ++index) {
+            clipped += (Math.abs(samples[index]) >= CLIP_LEVEL ? 1 : 0);
+        }
+        return clipped;
+    }
+
+    private static float toDBFS(double level) {
+        if (level <= 0)
+            return SILENCE_DBFS;
+
+        return (float) Math.max(SILENCE_DBFS, 20 * Math.log10(level));
+    }
+}
@@ -0,0 +1,255 @@
+package net.sothatsit.audiostream.audio;
+
+/**
+ * Fills gaps in a stream of floating point audio, where audio arrived too late to be played.
+ *
+ * When a gap starts, the pitch period of the most recent audio is estimated by autocorrelation,
+ * and its last period is repeated to continue the waveform. The end of the repeated period is
+ * blended into the audio that preceded it so that the repetitions join smoothly. Short gaps are
+ * concealed at full level, while longer ones are faded out to silence, as repeating a single
+ * period for too long sounds robotic. When audio resumes it is crossfaded with the concealment.
+ *
+ * All buffers are allocated up-front, so that no allocation is done while playing audio.
+ *
+ * This class is NOT thread safe and should
+ * always be used from a single thread.
+ *
+ * @author Paddy Lamont
+ */
+public class LossConcealer {
+
+    /**
+     * The range of pitch periods searched for, which covers most voices and instruments.
+     */
+    private static final double MIN_PITCH_MS = 2.5;
+    private static final double MAX_PITCH_MS = 15;
+
+    /**
+     * The pitch is first searched for at roughly this sample rate, and then refined at the full rate.
+     */
+    private static final float ANALYSIS_SAMPLE_RATE = 12000;
+
+    /**
+     * Audio less periodic than this is repeated using the longest period, which sounds less buzzy.
+     */
+    private static final double MIN_CORRELATION = 0.3;
+
+    private static final double FULL_LEVEL_MS = 20;
+    private static final double FADE_OUT_MS = 40;
+    private static final double CROSSFADE_MS = 5;
+
+    private final int channels;
+    private final int minLag;
+    private final int maxLag;
+    private final int decimation;
+    private final int historyFrames;
+    private final int fullLevelFrames;
+    private final int fadeOutFrames;
+    private final int crossfadeFrames;
+
+    private final float[] history;
+    private final float[] analysis;
+    private final float[] cycle;
+
+    private boolean concealing;
+    private int concealedFrames;
+    private int cycleFrames;
+    private int cyclePosition;
+    private int crossfadeRemaining;
+
+    public LossConcealer(float sampleRate, int channels) {
+        this.channels = channels;
+        this.minLag = Math.max(1, (int) (sampleRate * MIN_PITCH_MS / 1000));
+        this.maxLag = Math.max(minLag + 1, (int) (sampleRate * MAX_PITCH_MS / 1000));
+        this.decimation = Math.max(1, Math.round(sampleRate / ANALYSIS_SAMPLE_RATE));
+        this.historyFrames = 2 * maxLag;
+        this.fullLevelFrames = (int) (sampleRate * FULL_LEVEL_MS / 1000);
+        this.fadeOutFrames = Math.max(1, (int) (sampleRate * FADE_OUT_MS / 1000));
+        this.crossfadeFrames = Math.max(1, (int) (sampleRate * CROSSFADE_MS / 1000));
+
+        this.history = new float[historyFrames * channels];
+        this.analysis = new float[historyFrames / decimation];
+        this.cycle = new float[maxLag * channels];
+    }
+
+    /**
+     * @return Whether a gap is currently being concealed.
+     */
+    public boolean isConcealing() {
+        return concealing;
+    }
+
+    /**
+     * @return Whether the current gap has lasted long enough that the concealment has faded to silence.
+     */
+    public boolean isExhausted() {
+        return concealing && concealedFrames >= fullLevelFrames + fadeOutFrames;
+    }
+
+    /**
+     * Process {@param totalFrames} frames of interleaved audio in {@param samples} starting at
+     * sample {@param offset}, of which only the first {@param receivedFrames} frames were received.
+     * The rest are overwritten with concealment.
+     */
+    public void process(float[] samples, int offset, int receivedFrames, int totalFrames) {
+        if (concealing && receivedFrames > 0) {
+            concealing = false;
+            crossfadeRemaining = crossfadeFrames;
+        }
+
+        // Fade from the concealment into the audio that resumed after a gap
+        for (int frame = 0; frame < receivedFrames && crossfadeRemaining > 0; ++frame) {
+            float weight = 1.0f - (float) crossfadeRemaining / (crossfadeFrames + 1);
+            int index = offset + frame * channels;
+            for (int channel = 0; channel < channels; ++channel) {
+                samples[index + channel] *= weight;
+            }
+            addConcealedFrame(samples, index, 1.0f - weight);
+            crossfadeRemaining -= 1;
+        }
+
+        if (receivedFrames < totalFrames) {
+            appendHistory(samples, offset, receivedFrames);
+            if (!concealing) {
+                startConcealment();
+            }
+
+            for (int frame = receivedFrames; frame < totalFrames; ++frame) {
+                int index = offset + frame * channels;
+                for (int channel = 0; channel < channels; ++channel) {
+                    samples[index + channel] = 0;
+                }
+                addConcealedFrame(samples, index, 1.0f);
+            }
+            appendHistory(samples, offset + receivedFrames * channels, totalFrames - receivedFrames);
+        } else {
+            appendHistory(samples, offset, totalFrames);
+        }
+    }
+
+    private void startConcealment() {
+        concealing = true;
+        concealedFrames = 0;
+        cyclePosition = 0;
+        crossfadeRemaining = 0;
+        cycleFrames = findPitchPeriod();
+
+        int start = historyFrames - cycleFrames;
+        System.arraycopy(history, start * channels, cycle, 0, cycleFrames * channels);
+
+        // Blend the end of the period into the audio before its start, so that it wraps around smoothly
+        int overlap = cycleFrames / 4;
+        for (int index = 0; index < overlap; ++index) {
+            float weight = (index + 1.0f) / (overlap + 1.0f);
+            int frame = cycleFrames - overlap + index;
+            int priorFrame = start - overlap + index;
+            for (int channel = 0; channel < channels; ++channel) {
+                int cycleIndex = frame * channels + channel;
+                cycle[cycleIndex] = (1 - weight) * cycle[cycleIndex] + weight * history[priorFrame * channels + channel];
+            }
+        }
+    }
+
+    private void addConcealedFrame(float[] samples, int index, float weight) {
+        float gain = weight * getConcealmentLevel();
+        if (gain > 0) {
+            int cycleIndex = cyclePosition * channels;
+            for (int channel = 0; channel < channels; ++channel) {
+                samples[index + channel] += gain * cycle[cycleIndex + channel];
+            }
+        }
+
+        cyclePosition = (cyclePosition + 1) % cycleFrames;
+        if (concealedFrames < fullLevelFrames + fadeOutFrames) {
+            concealedFrames += 1;
+        }
+    }
+
+    private float getConcealmentLevel() {
+        if (concealedFrames < fullLevelFrames)
+            return 1.0f;
+
+        return Math.max(0, 1.0f - (float) (concealedFrames - fullLevelFrames) / fadeOutFrames);
+    }
+
+    private void appendHistory(float[] samples, int offset, int frames) {
+        if (frames >= historyFrames) {
+            System.arraycopy(samples, offset + (frames - historyFrames) * channels, history, 0, history.length);
+            return;
+        }
+
+        int keepSamples = (historyFrames - frames) * channels;
+        System.arraycopy(history, frames * channels, history, 0, keepSamples);
+        System.arraycopy(samples, offset, history, keepSamples, frames * channels);
+    }
+
+    /**
+     * @return The pitch period of the end of the history, in frames, found by searching the
+     *         normalised autocorrelation of a decimated mono mix, and then refining at the full rate.
+     */
+    private int findPitchPeriod() {
+        int analysisFrames = analysis.length;
+        for (int index = 0; index < analysisFrames; ++index) {
+            float sum = 0;
+            int start = (historyFrames - analysisFrames * decimation + index * decimation) * channels;
+            for (int sample = 0; sample < decimation * channels; ++sample) {
+                sum += history[start + sample];
+            }
+            analysis[index] = sum;
+        }
+
+        int coarseLag = findBestLag(analysis, analysisFrames, 1,
+                Math.max(1, minLag / decimation), maxLag / decimation, maxLag / decimation, MIN_CORRELATION);
+        if (coarseLag < 0)
+            return maxLag;
+
+        int refinedLag = findBestLag(history, historyFrames, channels,
+                Math.max(minLag, (coarseLag - 1) * decimation), Math.min(maxLag, (coarseLag + 1) * decimation),
+                maxLag, Double.NEGATIVE_INFINITY);
+        return (refinedLag < 0 ? coarseLag * decimation : refinedLag);
+    }
+
+    /**
+     * @return The lag between {@param minLag} and {@param maxLag} with the highest normalised correlation
+     *         of the last {@param window} frames of {@param samples} with the frames before them, or -1 if
+     *         no lag has a correlation of at least {@param minCorrelation}.
+     */
+    private static int findBestLag(float[] samples, int frames, int channels,
+                                   int minLag, int maxLag, int window, double minCorrelation) {
+
+        int end = frames * channels;
+        int start = end - window * channels;
+
+        double energy = 0;
+        for (int index = start; index < end; ++index) {
+            energy += samples[index] * samples[index];
+        }
+        if (energy <= 0)
+            return -1;
+
+        int bestLag = -1;
+        double bestCorrelation = minCorrelation;
+        for (int lag = minLag; lag <= maxLag; ++lag) {
+            int shift = lag * channels;
+            if (start - shift < 0)
+                break;
+
+            double product = 0;
+            double laggedEnergy = 0;
+            for (int index = start; index < end; ++index) {
+                float lagged = samples[index - shift];
+                product += samples[index] * lagged;
+                laggedEnergy += lagged * lagged;
+            }
+            if (laggedEnergy <= 0)
+                continue;
+
+            double correlation = product / Math.sqrt(energy * laggedEnergy);
+            if (correlation > bestCorrelation) {
+                bestCorrelation = correlation;
+                bestLag = lag;
+            }
+        }
+        return bestLag;
+    }
+}
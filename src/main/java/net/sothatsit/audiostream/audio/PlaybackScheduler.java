@@ -0,0 +1,121 @@
+package net.sothatsit.audiostream.audio;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Schedules audio to be played through an AudioSink at given times.
+ *
+ * Before each write the time at which the audio would be heard is estimated from the number of frames
+ * still queued in the sink. Small errors are corrected gradually by dropping or repeating a single
+ * frame per write, which is inaudible, while large errors are corrected immediately by skipping
+ * audio or by inserting silence.
+ *
+ * This class is NOT thread safe and should
+ * always be used from a single thread.
+ *
+ * @author Paddy Lamont
+ */
+public class PlaybackScheduler {
+
+    private static final long SLEW_THRESHOLD_NANOS = 1_000_000;
+    private static final long RESYNC_THRESHOLD_NANOS = 20_000_000;
+    private static final double ERROR_GAIN = 1.0 / 8.0;
+    private static final int SILENCE_FRAMES = 1024;
+
+    private final AudioSink sink;
+    private final int frameSize;
+    private final double nanosPerFrame;
+    private final byte[] silence;
+
+    private double smoothedErrorNanos;
+
+    public PlaybackScheduler(AudioSink sink) {
+        AudioFormat format = sink.getFormat();
+
+        this.sink = sink;
+        this.frameSize = format.getFrameSize();
+        this.nanosPerFrame = 1e9 / format.getFrameRate();
+        this.silence = createSilence(format, SILENCE_FRAMES);
+    }
+
+    /**
+     * @return How late the audio being written is estimated to be played, in nanoseconds.
+     */
+    public long getErrorNanos() {
+        return Math.round(smoothedErrorNanos);
+    }
+
+    /**
+     * Write {@param length} bytes of audio from {@param bytes} starting at {@param offset},
+     * to be played at the local System.nanoTime() {@param presentationTimeNanos}.
+     */
+    public void write(byte[] bytes, int offset, int length, long presentationTimeNanos) {
+        long playTimeNanos = System.nanoTime() + Math.round(sink.getQueuedFrames() * nanosPerFrame);
+        long errorNanos = playTimeNanos - presentationTimeNanos;
+
+        // We are far behind, so skip ahead to the audio that should be playing
+        if (errorNanos > RESYNC_THRESHOLD_NANOS) {
+            int skipBytes = (int) Math.min(length / frameSize, Math.round(errorNanos / nanosPerFrame)) * frameSize;
+            offset += skipBytes;
+            length -= skipBytes;
+            smoothedErrorNanos = 0;
+
+            if (length > 0) {
+                sink.write(bytes, offset, length);
+            }
+            return;
+        }
+
+        // We are far ahead, so wait for the audio's presentation time by playing silence
+        if (errorNanos < -RESYNC_THRESHOLD_NANOS) {
+            writeSilence(Math.round(-errorNanos / nanosPerFrame));
+            smoothedErrorNanos = 0;
+
+            sink.write(bytes, offset, length);
+            return;
+        }
+
+        // Individual errors are noisy, so small corrections are only made based on the smoothed error
+        smoothedErrorNanos += ERROR_GAIN * (errorNanos - smoothedErrorNanos);
+
+        if (smoothedErrorNanos > SLEW_THRESHOLD_NANOS && length > frameSize) {
+            // Drop the last frame to catch up
+            sink.write(bytes, offset, length - frameSize);
+            smoothedErrorNanos -= nanosPerFrame;
+        } else if (smoothedErrorNanos < -SLEW_THRESHOLD_NANOS && length >= frameSize) {
+            // Repeat the last frame to slow down
+            sink.write(bytes, offset, length);
+            sink.write(bytes, offset + length - frameSize, frameSize);
+            smoothedErrorNanos += nanosPerFrame;
+        } else {
+            sink.write(bytes, offset, length);
+        }
+    }
+
+    private void writeSilence(long frames) {
+        while (frames > 0) {
+            int writeFrames = (int) Math.min(frames, SILENCE_FRAMES);
+            sink.write(silence, 0, writeFrames * frameSize);
+            frames -= writeFrames;
+        }
+    }
+
+    /**
+     * @return {@param frames} frames of silence in the format {@param format}.
+     */
+    static byte[] createSilence(AudioFormat format, int frames) {
+        byte[] silence = new byte[frames * format.getFrameSize()];
+
+        // Unsigned audio is silent at the midpoint of its range, rather than at zero
+        if (AudioFormat.Encoding.PCM_UNSIGNED.equals(format.getEncoding())) {
+            int sampleBytes = (format.getSampleSizeInBits() + 7) / 8;
+            int mostSignificantByte = (format.isBigEndian() ? 0 : sampleBytes - 1);
+
+            for (int index = mostSignificantByte; index < silence.length; index += sampleBytes) {
+                silence[index] = (byte) 0x80;
+            }
+        }
+
+        return silence;
+    }
+}
@@ -0,0 +1,239 @@
+package net.sothatsit.audiostream.audio;
+
+/**
+ * Converts a stream of floating point audio from one sample rate to another using a polyphase filter.
+ *
+ * The ratio between the sample rates is reduced to a fraction L / M, and a Kaiser windowed sinc
+ * low-pass filter is split into L phases, one for each of the fractional positions between input
+ * frames that an output frame can fall on. Each output frame is then a single dot product of one
+ * phase with the neighbouring input frames. When the ratio cannot be represented with at most
+ * {@link #MAX_PHASES} phases, the closest representable ratio is used instead, which changes
+ * the pitch by far less than can be heard and is corrected for by playback scheduling.
+ *
+ * Audio is kept per channel so that the dot products run over contiguous arrays. The last
+ * frames of each chunk of audio are kept so that filtering carries on smoothly across chunks,
+ * which delays the audio by {@link #getDelayFrames()} input frames.
+ *
+ * This class is NOT thread safe and should
+ * always be used from a single thread.
+ *
+ * @author Paddy Lamont
+ */
+public class Resampler {
+
+    private static final int MAX_PHASES = 1024;
+
+    /**
+     * The number of zero crossings of the sinc function to keep either side of its centre.
+     */
+    private static final int ZERO_CROSSINGS = 16;
+
+    /**
+     * The fraction of the lower of the two Nyquist frequencies to pass through unchanged.
+     */
+    private static final double PASSBAND = 0.92;
+
+    /**
+     * Gives roughly 80 dB of attenuation past the cutoff.
+     */
+    private static final double KAISER_BETA = 8.0;
+
+    private final int channels;
+    private final int upFactor;
+    private final int downFactor;
+    private final int taps;
+    private final int halfTaps;
+    private final float[] coefficients;
+
+    private float[][] history;
+    private int historyFrames;
+    private int nextFrame;
+    private int phase;
+
+    public Resampler(float inputSampleRate, float outputSampleRate, int channels) {
+        if (inputSampleRate <= 0 || outputSampleRate <= 0)
+            throw new IllegalArgumentException("Sample rates must be positive");
+
+        long inputRate = Math.round(inputSampleRate);
+        long outputRate = Math.round(outputSampleRate);
+        long divisor = gcd(inputRate, outputRate);
+
+        long upFactor = outputRate / divisor;
+        long downFactor = inputRate / divisor;
+        if (upFactor > MAX_PHASES) {
+            downFactor = Math.max(1, Math.round(downFactor * (double) MAX_PHASES / upFactor));
+            upFactor = MAX_PHASES;
+        }
+
+        this.channels = channels;
+        this.upFactor = (int) upFactor;
+        this.downFactor = (int) downFactor;
+
+        // When reducing the sample rate the cutoff must drop to the output's Nyquist frequency,
+        // which requires proportionally more taps to keep the same transition width.
+        double cutoff = PASSBAND * Math.min(1.0, (double) upFactor / downFactor);
+        this.halfTaps = (int) Math.ceil(ZERO_CROSSINGS / cutoff);
+        this.taps = 2 * halfTaps;
+        this.coefficients = createCoefficients(this.upFactor, taps, cutoff);
+
+        this.history = new float[channels][taps];
+        this.historyFrames = taps - 1;
+        this.nextFrame = halfTaps - 1;
+    }
+
+    /**
+     * @return The number of input frames that audio is delayed by.
+     */
+    public int getDelayFrames() {
+        return halfTaps;
+    }
+
+    /**
+     * @return The largest number of frames that resampling {@param inputFrames} frames could produce.
+     */
+    public int getMaxOutputFrames(int inputFrames) {
+        return (int) (((long) inputFrames * upFactor) / downFactor) + 2;
+    }
+
+    /**
+     * Resample {@param frames} frames of interleaved audio from {@param in} starting at sample
+     * {@param inOffset}, and write the interleaved output to {@param out} starting at sample {@param outOffset}.
+     *
+     * @return The number of frames written to {@param out}.
+     */
+    public int process(float[] in, int inOffset, int frames, float[] out, int outOffset) {
+        ensureHistoryCapacity(historyFrames + frames);
+
+        // De-interleave the new audio after the frames kept from previous chunks
+        for (int channel = 0; channel < channels; ++channel) {
+            float[] channelHistory = history[channel];
+            for (int frame = 0; frame < frames; ++frame) {
+                channelHistory[historyFrames + frame] = in[inOffset + frame * channels + channel];
+            }
+        }
+        historyFrames += frames;
+
+        // Each output frame needs halfTaps frames either side of its position
+        int written = 0;
+        while (nextFrame + halfTaps < historyFrames) {
+            int start = nextFrame - halfTaps + 1;
+            int coefficientOffset = phase * taps;
+
+            for (int channel = 0; channel < channels; ++channel) {
+                out[outOffset + written * channels + channel] = dot(
+                        history[channel], start, coefficients, coefficientOffset, taps
+                );
+            }
+            written += 1;
+
+            phase += downFactor;
+            while (phase >= upFactor) {
+                phase -= upFactor;
+                nextFrame += 1;
+            }
+        }
+
+        // Keep only the frames that later output frames still need
+        int discard = Math.max(0, Math.min(historyFrames, nextFrame - halfTaps + 1));
+        if (discard > 0) {
+            for (int channel = 0; channel < channels; ++channel) {
+                System.arraycopy(history[channel], discard, history[channel], 0, historyFrames - discard);
+            }
+            historyFrames -= discard;
+            nextFrame -= discard;
+        }
+
+        return written;
+    }
+
+    private static float dot(float[] samples, int sampleOffset, float[] coefficients, int coefficientOffset, int length) {
+        float sum = 0;
+        for (int index = 0; index < length; ++index) {
+            sum += samples[sampleOffset + index] * coefficients[coefficientOffset + index];
+        }
+        return sum;
+    }
+
+    private void ensureHistoryCapacity(int frames) {
+        if (history[0].length >= frames)
+            return;
+
+        int capacity = Math.max(frames, 2 * history[0].length);
+        for (int channel = 0; channel < channels; ++channel) {
+            float[] expanded = new float[capacity];
+            System.arraycopy(history[channel], 0, expanded, 0, historyFrames);
+            history[channel] = expanded;
+        }
+    }
+
+    /**
+     * @return {@param phases} filters of {@param taps} taps each, where filter p interpolates
+     *         the position p / {@param phases} of the way between two input frames.
+     */
+    private static float[] createCoefficients(int phases, int taps, double cutoff) {
+        int halfTaps = taps / 2;
+        float[] coefficients = new float[phases * taps];
+
+        for (int phase = 0; phase < phases; ++phase) {
+            double fraction = (double) phase / phases;
+
+            double sum = 0;
+            for (int tap = 0; tap < taps; ++tap) {
+                double time = fraction + (halfTaps - 1) - tap;
+                double value = cutoff * sinc(cutoff * time) * kaiser(time / halfTaps);
+
+                coefficients[phase * taps + tap] = (float) value;
+                sum += value;
+            }
+
+            // Normalise each phase so that a constant signal passes through unchanged
+            for (int tap = 0; tap < taps; ++tap) {
+                coefficients[phase * taps + tap] /= sum;
+            }
+        }
+
+        return coefficients;
+    }
+
+    private static double sinc(double x) {
+        if (x == 0)
+            return 1;
+
+        double angle = Math.PI * x;
+        return Math.sin(angle) / angle;
+    }
+
+    /**
+     * @return The Kaiser window at {@param x}, which is zero outside [-1, 1].
+     */
+    private static double kaiser(double x) {
+        if (x <= -1 || x >= 1)
+            return 0;
+
+        return besselI0(KAISER_BETA * Math.sqrt(1 - x * x)) / besselI0(KAISER_BETA);
+    }
+
+    /**
+     * @return The zeroth order modified Bessel function of the first kind at {@param x}.
+     */
+    private static double besselI0(double x) {
+        double sum = 1;
+        double term = 1;
+        for (int k = 1; k < 50; ++k) {
+            term *= (x / (2 * k)) * (x / (2 * k));
+            sum += term;
+            if (term < 1e-12 * sum)
+                break;
+        }
+        return sum;
+    }
+
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long remainder = a % b;
+            a = b;
+            b = remainder;
+        }
+        return a;
+    }
+}
@@ -0,0 +1,309 @@
+package net.sothatsit.audiostream.audio;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Decodes and encodes audio samples to and from floating point values in the range [-1, 1).
+ *
+ * Supports signed and unsigned integer PCM of any whole number of bytes, 32-bit floating point
+ * PCM, and 8-bit μ-law and A-law, in either byte order. Each encoding has its own loop with no
+ * allocation or per-sample branching on the format, so that converting whole buffers is cheap.
+ *
+ * @author Paddy Lamont
+ */
+public class SampleCodec {
+
+    private static final int MU_LAW_BIAS = 0x84;
+    private static final int MU_LAW_CLIP = 32635;
+    private static final float[] MU_LAW_DECODE = new float[256];
+    private static final float[] A_LAW_DECODE = new float[256];
+    static {
+        for (int value = 0; value < 256; ++value) {
+            MU_LAW_DECODE[value] = decodeMuLaw(value) / 32768f;
+            A_LAW_DECODE[value] = decodeALaw(value) / 32768f;
+        }
+    }
+
+    private enum Type {
+        SIGNED_16,
+        SIGNED,
+        UNSIGNED,
+        FLOAT_32,
+        MU_LAW,
+        A_LAW
+    }
+
+    private final Type type;
+    private final int sampleBytes;
+    private final int bits;
+    private final boolean bigEndian;
+    private final float scale;
+    private final long maxValue;
+
+    public SampleCodec(AudioFormat format) {
+        AudioFormat.Encoding encoding = format.getEncoding();
+
+        this.sampleBytes = format.getFrameSize() / format.getChannels();
+        this.bits = sampleBytes * 8;
+        this.bigEndian = format.isBigEndian();
+        this.maxValue = (1L << (bits - 1)) - 1;
+        this.scale = (float) (maxValue + 1.0);
+
+        if (AudioFormat.Encoding.PCM_SIGNED.equals(encoding)) {
+            this.type = (sampleBytes == 2 ? Type.SIGNED_16 : Type.SIGNED);
+        } else if (AudioFormat.Encoding.PCM_UNSIGNED.equals(encoding)) {
+            this.type = Type.UNSIGNED;
+        } else if (AudioFormat.Encoding.PCM_FLOAT.equals(encoding) && sampleBytes == 4) {
+            this.type = Type.FLOAT_32;
+        } else if (AudioFormat.Encoding.ULAW.equals(encoding) && sampleBytes == 1) {
+            this.type = Type.MU_LAW;
+        } else if (AudioFormat.Encoding.ALAW.equals(encoding) && sampleBytes == 1) {
+            this.type = Type.A_LAW;
+        } else {
+            throw new IllegalArgumentException("Unsupported audio format " + format);
+        }
+
+        if (sampleBytes < 1 || sampleBytes > 4)
+            throw new IllegalArgumentException("Unsupported sample size " + format.getSampleSizeInBits());
+    }
+
+    /**
+     * @return Whether samples in the format {@param format} can be decoded and encoded.
+     */
+    public static boolean isSupported(AudioFormat format) {
+        try {
+            new SampleCodec(format);
+            return true;
+        } catch (IllegalArgumentException exception) {
+            return false;
+        }
+    }
+
+    public int getSampleBytes() {
+        return sampleBytes;
+    }
+
+    /**
+     * Decode {@param samples} samples from {@param in} starting at {@param inOffset},
+     * into {@param out} starting at {@param outOffset}.
+     */
+    public void decode(byte[] in, int inOffset, float[] out, int outOffset, int samples) {
+        switch (type) {
+            case SIGNED_16:
+                decode16(in, inOffset, out, outOffset, samples);
+                break;
+            case FLOAT_32:
+                decodeFloat(in, inOffset, out, outOffset, samples);
+                break;
+            case MU_LAW:
+                decodeTable(MU_LAW_DECODE, in, inOffset, out, outOffset, samples);
+                break;
+            case A_LAW:
+                decodeTable(A_LAW_DECODE, in, inOffset, out, outOffset, samples);
+                break;
+            default:
+                decodeInteger(in, inOffset, out, outOffset, samples);
+                break;
+        }
+    }
+
+    /**
+     * Encode {@param samples} samples from {@param in} starting at {@param inOffset}, into
+     * {@param out} starting at {@param outOffset}, clipping any that are out of range.
+     */
+    public void encode(float[] in, int inOffset, byte[] out, int outOffset, int samples) {
+        switch (type) {
+            case SIGNED_16:
+                encode16(in, inOffset, out, outOffset, samples);
+                break;
+            case FLOAT_32:
+                encodeFloat(in, inOffset, out, outOffset, samples);
+                break;
+            case MU_LAW:
+                for (int index = 0; index < samples; ++index) {
+                    out[outOffset + index] = (byte) encodeMuLaw(toShort(in[inOffset + index]));
+                }
+                break;
+            case A_LAW:
+                for (int index = 0; index < samples; ++index) {
+                    out[outOffset + index] = (byte) encodeALaw(toShort(in[inOffset + index]));
+                }
+                break;
+            default:
+                encodeInteger(in, inOffset, out, outOffset, samples);
+                break;
+        }
+    }
+
+    private void decode16(byte[] in, int inOffset, float[] out, int outOffset, int samples) {
+        int high = (bigEndian ? 0 : 1);
+        int low = 1 - high;
+        for (int index = 0; index < samples; ++index) {
+            int byteIndex = inOffset + 2 * index;
+            int value = (in[byteIndex + high] << 8) | (in[byteIndex + low] & 0xFF);
+            out[outOffset + index] = value / 32768f;
+        }
+    }
+
+    private void encode16(float[] in, int inOffset, byte[] out, int outOffset, int samples) {
+        int high = (bigEndian ? 0 : 1);
+        int low = 1 - high;
+        for (int index = 0; index < samples; ++index) {
+            int value = toShort(in[inOffset + index]);
+            int byteIndex = outOffset + 2 * index;
+            out[byteIndex + high] = (byte) (value >> 8);
+            out[byteIndex + low] = (byte) value;
+        }
+    }
+
+    private void decodeFloat(byte[] in, int inOffset, float[] out, int outOffset, int samples) {
+        for (int index = 0; index < samples; ++index) {
+            int byteIndex = inOffset + 4 * index;
+            int bits;
+            if (bigEndian) {
+                bits = (in[byteIndex] << 24) | ((in[byteIndex + 1] & 0xFF) << 16)
+                        | ((in[byteIndex + 2] & 0xFF) << 8) | (in[byteIndex + 3] & 0xFF);
+            } else {
+                bits = (in[byteIndex + 3] << 24) | ((in[byteIndex + 2] & 0xFF) << 16)
+                        | ((in[byteIndex + 1] & 0xFF) << 8) | (in[byteIndex] & 0xFF);
+            }
+            out[outOffset + index] = Float.intBitsToFloat(bits);
+        }
+    }
+
+    private void encodeFloat(float[] in, int inOffset, byte[] out, int outOffset, int samples) {
+        for (int index = 0; index < samples; ++index) {
+            int bits = Float.floatToRawIntBits(Math.max(-1f, Math.min(1f, in[inOffset + index])));
+            int byteIndex = outOffset + 4 * index;
+            if (bigEndian) {
+                out[byteIndex] = (byte) (bits >> 24);
+                out[byteIndex + 1] = (byte) (bits >> 16);
+                out[byteIndex + 2] = (byte) (bits >> 8);
+                out[byteIndex + 3] = (byte) bits;
+            } else {
+                out[byteIndex + 3] = (byte) (bits >> 24);
+                out[byteIndex + 2] = (byte) (bits >> 16);
+                out[byteIndex + 1] = (byte) (bits >> 8);
+                out[byteIndex] = (byte) bits;
+            }
+        }
+    }
+
+    private static void decodeTable(float[] table, byte[] in, int inOffset, float[] out, int outOffset, int samples) {
+        for (int index = 0; index < samples; ++index) {
+            out[outOffset + index] = table[in[inOffset + index] & 0xFF];
+        }
+    }
+
+    private void decodeInteger(byte[] in, int inOffset, float[] out, int outOffset, int samples) {
+        boolean signed = (type == Type.SIGNED);
+        for (int index = 0; index < samples; ++index) {
+            int byteOffset = inOffset + index * sampleBytes;
+
+            long value = 0;
+            for (int byteNumber = 0; byteNumber < sampleBytes; ++byteNumber) {
+                int byteIndex = (bigEndian ? byteNumber : sampleBytes - 1 - byteNumber);
+                value = (value << 8) | (in[byteOffset + byteIndex] & 0xFF);
+            }
+
+            if (signed) {
+                value = (value << (64 - bits)) >> (64 - bits);
+            } else {
+                value -= maxValue + 1;
+            }
+            out[outOffset + index] = value / scale;
+        }
+    }
+
+    private void encodeInteger(float[] in, int inOffset, byte[] out, int outOffset, int samples) {
+        boolean signed = (type == Type.SIGNED);
+        for (int index = 0; index < samples; ++index) {
+            long value = Math.max(-maxValue - 1, Math.min(maxValue, Math.round((double) in[inOffset + index] * scale)));
+            if (!signed) {
+                value += maxValue + 1;
+            }
+
+            int byteOffset = outOffset + index * sampleBytes;
+            for (int byteNumber = sampleBytes - 1; byteNumber >= 0; --byteNumber) {
+                int byteIndex = (bigEndian ? byteNumber : sampleBytes - 1 - byteNumber);
+                out[byteOffset + byteIndex] = (byte) value;
+                value >>>= 8;
+            }
+        }
+    }
+
+    private static int toShort(float sample) {
+        return Math.max(-32768, Math.min(32767, Math.round(sample * 32768f)));
+    }
+
+    /**
+     * @return The 16-bit linear value of the G.711 μ-law value {@param value}.
+     */
+    private static int decodeMuLaw(int value) {
+        value = ~value & 0xFF;
+        int exponent = (value >> 4) & 0x07;
+        int magnitude = ((((value & 0x0F) << 3) + MU_LAW_BIAS) << exponent) - MU_LAW_BIAS;
+        return ((value & 0x80) != 0 ? -magnitude : magnitude);
+    }
+
+    /**
+     * @return The G.711 μ-law value closest to the 16-bit linear value {@param sample}.
+     */
+    private static int encodeMuLaw(int sample) {
+        int sign = (sample >> 8) & 0x80;
+        if (sign != 0) {
+            sample = -sample;
+        }
+        sample = Math.min(sample, MU_LAW_CLIP) + MU_LAW_BIAS;
+
+        int exponent = 7;
+        for (int mask = 0x4000; (sample & mask) == 0 && exponent > 0; mask >>= 1) {
+            exponent -= 1;
+        }
+
+        int mantissa = (sample >> (exponent + 3)) & 0x0F;
+        return ~(sign | (exponent << 4) | mantissa) & 0xFF;
+    }
+
+    /**
+     * @return The 16-bit linear value of the G.711 A-law value {@param value}.
+     */
+    private static int decodeALaw(int value) {
+        value ^= 0x55;
+
+        int magnitude = (value & 0x0F) << 4;
+        int segment = (value & 0x70) >> 4;
+        if (segment == 0) {
+            magnitude += 8;
+        } else {
+            magnitude = (magnitude + 0x108) << (segment - 1);
+        }
+        return ((value & 0x80) != 0 ? magnitude : -magnitude);
+    }
+
+    /**
+     * @return The G.711 A-law value closest to the 16-bit linear value {@param sample}.
+     */
+    private static int encodeALaw(int sample) {
+        sample >>= 3;
+
+        int mask;
+        if (sample >= 0) {
+            mask = 0xD5;
+        } else {
+            mask = 0x55;
+            sample = -sample - 1;
+        }
+
+        int segment = 0;
+        while (segment < 8 && sample > (0x20 << segment) - 1) {
+            segment += 1;
+        }
+        if (segment >= 8)
+            return 0x7F ^ mask;
+
+        int value = segment << 4;
+        value |= (segment < 2 ? (sample >> 1) : (sample >> segment)) & 0x0F;
+        return value ^ mask;
+    }
+}
@@ -0,0 +1,79 @@
+package net.sothatsit.audiostream.audio;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Detects when a stream of audio has fallen silent, so that it does not need to be sent.
+ *
+ * Audio is only considered silent once every sample has stayed below the threshold for the
+ * hangover duration, so that the quiet tails of sounds and short pauses are still sent.
+ *
+ * This class is NOT thread safe and should
+ * always be used from a single thread.
+ *
+ * @author Paddy Lamont
+ */
+public class SilenceDetector {
+
+    private final SampleCodec codec;
+    private final int frameSize;
+    private final int channels;
+    private final float threshold;
+    private final long hangoverFrames;
+
+    private float[] samples;
+    private long quietFrames;
+    private float noiseLevel;
+
+    /**
+     * @param thresholdDB The peak level, in dBFS, below which audio is considered silent.
+     *                    Negative infinity disables detection, as no audio is below it.
+     * @param hangoverMS How long the audio must stay below the threshold before it is considered silent.
+     */
+    public SilenceDetector(AudioFormat format, double thresholdDB, int hangoverMS) {
+        this.codec = new SampleCodec(format);
+        this.frameSize = format.getFrameSize();
+        this.channels = format.getChannels();
+        this.threshold = (float) Math.pow(10, thresholdDB / 20.0);
+        this.hangoverFrames = (long) (format.getFrameRate() * hangoverMS / 1000);
+        this.samples = new float[0];
+    }
+
+    /**
+     * @return The RMS level of the last audio that was checked, in the range [0, 1].
+     */
+    public float getNoiseLevel() {
+        return noiseLevel;
+    }
+
+    /**
+     * Check {@param length} bytes of audio from {@param bytes} starting at {@param offset}.
+     *
+     * @return Whether the audio is silent, and so does not need to be sent.
+     */
+    public boolean isSilent(byte[] bytes, int offset, int length) {
+        int frames = length / frameSize;
+        int sampleCount = frames * channels;
+        if (samples.length < sampleCount) {
+            samples = new float[sampleCount];
+        }
+        codec.decode(bytes, offset, samples, 0, sampleCount);
+
+        float peak = 0;
+        double sumSquares = 0;
+        for (int index = 0; index < sampleCount; ++index) {
+            float sample = samples[index];
+            peak = Math.max(peak, Math.abs(sample));
+            sumSquares += sample * sample;
+        }
+        noiseLevel = (sampleCount == 0 ? 0 : (float) Math.sqrt(sumSquares / sampleCount));
+
+        if (peak >= threshold) {
+            quietFrames = 0;
+            return false;
+        }
+
+        quietFrames += frames;
+        return quietFrames > hangoverFrames;
+    }
+}
@@ -0,0 +1,495 @@
+package net.sothatsit.audiostream.audio;
+
+import net.sothatsit.audiostream.metrics.Counter;
+import net.sothatsit.audiostream.metrics.Histogram;
+import net.sothatsit.audiostream.metrics.MetricsRegistry;
+import net.sothatsit.audiostream.metrics.jfr.BufferOverrunEvent;
+import net.sothatsit.audiostream.metrics.jfr.BufferUnderrunEvent;
+import net.sothatsit.audiostream.util.LoopedThread;
+
+import javax.sound.sampled.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Mixes many streams of audio together into a single output line.
+ *
+ * Each input converts the audio written to it to the sample rate and channels of the mixer,
+ * and queues it as floating point samples. This lets audio in any format be played through
+ * any mixer, as long as the mixer supports at least one format that can be encoded. The mixer's thread sums a short period of audio from
+ * every input into an accumulator at a time, applying each input's gain, and then softly limits
+ * the result so that loud passages do not clip harshly before writing it to the line. The line
+ * blocks while it is full, which paces the mixer to the rate of the audio device.
+ *
+ * When an input runs out of audio while playing, the gap is filled by a LossConcealer. If the
+ * gap lasts long enough that the concealment fades to silence, the input waits for its delay
+ * to be built back up before playing again. If an input instead queues up more than its maximum
+ * delay, such as after a burst of audio that was held up in the network, it is played slightly
+ * faster by a TimeCompressor until its queue is back down to its start delay.
+ *
+ * @author Paddy Lamont
+ */
+public class SoftwareMixer {
+
+    private static final int PERIOD_MS = 10;
+    private static final int INPUT_CAPACITY_MS = 2000;
+    private static final long INPUT_FULL_WAIT_NANOS = 1_000_000;
+
+    /**
+     * Samples below this level pass through the limiter unchanged.
+     */
+    private static final double LIMITER_KNEE = 0.8;
+
+    /**
+     * The sample rates to try, in order, when a mixer does not support the sample rate of the audio.
+     */
+    private static final float[] FALLBACK_SAMPLE_RATES = {48000f, 44100f, 96000f, 32000f, 22050f, 16000f, 8000f};
+
+    /**
+     * The sample encodings and sizes to try, in order, when a mixer does not support those of the audio.
+     */
+    private static final AudioFormat.Encoding[] FALLBACK_ENCODINGS = {
+            AudioFormat.Encoding.PCM_SIGNED,
+            AudioFormat.Encoding.PCM_SIGNED,
+            AudioFormat.Encoding.PCM_SIGNED,
+            AudioFormat.Encoding.PCM_FLOAT,
+            AudioFormat.Encoding.PCM_UNSIGNED
+    };
+    private static final int[] FALLBACK_SAMPLE_SIZES = {16, 24, 32, 32, 8};
+
+    private final String name;
+    private final MetricsRegistry metrics;
+    private final AudioFormat format;
+    private final AudioWriter writer;
+    private final SampleCodec codec;
+    private final int channels;
+    private final int periodFrames;
+    private final double[] accumulator;
+    private final float[] limited;
+    private final byte[] outBuffer;
+
+    private final List<Input> inputs;
+    private final LoopedThread thread;
+
+    /**
+     * Mix audio into {@param line}, which is opened in exactly {@param format} when this mixer is started.
+     *
+     * @param name The name to identify this mixer by in diagnostics.
+     */
+    public SoftwareMixer(String name,
+                         SourceDataLine line,
+                         AudioFormat format,
+                         int bufferSizeMS,
+                         int maxBufferSizeMS) {
+
+        this.name = name;
+        this.metrics = new MetricsRegistry("softwareMixer(" + name + ")");
+        this.format = format;
+        this.writer = new AudioWriter(line, format, 0, getBufferBytes(format, bufferSizeMS));
+        this.writer.setStreamIds(null, name);
+        this.writer.setMetrics(metrics);
+        this.writer.setMaxBufferBytes(getBufferBytes(this.format, maxBufferSizeMS));
+        this.codec = new SampleCodec(this.format);
+        this.channels = this.format.getChannels();
+        this.periodFrames = Math.max(1, (int) (this.format.getFrameRate() * PERIOD_MS / 1000));
+        this.accumulator = new double[periodFrames * channels];
+        this.limited = new float[periodFrames * channels];
+        this.outBuffer = new byte[periodFrames * this.format.getFrameSize()];
+
+        this.inputs = new CopyOnWriteArrayList<>();
+        this.thread = new LoopedThread("softwareMixer(" + name + ")", this::mixNext);
+    }
+
+    /**
+     * @return A new mixer that plays through {@param mixer}.
+     *
+     * @param format The preferred format of the mixed audio, which
+     *               is changed if it is not supported by {@param mixer}.
+     * @param maxBufferSizeMS The size to grow the line buffer up to each time it underruns,
+     *                        or 0 to never grow it.
+     */
+    public static SoftwareMixer create(Mixer.Info mixer,
+                                       AudioFormat format,
+                                       int bufferSizeMS,
+                                       int maxBufferSizeMS) throws LineUnavailableException {
+
+        AudioFormat chosenFormat = chooseFormat(mixer, format);
+        SourceDataLine line = AudioSystem.getSourceDataLine(chosenFormat, mixer);
+        return new SoftwareMixer(mixer.getName(), line, chosenFormat, bufferSizeMS, maxBufferSizeMS);
+    }
+
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * @return The metrics of the line that this mixer plays through.
+     */
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return How long audio written to the line now will wait before it is played.
+     */
+    public long getLineDelayNanos() {
+        return Math.round(writer.getQueuedFrames() * 1e9 / format.getFrameRate());
+    }
+
+    public void start() throws LineUnavailableException {
+        writer.start();
+        thread.start();
+    }
+
+    public void stop() {
+        thread.stop();
+        writer.stop();
+        inputs.forEach(Input::close);
+        inputs.clear();
+    }
+
+    /**
+     * Add a new stream of audio in the format {@param format} to be mixed. Audio written to the
+     * input is only played once at least {@param startDelayMS} milliseconds of it has been queued.
+     */
+    public Input addInput(AudioFormat format, int startDelayMS) {
+        return addInput(format, startDelayMS, 0);
+    }
+
+    /**
+     * @param maxDelayMS The most audio that may be queued in the input before it is played faster
+     *                   to catch back up to {@param startDelayMS}, or 0 to never catch up.
+     */
+    public Input addInput(AudioFormat format, int startDelayMS, int maxDelayMS) {
+        Input input = new Input(format, startDelayMS, maxDelayMS);
+        inputs.add(input);
+        return input;
+    }
+
+    public void removeInput(Input input) {
+        inputs.remove(input);
+        input.close();
+    }
+
+    private void mixNext() {
+        int length = mixPeriod(outBuffer);
+        writer.write(outBuffer, 0, length);
+    }
+
+    /**
+     * Mix the next period of audio from every input into {@param out}, in the format of this mixer.
+     * This is done by the mixer's thread while it is started, so should only be called while it is not.
+     *
+     * @return The number of bytes written to {@param out}.
+     */
+    public int mixPeriod(byte[] out) {
+        Arrays.fill(accumulator, 0);
+
+        for (Input input : inputs) {
+            input.mixInto(accumulator, periodFrames);
+        }
+
+        for (int index = 0; index < accumulator.length; ++index) {
+            limited[index] = (float) limit(accumulator[index]);
+        }
+        codec.encode(limited, 0, out, 0, limited.length);
+
+        return periodFrames * format.getFrameSize();
+    }
+
+    /**
+     * Softly compress samples above the knee so that they approach, but never exceed, full scale.
+     */
+    private static double limit(double sample) {
+        double magnitude = Math.abs(sample);
+        if (magnitude <= LIMITER_KNEE)
+            return sample;
+
+        double range = 1.0 - LIMITER_KNEE;
+        double limited = LIMITER_KNEE + range * Math.tanh((magnitude - LIMITER_KNEE) / range);
+        return Math.copySign(limited, sample);
+    }
+
+    private static int getBufferBytes(AudioFormat format, int bufferSizeMS) {
+        return (int) (format.getFrameSize() * format.getFrameRate() * bufferSizeMS / 1000.0d);
+    }
+
+    /**
+     * @return {@param format}, or the format closest to {@param format} that is supported by {@param mixer}.
+     *         Changing the byte order, then the sample size, then the channels, and then the sample
+     *         rate are preferred in that order, as they each have a greater cost than the last.
+     */
+    public static AudioFormat chooseFormat(Mixer.Info mixer, AudioFormat format) {
+        for (AudioFormat candidate : getCandidateFormats(format)) {
+            if (AudioUtils.isAudioFormatSupported(AudioType.OUTPUT, mixer, candidate))
+                return candidate;
+        }
+
+        // Try the original format anyway, which will report why it can't be used when the line is opened
+        return format;
+    }
+
+    private static Set<AudioFormat> getCandidateFormats(AudioFormat format) {
+        float[] sampleRates = prepend(format.getSampleRate(), FALLBACK_SAMPLE_RATES);
+        int[] channelCounts = {format.getChannels(), 2, 1};
+        boolean[] byteOrders = {format.isBigEndian(), !format.isBigEndian()};
+
+        List<AudioFormat.Encoding> encodings = new ArrayList<>();
+        List<Integer> sampleSizes = new ArrayList<>();
+        if (SampleCodec.isSupported(format)) {
+            encodings.add(format.getEncoding());
+            sampleSizes.add(format.getSampleSizeInBits());
+        }
+        for (int index = 0; index < FALLBACK_ENCODINGS.length; ++index) {
+            encodings.add(FALLBACK_ENCODINGS[index]);
+            sampleSizes.add(FALLBACK_SAMPLE_SIZES[index]);
+        }
+
+        // Formats are compared by their properties, so duplicates are removed
+        Set<AudioFormat> candidates = new LinkedHashSet<>();
+        for (float sampleRate : sampleRates) {
+            for (int channels : channelCounts) {
+                for (int index = 0; index < encodings.size(); ++index) {
+                    for (boolean bigEndian : byteOrders) {
+                        int sampleSize = sampleSizes.get(index);
+                        candidates.add(new AudioFormat(
+                                encodings.get(index), sampleRate, sampleSize, channels,
+                                channels * sampleSize / 8, sampleRate, bigEndian
+                        ));
+                    }
+                }
+            }
+        }
+        return candidates;
+    }
+
+    private static float[] prepend(float value, float[] values) {
+        float[] result = new float[values.length + 1];
+        result[0] = value;
+        System.arraycopy(values, 0, result, 1, values.length);
+        return result;
+    }
+
+    /**
+     * A stream of audio to be mixed.
+     *
+     * Audio should only be written to an input from a single thread.
+     */
+    public class Input implements AudioSink {
+
+        private final AudioFormat format;
+        private final FormatConverter converter;
+        private final double rateRatio;
+        private final long startFrames;
+        private final long maxFrames;
+
+        private final float[] samples;
+        private final int capacityFrames;
+        private final float[] period;
+        private final LossConcealer concealer;
+        private final TimeCompressor compressor;
+        private volatile long writeFrame;
+        private volatile long readFrame;
+        private volatile float gain;
+        private volatile boolean closed;
+
+        private final MetricsRegistry metrics;
+        private final Counter underruns;
+        private final Counter overruns;
+        private final Counter concealedFrames;
+        private final Counter droppedFrames;
+        private final Histogram writeBlockNanos;
+        private volatile String connectionId;
+        private volatile String streamId;
+
+        private float[] converted;
+        private boolean playing;
+        private boolean catchingUp;
+
+        private Input(AudioFormat format, int startDelayMS, int maxDelayMS) {
+            float mixerRate = SoftwareMixer.this.format.getSampleRate();
+
+            this.format = format;
+            this.converter = new FormatConverter(format, mixerRate, channels);
+            this.rateRatio = format.getSampleRate() / mixerRate;
+            this.startFrames = (long) (mixerRate * startDelayMS / 1000);
+
+            // Leave some room above the start delay so that normal jitter does not trigger catching up
+            long maxFrames = (long) (mixerRate * maxDelayMS / 1000);
+            this.maxFrames = (maxDelayMS > 0 ? Math.max(maxFrames, startFrames + 2 * periodFrames) : 0);
+
+            this.capacityFrames = Math.max((int) (mixerRate * INPUT_CAPACITY_MS / 1000), (int) startFrames + periodFrames);
+            this.samples = new float[capacityFrames * channels];
+            this.concealer = new LossConcealer(mixerRate, channels);
+            this.compressor = new TimeCompressor(mixerRate, channels);
+            this.period = new float[(periodFrames + compressor.getLookaheadFrames()) * channels];
+            this.gain = 1.0f;
+            this.converted = new float[0];
+
+            this.metrics = new MetricsRegistry("mixerInput(" + name + ")");
+            this.underruns = metrics.counter("underruns");
+            this.overruns = metrics.counter("overruns");
+            this.concealedFrames = metrics.counter("frames.concealed");
+            this.droppedFrames = metrics.counter("frames.dropped");
+            this.writeBlockNanos = metrics.histogram("write.block.nanos");
+            metrics.gauge("queue.frames", () -> writeFrame - readFrame);
+            this.streamId = format.toString();
+        }
+
+        /**
+         * Set the identifiers of the connection and stream of audio written to this
+         * input, which are used to identify it in diagnostics.
+         */
+        public void setStreamIds(String connectionId, String streamId) {
+            this.connectionId = connectionId;
+            this.streamId = streamId;
+        }
+
+        /**
+         * @return The metrics of this input, which are updated as it is written to and mixed.
+         */
+        public MetricsRegistry getMetrics() {
+            return metrics;
+        }
+
+        @Override
+        public AudioFormat getFormat() {
+            return format;
+        }
+
+        public float getGain() {
+            return gain;
+        }
+
+        public void setGain(float gain) {
+            this.gain = gain;
+        }
+
+        /**
+         * @return The number of frames of this input's format that are queued in this input and in the mixer's line.
+         */
+        @Override
+        public long getQueuedFrames() {
+            long queuedFrames = (writeFrame - readFrame) + writer.getQueuedFrames();
+            return Math.round(queuedFrames * rateRatio);
+        }
+
+        /**
+         * @return How long audio written to this input now will wait before it is mixed.
+         */
+        public long getQueuedNanos() {
+            return Math.round((writeFrame - readFrame) * 1e9 / SoftwareMixer.this.format.getFrameRate());
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            int maxSamples = converter.getMaxOutputFrames(length) * channels;
+            if (converted.length < maxSamples) {
+                converted = new float[maxSamples];
+            }
+
+            int frames = converter.convert(bytes, offset, length, converted, 0);
+            int frame = 0;
+            long blockedSinceNanos = 0;
+            BufferOverrunEvent overrunEvent = null;
+            while (frame < frames && !closed) {
+                // Wait for the mixer to make room, in the same way writing to a full line blocks
+                long freeFrames = capacityFrames - (writeFrame - readFrame);
+                if (freeFrames <= 0) {
+                    if (blockedSinceNanos == 0) {
+                        blockedSinceNanos = System.nanoTime();
+                        overruns.increment();
+                        overrunEvent = BufferOverrunEvent.start();
+                    }
+                    LockSupport.parkNanos(INPUT_FULL_WAIT_NANOS);
+                    continue;
+                }
+
+                // Copy up to the end of the ring buffer, and then wrap around on the next loop
+                long write = writeFrame;
+                int ringFrame = (int) (write % capacityFrames);
+                int writeFrames = (int) Math.min(Math.min(freeFrames, frames - frame), capacityFrames - ringFrame);
+                System.arraycopy(converted, frame * channels, samples, ringFrame * channels, writeFrames * channels);
+
+                writeFrame = write + writeFrames;
+                frame += writeFrames;
+            }
+
+            writeBlockNanos.record(blockedSinceNanos == 0 ? 0 : System.nanoTime() - blockedSinceNanos);
+            if (overrunEvent != null) {
+                overrunEvent.finish(connectionId, streamId, "mixerInput");
+            }
+        }
+
+        /**
+         * Add up to {@param frames} frames of this input to {@param accumulator}.
+         */
+        private void mixInto(double[] accumulator, int frames) {
+            long read = readFrame;
+            long available = writeFrame - read;
+
+            // Wait until enough audio has been queued before starting to play
+            if (!playing) {
+                if (available < Math.max(1, startFrames))
+                    return;
+
+                playing = true;
+            }
+
+            // Catch up once too much audio is queued, until it is back down to within a period of the start delay
+            if (maxFrames > 0) {
+                if (available > maxFrames) {
+                    catchingUp = true;
+                } else if (available <= startFrames + periodFrames) {
+                    catchingUp = false;
+                }
+            }
+
+            int lookaheadFrames = (catchingUp ? compressor.getLookaheadFrames() : 0);
+            int copyFrames = (int) Math.min(frames + lookaheadFrames, available);
+            for (int frame = 0; frame < copyFrames; ++frame) {
+                int sampleIndex = (int) ((read + frame) % capacityFrames) * channels;
+                System.arraycopy(samples, sampleIndex, period, frame * channels, channels);
+            }
+
+            int mixFrames = Math.min(frames, copyFrames);
+            int consumedFrames = mixFrames;
+            if (catchingUp && copyFrames > frames) {
+                int excessFrames = (int) Math.min(Integer.MAX_VALUE, available - startFrames);
+                consumedFrames = compressor.compress(period, 0, copyFrames, frames, excessFrames);
+            }
+
+            readFrame = read + consumedFrames;
+            droppedFrames.add(consumedFrames - mixFrames);
+
+            // Fill in any audio that has not arrived in time
+            if (mixFrames < frames) {
+                if (!concealer.isConcealing()) {
+                    underruns.increment();
+                    BufferUnderrunEvent.emit(connectionId, streamId, "mixerInput", frames - mixFrames);
+                }
+                concealedFrames.add(frames - mixFrames);
+            }
+            concealer.process(period, 0, mixFrames, frames);
+
+            float gain = this.gain;
+            for (int index = 0; index < frames * channels; ++index) {
+                accumulator[index] += gain * period[index];
+            }
+
+            // We ran out of audio for too long to conceal, so build the delay back up before playing again
+            if (concealer.isExhausted()) {
+                playing = false;
+            }
+        }
+
+        private void close() {
+            closed = true;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package net.sothatsit.audiostream.audio;
+
+import net.sothatsit.audiostream.metrics.MetricsRegistry;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.Mixer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Shares a single SoftwareMixer for each output mixer between everything playing audio through it.
+ *
+ * @author Paddy Lamont
+ */
+public class SoftwareMixerPool {
+
+    private final Map<Mixer.Info, SoftwareMixer> mixers;
+    private final Map<SoftwareMixer, Integer> users;
+    private final MetricsRegistry metrics;
+
+    public SoftwareMixerPool() {
+        this.mixers = new HashMap<>();
+        this.users = new HashMap<>();
+        this.metrics = new MetricsRegistry("softwareMixers");
+    }
+
+    /**
+     * @return The metrics of this pool, with the metrics of each mixer in use as children.
+     */
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Get the SoftwareMixer for {@param mixer}, starting a new one if it is not already in use.
+     * Every call to this method should be matched with a call to {@link #release(SoftwareMixer)}.
+     *
+     * @param format The preferred format of the mixer, if a new one has to be started.
+     * @param bufferSizeMS The size of the line buffer of the mixer, if a new one has to be started.
+     * @param maxBufferSizeMS The size to grow the line buffer of the mixer up to, if a new one has to be started.
+     */
+    public synchronized SoftwareMixer acquire(Mixer.Info mixer,
+                                              AudioFormat format,
+                                              int bufferSizeMS,
+                                              int maxBufferSizeMS) throws LineUnavailableException {
+
+        SoftwareMixer softwareMixer = mixers.get(mixer);
+        if (softwareMixer == null) {
+            softwareMixer = createMixer(mixer, format, bufferSizeMS, maxBufferSizeMS);
+            softwareMixer.start();
+            mixers.put(mixer, softwareMixer);
+            metrics.addChild(softwareMixer.getMetrics());
+        }
+
+        users.merge(softwareMixer, 1, Integer::sum);
+        return softwareMixer;
+    }
+
+    /**
+     * @return A new SoftwareMixer that plays through {@param mixer}.
+     */
+    protected SoftwareMixer createMixer(Mixer.Info mixer,
+                                        AudioFormat format,
+                                        int bufferSizeMS,
+                                        int maxBufferSizeMS) throws LineUnavailableException {
+
+        return SoftwareMixer.create(mixer, format, bufferSizeMS, maxBufferSizeMS);
+    }
+
+    /**
+     * Stop using {@param softwareMixer}, stopping it if nothing else is using it.
+     */
+    public synchronized void release(SoftwareMixer softwareMixer) {
+        Integer count = users.get(softwareMixer);
+        if (count == null)
+            throw new IllegalArgumentException("softwareMixer is not a part of this pool");
+
+        if (count > 1) {
+            users.put(softwareMixer, count - 1);
+            return;
+        }
+
+        users.remove(softwareMixer);
+        mixers.values().remove(softwareMixer);
+        metrics.removeChild(softwareMixer.getMetrics());
+        softwareMixer.stop();
+    }
+}
@@ -0,0 +1,147 @@
+package net.sothatsit.audiostream.audio;
+
+/**
+ * Plays floating point audio slightly faster than real time without changing its pitch,
+ * so that a stream that has fallen behind can catch back up.
+ *
+ * Quiet audio is simply skipped, as dropping it cannot be heard. Otherwise, segments are removed
+ * using WSOLA: the segment removed is chosen so that the audio after it best matches the audio
+ * before it, which is typically a whole number of pitch periods, and the two are crossfaded.
+ * Segments are only removed often enough to speed the audio up by at most {@link #MAX_SPEEDUP},
+ * which is barely noticeable, and only one similarity search is done per removed segment.
+ *
+ * This class is NOT thread safe and should
+ * always be used from a single thread.
+ *
+ * @author Paddy Lamont
+ */
+public class TimeCompressor {
+
+    /**
+     * The fraction by which audio that is not quiet may be sped up.
+     */
+    private static final double MAX_SPEEDUP = 0.1;
+
+    /**
+     * The range of segment lengths that may be removed at a time.
+     */
+    private static final double MIN_SEGMENT_MS = 2.5;
+    private static final double MAX_SEGMENT_MS = 15;
+
+    private static final double CROSSFADE_MS = 5;
+
+    /**
+     * Audio with every sample below this level is considered quiet enough to skip.
+     */
+    private static final float QUIET_LEVEL = 0.003f;
+
+    private final int channels;
+    private final int minSegmentFrames;
+    private final int maxSegmentFrames;
+    private final int crossfadeFrames;
+
+    private double budgetFrames;
+
+    public TimeCompressor(float sampleRate, int channels) {
+        this.channels = channels;
+        this.minSegmentFrames = Math.max(1, (int) (sampleRate * MIN_SEGMENT_MS / 1000));
+        this.maxSegmentFrames = Math.max(minSegmentFrames, (int) (sampleRate * MAX_SEGMENT_MS / 1000));
+        this.crossfadeFrames = Math.max(1, (int) (sampleRate * CROSSFADE_MS / 1000));
+    }
+
+    /**
+     * @return The number of frames of audio past the output that must be provided for segments to be removed.
+     */
+    public int getLookaheadFrames() {
+        return maxSegmentFrames;
+    }
+
+    /**
+     * Compress the {@param inputFrames} frames of interleaved audio in {@param samples} starting at sample
+     * {@param offset}, in place, into its first {@param outputFrames} frames. At most {@param maxSkipFrames}
+     * frames more than {@param outputFrames} are consumed.
+     *
+     * @return The number of input frames that were consumed to produce the output.
+     */
+    public int compress(float[] samples, int offset, int inputFrames, int outputFrames, int maxSkipFrames) {
+        int skipLimit = Math.min(maxSkipFrames, inputFrames - outputFrames);
+        if (skipLimit <= 0)
+            return Math.min(inputFrames, outputFrames);
+
+        if (isQuiet(samples, offset, inputFrames))
+            return outputFrames + skipLimit;
+
+        budgetFrames = Math.min(budgetFrames + outputFrames * MAX_SPEEDUP, maxSegmentFrames);
+        if (budgetFrames < maxSegmentFrames || skipLimit < minSegmentFrames)
+            return outputFrames;
+
+        int spliceFrame = outputFrames / 2;
+        int overlap = Math.min(crossfadeFrames, spliceFrame);
+        int segmentFrames = findSegment(samples, offset, spliceFrame - overlap, overlap, Math.min(skipLimit, maxSegmentFrames));
+        budgetFrames -= segmentFrames;
+
+        // Crossfade into the audio after the removed segment, and then continue from it.
+        // Samples are only ever read at or after the position they are written to, so this can be done in place.
+        for (int frame = spliceFrame - overlap; frame < spliceFrame; ++frame) {
+            float weight = (frame - (spliceFrame - overlap) + 1.0f) / (overlap + 1.0f);
+            int index = offset + frame * channels;
+            int segmentIndex = index + segmentFrames * channels;
+            for (int channel = 0; channel < channels; ++channel) {
+                samples[index + channel] = (1 - weight) * samples[index + channel] + weight * samples[segmentIndex + channel];
+            }
+        }
+        System.arraycopy(
+                samples, offset + (spliceFrame + segmentFrames) * channels,
+                samples, offset + spliceFrame * channels,
+                (outputFrames - spliceFrame) * channels
+        );
+
+        return outputFrames + segmentFrames;
+    }
+
+    /**
+     * @return The length of segment between the minimum segment length and {@param maxFrames}, after which the
+     *         {@param overlap} frames starting at {@param start} are best matched, by normalised correlation.
+     */
+    private int findSegment(float[] samples, int offset, int start, int overlap, int maxFrames) {
+        int startIndex = offset + start * channels;
+        int length = overlap * channels;
+
+        double energy = 0;
+        for (int index = 0; index < length; ++index) {
+            energy += samples[startIndex + index] * samples[startIndex + index];
+        }
+
+        int bestFrames = maxFrames;
+        double bestCorrelation = Double.NEGATIVE_INFINITY;
+        for (int frames = minSegmentFrames; frames <= maxFrames; ++frames) {
+            int shiftedIndex = startIndex + frames * channels;
+
+            double product = 0;
+            double shiftedEnergy = 0;
+            for (int index = 0; index < length; ++index) {
+                float shifted = samples[shiftedIndex + index];
+                product += samples[startIndex + index] * shifted;
+                shiftedEnergy += shifted * shifted;
+            }
+            if (energy <= 0 || shiftedEnergy <= 0)
+                continue;
+
+            double correlation = product / Math.sqrt(energy * shiftedEnergy);
+            if (correlation > bestCorrelation) {
+                bestCorrelation = correlation;
+                bestFrames = frames;
+            }
+        }
+        return bestFrames;
+    }
+
+    private boolean isQuiet(float[] samples, int offset, int frames) {
+        int end = offset + frames * channels;
+        for (int index = offset; index < end; ++index) {
+            if (Math.abs(samples[index]) >= QUIET_LEVEL)
+                return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,134 @@
+package net.sothatsit.audiostream.audio.virtual;
+
+import net.sothatsit.audiostream.audio.Resampler;
+import net.sothatsit.audiostream.audio.SampleCodec;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Generates the audio in a file, repeating it once it reaches the end.
+ *
+ * The whole file is read into memory when the generator is created, and converted
+ * to the sample rate of each line that captures from it as the line is opened.
+ *
+ * @author Paddy Lamont
+ */
+public class FileGenerator implements SampleGenerator {
+
+    private final String name;
+    private final float fileSampleRate;
+    private final int fileChannels;
+    private final float[] fileSamples;
+
+    private volatile float[] samples;
+    private volatile int frames;
+
+    /**
+     * @throws UnsupportedAudioFileException If the format of {@param file} is not supported by javax.sound.sampled.
+     */
+    public FileGenerator(File file) throws IOException, UnsupportedAudioFileException {
+        this.name = file.getName();
+
+        try (AudioInputStream fileStream = AudioSystem.getAudioInputStream(file)) {
+            AudioInputStream stream = fileStream;
+            AudioFormat format = stream.getFormat();
+
+            // Compressed files are decoded to 16 bit samples first
+            if (!SampleCodec.isSupported(format)) {
+                format = new AudioFormat(format.getSampleRate(), 16, format.getChannels(), true, false);
+                stream = AudioSystem.getAudioInputStream(format, fileStream);
+            }
+
+            byte[] bytes = readAll(stream);
+            int sampleCount = bytes.length / format.getFrameSize() * format.getChannels();
+
+            this.fileSampleRate = format.getSampleRate();
+            this.fileChannels = format.getChannels();
+            this.fileSamples = new float[sampleCount];
+            new SampleCodec(format).decode(bytes, 0, fileSamples, 0, sampleCount);
+        }
+
+        this.samples = fileSamples;
+        this.frames = fileSamples.length / fileChannels;
+    }
+
+    private static byte[] readAll(AudioInputStream stream) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[64 * 1024];
+        int read;
+        while ((read = stream.read(buffer)) >= 0) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Convert the audio of the file to the sample rate of {@param format}, using a Resampler.
+     */
+    @Override
+    public void open(AudioFormat format) {
+        float sampleRate = format.getSampleRate();
+        int fileFrames = fileSamples.length / fileChannels;
+        if (sampleRate == fileSampleRate || fileFrames == 0) {
+            this.samples = fileSamples;
+            this.frames = fileFrames;
+            return;
+        }
+
+        Resampler resampler = new Resampler(fileSampleRate, sampleRate, fileChannels);
+        double ratio = sampleRate / fileSampleRate;
+
+        // The file repeats, so the resampler is primed with the end of the file and flushed with its start,
+        // which also keeps the audio continuous where the end of the file loops back around to its start
+        int padFrames = 2 * resampler.getDelayFrames();
+        int inputFrames = padFrames + fileFrames + padFrames;
+        float[] input = new float[inputFrames * fileChannels];
+        for (int frame = 0; frame < inputFrames; ++frame) {
+            int fileFrame = Math.floorMod(frame - padFrames, fileFrames);
+            System.arraycopy(fileSamples, fileFrame * fileChannels, input, frame * fileChannels, fileChannels);
+        }
+
+        float[] output = new float[resampler.getMaxOutputFrames(inputFrames) * fileChannels];
+        int outputFrames = resampler.process(input, 0, inputFrames, output, 0);
+
+        // Trim the output back to one repeat of the file, accounting for the delay of the resampler
+        int startFrame = (int) Math.round((padFrames + resampler.getDelayFrames()) * ratio);
+        int frames = (int) Math.min(Math.round(fileFrames * ratio), outputFrames - startFrame);
+
+        this.samples = Arrays.copyOfRange(output, startFrame * fileChannels, (startFrame + frames) * fileChannels);
+        this.frames = frames;
+    }
+
+    @Override
+    public void generate(long frameIndex, float[] out, int frames, int channels) {
+        float[] samples = this.samples;
+        int fileFrames = Math.min(this.frames, samples.length / fileChannels);
+
+        for (int frame = 0; frame < frames; ++frame) {
+            int outIndex = frame * channels;
+            if (fileFrames == 0) {
+                for (int channel = 0; channel < channels; ++channel) {
+                    out[outIndex + channel] = 0;
+                }
+                continue;
+            }
+
+            // Channels that are not in the file repeat the channels that are, so that mono is heard on every channel
+            int index = (int) ((frameIndex + frame) % fileFrames) * fileChannels;
+            for (int channel = 0; channel < channels; ++channel) {
+                out[outIndex + channel] = samples[index + channel % fileChannels];
+            }
+        }
+    }
+}
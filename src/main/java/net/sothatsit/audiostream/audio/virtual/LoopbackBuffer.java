@@ -0,0 +1,74 @@
+package net.sothatsit.audiostream.audio.virtual;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Passes the audio played by a virtual playback line on to be captured by a virtual capture line.
+ *
+ * Audio only reaches the buffer as the playback line plays it, so audio captured from the buffer
+ * is delayed by the time it spent queued in the playback line, as it would be by a real loopback
+ * device. When there is nothing to capture, silence is captured instead.
+ *
+ * @author Paddy Lamont
+ */
+public class LoopbackBuffer implements SampleSink, SampleGenerator {
+
+    /**
+     * The most audio to hold, after which the oldest audio is thrown away. This is
+     * around 340 ms at 48 kHz, enough to cover the reads of a slow capture line.
+     */
+    private static final int CAPACITY_FRAMES = 16 * 1024;
+
+    private float[] samples;
+    private int channels;
+    private long writeFrame;
+    private long readFrame;
+
+    public LoopbackBuffer() {
+        this.samples = new float[0];
+    }
+
+    /**
+     * Throw away any audio played before the capture line was opened, so that it captures what is played from now.
+     */
+    @Override
+    public synchronized void open(AudioFormat format) {
+        readFrame = writeFrame;
+    }
+
+    @Override
+    public synchronized void play(float[] played, int frames, int channels) {
+        if (channels != this.channels) {
+            this.samples = new float[CAPACITY_FRAMES * channels];
+            this.channels = channels;
+            this.readFrame = writeFrame;
+        }
+
+        for (int frame = 0; frame < frames; ++frame) {
+            int index = (int) ((writeFrame + frame) % CAPACITY_FRAMES) * channels;
+            System.arraycopy(played, frame * channels, samples, index, channels);
+        }
+        writeFrame += frames;
+        readFrame = Math.max(readFrame, writeFrame - CAPACITY_FRAMES);
+    }
+
+    @Override
+    public synchronized void generate(long frameIndex, float[] out, int frames, int outChannels) {
+        for (int frame = 0; frame < frames; ++frame) {
+            int outIndex = frame * outChannels;
+            if (readFrame >= writeFrame) {
+                for (int channel = 0; channel < outChannels; ++channel) {
+                    out[outIndex + channel] = 0;
+                }
+                continue;
+            }
+
+            // Channels that were not played repeat the channels that were, so that mono is heard on every channel
+            int index = (int) (readFrame % CAPACITY_FRAMES) * channels;
+            for (int channel = 0; channel < outChannels; ++channel) {
+                out[outIndex + channel] = samples[index + channel % channels];
+            }
+            readFrame += 1;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package net.sothatsit.audiostream.audio.virtual;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Generates the audio captured by a virtual line.
+ *
+ * @author Paddy Lamont
+ */
+@FunctionalInterface
+public interface SampleGenerator {
+
+    /**
+     * Called each time a line that captures from this generator is opened, with the {@param format} it was opened in.
+     */
+    public default void open(AudioFormat format) {}
+
+    /**
+     * Generate {@param frames} frames of interleaved audio with {@param channels} channels into {@param out},
+     * starting with the frame at index {@param frameIndex} of the stream. Frames that are skipped over
+     * because the line overran are never generated, so the index may jump forwards between calls.
+     */
+    public void generate(long frameIndex, float[] out, int frames, int channels);
+}
@@ -0,0 +1,15 @@
+package net.sothatsit.audiostream.audio.virtual;
+
+/**
+ * Receives the audio played by a virtual line, at the moment that it is played.
+ *
+ * @author Paddy Lamont
+ */
+@FunctionalInterface
+public interface SampleSink {
+
+    /**
+     * Receive {@param frames} frames of interleaved audio with {@param channels} channels from {@param samples}.
+     */
+    public void play(float[] samples, int frames, int channels);
+}
@@ -0,0 +1,40 @@
+package net.sothatsit.audiostream.audio.virtual;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Generates a sine wave tone on every channel.
+ *
+ * @author Paddy Lamont
+ */
+public class ToneGenerator implements SampleGenerator {
+
+    private final double frequency;
+    private final float amplitude;
+    private volatile double radiansPerFrame;
+
+    /**
+     * @param frequency The frequency of the tone in Hz.
+     * @param amplitude The peak level of the tone, in the range [0, 1].
+     */
+    public ToneGenerator(double frequency, float amplitude) {
+        this.frequency = frequency;
+        this.amplitude = amplitude;
+    }
+
+    @Override
+    public void open(AudioFormat format) {
+        this.radiansPerFrame = 2 * Math.PI * frequency / format.getSampleRate();
+    }
+
+    @Override
+    public void generate(long frameIndex, float[] out, int frames, int channels) {
+        double radiansPerFrame = this.radiansPerFrame;
+        for (int frame = 0; frame < frames; ++frame) {
+            float sample = amplitude * (float) Math.sin(((frameIndex + frame) * radiansPerFrame) % (2 * Math.PI));
+            for (int channel = 0; channel < channels; ++channel) {
+                out[frame * channels + channel] = sample;
+            }
+        }
+    }
+}
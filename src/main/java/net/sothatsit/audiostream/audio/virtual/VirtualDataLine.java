@@ -0,0 +1,202 @@
+package net.sothatsit.audiostream.audio.virtual;
+
+import javax.sound.sampled.*;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A line with no audio device behind it, that moves through audio at the pace of the System.nanoTime() clock.
+ *
+ * The clock of the line only advances while it is running, in the same way that the position
+ * of a real line stops while it is stopped. Reads and writes block outside of the lock of the
+ * line, so that its position and availability can be checked from other threads while they wait.
+ *
+ * @author Paddy Lamont
+ */
+abstract class VirtualDataLine implements DataLine {
+
+    /**
+     * The longest time to wait at once, so that blocked reads and writes notice the line stopping.
+     */
+    private static final long MAX_WAIT_NANOS = 5_000_000;
+
+    private static final int DEFAULT_BUFFER_MS = 500;
+
+    private final Line.Info info;
+    private VirtualMixer mixer;
+
+    protected AudioFormat format;
+    protected int frameSize;
+    protected long bufferFrames;
+    private double nanosPerFrame;
+
+    private boolean open;
+    private boolean running;
+    private long stoppedClockFrames;
+    private long runningSinceNanos;
+
+    protected VirtualDataLine(Line.Info info, AudioFormat defaultFormat) {
+        this.info = info;
+        this.format = defaultFormat;
+    }
+
+    /**
+     * Set the mixer that this line belongs to, which it must claim before it is opened.
+     */
+    void setMixer(VirtualMixer mixer) {
+        this.mixer = mixer;
+    }
+
+    public synchronized void open(AudioFormat format, int bufferSize) throws LineUnavailableException {
+        if (open)
+            return;
+        if (format.getFrameSize() <= 0 || format.getFrameRate() <= 0)
+            throw new LineUnavailableException("Unsupported audio format " + format);
+        if (mixer != null) {
+            mixer.claim(this);
+        }
+
+        this.format = format;
+        this.frameSize = format.getFrameSize();
+        this.bufferFrames = Math.max(1, bufferSize / frameSize);
+        this.nanosPerFrame = 1e9 / format.getFrameRate();
+        this.stoppedClockFrames = 0;
+        this.open = true;
+        onOpen();
+    }
+
+    public void open(AudioFormat format) throws LineUnavailableException {
+        open(format, (int) (format.getFrameRate() * DEFAULT_BUFFER_MS / 1000) * format.getFrameSize());
+    }
+
+    @Override
+    public void open() throws LineUnavailableException {
+        open(format);
+    }
+
+    /**
+     * Called with the lock of the line held each time it is opened, to reset the audio it holds.
+     */
+    protected abstract void onOpen();
+
+    @Override
+    public synchronized void close() {
+        if (!open)
+            return;
+
+        stop();
+        open = false;
+        if (mixer != null) {
+            mixer.release(this);
+        }
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public synchronized void start() {
+        if (!open || running)
+            return;
+
+        runningSinceNanos = System.nanoTime();
+        running = true;
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (!running)
+            return;
+
+        stoppedClockFrames = getClockFrames();
+        running = false;
+    }
+
+    @Override
+    public synchronized boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public synchronized boolean isActive() {
+        return running;
+    }
+
+    /**
+     * @return The number of frames that the clock of the line has moved through while it has been running.
+     */
+    protected synchronized long getClockFrames() {
+        if (!running)
+            return stoppedClockFrames;
+
+        return stoppedClockFrames + (long) ((System.nanoTime() - runningSinceNanos) / nanosPerFrame);
+    }
+
+    /**
+     * Wait for the clock of the line to move through {@param frames} frames, or less if the line
+     * is stopped in the meantime. This must be called without holding the lock of the line.
+     *
+     * @return Whether the thread was interrupted, in which case the caller should stop waiting.
+     */
+    protected boolean waitFrames(long frames) {
+        long waitNanos = Math.min(MAX_WAIT_NANOS, Math.max(1, (long) (frames * nanosPerFrame)));
+        LockSupport.parkNanos(this, waitNanos);
+        return Thread.currentThread().isInterrupted();
+    }
+
+    @Override
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    @Override
+    public synchronized int getBufferSize() {
+        return (int) (bufferFrames * frameSize);
+    }
+
+    @Override
+    public int getFramePosition() {
+        return (int) getLongFramePosition();
+    }
+
+    @Override
+    public long getMicrosecondPosition() {
+        return (long) (getLongFramePosition() * 1e6 / format.getFrameRate());
+    }
+
+    @Override
+    public float getLevel() {
+        return AudioSystem.NOT_SPECIFIED;
+    }
+
+    @Override
+    public Line.Info getLineInfo() {
+        return info;
+    }
+
+    @Override
+    public Control[] getControls() {
+        return new Control[0];
+    }
+
+    @Override
+    public boolean isControlSupported(Control.Type control) {
+        return false;
+    }
+
+    @Override
+    public Control getControl(Control.Type control) {
+        throw new IllegalArgumentException("Unsupported control type " + control);
+    }
+
+    @Override
+    public void addLineListener(LineListener listener) {
+        // Virtual lines do not report events
+    }
+
+    @Override
+    public void removeLineListener(LineListener listener) {
+        // Virtual lines do not report events
+    }
+}
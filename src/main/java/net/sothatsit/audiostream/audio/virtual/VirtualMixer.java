@@ -0,0 +1,295 @@
+package net.sothatsit.audiostream.audio.virtual;
+
+import net.sothatsit.audiostream.audio.SampleCodec;
+
+import javax.sound.sampled.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A mixer with no audio device behind it, that provides virtual lines which capture
+ * from a SampleGenerator and play into a SampleSink at a real-time pace.
+ *
+ * Like many real devices, each mixer has at most one capture line and one playback
+ * line open at a time, so a SoftwareMixer should be used to play many streams at once.
+ *
+ * @author Paddy Lamont
+ */
+public class VirtualMixer implements Mixer {
+
+    private static final AudioFormat DEFAULT_FORMAT = new AudioFormat(48000, 16, 2, true, false);
+
+    private final Mixer.Info info;
+    private final SampleGenerator generator;
+    private final SampleSink sink;
+    private final Line.Info mixerLineInfo;
+    private final DataLine.Info[] sourceLineInfo;
+    private final DataLine.Info[] targetLineInfo;
+
+    private boolean open;
+    private VirtualDataLine openSourceLine;
+    private VirtualDataLine openTargetLine;
+
+    /**
+     * @param generator Generates the audio captured from this mixer, or null if it has no capture line.
+     * @param playback Whether this mixer has a playback line.
+     * @param sink Receives the audio played by this mixer, or null to throw it away.
+     */
+    protected VirtualMixer(Mixer.Info info, SampleGenerator generator, boolean playback, SampleSink sink) {
+        this.info = info;
+        this.generator = generator;
+        this.sink = sink;
+        this.mixerLineInfo = new Line.Info(Mixer.class);
+
+        AudioFormat[] formats = getSupportedFormats();
+        this.sourceLineInfo = (playback ? new DataLine.Info[] {
+                new DataLine.Info(SourceDataLine.class, formats, AudioSystem.NOT_SPECIFIED, AudioSystem.NOT_SPECIFIED)
+        } : new DataLine.Info[0]);
+        this.targetLineInfo = (generator != null ? new DataLine.Info[] {
+                new DataLine.Info(TargetDataLine.class, formats, AudioSystem.NOT_SPECIFIED, AudioSystem.NOT_SPECIFIED)
+        } : new DataLine.Info[0]);
+    }
+
+    /**
+     * @return A mixer where the audio played into it can be captured from it.
+     */
+    public static VirtualMixer createLoopback(String name) {
+        LoopbackBuffer loopback = new LoopbackBuffer();
+        return new VirtualMixer(new VirtualMixerInfo(name, "Captures the audio played into it"), loopback, true, loopback);
+    }
+
+    /**
+     * @return A mixer that captures the audio generated by {@param generator}.
+     */
+    public static VirtualMixer createCapture(String name, String description, SampleGenerator generator) {
+        return new VirtualMixer(new VirtualMixerInfo(name, description), generator, false, null);
+    }
+
+    /**
+     * @return A mixer that throws away the audio played into it.
+     */
+    public static VirtualMixer createPlayback(String name) {
+        return new VirtualMixer(new VirtualMixerInfo(name, "Throws away the audio played into it"), null, true, null);
+    }
+
+    /**
+     * Every sample rate and channel count is supported, in any format that SampleCodec supports.
+     */
+    private static AudioFormat[] getSupportedFormats() {
+        AudioFormat.Encoding[] encodings = {
+                AudioFormat.Encoding.PCM_SIGNED, AudioFormat.Encoding.PCM_SIGNED,
+                AudioFormat.Encoding.PCM_SIGNED, AudioFormat.Encoding.PCM_SIGNED,
+                AudioFormat.Encoding.PCM_UNSIGNED, AudioFormat.Encoding.PCM_FLOAT
+        };
+        int[] sampleSizes = {8, 16, 24, 32, 8, 32};
+
+        List<AudioFormat> formats = new ArrayList<>();
+        for (int index = 0; index < encodings.length; ++index) {
+            for (boolean bigEndian : new boolean[] {false, true}) {
+                formats.add(new AudioFormat(
+                        encodings[index], AudioSystem.NOT_SPECIFIED, sampleSizes[index],
+                        AudioSystem.NOT_SPECIFIED, AudioSystem.NOT_SPECIFIED, AudioSystem.NOT_SPECIFIED, bigEndian
+                ));
+            }
+        }
+        return formats.toArray(new AudioFormat[formats.size()]);
+    }
+
+    /**
+     * @return The first fully specified format requested by {@param info}, or else a default format.
+     */
+    private static AudioFormat chooseFormat(Line.Info info) {
+        if (info instanceof DataLine.Info) {
+            for (AudioFormat format : ((DataLine.Info) info).getFormats()) {
+                if (format.getSampleRate() > 0 && format.getChannels() > 0 && SampleCodec.isSupported(format))
+                    return format;
+            }
+        }
+        return DEFAULT_FORMAT;
+    }
+
+    @Override
+    public Mixer.Info getMixerInfo() {
+        return info;
+    }
+
+    @Override
+    public Line.Info[] getSourceLineInfo() {
+        return sourceLineInfo.clone();
+    }
+
+    @Override
+    public Line.Info[] getTargetLineInfo() {
+        return targetLineInfo.clone();
+    }
+
+    @Override
+    public Line.Info[] getSourceLineInfo(Line.Info info) {
+        return findMatching(sourceLineInfo, info);
+    }
+
+    @Override
+    public Line.Info[] getTargetLineInfo(Line.Info info) {
+        return findMatching(targetLineInfo, info);
+    }
+
+    private static Line.Info[] findMatching(Line.Info[] supported, Line.Info info) {
+        List<Line.Info> matching = new ArrayList<>();
+        for (Line.Info supportedInfo : supported) {
+            if (info.matches(supportedInfo)) {
+                matching.add(supportedInfo);
+            }
+        }
+        return matching.toArray(new Line.Info[matching.size()]);
+    }
+
+    @Override
+    public boolean isLineSupported(Line.Info info) {
+        return getSourceLineInfo(info).length > 0 || getTargetLineInfo(info).length > 0;
+    }
+
+    @Override
+    public Line getLine(Line.Info info) throws LineUnavailableException {
+        VirtualDataLine line;
+        if (getSourceLineInfo(info).length > 0) {
+            line = new VirtualSourceDataLine(sourceLineInfo[0], chooseFormat(info), sink);
+        } else if (getTargetLineInfo(info).length > 0) {
+            line = new VirtualTargetDataLine(targetLineInfo[0], chooseFormat(info), generator);
+        } else {
+            throw new IllegalArgumentException("Unsupported line " + info + " for mixer " + this.info.getName());
+        }
+
+        line.setMixer(this);
+        return line;
+    }
+
+    /**
+     * Claim the playback or capture line of this mixer for {@param line}, as it is opened.
+     *
+     * @throws LineUnavailableException If another line of the same kind is already open.
+     */
+    synchronized void claim(VirtualDataLine line) throws LineUnavailableException {
+        boolean source = (line instanceof SourceDataLine);
+        VirtualDataLine openLine = (source ? openSourceLine : openTargetLine);
+        if (openLine != null && openLine != line) {
+            String kind = (source ? "playback" : "capture");
+            throw new LineUnavailableException("The " + kind + " line of " + info.getName() + " is already in use");
+        }
+
+        if (source) {
+            openSourceLine = line;
+        } else {
+            openTargetLine = line;
+        }
+    }
+
+    /**
+     * Release the line claimed by {@param line}, as it is closed.
+     */
+    synchronized void release(VirtualDataLine line) {
+        if (openSourceLine == line) {
+            openSourceLine = null;
+        }
+        if (openTargetLine == line) {
+            openTargetLine = null;
+        }
+    }
+
+    @Override
+    public int getMaxLines(Line.Info info) {
+        return isLineSupported(info) ? 1 : 0;
+    }
+
+    @Override
+    public synchronized Line[] getSourceLines() {
+        return openSourceLine != null ? new Line[] {openSourceLine} : new Line[0];
+    }
+
+    @Override
+    public synchronized Line[] getTargetLines() {
+        return openTargetLine != null ? new Line[] {openTargetLine} : new Line[0];
+    }
+
+    @Override
+    public void synchronize(Line[] lines, boolean maintainSync) {
+        throw new IllegalArgumentException("Synchronization is not supported by virtual mixers");
+    }
+
+    @Override
+    public void unsynchronize(Line[] lines) {
+        throw new IllegalArgumentException("Synchronization is not supported by virtual mixers");
+    }
+
+    @Override
+    public boolean isSynchronizationSupported(Line[] lines, boolean maintainSync) {
+        return false;
+    }
+
+    @Override
+    public Line.Info getLineInfo() {
+        return mixerLineInfo;
+    }
+
+    @Override
+    public synchronized void open() {
+        open = true;
+    }
+
+    @Override
+    public void close() {
+        List<VirtualDataLine> lines = new ArrayList<>();
+
+        // The lines are closed without holding the lock, as they release themselves from this mixer as they close
+        synchronized (this) {
+            open = false;
+            if (openSourceLine != null) {
+                lines.add(openSourceLine);
+            }
+            if (openTargetLine != null) {
+                lines.add(openTargetLine);
+            }
+        }
+
+        lines.forEach(VirtualDataLine::close);
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public Control[] getControls() {
+        return new Control[0];
+    }
+
+    @Override
+    public boolean isControlSupported(Control.Type control) {
+        return false;
+    }
+
+    @Override
+    public Control getControl(Control.Type control) {
+        throw new IllegalArgumentException("Unsupported control type " + control);
+    }
+
+    @Override
+    public void addLineListener(LineListener listener) {
+        // Virtual mixers do not report events
+    }
+
+    @Override
+    public void removeLineListener(LineListener listener) {
+        // Virtual mixers do not report events
+    }
+
+    /**
+     * Identifies a virtual mixer.
+     */
+    private static class VirtualMixerInfo extends Mixer.Info {
+
+        private VirtualMixerInfo(String name, String description) {
+            super(name, "AudioStream", description, "1.0");
+        }
+    }
+}
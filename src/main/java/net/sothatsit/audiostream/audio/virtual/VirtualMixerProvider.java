@@ -0,0 +1,75 @@
+package net.sothatsit.audiostream.audio.virtual;
+
+import javax.sound.sampled.Mixer;
+import javax.sound.sampled.spi.MixerProvider;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Provides the registered VirtualMixers to javax.sound.sampled, so that they are listed and
+ * opened through AudioSystem alongside the mixers of real audio devices.
+ *
+ * No mixers are registered by default, so that machines with real audio devices are not given
+ * extra devices to choose from. This provider is registered in META-INF/services, and the
+ * mixers it provides can be registered at any time.
+ *
+ * @author Paddy Lamont
+ */
+public class VirtualMixerProvider extends MixerProvider {
+
+    public static final String LOOPBACK_MIXER_NAME = "Virtual Loopback";
+    public static final String TONE_MIXER_NAME = "Virtual Tone";
+
+    private static final double TONE_FREQUENCY = 440;
+    private static final float TONE_AMPLITUDE = 0.5f;
+
+    private static final List<VirtualMixer> mixers = new CopyOnWriteArrayList<>();
+
+    /**
+     * Register a loopback mixer, and a mixer that captures a tone.
+     */
+    public static void registerDefaultMixers() {
+        register(VirtualMixer.createLoopback(LOOPBACK_MIXER_NAME));
+        register(VirtualMixer.createCapture(
+                TONE_MIXER_NAME,
+                "Captures a " + TONE_FREQUENCY + " Hz tone",
+                new ToneGenerator(TONE_FREQUENCY, TONE_AMPLITUDE)
+        ));
+    }
+
+    /**
+     * Register a mixer that captures the audio in the file read by {@param generator}, on repeat.
+     */
+    public static void registerFileMixer(FileGenerator generator) {
+        String name = "Virtual File (" + generator.getName() + ")";
+        register(VirtualMixer.createCapture(name, "Captures the audio in " + generator.getName(), generator));
+    }
+
+    public static void register(VirtualMixer mixer) {
+        mixers.add(mixer);
+    }
+
+    public static void unregister(VirtualMixer mixer) {
+        mixers.remove(mixer);
+    }
+
+    @Override
+    public Mixer.Info[] getMixerInfo() {
+        VirtualMixer[] registered = mixers.toArray(new VirtualMixer[0]);
+
+        Mixer.Info[] infos = new Mixer.Info[registered.length];
+        for (int index = 0; index < infos.length; ++index) {
+            infos[index] = registered[index].getMixerInfo();
+        }
+        return infos;
+    }
+
+    @Override
+    public Mixer getMixer(Mixer.Info info) {
+        for (VirtualMixer mixer : mixers) {
+            if (mixer.getMixerInfo().equals(info))
+                return mixer;
+        }
+        throw new IllegalArgumentException("Mixer " + info + " is not provided by " + getClass().getSimpleName());
+    }
+}
@@ -0,0 +1,181 @@
+package net.sothatsit.audiostream.audio.virtual;
+
+import net.sothatsit.audiostream.audio.SampleCodec;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.Line;
+import javax.sound.sampled.SourceDataLine;
+
+/**
+ * A playback line that plays audio at the pace of the System.nanoTime() clock, into a
+ * SampleSink, or into nothing.
+ *
+ * The line otherwise behaves like a real playback line. Writes block while its buffer is full,
+ * and if it is not written to often enough it runs out of audio, and its position stops while
+ * it has nothing to play.
+ *
+ * @author Paddy Lamont
+ */
+public class VirtualSourceDataLine extends VirtualDataLine implements SourceDataLine {
+
+    private final SampleSink sink;
+
+    private SampleCodec codec;
+    private byte[] queue;
+    private float[] samples;
+    private long lastClockFrames;
+    private long queuedFrames;
+    private long playedFrames;
+
+    /**
+     * Create a line that throws away the audio that it plays.
+     */
+    public VirtualSourceDataLine(AudioFormat defaultFormat) {
+        this(defaultFormat, null);
+    }
+
+    /**
+     * @param sink Receives the audio as it is played, or null to throw it away.
+     */
+    public VirtualSourceDataLine(AudioFormat defaultFormat, SampleSink sink) {
+        this(new Line.Info(SourceDataLine.class), defaultFormat, sink);
+    }
+
+    VirtualSourceDataLine(Line.Info info, AudioFormat defaultFormat, SampleSink sink) {
+        super(info, defaultFormat);
+        this.sink = sink;
+    }
+
+    @Override
+    protected void onOpen() {
+        this.lastClockFrames = 0;
+        this.queuedFrames = 0;
+        this.playedFrames = 0;
+
+        // The audio only needs to be kept until it is played if there is something to play it to
+        if (sink != null) {
+            this.codec = new SampleCodec(format);
+            this.queue = new byte[(int) (bufferFrames * frameSize)];
+            this.samples = new float[0];
+        }
+    }
+
+    /**
+     * Play the queued audio up to the current time of the clock of the line.
+     */
+    private synchronized void update() {
+        long clockFrames = getClockFrames();
+        long played = Math.min(queuedFrames, clockFrames - lastClockFrames);
+        lastClockFrames = clockFrames;
+        if (played <= 0)
+            return;
+
+        if (sink != null) {
+            playToSink((int) played);
+        }
+        queuedFrames -= played;
+        playedFrames += played;
+    }
+
+    private void playToSink(int frames) {
+        int channels = format.getChannels();
+        if (samples.length < frames * channels) {
+            samples = new float[frames * channels];
+        }
+
+        // The played audio may wrap around the end of the queue
+        int framesDone = 0;
+        while (framesDone < frames) {
+            int queueFrame = (int) ((playedFrames + framesDone) % bufferFrames);
+            int chunk = (int) Math.min(frames - framesDone, bufferFrames - queueFrame);
+            codec.decode(queue, queueFrame * frameSize, samples, framesDone * channels, chunk * channels);
+            framesDone += chunk;
+        }
+        sink.play(samples, frames, channels);
+    }
+
+    private void queue(byte[] bytes, int offset, int frames) {
+        if (sink == null)
+            return;
+
+        int framesDone = 0;
+        while (framesDone < frames) {
+            int queueFrame = (int) ((playedFrames + queuedFrames + framesDone) % bufferFrames);
+            int chunk = (int) Math.min(frames - framesDone, bufferFrames - queueFrame);
+            System.arraycopy(bytes, offset + framesDone * frameSize, queue, queueFrame * frameSize, chunk * frameSize);
+            framesDone += chunk;
+        }
+    }
+
+    @Override
+    public int write(byte[] bytes, int offset, int length) {
+        if (length % frameSize != 0)
+            throw new IllegalArgumentException("length must be a whole number of frames");
+
+        int frames = length / frameSize;
+        int framesDone = 0;
+        while (framesDone < frames) {
+            long shortfall;
+            synchronized (this) {
+                if (!isOpen())
+                    break;
+
+                update();
+                int chunk = (int) Math.min(bufferFrames - queuedFrames, frames - framesDone);
+                if (chunk > 0) {
+                    queue(bytes, offset + framesDone * frameSize, chunk);
+                    queuedFrames += chunk;
+                    framesDone += chunk;
+                    continue;
+                }
+
+                if (!isRunning())
+                    break;
+
+                shortfall = frames - framesDone;
+            }
+
+            if (waitFrames(shortfall))
+                break;
+        }
+        return framesDone * frameSize;
+    }
+
+    @Override
+    public synchronized int available() {
+        update();
+        return (int) ((bufferFrames - queuedFrames) * frameSize);
+    }
+
+    /**
+     * @return The number of frames that the line has played.
+     */
+    @Override
+    public synchronized long getLongFramePosition() {
+        update();
+        return playedFrames;
+    }
+
+    @Override
+    public void drain() {
+        while (true) {
+            long queued;
+            synchronized (this) {
+                update();
+                if (queuedFrames == 0 || !isRunning())
+                    return;
+
+                queued = queuedFrames;
+            }
+
+            if (waitFrames(queued))
+                return;
+        }
+    }
+
+    @Override
+    public synchronized void flush() {
+        update();
+        queuedFrames = 0;
+    }
+}
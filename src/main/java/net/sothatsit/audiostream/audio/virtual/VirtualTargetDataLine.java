@@ -0,0 +1,122 @@
+package net.sothatsit.audiostream.audio.virtual;
+
+import net.sothatsit.audiostream.audio.SampleCodec;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.Line;
+import javax.sound.sampled.TargetDataLine;
+
+/**
+ * A capture line that captures audio from a SampleGenerator at the pace of the System.nanoTime() clock.
+ *
+ * Audio is only generated when it is read, but the line otherwise behaves like a real capture
+ * line. Reads block until enough audio has been captured, and if the line is not read often
+ * enough to keep its buffer from filling up, the oldest audio in it is thrown away.
+ *
+ * @author Paddy Lamont
+ */
+public class VirtualTargetDataLine extends VirtualDataLine implements TargetDataLine {
+
+    private final SampleGenerator generator;
+
+    private SampleCodec codec;
+    private float[] samples;
+    private long readFrames;
+
+    public VirtualTargetDataLine(AudioFormat defaultFormat, SampleGenerator generator) {
+        this(new Line.Info(TargetDataLine.class), defaultFormat, generator);
+    }
+
+    VirtualTargetDataLine(Line.Info info, AudioFormat defaultFormat, SampleGenerator generator) {
+        super(info, defaultFormat);
+        this.generator = generator;
+        this.samples = new float[0];
+    }
+
+    @Override
+    protected void onOpen() {
+        this.codec = new SampleCodec(format);
+        this.readFrames = 0;
+        generator.open(format);
+    }
+
+    /**
+     * @return The number of frames that have been captured but not yet read, throwing
+     *         away the oldest frames if more have been captured than the buffer can hold.
+     */
+    private synchronized long getAvailableFrames() {
+        long capturedFrames = getClockFrames();
+        if (capturedFrames - readFrames > bufferFrames) {
+            readFrames = capturedFrames - bufferFrames;
+        }
+        return capturedFrames - readFrames;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) {
+        if (length % frameSize != 0)
+            throw new IllegalArgumentException("length must be a whole number of frames");
+
+        int frames = length / frameSize;
+        int framesDone = 0;
+        while (framesDone < frames) {
+            long shortfall;
+            synchronized (this) {
+                if (!isOpen())
+                    break;
+
+                long available = getAvailableFrames();
+                int chunk = (int) Math.min(available, frames - framesDone);
+                if (chunk > 0) {
+                    generate(bytes, offset + framesDone * frameSize, chunk);
+                    framesDone += chunk;
+                    continue;
+                }
+
+                if (!isRunning())
+                    break;
+
+                shortfall = frames - framesDone;
+            }
+
+            if (waitFrames(shortfall))
+                break;
+        }
+        return framesDone * frameSize;
+    }
+
+    private void generate(byte[] bytes, int offset, int frames) {
+        int channels = format.getChannels();
+        int sampleCount = frames * channels;
+        if (samples.length < sampleCount) {
+            samples = new float[sampleCount];
+        }
+
+        generator.generate(readFrames, samples, frames, channels);
+        codec.encode(samples, 0, bytes, offset, sampleCount);
+        readFrames += frames;
+    }
+
+    @Override
+    public synchronized int available() {
+        return (int) (getAvailableFrames() * frameSize);
+    }
+
+    /**
+     * @return The number of frames that the line has captured, including any that have been thrown away.
+     */
+    @Override
+    public long getLongFramePosition() {
+        return getClockFrames();
+    }
+
+    @Override
+    public void drain() {
+        // Capture lines have nothing to drain
+    }
+
+    @Override
+    public synchronized void flush() {
+        readFrames = getClockFrames();
+    }
+}
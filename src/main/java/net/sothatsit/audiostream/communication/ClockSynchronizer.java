@@ -0,0 +1,184 @@
+package net.sothatsit.audiostream.communication;
+
+/**
+ * Estimates the offset and skew between the System.nanoTime() clock of a remote host and the local one,
+ * from the timestamps of pings exchanged with it, in the same way as NTP.
+ *
+ * For each ping with local send time t1, remote receive time t2, remote send time t3 and
+ * local receive time t4, the offset of the remote clock is ((t2 - t1) + (t3 - t4)) / 2, with
+ * an error bounded by half of the round trip delay (t4 - t1) - (t3 - t2). Of the last few
+ * samples, the one with the smallest delay is used, as it has been the least affected by queueing.
+ * The skew between the clocks is then estimated by fitting a line through these filtered offsets.
+ *
+ * @author Paddy Lamont
+ */
+public class ClockSynchronizer {
+
+    private static final int FILTER_SAMPLES = 8;
+    private static final int FIT_SAMPLES = 32;
+    private static final long MIN_SKEW_SPAN_NANOS = 10_000_000_000L;
+    private static final double MAX_SKEW = 500e-6;
+
+    private final long[] filterTimes = new long[FILTER_SAMPLES];
+    private final long[] filterOffsets = new long[FILTER_SAMPLES];
+    private final long[] filterDelays = new long[FILTER_SAMPLES];
+    private int filterCount;
+    private int filterNext;
+
+    private final long[] fitTimes = new long[FIT_SAMPLES];
+    private final long[] fitOffsets = new long[FIT_SAMPLES];
+    private int fitCount;
+    private int fitNext;
+    private long lastFitTime = Long.MIN_VALUE;
+
+    private volatile Mapping mapping;
+
+    /**
+     * @return The current mapping between the remote and local clocks, or null if no samples have been received.
+     */
+    public Mapping getMapping() {
+        return mapping;
+    }
+
+    public boolean isSynchronized() {
+        return mapping != null;
+    }
+
+    /**
+     * Add the timestamps from the ping {@param pong} as a new sample.
+     */
+    public void addSample(ControlServer.Pong pong) {
+        addSample(pong.sentTimeNanos, pong.remoteReceivedTimeNanos, pong.remoteSentTimeNanos, pong.receivedTimeNanos);
+    }
+
+    /**
+     * Add a new sample with local send time {@param t1}, remote receive time {@param t2},
+     * remote send time {@param t3}, and local receive time {@param t4}.
+     */
+    public synchronized void addSample(long t1, long t2, long t3, long t4) {
+        long delay = (t4 - t1) - (t3 - t2);
+        if (delay < 0)
+            return;
+
+        long offset = ((t2 - t1) + (t3 - t4)) / 2;
+        long time = t1 + (t4 - t1) / 2;
+
+        filterTimes[filterNext] = time;
+        filterOffsets[filterNext] = offset;
+        filterDelays[filterNext] = delay;
+        filterNext = (filterNext + 1) % FILTER_SAMPLES;
+        filterCount = Math.min(filterCount + 1, FILTER_SAMPLES);
+
+        // Select the sample with the smallest delay, as it should have the least error
+        int best = 0;
+        for (int index = 1; index < filterCount; ++index) {
+            if (filterDelays[index] < filterDelays[best]) {
+                best = index;
+            }
+        }
+
+        // The same sample may be selected many times, but should only be fit once
+        if (filterTimes[best] == lastFitTime)
+            return;
+
+        lastFitTime = filterTimes[best];
+        fitTimes[fitNext] = filterTimes[best];
+        fitOffsets[fitNext] = filterOffsets[best];
+        fitNext = (fitNext + 1) % FIT_SAMPLES;
+        fitCount = Math.min(fitCount + 1, FIT_SAMPLES);
+
+        mapping = fitMapping(filterTimes[best], filterOffsets[best], filterDelays[best]);
+    }
+
+    /**
+     * Fit a line through the filtered offsets to estimate the skew between the clocks.
+     */
+    private Mapping fitMapping(long latestTime, long latestOffset, long latestDelay) {
+        long minTime = latestTime;
+        for (int index = 0; index < fitCount; ++index) {
+            minTime = Math.min(minTime, fitTimes[index]);
+        }
+
+        // We need samples over a reasonable span of time to get a meaningful estimate of skew
+        if (latestTime - minTime < MIN_SKEW_SPAN_NANOS)
+            return new Mapping(latestTime, latestOffset, 0, latestDelay);
+
+        // Times and offsets are taken relative to the latest sample to avoid losing precision
+        double sumX = 0, sumY = 0;
+        for (int index = 0; index < fitCount; ++index) {
+            sumX += fitTimes[index] - latestTime;
+            sumY += fitOffsets[index] - latestOffset;
+        }
+        double meanX = sumX / fitCount;
+        double meanY = sumY / fitCount;
+
+        double covariance = 0, variance = 0;
+        for (int index = 0; index < fitCount; ++index) {
+            double dx = (fitTimes[index] - latestTime) - meanX;
+            double dy = (fitOffsets[index] - latestOffset) - meanY;
+            covariance += dx * dy;
+            variance += dx * dx;
+        }
+
+        double skew = Math.max(-MAX_SKEW, Math.min(MAX_SKEW, covariance / variance));
+        double offset = latestOffset + meanY - skew * meanX;
+
+        return new Mapping(latestTime, offset, skew, latestDelay);
+    }
+
+    /**
+     * A linear mapping between the local clock and the clock of a remote host.
+     */
+    public static class Mapping {
+
+        /**
+         * The local time at which {@link #offsetNanos} was estimated.
+         */
+        public final long referenceTimeNanos;
+
+        /**
+         * The remote time minus the local time, at the reference time.
+         */
+        public final double offsetNanos;
+
+        /**
+         * The rate at which the offset changes, in nanoseconds per nanosecond.
+         */
+        public final double skew;
+
+        /**
+         * The round trip delay of the sample used, which bounds the error of the offset.
+         */
+        public final long delayNanos;
+
+        public Mapping(long referenceTimeNanos, double offsetNanos, double skew, long delayNanos) {
+            this.referenceTimeNanos = referenceTimeNanos;
+            this.offsetNanos = offsetNanos;
+            this.skew = skew;
+            this.delayNanos = delayNanos;
+        }
+
+        /**
+         * @return The remote time corresponding to the local time {@param localNanos}.
+         */
+        public long toRemoteNanos(long localNanos) {
+            long elapsed = localNanos - referenceTimeNanos;
+            return localNanos + Math.round(offsetNanos + skew * elapsed);
+        }
+
+        /**
+         * @return The local time corresponding to the remote time {@param remoteNanos}.
+         */
+        public long toLocalNanos(long remoteNanos) {
+            // Solves remote = local + offset + skew * (local - reference) for local
+            double elapsed = (remoteNanos - referenceTimeNanos - offsetNanos) / (1 + skew);
+            return referenceTimeNanos + Math.round(elapsed);
+        }
+
+        @Override
+        public String toString() {
+            return "Mapping(offset: " + (offsetNanos / 1e6) + " ms, skew: " + (skew * 1e6) + " ppm, "
+                    + "error: " + (delayNanos / 2e6) + " ms)";
+        }
+    }
+}
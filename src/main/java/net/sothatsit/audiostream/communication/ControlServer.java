@@ -6,6 +6,8 @@ import net.sothatsit.audiostream.communication.io.TCPServer;
 import net.sothatsit.audiostream.communication.packet.PacketBuilder;
 import net.sothatsit.audiostream.communication.packet.PacketReader;
 import net.sothatsit.audiostream.communication.packet.PacketType;
+import net.sothatsit.audiostream.metrics.Counter;
+import net.sothatsit.audiostream.metrics.MetricsRegistry;
 import net.sothatsit.audiostream.model.RemoteServerDetails;
 import net.sothatsit.audiostream.util.Exceptions;
 import net.sothatsit.audiostream.util.LoopedThread;
@@ -15,6 +17,7 @@ import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.Consumer;
@@ -34,15 +37,35 @@ public class ControlServer {
     private final LoopedThread broadcastThread;
     private final Property<RemoteServerDetails> serverDetails;
     private final List<Consumer<RemoteServerDetails>> discoveryListeners;
+    private final List<Consumer<Pong>> pongListeners;
+
+    private final MetricsRegistry metrics;
+    private final Counter packetsReceived;
+    private final Counter invalidPacketsReceived;
+    private final Counter discoveryRequestsReceived;
+    private final Counter discoveryResponsesReceived;
+    private final Counter pingsReceived;
+    private final Counter pongsReceived;
 
     public ControlServer(int serverPort, Property<RemoteServerDetails> serverDetails) {
-        this.multicast = new Multicast("controlMulticast", AudioStream.MULTICAST_SOCKET_ADDRESS);
+        this.multicast = new Multicast(
+                "controlMulticast", AudioStream.MULTICAST_SOCKET_ADDRESS, AudioStream.MULTICAST_SOCKET_ADDRESS_V6
+        );
         this.server = new TCPServer("controlServer", serverPort);
         this.broadcastThread = new LoopedThread(
                 "controlBroadcastThread", this::broadcastDetailsRequest, BROADCAST_INTERVAL_MS
         );
         this.serverDetails = serverDetails;
         this.discoveryListeners = new CopyOnWriteArrayList<>();
+        this.pongListeners = new CopyOnWriteArrayList<>();
+
+        this.metrics = new MetricsRegistry("controlServer(" + serverPort + ")");
+        this.packetsReceived = metrics.counter("packets.received");
+        this.invalidPacketsReceived = metrics.counter("packets.invalid");
+        this.discoveryRequestsReceived = metrics.counter("discovery.requests.received");
+        this.discoveryResponsesReceived = metrics.counter("discovery.responses.received");
+        this.pingsReceived = metrics.counter("pings.received");
+        this.pongsReceived = metrics.counter("pongs.received");
 
         multicast.addListener(this::receivePacket);
         server.addListener(this::receivePacket);
@@ -50,6 +73,10 @@ public class ControlServer {
         serverDetails.addChangeListener(event -> broadcastDetails());
     }
 
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
     public void addDiscoveryListener(Consumer<RemoteServerDetails> listener) {
         discoveryListeners.add(listener);
     }
@@ -58,6 +85,28 @@ public class ControlServer {
         discoveryListeners.remove(listener);
     }
 
+    /**
+     * Add a listener to be notified of responses to pings sent using {@link #sendPing(InetSocketAddress, int)}.
+     */
+    public void addPongListener(Consumer<Pong> listener) {
+        pongListeners.add(listener);
+    }
+
+    public void removePongListener(Consumer<Pong> listener) {
+        pongListeners.remove(listener);
+    }
+
+    /**
+     * Add a listener to be notified with the remote address of control connections that have closed.
+     */
+    public void addConnectionClosedListener(Consumer<SocketAddress> listener) {
+        server.addCloseListener(listener);
+    }
+
+    public void removeConnectionClosedListener(Consumer<SocketAddress> listener) {
+        server.removeCloseListener(listener);
+    }
+
     public void open() throws IOException {
         multicast.open();
         server.open();
@@ -124,7 +173,25 @@ public class ControlServer {
         }
     }
 
+    /**
+     * Send a ping with the sequence number {@param sequence} over the control connection to {@param address}.
+     *
+     * @throws IOException if the ping could not be sent.
+     */
+    public void sendPing(InetSocketAddress address, int sequence) throws IOException {
+        byte[] packet = PacketBuilder.create()
+                                     .writeType(PacketType.PING)
+                                     .writeInt(sequence)
+                                     .writeLong(System.nanoTime())
+                                     .build();
+
+        server.send(packet, address);
+    }
+
     private void receivePacket(DatagramPacket packet) {
+        long receivedTimeNanos = System.nanoTime();
+        packetsReceived.increment();
+
         PacketReader reader;
         PacketType type;
         try {
@@ -136,6 +203,7 @@ public class ControlServer {
                         + packet.getSocketAddress() + " of size " + packet.getLength() + " bytes");
             }
         } catch (IOException exception) {
+            invalidPacketsReceived.increment();
             String exceptionString = exception.getClass() + ": " + exception.getMessage();
             System.err.println("Error reading discovery response packet, " + exceptionString);
             return;
@@ -143,14 +211,27 @@ public class ControlServer {
 
         switch (type) {
             case DISCOVERY_REQUEST:
+                discoveryRequestsReceived.increment();
                 receiveDiscoveryRequest(reader, packet.getAddress());
                 break;
 
             case DISCOVERY_RESPONSE:
+                discoveryResponsesReceived.increment();
                 receiveDiscoveryResponse(reader, packet.getAddress());
                 break;
 
+            case PING:
+                pingsReceived.increment();
+                receivePing(reader, packet.getSocketAddress(), receivedTimeNanos);
+                break;
+
+            case PONG:
+                pongsReceived.increment();
+                receivePong(reader, packet.getSocketAddress(), receivedTimeNanos);
+                break;
+
             default:
+                invalidPacketsReceived.increment();
                 throw new IllegalArgumentException("Invalid packet type");
         }
     }
@@ -197,4 +278,98 @@ public class ControlServer {
             }
         }
     }
+
+    private void receivePing(PacketReader reader, SocketAddress remoteAddress, long receivedTimeNanos) {
+        if (!(remoteAddress instanceof InetSocketAddress))
+            return;
+
+        // The times are echoed back so that the pinging host can estimate the offset between our clocks
+        byte[] response;
+        try {
+            int sequence = reader.readInt();
+            long sentTimeNanos = reader.readLong();
+            response = PacketBuilder.create()
+                                    .writeType(PacketType.PONG)
+                                    .writeInt(sequence)
+                                    .writeLong(sentTimeNanos)
+                                    .writeLong(receivedTimeNanos)
+                                    .writeLong(System.nanoTime())
+                                    .build();
+        } catch (IOException exception) {
+            String exceptionString = exception.getClass() + ": " + exception.getMessage();
+            System.err.println("Error reading ping packet, " + exceptionString);
+            return;
+        }
+
+        // Pings are received over TCP, so this will respond over the same connection
+        try {
+            server.send(response, (InetSocketAddress) remoteAddress);
+        } catch (IOException exception) {
+            String exceptionString = exception.getClass() + ": " + exception.getMessage();
+            System.err.println("Error sending pong packet to " + remoteAddress + ", " + exceptionString);
+        }
+    }
+
+    private void receivePong(PacketReader reader, SocketAddress remoteAddress, long receivedTimeNanos) {
+        if (!(remoteAddress instanceof InetSocketAddress))
+            return;
+
+        Pong pong;
+        try {
+            int sequence = reader.readInt();
+            long sentTimeNanos = reader.readLong();
+            long remoteReceivedTimeNanos = reader.readLong();
+            long remoteSentTimeNanos = reader.readLong();
+
+            pong = new Pong(
+                    (InetSocketAddress) remoteAddress, sequence,
+                    sentTimeNanos, remoteReceivedTimeNanos, remoteSentTimeNanos, receivedTimeNanos
+            );
+        } catch (IOException exception) {
+            String exceptionString = exception.getClass() + ": " + exception.getMessage();
+            System.err.println("Error reading pong packet, " + exceptionString);
+            return;
+        }
+
+        for (Consumer<Pong> listener : pongListeners) {
+            try {
+                listener.accept(pong);
+            } catch (Exception exception) {
+                System.err.println(
+                        "Error passing pong to listener " + listener.getClass()
+                        + ", " + exception.getClass() + ": " + exception.getMessage()
+                );
+            }
+        }
+    }
+
+    /**
+     * A response to a ping.
+     *
+     * The remote times are measured using the System.nanoTime() of the remote host.
+     */
+    public static class Pong {
+
+        public final InetSocketAddress address;
+        public final int sequence;
+        public final long sentTimeNanos;
+        public final long remoteReceivedTimeNanos;
+        public final long remoteSentTimeNanos;
+        public final long receivedTimeNanos;
+
+        public Pong(InetSocketAddress address,
+                    int sequence,
+                    long sentTimeNanos,
+                    long remoteReceivedTimeNanos,
+                    long remoteSentTimeNanos,
+                    long receivedTimeNanos) {
+
+            this.address = address;
+            this.sequence = sequence;
+            this.sentTimeNanos = sentTimeNanos;
+            this.remoteReceivedTimeNanos = remoteReceivedTimeNanos;
+            this.remoteSentTimeNanos = remoteSentTimeNanos;
+            this.receivedTimeNanos = receivedTimeNanos;
+        }
+    }
 }
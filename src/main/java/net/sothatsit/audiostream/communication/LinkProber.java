@@ -0,0 +1,110 @@
+package net.sothatsit.audiostream.communication;
+
+import net.sothatsit.audiostream.util.LoopedThread;
+import net.sothatsit.audiostream.util.RetryingLoopedThread;
+import net.sothatsit.property.Property;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Periodically pings the remote servers in a RemoteServerIndex over their control connections,
+ * to estimate the quality of the link to each of them, and to synchronize our clocks with theirs.
+ *
+ * @author Paddy Lamont
+ */
+public class LinkProber {
+
+    private static final long PROBE_INTERVAL_MS = 1000;
+    private static final long PROBE_TIMEOUT_MS = 3 * 1000;
+
+    private final Property<ControlServer> controlServer;
+    private final RemoteServerIndex serverIndex;
+    private final LoopedThread probeThread;
+    private final Map<RemoteServer, LinkQualityEstimator> estimators;
+
+    public LinkProber(Property<ControlServer> controlServer, RemoteServerIndex serverIndex) {
+        this.controlServer = controlServer;
+        this.serverIndex = serverIndex;
+        this.probeThread = new RetryingLoopedThread("linkProbeThread", this::probeAll, PROBE_INTERVAL_MS);
+        this.estimators = new HashMap<>();
+
+        controlServer.addValueListener(this::updateControlServer);
+        updateControlServer(controlServer.get());
+    }
+
+    public void start() {
+        probeThread.start();
+    }
+
+    public void stop() {
+        probeThread.stop();
+    }
+
+    private void updateControlServer(ControlServer controlServer) {
+        if (controlServer == null)
+            return;
+
+        controlServer.addPongListener(this::receivePong);
+    }
+
+    private synchronized LinkQualityEstimator getEstimator(RemoteServer server) {
+        return estimators.computeIfAbsent(server, s -> new LinkQualityEstimator(PROBE_TIMEOUT_MS));
+    }
+
+    private void probeAll() {
+        ControlServer controlServer = this.controlServer.get();
+        if (controlServer == null)
+            return;
+
+        List<RemoteServer> servers = serverIndex.getServers();
+
+        // Forget about servers that are no longer in the index
+        synchronized (this) {
+            estimators.keySet().retainAll(new HashSet<>(servers));
+        }
+
+        for (RemoteServer server : servers) {
+            probe(controlServer, server);
+        }
+    }
+
+    private void probe(ControlServer controlServer, RemoteServer server) {
+        LinkQualityEstimator estimator = getEstimator(server);
+
+        int sequence;
+        synchronized (estimator) {
+            long now = System.nanoTime();
+            estimator.expireProbes(now);
+            sequence = estimator.onProbeSent(now);
+        }
+
+        try {
+            controlServer.sendPing(server.getControlAddress(), sequence);
+        } catch (IOException exception) {
+            synchronized (estimator) {
+                estimator.onProbeFailed(sequence);
+            }
+        }
+
+        synchronized (estimator) {
+            server.updateLinkQuality(estimator.getEstimate());
+        }
+    }
+
+    private void receivePong(ControlServer.Pong pong) {
+        RemoteServer server = serverIndex.getServer(pong.address);
+        if (server == null)
+            return;
+
+        server.getClock().addSample(pong);
+
+        LinkQualityEstimator estimator = getEstimator(server);
+        synchronized (estimator) {
+            if (!estimator.onProbeResponse(pong.sequence, pong.receivedTimeNanos))
+                return;
+
+            server.updateLinkQuality(estimator.getEstimate());
+        }
+    }
+}
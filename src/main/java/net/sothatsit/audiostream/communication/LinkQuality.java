@@ -0,0 +1,56 @@
+package net.sothatsit.audiostream.communication;
+
+/**
+ * Estimates of the quality of the network link to a remote server.
+ *
+ * @author Paddy Lamont
+ */
+public class LinkQuality {
+
+    /**
+     * The smallest buffer delay that will be suggested, to cover scheduling jitter on the hosts themselves.
+     */
+    private static final int MIN_SUGGESTED_DELAY_MS = 20;
+
+    public final double rttMS;
+    public final double jitterMS;
+    public final double lossRate;
+    public final int samples;
+
+    public LinkQuality(double rttMS, double jitterMS, double lossRate, int samples) {
+        this.rttMS = rttMS;
+        this.jitterMS = jitterMS;
+        this.lossRate = lossRate;
+        this.samples = samples;
+    }
+
+    /**
+     * @return A buffer delay for clients of this server that should absorb most of the variation in delivery times.
+     */
+    public int suggestBufferDelayMS() {
+        // TCP retransmits lost segments, which costs roughly another round trip per loss
+        double lossAllowanceMS = (lossRate > 0 ? rttMS : 0);
+        double delayMS = rttMS / 2 + 4 * jitterMS + lossAllowanceMS;
+
+        return Math.max(MIN_SUGGESTED_DELAY_MS, (int) Math.ceil(delayMS));
+    }
+
+    /**
+     * @return A size for the output line buffer of clients of this server.
+     */
+    public int suggestBufferSizeMS() {
+        return 2 * suggestBufferDelayMS();
+    }
+
+    /**
+     * @return A short human readable summary of the link quality.
+     */
+    public String toHumanString() {
+        return String.format("%.1f ms ± %.1f ms, %d%% loss", rttMS, jitterMS, (int) Math.round(lossRate * 100));
+    }
+
+    @Override
+    public String toString() {
+        return "LinkQuality(rtt: " + rttMS + " ms, jitter: " + jitterMS + " ms, loss: " + lossRate + ")";
+    }
+}
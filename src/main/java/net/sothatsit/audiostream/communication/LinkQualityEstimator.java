@@ -0,0 +1,115 @@
+package net.sothatsit.audiostream.communication;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps a smoothed estimate of round trip time, jitter and loss from a series of ping probes.
+ *
+ * The round trip time is smoothed as in RFC 6298, and the jitter is the smoothed
+ * difference between successive round trip times as in RFC 3550.
+ *
+ * This class is NOT thread safe and should
+ * always be used from synchronized blocks.
+ *
+ * @author Paddy Lamont
+ */
+public class LinkQualityEstimator {
+
+    private static final double RTT_GAIN = 1.0 / 8.0;
+    private static final double JITTER_GAIN = 1.0 / 16.0;
+    private static final double LOSS_GAIN = 1.0 / 16.0;
+
+    private final long timeoutNanos;
+    private final Map<Integer, Long> outstanding;
+
+    private int nextSequence;
+    private int samples;
+    private double rttMS;
+    private double jitterMS;
+    private double lossRate;
+    private double lastRttMS;
+
+    /**
+     * @param timeoutMS The time after which a probe that has not been answered is counted as lost.
+     */
+    public LinkQualityEstimator(long timeoutMS) {
+        this.timeoutNanos = timeoutMS * 1_000_000L;
+        this.outstanding = new LinkedHashMap<>();
+    }
+
+    /**
+     * Record that a probe is about to be sent at {@param timeNanos}.
+     *
+     * @return The sequence number to send with the probe.
+     */
+    public int onProbeSent(long timeNanos) {
+        int sequence = nextSequence++;
+        outstanding.put(sequence, timeNanos);
+        return sequence;
+    }
+
+    /**
+     * Record that the probe {@param sequence} could not be sent.
+     */
+    public void onProbeFailed(int sequence) {
+        if (outstanding.remove(sequence) != null) {
+            recordLoss(true);
+        }
+    }
+
+    /**
+     * Record the response to the probe {@param sequence}, which was received at {@param timeNanos}.
+     *
+     * @return Whether the response was to an outstanding probe.
+     */
+    public boolean onProbeResponse(int sequence, long timeNanos) {
+        Long sentNanos = outstanding.remove(sequence);
+        if (sentNanos == null)
+            return false;
+
+        double sampleMS = (timeNanos - sentNanos) / 1e6;
+        if (samples == 0) {
+            rttMS = sampleMS;
+            jitterMS = 0;
+        } else {
+            rttMS += RTT_GAIN * (sampleMS - rttMS);
+            jitterMS += JITTER_GAIN * (Math.abs(sampleMS - lastRttMS) - jitterMS);
+        }
+
+        lastRttMS = sampleMS;
+        samples += 1;
+        recordLoss(false);
+        return true;
+    }
+
+    /**
+     * Count any probes that have been outstanding for longer than the timeout as lost.
+     */
+    public void expireProbes(long timeNanos) {
+        Iterator<Long> sentTimes = outstanding.values().iterator();
+        while (sentTimes.hasNext()) {
+            // Probes are in the order they were sent, so the oldest are always at the start
+            if (timeNanos - sentTimes.next() < timeoutNanos)
+                break;
+
+            sentTimes.remove();
+            recordLoss(true);
+        }
+    }
+
+    private void recordLoss(boolean lost) {
+        lossRate += LOSS_GAIN * ((lost ? 1 : 0) - lossRate);
+    }
+
+    /**
+     * @return The current estimate of the link quality, or null if no probes have been answered yet.
+     */
+    public LinkQuality getEstimate() {
+        if (samples == 0)
+            return null;
+
+        return new LinkQuality(rttMS, jitterMS, lossRate, samples);
+    }
+}
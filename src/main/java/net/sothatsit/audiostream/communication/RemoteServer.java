@@ -1,9 +1,11 @@
 package net.sothatsit.audiostream.communication;
 
+import net.sothatsit.audiostream.communication.io.LocalAddresses;
 import net.sothatsit.audiostream.model.RemoteServerDetails;
 import net.sothatsit.property.Property;
 
-import java.net.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 
 /**
  * A class used to represent a remote audio server that can be connected to.
@@ -13,13 +15,19 @@ import java.net.*;
 public class RemoteServer {
 
     private final InetSocketAddress controlAddress;
+    private final InetSocketAddress normalizedAddress;
     private final Property<RemoteServerDetails> details;
     private final Property<Long> lastUpdate;
+    private final Property<LinkQuality> linkQuality;
+    private final ClockSynchronizer clock;
 
     public RemoteServer(InetSocketAddress controlAddress) {
         this.controlAddress = controlAddress;
+        this.normalizedAddress = LocalAddresses.normalize(controlAddress);
         this.details = Property.create("details");
         this.lastUpdate = Property.createNonNull("lastUpdate", System.currentTimeMillis());
+        this.linkQuality = Property.create("linkQuality");
+        this.clock = new ClockSynchronizer();
     }
 
     public InetSocketAddress getControlAddress() {
@@ -28,7 +36,7 @@ public class RemoteServer {
 
     public String getAddressString() {
         String addressString;
-        if (isAddressLocalhost(controlAddress)) {
+        if (LocalAddresses.isLocal(controlAddress.getAddress())) {
             addressString = "localhost";
         } else {
             addressString = controlAddress.getHostName();
@@ -40,16 +48,54 @@ public class RemoteServer {
         return addressString + ":" + controlAddress.getPort();
     }
 
+    /**
+     * @return The control address of this server, with any address of this machine replaced by the loopback address.
+     *         This is computed once when the server is created, so that the equality of servers does not change
+     *         when the addresses of this machine change.
+     */
+    public InetSocketAddress getNormalizedAddress() {
+        return normalizedAddress;
+    }
+
     public Property<RemoteServerDetails> getDetails() {
         return details.readOnly();
     }
 
+    /**
+     * @return The estimated quality of the link to this server, or null if it has not been measured.
+     */
+    public Property<LinkQuality> getLinkQuality() {
+        return linkQuality.readOnly();
+    }
+
+    public void updateLinkQuality(LinkQuality linkQuality) {
+        this.linkQuality.set(linkQuality);
+    }
+
+    /**
+     * @return The estimated mapping between this server's System.nanoTime() clock and our own.
+     */
+    public ClockSynchronizer getClock() {
+        return clock;
+    }
+
+    public long getLastUpdateTimeMS() {
+        return lastUpdate.get();
+    }
+
     public long getTimeSinceUpdateMS() {
         return System.currentTimeMillis() - lastUpdate.get();
     }
 
     public void updateDetails(RemoteServerDetails details) {
         this.details.set(details);
+        markSeen();
+    }
+
+    /**
+     * Record that this server has been heard from, without changing its details.
+     */
+    public void markSeen() {
         this.lastUpdate.set(System.currentTimeMillis());
     }
 
@@ -58,7 +104,7 @@ public class RemoteServer {
             return true;
         if (controlAddress.getPort() != address.getPort())
             return false;
-        return isAddressLocalhost(controlAddress) && isAddressLocalhost(address);
+        return normalizedAddress.equals(LocalAddresses.normalize(address));
     }
 
     public boolean is(InetAddress address, int port) {
@@ -71,31 +117,16 @@ public class RemoteServer {
             return false;
 
         RemoteServer other = (RemoteServer) obj;
-        return is(other.controlAddress);
+        return normalizedAddress.equals(other.normalizedAddress);
     }
 
     @Override
     public int hashCode() {
-        return controlAddress.hashCode();
+        return normalizedAddress.hashCode();
     }
 
     @Override
     public String toString() {
         return "RemoteServer(" + controlAddress + ")";
     }
-
-    private static boolean isAddressLocalhost(InetSocketAddress address) {
-        return isAddressLocalhost(address.getAddress());
-    }
-
-    private static boolean isAddressLocalhost(InetAddress address) {
-        if (address.isAnyLocalAddress() || address.isLoopbackAddress())
-            return true;
-
-        try {
-            return NetworkInterface.getByInetAddress(address) != null;
-        } catch (SocketException e) {
-            return false;
-        }
-    }
 }
@@ -1,13 +1,21 @@
 package net.sothatsit.audiostream.communication;
 
+import net.sothatsit.audiostream.communication.io.LocalAddresses;
+import net.sothatsit.audiostream.metrics.Counter;
+import net.sothatsit.audiostream.metrics.MetricsRegistry;
 import net.sothatsit.audiostream.model.RemoteServerDetails;
 import net.sothatsit.audiostream.util.LoopedThread;
 import net.sothatsit.audiostream.util.RetryingLoopedThread;
 import net.sothatsit.property.Property;
 
 import java.io.IOException;
+import java.net.Inet4Address;
 import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.util.*;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Maintains an index of remote audio servers that can be reached through the local network.
@@ -20,31 +28,88 @@ public class RemoteServerIndex {
     //        while the remote server's control address changes. This may cause issues if an entry is removed
     //        from this index, but we are still connected to it for audio.
 
-    private static final int PURGE_DEAD_DELAY_MS = 3 * 1000;
-    private static final long SERVER_NO_RESPONSE_PURGE_MS = 6 * 1000;
+    public static final long DEFAULT_SERVER_TIMEOUT_MS = 6 * 1000;
 
     private final Property<ControlServer> controlServer;
-    private final LoopedThread updateThread;
+    private final long serverTimeoutMS;
+    private final LoopedThread purgeThread;
+    private final DelayQueue<Expiry> expiries;
+    private final Runnable rekeyListener;
 
-    private final List<RemoteServer> foundServers;
-    private final List<RemoteServer> manualServers;
+    /**
+     * Servers are keyed by their control address with any address of this machine replaced by the loopback
+     * address. Unlike {@link RemoteServer#getNormalizedAddress()}, these keys are re-computed when the
+     * addresses of this machine change.
+     */
+    private final Map<InetSocketAddress, RemoteServer> foundServers;
+    private final Map<InetSocketAddress, RemoteServer> manualServers;
+
+    /**
+     * The key that each indexed server is stored under in {@link #foundServers} or {@link #manualServers}.
+     */
+    private final Map<RemoteServer, InetSocketAddress> keys;
+
+    /**
+     * The server last updated with the details of each instance, as a host may announce itself from more
+     * than one address, such as from both its IPv4 address and its IPv6 link-local address.
+     */
+    private final Map<Long, RemoteServer> instances;
+
+    private final MetricsRegistry metrics;
+    private final Counter serversDiscovered;
+    private final Counter serversPurged;
+    private final Counter serversMerged;
+
+    /**
+     * The sizes of the maps of servers, kept so that they can be read by gauges without locking.
+     */
+    private volatile int foundServerCount;
+    private volatile int manualServerCount;
 
     public RemoteServerIndex(Property<ControlServer> controlServer) {
+        this(controlServer, DEFAULT_SERVER_TIMEOUT_MS);
+    }
+
+    /**
+     * @param serverTimeoutMS The time after which a discovered server that has not responded will be removed.
+     */
+    public RemoteServerIndex(Property<ControlServer> controlServer, long serverTimeoutMS) {
+        if (serverTimeoutMS <= 0)
+            throw new IllegalArgumentException("serverTimeoutMS must be positive");
+
         this.controlServer = controlServer;
-        // TODO : Purging dead connections should be done as soon as their TCPConnection state changes
-        this.updateThread = new RetryingLoopedThread("updateThread", this::purgeDeadConnections, PURGE_DEAD_DELAY_MS);
-        this.foundServers = new ArrayList<>();
-        this.manualServers = new ArrayList<>();
+        this.serverTimeoutMS = serverTimeoutMS;
+        this.purgeThread = new RetryingLoopedThread("purgeThread", this::purgeNextExpired);
+        this.purgeThread.setInterruptStrategy(LoopedThread.InterruptStrategy.SKIP_WAIT);
+        this.expiries = new DelayQueue<>();
+        this.rekeyListener = this::rekeyServers;
+        this.foundServers = new LinkedHashMap<>();
+        this.manualServers = new LinkedHashMap<>();
+        this.keys = new IdentityHashMap<>();
+        this.instances = new HashMap<>();
+
+        this.metrics = new MetricsRegistry("remoteServerIndex");
+        this.serversDiscovered = metrics.counter("servers.discovered");
+        this.serversPurged = metrics.counter("servers.purged");
+        this.serversMerged = metrics.counter("servers.merged");
+        metrics.gauge("servers.found", () -> foundServerCount);
+        metrics.gauge("servers.manual", () -> manualServerCount);
 
         controlServer.addValueListener(this::updateControlServer);
     }
 
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
     public void start() {
-        updateThread.start();
+        LocalAddresses.addChangeListener(rekeyListener);
+        purgeThread.start();
     }
 
     public void stop() {
-        updateThread.stop();
+        LocalAddresses.removeChangeListener(rekeyListener);
+        purgeThread.stop();
     }
 
     private void updateControlServer(ControlServer controlServer) {
@@ -52,21 +117,18 @@ public class RemoteServerIndex {
             return;
 
         controlServer.addDiscoveryListener(this::updateServerDetails);
+        controlServer.addConnectionClosedListener(this::purgeClosedConnection);
         controlServer.broadcastDetails();
     }
 
     public synchronized RemoteServer getServer(InetSocketAddress address) {
-        for (RemoteServer server : foundServers) {
-            if (server.is(address))
-                return server;
-        }
+        InetSocketAddress key = LocalAddresses.normalize(address);
 
-        for (RemoteServer server : manualServers) {
-            if (server.is(address))
-                return server;
-        }
+        RemoteServer server = foundServers.get(key);
+        if (server != null)
+            return server;
 
-        return null;
+        return manualServers.get(key);
     }
 
     private synchronized RemoteServer findOrCreateServer(InetSocketAddress address) {
@@ -75,37 +137,88 @@ public class RemoteServerIndex {
             return existing;
 
         RemoteServer server = new RemoteServer(address);
-        foundServers.add(server);
+        InetSocketAddress key = LocalAddresses.normalize(address);
+        foundServers.put(key, server);
+        keys.put(server, key);
+        expiries.add(new Expiry(server, server.getLastUpdateTimeMS() + serverTimeoutMS));
+        serversDiscovered.increment();
+        updateServerCounts();
 
         return server;
     }
 
     private synchronized void updateServerDetails(RemoteServerDetails serverDetails) {
-        findOrCreateServer(serverDetails.controlAddress).updateDetails(serverDetails);
+        RemoteServer server = getServer(serverDetails.controlAddress);
+
+        // Only one entry is kept for each instance, even if it is discovered through more than one address
+        RemoteServer sameInstance = instances.get(serverDetails.instanceId);
+        if (sameInstance != null && sameInstance != server && isIndexed(sameInstance)) {
+            boolean keepExisting = (server == null || !isManuallyAddedServer(server))
+                    && (isManuallyAddedServer(sameInstance)
+                        || !isPreferred(serverDetails.controlAddress, sameInstance.getControlAddress()));
+
+            if (keepExisting) {
+                if (server != null) {
+                    removeMergedServer(server);
+                }
+                sameInstance.markSeen();
+                return;
+            }
+
+            if (!isManuallyAddedServer(sameInstance)) {
+                removeMergedServer(sameInstance);
+            }
+        }
+
+        if (server == null) {
+            server = findOrCreateServer(serverDetails.controlAddress);
+        }
+        server.updateDetails(serverDetails);
+        instances.put(serverDetails.instanceId, server);
     }
 
-    public synchronized boolean isManuallyAddedServer(RemoteServer server) {
-        return manualServers.contains(server);
+    /**
+     * IPv4 addresses are preferred over IPv6 addresses, as IPv6 link-local addresses
+     * are only valid on the interface they were received from.
+     *
+     * @return Whether {@param address} is preferred over {@param other} to reach the same host.
+     */
+    private static boolean isPreferred(InetSocketAddress address, InetSocketAddress other) {
+        return address.getAddress() instanceof Inet4Address && !(other.getAddress() instanceof Inet4Address);
     }
 
-    public synchronized RemoteServer addManualServer(InetSocketAddress address) throws IOException {
-        for (RemoteServer server : manualServers) {
-            if (server.is(address))
-                return server;
+    private synchronized boolean isIndexed(RemoteServer server) {
+        InetSocketAddress key = keys.get(server);
+        return key != null && (foundServers.get(key) == server || manualServers.get(key) == server);
+    }
+
+    /**
+     * Remove the discovered {@param server}, as it is another address of a server that is already indexed.
+     */
+    private synchronized void removeMergedServer(RemoteServer server) {
+        InetSocketAddress key = keys.get(server);
+        if (key != null && foundServers.remove(key, server)) {
+            serversMerged.increment();
+            updateServerCounts();
         }
+    }
 
-        RemoteServer server = null;
-        Iterator<RemoteServer> servers = foundServers.iterator();
-        while (servers.hasNext()) {
-            RemoteServer foundServer = servers.next();
+    public synchronized boolean isManuallyAddedServer(RemoteServer server) {
+        if (server == null)
+            return false;
 
-            if (foundServer.is(address)) {
-                server = foundServer;
-                servers.remove();
-                break;
-            }
-        }
+        InetSocketAddress key = keys.get(server);
+        return key != null && manualServers.get(key) == server;
+    }
+
+    public synchronized RemoteServer addManualServer(InetSocketAddress address) throws IOException {
+        InetSocketAddress key = LocalAddresses.normalize(address);
 
+        RemoteServer existing = manualServers.get(key);
+        if (existing != null)
+            return existing;
+
+        RemoteServer server = foundServers.remove(key);
         if (server == null) {
             server = new RemoteServer(address);
 
@@ -115,30 +228,127 @@ public class RemoteServerIndex {
             }
         }
 
-        manualServers.add(server);
+        manualServers.put(key, server);
+        keys.put(server, key);
+        updateServerCounts();
         return server;
     }
 
     public synchronized void removeManualServer(RemoteServer server) {
-        manualServers.remove(server);
+        InetSocketAddress key = keys.get(server);
+        if (key != null) {
+            manualServers.remove(key, server);
+        }
+        updateServerCounts();
     }
 
     public synchronized List<RemoteServer> getServers() {
         List<RemoteServer> servers = new ArrayList<>();
-        servers.addAll(foundServers);
-        servers.addAll(manualServers);
+        servers.addAll(foundServers.values());
+        servers.addAll(manualServers.values());
         return Collections.unmodifiableList(servers);
     }
 
-    private synchronized void purgeDeadConnections() {
-        Iterator<RemoteServer> servers = foundServers.iterator();
-        while (servers.hasNext()) {
-            RemoteServer server = servers.next();
+    /**
+     * Re-computes the keys of all servers, as the addresses that are considered local may have changed.
+     */
+    private synchronized void rekeyServers() {
+        keys.clear();
+        rekeyServers(foundServers);
+        rekeyServers(manualServers);
+        updateServerCounts();
+    }
+
+    private void rekeyServers(Map<InetSocketAddress, RemoteServer> servers) {
+        List<RemoteServer> values = new ArrayList<>(servers.values());
+        servers.clear();
+        for (RemoteServer server : values) {
+            InetSocketAddress key = LocalAddresses.normalize(server.getControlAddress());
+            if (servers.putIfAbsent(key, server) == null) {
+                keys.put(server, key);
+            }
+        }
+    }
+
+    private synchronized void updateServerCounts() {
+        foundServerCount = foundServers.size();
+        manualServerCount = manualServers.size();
+
+        // Forget the keys and instances of servers that are no longer indexed
+        keys.keySet().removeIf(server -> !isIndexed(server));
+        instances.values().removeIf(server -> !isIndexed(server));
+    }
+
+    /**
+     * Wait for the next discovered server to expire, and purge it if it has not been updated since.
+     */
+    private void purgeNextExpired() {
+        Expiry expiry;
+        try {
+            expiry = expiries.take();
+        } catch (InterruptedException exception) {
+            // Interrupts are used to stop the purge thread
+            return;
+        }
+
+        synchronized (this) {
+            RemoteServer server = expiry.server;
+            InetSocketAddress key = keys.get(server);
 
-            if (server.getTimeSinceUpdateMS() >= SERVER_NO_RESPONSE_PURGE_MS) {
-                servers.remove();
-                System.err.println("Purge " + server);
+            // The server may have been removed, or moved to the manual servers
+            if (key == null || foundServers.get(key) != server)
+                return;
+
+            // If the server has been updated since this expiry was scheduled, reschedule it
+            long deadline = server.getLastUpdateTimeMS() + serverTimeoutMS;
+            if (deadline > System.currentTimeMillis()) {
+                expiries.add(new Expiry(server, deadline));
+                return;
             }
+
+            foundServers.remove(key);
+            serversPurged.increment();
+            updateServerCounts();
+            System.err.println("Purge " + server);
+        }
+    }
+
+    /**
+     * Immediately purge the discovered server at {@param address}, as its control connection has closed.
+     */
+    private synchronized void purgeClosedConnection(SocketAddress address) {
+        if (!(address instanceof InetSocketAddress))
+            return;
+
+        RemoteServer server = foundServers.remove(LocalAddresses.normalize((InetSocketAddress) address));
+        if (server != null) {
+            serversPurged.increment();
+            updateServerCounts();
+            System.err.println("Purge " + server + " as its connection closed");
+        }
+    }
+
+    /**
+     * The time at which a discovered server should be checked for expiry.
+     */
+    private static class Expiry implements Delayed {
+
+        private final RemoteServer server;
+        private final long deadlineMS;
+
+        private Expiry(RemoteServer server, long deadlineMS) {
+            this.server = server;
+            this.deadlineMS = deadlineMS;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(deadlineMS - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(getDelay(TimeUnit.MILLISECONDS), other.getDelay(TimeUnit.MILLISECONDS));
         }
     }
 }
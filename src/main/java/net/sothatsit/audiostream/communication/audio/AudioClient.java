@@ -1,9 +1,24 @@
 package net.sothatsit.audiostream.communication.audio;
 
-import net.sothatsit.audiostream.audio.AudioWriter;
+import net.sothatsit.audiostream.audio.AudioType;
+import net.sothatsit.audiostream.audio.AudioUtils;
+import net.sothatsit.audiostream.audio.ComfortNoise;
+import net.sothatsit.audiostream.audio.SampleCodec;
+import net.sothatsit.audiostream.audio.SoftwareMixerPool;
+import net.sothatsit.audiostream.communication.ClockSynchronizer;
 import net.sothatsit.audiostream.communication.RemoteServer;
 import net.sothatsit.audiostream.encryption.Encryption;
+import net.sothatsit.audiostream.metrics.Counter;
+import net.sothatsit.audiostream.metrics.Histogram;
+import net.sothatsit.audiostream.metrics.LatencyTrace;
+import net.sothatsit.audiostream.metrics.MetricsRegistry;
+import net.sothatsit.audiostream.metrics.jfr.EncryptionEvent;
+import net.sothatsit.audiostream.metrics.jfr.LateFrameEvent;
+import net.sothatsit.audiostream.metrics.jfr.ReconnectEvent;
+import net.sothatsit.audiostream.communication.packet.PacketBuilder;
 import net.sothatsit.audiostream.communication.packet.PacketInputStream;
+import net.sothatsit.audiostream.communication.packet.PacketOutputStream;
+import net.sothatsit.audiostream.communication.packet.PacketReader;
 import net.sothatsit.audiostream.model.RemoteServerDetails;
 import net.sothatsit.audiostream.util.LoopedThread;
 import net.sothatsit.audiostream.StreamMonitor;
@@ -16,33 +31,77 @@ import java.io.IOException;
 import java.net.ConnectException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * The client receiving the audio.
  *
+ * The audio is requested in the format most preferred by the server that the outputs can
+ * play natively, so that in most cases the audio does not need to be converted by the client.
+ * That format is then reduced to the shape asked for in the settings, to save bandwidth. The server
+ * replies with the format that it will actually stream, which the outputs are then created for.
+ *
+ * When the server stops sending audio because it is silent, comfort noise
+ * at the level of the silenced audio is played in its place.
+ *
  * @author Paddy Lamont
  */
 public class AudioClient {
 
     private static final int RECONNECT_MILLIS = 1000;
+    private static final int FORMAT_REPLY_TIMEOUT_MS = 5000;
+
+    /**
+     * How far past its target audio may be played before it is counted as late.
+     */
+    private static final long LATE_TOLERANCE_NANOS = 20_000_000;
 
     private final RemoteServer audioServer;
     private final Property<RemoteServerDetails> serverDetails;
     private final Property<AudioClientSettings> settings;
+    private final SoftwareMixerPool mixerPool;
+    private final Property<Double> gain;
     private final LoopedThread thread;
+    private final MetricsRegistry metrics;
+    private final LatencyTrace latencyTrace;
+    private final Counter packetsReceived;
+    private final Counter silentPacketsReceived;
+    private final Counter bytesReceived;
+    private final Counter framesReceived;
+    private final Counter lateFrames;
+    private final Counter reconnects;
+    private final Histogram arrivalLatency;
+
+    private int connectionAttempts;
+    private String lastExitStatus;
 
     private final ServiceState.StateProperty state;
 
-    public AudioClient(RemoteServer audioServer, Property<AudioClientSettings> settings) {
+    public AudioClient(RemoteServer audioServer,
+                       Property<AudioClientSettings> settings,
+                       SoftwareMixerPool mixerPool) {
+
         this.audioServer = audioServer;
         this.serverDetails = audioServer.getDetails();
         this.settings = settings;
+        this.mixerPool = mixerPool;
+        this.gain = Property.createNonNull("gain", 1.0d);
         this.thread = new LoopedThread("" +
                 "AudioClient(" + audioServer.getAddressString() + ")",
                 this::run,
                 RECONNECT_MILLIS
         );
         this.thread.setInterruptStrategy(LoopedThread.InterruptStrategy.SKIP_WAIT);
+        this.metrics = new MetricsRegistry("audioClient(" + audioServer.getAddressString() + ")");
+        this.latencyTrace = new LatencyTrace(metrics);
+        this.packetsReceived = metrics.counter("packets.received");
+        this.silentPacketsReceived = metrics.counter("packets.silent");
+        this.bytesReceived = metrics.counter("bytes.received");
+        this.framesReceived = metrics.counter("frames.received");
+        this.lateFrames = metrics.counter("frames.late");
+        this.reconnects = metrics.counter("reconnects");
+        this.arrivalLatency = metrics.histogram("latency.arrival.nanos");
 
         this.state = new ServiceState.StateProperty("state");
 
@@ -66,11 +125,30 @@ public class AudioClient {
         return settings;
     }
 
+    /**
+     * @return The gain applied to the audio from this client when it is mixed with the audio from other clients.
+     */
+    public Property<Double> getGain() {
+        return gain;
+    }
+
+    /**
+     * @return The metrics of this client, with the metrics of each of its outputs as children.
+     */
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    public LatencyTrace getLatencyTrace() {
+        return latencyTrace;
+    }
+
     public Property<ServiceState> getState() {
         return state.readOnly();
     }
 
     public void start() {
+        connectionAttempts = 0;
         thread.start();
     }
 
@@ -118,54 +196,173 @@ public class AudioClient {
             return;
         }
 
-        state.setToStarting("Establishing connections", false);
+        AudioFormat audioFormat = chooseFormat(serverDetails.audioServerDetails.formats, settings.outputs);
+        audioFormat = settings.shape.apply(audioFormat);
+
+        // If the server did not capture the channel we want, fall back to a downmix of all its channels
+        int sourceChannel = settings.shape.getSourceChannel();
+        if (sourceChannel >= serverDetails.audioServerDetails.format.getChannels()) {
+            sourceChannel = -1;
+        }
 
-        Mixer.Info outputMixer = settings.mixer;
-        AudioFormat audioFormat = serverDetails.audioServerDetails.format;
-        int bufferDelayBytes = AudioServer.getBufferSizeBytes(audioFormat, settings.bufferDelayMS);
-        int bufferBytes = AudioServer.getBufferSizeBytes(audioFormat, settings.bufferSizeMS);
+        // If our clock is synchronized with the server's then the audio is played at the time the
+        // server asks for, so that it plays in sync with all other clients, instead of after a fixed delay.
+        // The clock may only become synchronized part way through the connection, so this is checked again later.
+        boolean synchronizePlayback = audioServer.getClock().isSynchronized();
 
         InetSocketAddress address = serverDetails.audioServerDetails.address;
+        String connectionId = audioServer.getAddressString();
+        String streamId = AudioServer.getStreamId(audioFormat, sourceChannel);
 
-        StreamMonitor monitor = settings.createStreamMonitor(audioFormat);
-        AudioWriter audioWriter = new AudioWriter(outputMixer, audioFormat, bufferDelayBytes, bufferBytes);
+        connectionAttempts += 1;
+        if (connectionAttempts > 1) {
+            reconnects.increment();
+            ReconnectEvent.emit(connectionId, streamId, connectionAttempts - 1, lastExitStatus);
+        }
+
+        state.setToStarting("Establishing connections", false);
 
+        List<AudioClientOutput> outputs = new ArrayList<>();
         Socket socket = null;
         String exitStatus = "Disconnected";
         Exception connectionException = null;
 
         try {
-            // Start a writer to play the audio
-            audioWriter.start();
-
             // Connect to the socket
             socket = new Socket(address.getAddress(), address.getPort());
             PacketInputStream stream = new PacketInputStream(socket.getInputStream());
 
+            // Tell the server which format to send the audio in
+            byte[] formatRequest = PacketBuilder.create()
+                    .writeAudioFormat(audioFormat)
+                    .writeInt(sourceChannel)
+                    .build();
+            new PacketOutputStream(socket.getOutputStream()).writePacket(formatRequest);
+
+            // The server may not be able to send the format we asked for, so use the one it replies with
+            socket.setSoTimeout(FORMAT_REPLY_TIMEOUT_MS);
+            PacketReader formatReply = PacketReader.create(stream.readPacket());
+            socket.setSoTimeout(0);
+            audioFormat = readFormatReply(formatReply);
+            sourceChannel = formatReply.readInt();
+            streamId = AudioServer.getStreamId(audioFormat, sourceChannel);
+
+            StreamMonitor monitor = settings.createStreamMonitor(metrics, audioFormat);
+            ComfortNoise comfortNoise = new ComfortNoise(audioFormat);
+
+            // The one stream we receive is played through all of the outputs
+            startOutputs(outputs, settings, audioFormat, synchronizePlayback, connectionId, streamId);
+
             state.setToRunning("Connected");
 
             // Receive and play audio
             while (running.get()) {
                 byte[] packet = stream.readPacket();
+                long receiveTimeNanos = System.nanoTime();
 
                 if (encryption != null) {
+                    EncryptionEvent decryptionEvent = EncryptionEvent.start();
+                    int encryptedLength = packet.length;
                     packet = encryption.decrypt(packet);
+                    latencyTrace.record(LatencyTrace.Stage.DECRYPT, System.nanoTime() - receiveTimeNanos);
+                    decryptionEvent.finish(connectionId, streamId, "decrypt", encryptedLength);
+                }
+
+                // The monitor counts what was received, not what is played in place of silence
+                monitor.update(packet, AudioFrameHeader.SIZE, packet.length - AudioFrameHeader.SIZE);
+                packetsReceived.increment();
+                bytesReceived.add(packet.length);
+
+                byte[] audio = packet;
+                int audioOffset = AudioFrameHeader.SIZE;
+                int audioLength = packet.length - AudioFrameHeader.SIZE;
+
+                int silentFrames = AudioFrameHeader.readSilentFrames(packet);
+                if (silentFrames > 0) {
+                    silentPacketsReceived.increment();
+                    monitor.updateSilence(silentFrames);
+                    audio = comfortNoise.generate(silentFrames, AudioFrameHeader.readNoiseLevel(packet));
+                    audioOffset = 0;
+                    audioLength = silentFrames * audioFormat.getFrameSize();
+                }
+                int frames = audioLength / audioFormat.getFrameSize();
+                framesReceived.add(frames);
+
+                // Once the clock becomes synchronized, the outputs are restarted without their fixed delay
+                ClockSynchronizer.Mapping mapping = audioServer.getClock().getMapping();
+                if (!synchronizePlayback && mapping != null) {
+                    synchronizePlayback = true;
+                    outputs.forEach(AudioClientOutput::stop);
+                    outputs.clear();
+                    startOutputs(outputs, settings, audioFormat, true, connectionId, streamId);
+                }
+
+                float gain = this.gain.get().floatValue();
+                for (AudioClientOutput output : outputs) {
+                    output.setGain(gain);
                 }
 
-                audioWriter.write(packet);
-                state.setToRunning(monitor.update(packet, 0, packet.length));
+                long sendTimeNanos = AudioFrameHeader.readSendTime(packet);
+                if (mapping != null && sendTimeNanos != 0) {
+                    latencyTrace.record(LatencyTrace.Stage.TRANSIT, receiveTimeNanos - mapping.toLocalNanos(sendTimeNanos));
+                }
+
+                // The whole time from the audio being captured by the server to it arriving here
+                if (mapping != null) {
+                    arrivalLatency.record(receiveTimeNanos - mapping.toLocalNanos(AudioFrameHeader.readMediaTime(packet)));
+                }
+
+                boolean scheduled = (synchronizePlayback && mapping != null);
+                long presentationTime = (scheduled ? mapping.toLocalNanos(AudioFrameHeader.readPresentationTime(packet)) : 0);
+
+                // Time how long the audio will wait before being played, before it is added to the queues
+                for (AudioClientOutput output : outputs) {
+                    long playoutDelayNanos = output.getPlayoutDelayNanos();
+                    long deviceDelayNanos = output.getDeviceDelayNanos();
+                    latencyTrace.record(LatencyTrace.Stage.PLAYOUT, playoutDelayNanos);
+                    latencyTrace.record(LatencyTrace.Stage.DEVICE, deviceDelayNanos);
+
+                    // Scheduled audio is late if it will be played after its presentation time,
+                    // and other audio is late if it will be played after the most delay we allow
+                    long delayNanos = playoutDelayNanos + deviceDelayNanos;
+                    long targetNanos = (scheduled
+                            ? presentationTime + output.getDelayOffsetNanos() - receiveTimeNanos
+                            : output.getMaxDelayNanos());
+                    if ((scheduled || targetNanos > 0) && delayNanos > targetNanos + LATE_TOLERANCE_NANOS) {
+                        lateFrames.add(frames);
+                        LateFrameEvent.emit(
+                                connectionId, streamId, output.getSettings().mixer.getName(),
+                                frames, delayNanos, targetNanos
+                        );
+                    }
+                }
+
+                if (scheduled) {
+                    for (AudioClientOutput output : outputs) {
+                        output.write(audio, audioOffset, audioLength, presentationTime);
+                    }
+                } else {
+                    for (AudioClientOutput output : outputs) {
+                        output.write(audio, audioOffset, audioLength);
+                    }
+                }
             }
         } catch (ConnectException e) {
             connectionException = e;
             exitStatus = "Unable to connect: " + e.getMessage();
+        } catch (IOException e) {
+            // Losing the connection part way through streaming is retried, the same as failing to connect
+            connectionException = e;
+            exitStatus = "Connection lost: " + e.getMessage();
         } catch (RuntimeException e) {
             connectionException = e;
             exitStatus = "There was an error: " + e.getMessage();
             throw e;
         } finally {
+            lastExitStatus = exitStatus;
             state.setToStopping(exitStatus, false, connectionException);
 
-            audioWriter.stop();
+            outputs.forEach(AudioClientOutput::stop);
 
             if (socket != null && socket.isConnected()) {
                 try {
@@ -176,4 +373,78 @@ public class AudioClient {
             }
         }
     }
+
+    /**
+     * Create and start an output for each of the outputs in {@param settings}, adding them to {@param outputs}.
+     * If {@param synchronizePlayback} then the audio is scheduled by the server's presentation times, and so
+     * the outputs are not given a fixed buffer delay or a maximum latency to catch up to.
+     */
+    private void startOutputs(List<AudioClientOutput> outputs,
+                              AudioClientSettings settings,
+                              AudioFormat audioFormat,
+                              boolean synchronizePlayback,
+                              String connectionId,
+                              String streamId) throws LineUnavailableException {
+
+        int bufferDelayMS = (synchronizePlayback ? 0 : settings.bufferDelayMS);
+
+        // The scheduler already keeps synchronized playback on time, and catching up would fight it
+        int maxDelayMS = (synchronizePlayback ? 0 : settings.maxLatencyMS);
+
+        for (AudioOutputSettings outputSettings : settings.outputs) {
+            AudioClientOutput output = new AudioClientOutput(
+                    outputSettings, mixerPool, metrics, audioFormat, bufferDelayMS, maxDelayMS,
+                    settings.bufferSizeMS, settings.getMaxBufferSizeMS()
+            );
+            output.setStreamIds(connectionId, streamId);
+            outputs.add(output);
+            output.start();
+        }
+    }
+
+    /**
+     * @return The format that the server replied that it will stream the audio in.
+     *
+     * @throws IOException If the reply is malformed, or the format is not one that can be played.
+     */
+    private static AudioFormat readFormatReply(PacketReader reply) throws IOException {
+        AudioFormat format;
+        try {
+            format = reply.readAudioFormat();
+        } catch (IllegalArgumentException exception) {
+            throw new IOException("Invalid format reply from server", exception);
+        }
+
+        if (!SampleCodec.isSupported(format) || format.getChannels() <= 0 || format.getSampleRate() <= 0)
+            throw new IOException("Server replied with an unsupported format " + format);
+
+        return format;
+    }
+
+    /**
+     * @return The first of {@param formats} that all of {@param outputs} support natively, or else the
+     *         first that any of them support natively, or else the first of {@param formats}.
+     */
+    private static AudioFormat chooseFormat(List<AudioFormat> formats, List<AudioOutputSettings> outputs) {
+        AudioFormat partiallySupported = null;
+        for (AudioFormat format : formats) {
+            if (!SampleCodec.isSupported(format))
+                continue;
+
+            int supportedCount = 0;
+            for (AudioOutputSettings output : outputs) {
+                if (AudioUtils.isAudioFormatSupported(AudioType.OUTPUT, output.mixer, format)) {
+                    supportedCount += 1;
+                }
+            }
+
+            if (supportedCount == outputs.size())
+                return format;
+            if (supportedCount > 0 && partiallySupported == null) {
+                partiallySupported = format;
+            }
+        }
+
+        return (partiallySupported != null ? partiallySupported : formats.get(0));
+    }
 }
@@ -1,6 +1,8 @@
 package net.sothatsit.audiostream.communication.audio;
 
+import net.sothatsit.audiostream.audio.SoftwareMixerPool;
 import net.sothatsit.audiostream.communication.RemoteServer;
+import net.sothatsit.audiostream.metrics.MetricsRegistry;
 import net.sothatsit.audiostream.util.ServiceState;
 import net.sothatsit.property.Property;
 
@@ -18,10 +20,24 @@ public class AudioClientManager {
 
     private final Property<AudioClientSettings> settings;
     private final List<AudioClient> clients;
+    private final SoftwareMixerPool mixerPool;
+    private final MetricsRegistry metrics;
 
     public AudioClientManager(Property<AudioClientSettings> settings) {
         this.settings = settings;
         this.clients = new CopyOnWriteArrayList<>();
+        this.mixerPool = new SoftwareMixerPool();
+        this.metrics = new MetricsRegistry("audioClients");
+
+        metrics.gauge("clients", clients::size);
+        metrics.addChild(mixerPool.getMetrics());
+    }
+
+    /**
+     * @return The metrics of this manager, with the metrics of each of its clients as children.
+     */
+    public MetricsRegistry getMetrics() {
+        return metrics;
     }
 
     public List<AudioClient> getClients() {
@@ -60,8 +76,9 @@ public class AudioClientManager {
             disconnect(client);
         }
 
-        client = new AudioClient(server, settings);
+        client = new AudioClient(server, settings, mixerPool);
 
+        metrics.addChild(client.getMetrics());
         client.start();
         clients.add(client);
     }
@@ -89,6 +106,7 @@ public class AudioClientManager {
             client.stop();
         } finally {
             clients.remove(client);
+            metrics.removeChild(client.getMetrics());
         }
     }
 }
@@ -0,0 +1,147 @@
+package net.sothatsit.audiostream.communication.audio;
+
+import net.sothatsit.audiostream.audio.PlaybackScheduler;
+import net.sothatsit.audiostream.audio.SoftwareMixer;
+import net.sothatsit.audiostream.audio.SoftwareMixerPool;
+import net.sothatsit.audiostream.metrics.MetricsRegistry;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.LineUnavailableException;
+
+/**
+ * One of the outputs that an AudioClient plays the audio it receives through.
+ *
+ * The audio is mixed with that of any other clients playing through the same mixer, so that only
+ * one line is opened per mixer. Each output has its own delay offset, and the mixer converts the
+ * audio to a sample rate it supports if it does not support that of the received audio.
+ * When playback is not synchronized, the output also catches up if too much audio builds up.
+ *
+ * @author Paddy Lamont
+ */
+public class AudioClientOutput {
+
+    private final AudioOutputSettings settings;
+    private final SoftwareMixerPool mixerPool;
+    private final MetricsRegistry metrics;
+    private final AudioFormat format;
+    private final int startDelayMS;
+    private final int maxDelayMS;
+    private final int bufferSizeMS;
+    private final int maxBufferSizeMS;
+    private final long delayOffsetNanos;
+
+    private String connectionId;
+    private String streamId;
+    private SoftwareMixer mixer;
+    private SoftwareMixer.Input input;
+    private PlaybackScheduler scheduler;
+
+    /**
+     * @param metrics The metrics of the client, which the metrics of this output are added to while it is started.
+     * @param format The format of the received audio.
+     * @param bufferDelayMS The delay to play the audio with when playback is not synchronized.
+     * @param maxDelayMS The delay above which to catch back up to {@param bufferDelayMS}, or 0 to never catch up.
+     * @param maxBufferSizeMS The size to grow the line buffer up to each time it underruns, or 0 to never grow it.
+     */
+    public AudioClientOutput(AudioOutputSettings settings,
+                             SoftwareMixerPool mixerPool,
+                             MetricsRegistry metrics,
+                             AudioFormat format,
+                             int bufferDelayMS,
+                             int maxDelayMS,
+                             int bufferSizeMS,
+                             int maxBufferSizeMS) {
+
+        this.settings = settings;
+        this.mixerPool = mixerPool;
+        this.metrics = metrics;
+        this.format = format;
+        this.startDelayMS = Math.max(0, bufferDelayMS + settings.delayOffsetMS);
+        this.maxDelayMS = (maxDelayMS > 0 ? Math.max(0, maxDelayMS + settings.delayOffsetMS) : 0);
+        this.bufferSizeMS = bufferSizeMS;
+        this.maxBufferSizeMS = maxBufferSizeMS;
+        this.delayOffsetNanos = settings.delayOffsetMS * 1_000_000L;
+    }
+
+    public AudioOutputSettings getSettings() {
+        return settings;
+    }
+
+    /**
+     * @return The delay above which this output catches back up, or 0 if it never catches up.
+     */
+    public long getMaxDelayNanos() {
+        return maxDelayMS * 1_000_000L;
+    }
+
+    public long getDelayOffsetNanos() {
+        return delayOffsetNanos;
+    }
+
+    /**
+     * Set the identifiers of the connection and stream of audio that this output
+     * plays, which are used to identify it in diagnostics once it is started.
+     */
+    public void setStreamIds(String connectionId, String streamId) {
+        this.connectionId = connectionId;
+        this.streamId = streamId;
+    }
+
+    public void start() throws LineUnavailableException {
+        if (mixer != null)
+            throw new IllegalStateException("Already started");
+
+        mixer = mixerPool.acquire(settings.mixer, format, bufferSizeMS, maxBufferSizeMS);
+        input = mixer.addInput(format, startDelayMS, maxDelayMS);
+        input.setStreamIds(connectionId, streamId);
+        scheduler = new PlaybackScheduler(input);
+        metrics.addChild(input.getMetrics());
+    }
+
+    public void stop() {
+        if (mixer == null)
+            return;
+
+        try {
+            metrics.removeChild(input.getMetrics());
+            mixer.removeInput(input);
+        } finally {
+            mixerPool.release(mixer);
+            mixer = null;
+            input = null;
+            scheduler = null;
+        }
+    }
+
+    /**
+     * @return How long audio written to this output now will wait before it is mixed.
+     */
+    public long getPlayoutDelayNanos() {
+        return input.getQueuedNanos();
+    }
+
+    /**
+     * @return How long audio mixed now will wait in the line before it is played.
+     */
+    public long getDeviceDelayNanos() {
+        return mixer.getLineDelayNanos();
+    }
+
+    public void setGain(float gain) {
+        input.setGain(gain);
+    }
+
+    /**
+     * Play the audio as soon as possible after this output's delay.
+     */
+    public void write(byte[] bytes, int offset, int length) {
+        input.write(bytes, offset, length);
+    }
+
+    /**
+     * Play the audio at the local System.nanoTime() {@param presentationTimeNanos}, plus this output's delay offset.
+     */
+    public void write(byte[] bytes, int offset, int length, long presentationTimeNanos) {
+        scheduler.write(bytes, offset, length, presentationTimeNanos + delayOffsetNanos);
+    }
+}
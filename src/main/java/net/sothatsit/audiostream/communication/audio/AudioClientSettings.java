@@ -1,9 +1,14 @@
 package net.sothatsit.audiostream.communication.audio;
 
+import net.sothatsit.audiostream.AudioStream;
 import net.sothatsit.audiostream.StreamMonitor;
 import net.sothatsit.audiostream.encryption.Encryption;
+import net.sothatsit.audiostream.metrics.MetricsRegistry;
 
 import javax.sound.sampled.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
 
 /**
@@ -13,29 +18,46 @@ import java.util.Objects;
  */
 public class AudioClientSettings {
 
-    public final Mixer.Info mixer;
+    public final List<AudioOutputSettings> outputs;
+    public final AudioStreamShape shape;
     public final int bufferSizeMS;
     public final int bufferDelayMS;
+    public final int maxLatencyMS;
+    public final boolean growBuffers;
     public final double reportIntervalSecs;
     public final Encryption encryption;
 
-    public AudioClientSettings(Mixer.Info mixer,
+    public AudioClientSettings(List<AudioOutputSettings> outputs,
+                               AudioStreamShape shape,
                                int bufferSizeMS,
                                int bufferDelayMS,
+                               int maxLatencyMS,
+                               boolean growBuffers,
                                double reportIntervalSecs,
                                Encryption encryption) {
 
-        this.mixer = mixer;
+        if (outputs.isEmpty())
+            throw new IllegalArgumentException("There must be at least one output");
+
+        this.outputs = Collections.unmodifiableList(new ArrayList<>(outputs));
+        this.shape = shape;
         this.bufferSizeMS = bufferSizeMS;
         this.bufferDelayMS = bufferDelayMS;
+        this.maxLatencyMS = maxLatencyMS;
+        this.growBuffers = growBuffers;
         this.reportIntervalSecs = reportIntervalSecs;
         this.encryption = encryption;
     }
 
-    public StreamMonitor createStreamMonitor(AudioFormat audioFormat) {
-        int bytesPerSample = audioFormat.getSampleSizeInBits() / 8;
+    /**
+     * @return The size to grow the line buffers of the outputs up to when they underrun, or 0 to never grow them.
+     */
+    public int getMaxBufferSizeMS() {
+        return (growBuffers ? Math.max(bufferSizeMS, AudioStream.MAX_GROWN_BUFFER_MS) : 0);
+    }
 
-        return new StreamMonitor(reportIntervalSecs, bytesPerSample);
+    public StreamMonitor createStreamMonitor(MetricsRegistry metrics, AudioFormat audioFormat) {
+        return new StreamMonitor(metrics, audioFormat);
     }
 
     @Override
@@ -45,9 +67,12 @@ public class AudioClientSettings {
 
         AudioClientSettings other = (AudioClientSettings) obj;
 
-        return Objects.equals(mixer, other.mixer)
+        return outputs.equals(other.outputs)
+                && shape.equals(other.shape)
                 && bufferSizeMS == other.bufferSizeMS
                 && bufferDelayMS == other.bufferDelayMS
+                && maxLatencyMS == other.maxLatencyMS
+                && growBuffers == other.growBuffers
                 && reportIntervalSecs == other.reportIntervalSecs
                 && Objects.equals(encryption, other.encryption);
     }
@@ -0,0 +1,126 @@
+package net.sothatsit.audiostream.communication.audio;
+
+/**
+ * The header written before the audio in every packet sent from an AudioServer to its clients.
+ *
+ * Holds the time at which the first frame of the audio was captured, and the time at which it
+ * should be played, both in the System.nanoTime() clock of the server. Clients that have
+ * synchronized their clocks with the server can use the presentation time to play the audio
+ * at the same moment as every other client of the server. The time at which the packet was
+ * ready to send is also included, so that clients can measure how long the packet took to arrive.
+ *
+ * When the audio is silent the server may instead send a packet with no audio after the header,
+ * and a count of the silent frames that it replaces. The level of the background noise in those
+ * frames is included so that the client can fill them with comfort noise at a similar level.
+ *
+ * @author Paddy Lamont
+ */
+public class AudioFrameHeader {
+
+    public static final int SIZE = 3 * Long.BYTES + Integer.BYTES + Float.BYTES;
+
+    private static final int MEDIA_TIME_OFFSET = 0;
+    private static final int PRESENTATION_TIME_OFFSET = Long.BYTES;
+    private static final int SEND_TIME_OFFSET = 2 * Long.BYTES;
+    private static final int SILENT_FRAMES_OFFSET = 3 * Long.BYTES;
+    private static final int NOISE_LEVEL_OFFSET = SILENT_FRAMES_OFFSET + Integer.BYTES;
+
+    private AudioFrameHeader() {}
+
+    /**
+     * Write the header of a packet of audio to the start of {@param packet}.
+     */
+    public static void write(byte[] packet, long mediaTimeNanos, long presentationTimeNanos) {
+        writeSilence(packet, mediaTimeNanos, presentationTimeNanos, 0, 0);
+    }
+
+    /**
+     * Write the header of a packet replacing {@param silentFrames} frames of silence to the start of {@param packet}.
+     *
+     * @param noiseLevel The RMS level of the background noise in the silent frames, in the range [0, 1].
+     */
+    public static void writeSilence(byte[] packet,
+                                    long mediaTimeNanos,
+                                    long presentationTimeNanos,
+                                    int silentFrames,
+                                    float noiseLevel) {
+
+        writeLong(packet, MEDIA_TIME_OFFSET, mediaTimeNanos);
+        writeLong(packet, PRESENTATION_TIME_OFFSET, presentationTimeNanos);
+        writeLong(packet, SEND_TIME_OFFSET, 0);
+        writeInt(packet, SILENT_FRAMES_OFFSET, silentFrames);
+        writeInt(packet, NOISE_LEVEL_OFFSET, Float.floatToIntBits(noiseLevel));
+    }
+
+    /**
+     * Write the server time at which {@param packet} was ready to send into its header.
+     */
+    public static void writeSendTime(byte[] packet, long sendTimeNanos) {
+        writeLong(packet, SEND_TIME_OFFSET, sendTimeNanos);
+    }
+
+    /**
+     * @return The server time at which the audio in {@param packet} was captured.
+     */
+    public static long readMediaTime(byte[] packet) {
+        return readLong(packet, MEDIA_TIME_OFFSET);
+    }
+
+    /**
+     * @return The server time at which the audio in {@param packet} should be played.
+     */
+    public static long readPresentationTime(byte[] packet) {
+        return readLong(packet, PRESENTATION_TIME_OFFSET);
+    }
+
+    /**
+     * @return The server time at which {@param packet} was ready to send, or 0 if it was not recorded.
+     */
+    public static long readSendTime(byte[] packet) {
+        return readLong(packet, SEND_TIME_OFFSET);
+    }
+
+    /**
+     * @return The number of silent frames that {@param packet} replaces, or 0 if it contains audio.
+     */
+    public static int readSilentFrames(byte[] packet) {
+        return readInt(packet, SILENT_FRAMES_OFFSET);
+    }
+
+    /**
+     * @return The RMS level of the background noise in the silent frames that {@param packet} replaces.
+     */
+    public static float readNoiseLevel(byte[] packet) {
+        return Float.intBitsToFloat(readInt(packet, NOISE_LEVEL_OFFSET));
+    }
+
+    private static void writeLong(byte[] bytes, int offset, long value) {
+        for (int index = Long.BYTES - 1; index >= 0; --index) {
+            bytes[offset + index] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    private static long readLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int index = 0; index < Long.BYTES; ++index) {
+            value = (value << 8) | (bytes[offset + index] & 0xFF);
+        }
+        return value;
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        for (int index = Integer.BYTES - 1; index >= 0; --index) {
+            bytes[offset + index] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        int value = 0;
+        for (int index = 0; index < Integer.BYTES; ++index) {
+            value = (value << 8) | (bytes[offset + index] & 0xFF);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,46 @@
+package net.sothatsit.audiostream.communication.audio;
+
+import javax.sound.sampled.Mixer;
+import java.util.Objects;
+
+/**
+ * Settings for one of the outputs that a Client plays its audio through.
+ *
+ * @author Paddy Lamont
+ */
+public class AudioOutputSettings {
+
+    public final Mixer.Info mixer;
+
+    /**
+     * An extra delay added to the audio played through this output, to line it up with outputs that
+     * have a longer latency of their own (e.g. Bluetooth headphones). May be negative.
+     */
+    public final int delayOffsetMS;
+
+    public AudioOutputSettings(Mixer.Info mixer, int delayOffsetMS) {
+        this.mixer = mixer;
+        this.delayOffsetMS = delayOffsetMS;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == null || !getClass().equals(obj.getClass()))
+            return false;
+
+        AudioOutputSettings other = (AudioOutputSettings) obj;
+
+        return Objects.equals(mixer, other.mixer) && delayOffsetMS == other.delayOffsetMS;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(mixer) * 31 + delayOffsetMS;
+    }
+
+    @Override
+    public String toString() {
+        String mixerName = (mixer == null ? "No Mixer" : mixer.getName());
+        return mixerName + " (" + (delayOffsetMS >= 0 ? "+" : "") + delayOffsetMS + " ms)";
+    }
+}
@@ -1,12 +1,19 @@
 package net.sothatsit.audiostream.communication.audio;
 
+import net.sothatsit.audiostream.AudioStream;
 import net.sothatsit.audiostream.audio.AudioReader;
+import net.sothatsit.audiostream.audio.AudioSourcePool;
+import net.sothatsit.audiostream.metrics.Counter;
+import net.sothatsit.audiostream.metrics.LatencyTrace;
+import net.sothatsit.audiostream.metrics.MetricsRegistry;
+import net.sothatsit.audiostream.audio.SampleCodec;
 import net.sothatsit.audiostream.util.LoopedThread;
 import net.sothatsit.audiostream.util.ServiceState;
 import net.sothatsit.property.awt.GuiUtils;
 import net.sothatsit.property.Property;
 
 import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.LineUnavailableException;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
@@ -19,15 +26,26 @@ import java.util.concurrent.atomic.AtomicReference;
 /**
  * The server transmitting the audio.
  *
+ * The audio is captured in one format, but each client may ask for it in any of the formats
+ * returned by {@link #getStreamableFormats(AudioFormat)}, with fewer channels or a smaller sample
+ * size if they wish to save bandwidth. Each distinct format that is asked for is converted to
+ * once, and then shared between all the clients that asked for it.
+ *
  * @author Paddy Lamont
  */
 public class AudioServer {
 
+    private static final int[] STREAMABLE_SAMPLE_SIZES = {16, 16, 24};
+    private static final boolean[] STREAMABLE_BIG_ENDIAN = {false, true, false};
+
     private final Property<AudioServerSettings> settings;
     private final List<AudioServerConnection> connections;
     private final AtomicReference<Exception> threadException;
     private final LoopedThread thread;
     private final Property<Boolean> running;
+    private final MetricsRegistry metrics;
+    private final LatencyTrace latencyTrace;
+    private final Counter acceptedConnections;
     private ServerSocket serverSocket;
 
     public AudioServer(Property<AudioServerSettings> settings) {
@@ -38,8 +56,13 @@ public class AudioServer {
         this.threadException = new AtomicReference<>();
         this.thread = new LoopedThread("connectionAccepting", this::runServer);
         this.running = Property.createNonNull("running", false);
+        this.metrics = new MetricsRegistry("audioServer");
+        this.latencyTrace = new LatencyTrace(metrics);
+        this.acceptedConnections = metrics.counter("connections.accepted");
         this.serverSocket = null;
 
+        metrics.gauge("connections", connections::size);
+
         // Interrupting the thread triggers restarting the server
         // TODO : This seems like it could possibly lead to unwanted restarts
         settings.addChangeListener(event -> thread.interruptIfRunning());
@@ -61,6 +84,24 @@ public class AudioServer {
         return new ArrayList<>(connections);
     }
 
+    /**
+     * @return The metrics of this server, with the metrics of each of its connections as children.
+     */
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return The latencies of the audio streamed by this server, including those of all of its current connections.
+     */
+    public LatencyTrace.Snapshot getLatencySnapshot() {
+        LatencyTrace.Snapshot snapshot = latencyTrace.snapshot();
+        for (AudioServerConnection connection : connections) {
+            snapshot = snapshot.plus(connection.getLatencyTrace().snapshot());
+        }
+        return snapshot;
+    }
+
     public Exception takeThreadException() {
         return threadException.getAndSet(null);
     }
@@ -90,9 +131,13 @@ public class AudioServer {
     }
 
     private void addConnection(AudioServerConnection connection) {
+        metrics.addChild(connection.getMetrics());
+        acceptedConnections.increment();
+
         connection.getState().addValueListener(state -> {
             if (state.getType() == ServiceState.Type.STOPPED) {
                 connections.remove(connection);
+                metrics.removeChild(connection.getMetrics());
             }
         });
         connection.start();
@@ -114,10 +159,17 @@ public class AudioServer {
     private synchronized void runServer(Property<Boolean> running) {
         AudioServerSettings settings = this.settings.get();
         AudioReader audioReader = null;
+        AudioSourcePool sourcePool = null;
         try {
             serverSocket = new ServerSocket(settings.port);
-            audioReader = new AudioReader(settings.mixer, settings.format, settings.bufferSize);
+            audioReader = createAudioReader(settings);
+            audioReader.setMetrics(metrics);
+            if (settings.growBuffers) {
+                int maxBufferBytes = getBufferSizeBytes(settings.format, AudioStream.MAX_GROWN_BUFFER_MS);
+                audioReader.setMaxBufferBytes(Math.max(settings.bufferSize, maxBufferBytes));
+            }
             audioReader.start();
+            sourcePool = new AudioSourcePool(audioReader);
 
             this.running.set(true);
 
@@ -126,24 +178,107 @@ public class AudioServer {
                 if (socket == null)
                     continue;
 
-                addConnection(new AudioServerConnection(settings, audioReader, socket));
+                addConnection(new AudioServerConnection(settings, sourcePool, socket));
             }
         } catch (Exception exception) {
             threadException.set(exception);
         } finally {
             this.running.set(false);
 
+            for (AudioServerConnection connection : connections) {
+                connection.stop();
+                metrics.removeChild(connection.getMetrics());
+            }
+            connections.clear();
+
+            if (sourcePool != null) {
+                sourcePool.stop();
+            }
             if (audioReader != null) {
                 audioReader.stop();
             }
 
-            connections.forEach(AudioServerConnection::stop);
-            connections.clear();
-
             killServerSocket();
         }
     }
 
+    /**
+     * @return A reader of the audio to stream, captured as described by {@param settings}.
+     */
+    protected AudioReader createAudioReader(AudioServerSettings settings) throws LineUnavailableException {
+        return new AudioReader(settings.mixer, settings.format, settings.bufferSize);
+    }
+
+    /**
+     * @return The formats that audio captured in {@param captureFormat} can be streamed in, from most
+     *         to least preferred. Formats that are cheaper to convert to are preferred, so changing the
+     *         byte order is preferred over changing the sample size, then the channels, and then the
+     *         sample rate. The first format is always {@param captureFormat}, which needs no conversion.
+     */
+    public static List<AudioFormat> getStreamableFormats(AudioFormat captureFormat) {
+        List<AudioFormat> formats = new ArrayList<>();
+        formats.add(captureFormat);
+
+        float[] sampleRates = {captureFormat.getSampleRate(), 48000f, 44100f};
+        int[] channelCounts = {captureFormat.getChannels(), 2, 1};
+        for (float sampleRate : sampleRates) {
+            for (int channels : channelCounts) {
+                for (int index = 0; index < STREAMABLE_SAMPLE_SIZES.length; ++index) {
+                    int sampleSize = STREAMABLE_SAMPLE_SIZES[index];
+                    AudioFormat format = new AudioFormat(
+                            AudioFormat.Encoding.PCM_SIGNED, sampleRate, sampleSize, channels,
+                            channels * sampleSize / 8, sampleRate, STREAMABLE_BIG_ENDIAN[index]
+                    );
+
+                    if (!containsFormat(formats, format)) {
+                        formats.add(format);
+                    }
+                }
+            }
+        }
+        return formats;
+    }
+
+    /**
+     * @return Whether audio captured in {@param captureFormat} can be streamed in {@param format}, which must be
+     *         one of the streamable formats, or one of them with fewer channels or a smaller sample size.
+     */
+    public static boolean isStreamableFormat(AudioFormat captureFormat, AudioFormat format) {
+        List<AudioFormat> streamableFormats = getStreamableFormats(captureFormat);
+        if (containsFormat(streamableFormats, format))
+            return true;
+
+        if (!SampleCodec.isSupported(format))
+            return false;
+
+        for (AudioFormat streamable : streamableFormats) {
+            if (streamable.getSampleRate() == format.getSampleRate()
+                    && format.getChannels() <= streamable.getChannels()
+                    && format.getSampleSizeInBits() <= streamable.getSampleSizeInBits())
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return Whether {@param formats} contains a format that is the same as {@param format}.
+     */
+    public static boolean containsFormat(List<AudioFormat> formats, AudioFormat format) {
+        for (AudioFormat candidate : formats) {
+            if (candidate.matches(format) && format.matches(candidate))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return A description of the stream of audio in {@param format}, made up of only {@param sourceChannel}
+     *         of the captured audio if it is not -1, used to identify the stream in diagnostics.
+     */
+    public static String getStreamId(AudioFormat format, int sourceChannel) {
+        return format + (sourceChannel >= 0 ? ", channel " + sourceChannel : "");
+    }
+
     /**
      * @return the number of buffer bytes required to have a buffer size of {@param bufferSizeMS}
      *         milliseconds for the given audio format {@param format}.
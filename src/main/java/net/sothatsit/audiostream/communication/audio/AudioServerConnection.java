@@ -1,12 +1,23 @@
 package net.sothatsit.audiostream.communication.audio;
 
-import net.sothatsit.audiostream.audio.AudioReader;
+import net.sothatsit.audiostream.audio.AudioSource;
+import net.sothatsit.audiostream.audio.AudioSourcePool;
+import net.sothatsit.audiostream.audio.SilenceDetector;
+import net.sothatsit.audiostream.communication.packet.PacketBuilder;
+import net.sothatsit.audiostream.communication.packet.PacketInputStream;
+import net.sothatsit.audiostream.metrics.Counter;
+import net.sothatsit.audiostream.metrics.LatencyTrace;
+import net.sothatsit.audiostream.metrics.MetricsRegistry;
+import net.sothatsit.audiostream.metrics.jfr.EncryptionEvent;
+import net.sothatsit.audiostream.metrics.jfr.SlowConsumerDropEvent;
 import net.sothatsit.audiostream.communication.packet.PacketOutputStream;
+import net.sothatsit.audiostream.communication.packet.PacketReader;
 import net.sothatsit.audiostream.util.LoopedThread;
 import net.sothatsit.audiostream.util.ServiceState;
 import net.sothatsit.audiostream.util.VariableBuffer;
 import net.sothatsit.property.Property;
 
+import javax.sound.sampled.AudioFormat;
 import java.io.IOException;
 import java.net.Socket;
 import java.net.SocketException;
@@ -16,24 +27,63 @@ import java.util.List;
 /**
  * Streams audio from an AudioServer.
  *
+ * When a client connects it first sends the format it would like to receive the audio in, which must
+ * be one of the formats the server advertises or a reduced version of one, and optionally a single
+ * channel of the captured audio to receive. If the request cannot be met, the audio is streamed in
+ * the captured format instead. Either way, the server replies with the format and channel that it
+ * will stream, so that the client always decodes the audio in the format it is actually sent in.
+ *
+ * Once the audio has been silent for a while, only headers marking the number of silent frames
+ * are sent until it is audible again, so that idle streams use almost no bandwidth.
+ *
+ * If the client cannot receive the audio as fast as it is captured, the oldest queued audio
+ * is dropped once more than {@link #MAX_QUEUE_MS} milliseconds of it has built up.
+ *
  * @author Paddy Lamont
  */
 public class AudioServerConnection {
 
+    private static final int FORMAT_REQUEST_TIMEOUT_MS = 5000;
+    private static final int MAX_QUEUE_MS = 1000;
+
     private final AudioServerSettings settings;
-    private final AudioReader reader;
+    private final AudioSourcePool sourcePool;
     private final Socket socket;
+    private final String connectionId;
+    private final MetricsRegistry metrics;
+    private final LatencyTrace latencyTrace;
+    private final Counter packetsSent;
+    private final Counter silentPacketsSent;
+    private final Counter bytesSent;
+    private final Counter framesSent;
+    private final Counter framesDropped;
     private final LoopedThread thread;
     private final Property<ServiceState> state;
 
-    public AudioServerConnection(AudioServerSettings settings, AudioReader reader, Socket socket) {
+    public AudioServerConnection(AudioServerSettings settings, AudioSourcePool sourcePool, Socket socket) {
         this.settings = settings;
-        this.reader = reader;
+        this.sourcePool = sourcePool;
         this.socket = socket;
+        this.connectionId = String.valueOf(socket.getRemoteSocketAddress());
+        this.metrics = new MetricsRegistry("connection(" + connectionId + ")");
+        this.latencyTrace = new LatencyTrace(metrics);
+        this.packetsSent = metrics.counter("packets.sent");
+        this.silentPacketsSent = metrics.counter("packets.silent");
+        this.bytesSent = metrics.counter("bytes.sent");
+        this.framesSent = metrics.counter("frames.sent");
+        this.framesDropped = metrics.counter("frames.dropped");
         this.thread = new LoopedThread("streamingThread", this::stream);
         this.state = thread.getState();
     }
 
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    public LatencyTrace getLatencyTrace() {
+        return latencyTrace;
+    }
+
     public void start() {
         thread.start();
     }
@@ -53,26 +103,106 @@ public class AudioServerConnection {
 
     private void stream(Property<Boolean> running) {
         PacketOutputStream outStream;
+        AudioSource source = null;
         VariableBuffer inBuffer = null;
         try {
-            // Size the buffer such that it only contains whole audio frames
-            int frameSizeBytes = settings.format.getFrameSize();
-            int bufferSize = (settings.bufferSize / frameSizeBytes) * frameSizeBytes;
+            AudioFormat format = settings.format;
+            int sourceChannel = -1;
+
+            socket.setSoTimeout(FORMAT_REQUEST_TIMEOUT_MS);
+            PacketReader request = PacketReader.create(new PacketInputStream(socket.getInputStream()).readPacket());
+            socket.setSoTimeout(0);
+
+            AudioFormat requestedFormat = request.readAudioFormat();
+            int requestedChannel = request.readInt();
+            if (isValidRequest(requestedFormat, requestedChannel)) {
+                format = requestedFormat;
+                sourceChannel = requestedChannel;
+            }
 
+            // Tell the client what it will actually receive, as it may not be what it asked for
             outStream = new PacketOutputStream(socket.getOutputStream());
+            outStream.writePacket(PacketBuilder.create()
+                    .writeAudioFormat(format)
+                    .writeInt(sourceChannel)
+                    .build());
+
+            source = sourcePool.acquire(format, sourceChannel);
+            String streamId = AudioServer.getStreamId(format, sourceChannel);
+
+            // Size the buffer such that it only contains whole audio frames,
+            // and holds the same duration of audio as in the captured format
+            int captureFrames = settings.bufferSize / settings.format.getFrameSize();
+            int bufferFrames = Math.max(1, Math.round(captureFrames * format.getFrameRate() / settings.format.getFrameRate()));
+            int bufferSize = bufferFrames * format.getFrameSize();
+            long presentationDelayNanos = settings.presentationDelayMS * 1_000_000L;
+            int maxQueueBytes = Math.max(2 * bufferSize, AudioServer.getBufferSizeBytes(format, MAX_QUEUE_MS));
+
             inBuffer = new VariableBuffer(2 * bufferSize);
-            reader.addOutBuffer(inBuffer);
+            metrics.gauge("queue.bytes", inBuffer::size);
+            long frameIndex = source.addOutBuffer(inBuffer);
 
-            byte[] buffer = new byte[bufferSize];
+            SilenceDetector silenceDetector = new SilenceDetector(
+                    format, settings.silenceThresholdDB, settings.silenceHangoverMS
+            );
+
+            byte[] buffer = new byte[AudioFrameHeader.SIZE + bufferSize];
+            byte[] silenceBuffer = new byte[AudioFrameHeader.SIZE];
             while (running.get()) {
-                inBuffer.pop(buffer, 0, buffer.length);
+                // Skip the audio that a client that cannot keep up has missed, instead of falling further behind
+                int queuedBytes = inBuffer.size();
+                if (queuedBytes > maxQueueBytes) {
+                    long droppedFrames = 0;
+                    while (inBuffer.size() > bufferSize) {
+                        inBuffer.pop(buffer, AudioFrameHeader.SIZE, bufferSize);
+                        frameIndex += bufferFrames;
+                        droppedFrames += bufferFrames;
+                    }
+
+                    framesDropped.add(droppedFrames);
+                    SlowConsumerDropEvent.emit(connectionId, streamId, droppedFrames, queuedBytes);
+                }
+
+                inBuffer.pop(buffer, AudioFrameHeader.SIZE, bufferSize);
+
+                long dequeueTimeNanos = System.nanoTime();
+                long lastCaptureTimeNanos = source.getCaptureTimeNanos(frameIndex + bufferFrames - 1);
+                latencyTrace.record(LatencyTrace.Stage.QUEUE, dequeueTimeNanos - lastCaptureTimeNanos);
+
+                long mediaTimeNanos = source.getCaptureTimeNanos(frameIndex);
+                long presentationTimeNanos = mediaTimeNanos + presentationDelayNanos;
+                frameIndex += bufferFrames;
+
+                byte[] packet;
+                if (silenceDetector.isSilent(buffer, AudioFrameHeader.SIZE, bufferSize)) {
+                    AudioFrameHeader.writeSilence(
+                            silenceBuffer, mediaTimeNanos, presentationTimeNanos,
+                            bufferFrames, silenceDetector.getNoiseLevel()
+                    );
+                    packet = silenceBuffer;
+                    silentPacketsSent.increment();
+                } else {
+                    AudioFrameHeader.write(buffer, mediaTimeNanos, presentationTimeNanos);
+                    packet = buffer;
+                }
+
+                AudioFrameHeader.writeSendTime(packet, dequeueTimeNanos);
 
-                byte[] packet = buffer;
                 if (settings.encryption != null) {
-                    packet = settings.encryption.encrypt(buffer);
+                    EncryptionEvent encryptionEvent = EncryptionEvent.start();
+                    long encryptStartNanos = System.nanoTime();
+                    packet = settings.encryption.encrypt(packet);
+                    latencyTrace.record(LatencyTrace.Stage.ENCRYPT, System.nanoTime() - encryptStartNanos);
+                    encryptionEvent.finish(connectionId, streamId, "encrypt", packet.length);
                 }
 
+                long sendStartNanos = System.nanoTime();
                 outStream.writePacket(packet, 0, packet.length);
+                latencyTrace.record(LatencyTrace.Stage.SEND, System.nanoTime() - sendStartNanos);
+
+                packetsSent.increment();
+                bytesSent.add(packet.length);
+                framesSent.add(bufferFrames);
             }
         } catch (IOException exception) {
             // When the other end of the connection is closed one of these exceptions will be thrown.
@@ -86,8 +216,24 @@ public class AudioServerConnection {
             throw new RuntimeException("There was an error streaming audio to client", exception);
         } finally {
             if (inBuffer != null) {
-                reader.removeOutBuffer(inBuffer);
+                source.removeOutBuffer(inBuffer);
+            }
+            if (source != null) {
+                sourcePool.release(source);
             }
         }
     }
+
+    /**
+     * @return Whether the audio can be streamed in {@param format}, using only {@param sourceChannel} if it is not -1.
+     *         If not, the audio is streamed in the captured format instead, and the client is told so.
+     */
+    private boolean isValidRequest(AudioFormat format, int sourceChannel) {
+        if (!AudioServer.isStreamableFormat(settings.format, format))
+            return false;
+        if (sourceChannel == -1)
+            return true;
+
+        return sourceChannel >= 0 && sourceChannel < settings.format.getChannels() && format.getChannels() == 1;
+    }
 }
@@ -15,6 +15,10 @@ public class AudioServerSettings {
     public final AudioFormat format;
     public final Mixer.Info mixer;
     public final int bufferSize;
+    public final int presentationDelayMS;
+    public final double silenceThresholdDB;
+    public final int silenceHangoverMS;
+    public final boolean growBuffers;
     public final double reportIntervalSecs;
     public final int port;
     public final Encryption encryption;
@@ -22,6 +26,10 @@ public class AudioServerSettings {
     public AudioServerSettings(AudioFormat format,
                                Mixer.Info mixer,
                                int bufferSize,
+                               int presentationDelayMS,
+                               double silenceThresholdDB,
+                               int silenceHangoverMS,
+                               boolean growBuffers,
                                double reportIntervalSecs,
                                int port,
                                Encryption encryption) {
@@ -29,6 +37,10 @@ public class AudioServerSettings {
         this.format = format;
         this.mixer = mixer;
         this.bufferSize = bufferSize;
+        this.presentationDelayMS = presentationDelayMS;
+        this.silenceThresholdDB = silenceThresholdDB;
+        this.silenceHangoverMS = silenceHangoverMS;
+        this.growBuffers = growBuffers;
         this.reportIntervalSecs = reportIntervalSecs;
         this.port = port;
         this.encryption = encryption;
@@ -0,0 +1,97 @@
+package net.sothatsit.audiostream.communication.audio;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * How a client would like the audio it receives to be reduced before it is sent, to save bandwidth.
+ *
+ * @author Paddy Lamont
+ */
+public class AudioStreamShape {
+
+    public static final AudioStreamShape FULL = new AudioStreamShape(ChannelMode.ALL, 0);
+
+    public final ChannelMode channelMode;
+
+    /**
+     * The largest sample size to receive, or 0 for no limit.
+     */
+    public final int maxSampleSizeInBits;
+
+    public AudioStreamShape(ChannelMode channelMode, int maxSampleSizeInBits) {
+        if (maxSampleSizeInBits < 0 || maxSampleSizeInBits % 8 != 0)
+            throw new IllegalArgumentException("maxSampleSizeInBits must be 0 or a positive multiple of 8");
+
+        this.channelMode = channelMode;
+        this.maxSampleSizeInBits = maxSampleSizeInBits;
+    }
+
+    /**
+     * @return {@param format} with its channels and sample size reduced to fit this shape.
+     */
+    public AudioFormat apply(AudioFormat format) {
+        int channels = (channelMode == ChannelMode.ALL ? format.getChannels() : 1);
+
+        AudioFormat.Encoding encoding = format.getEncoding();
+        int sampleSize = format.getSampleSizeInBits();
+        if (maxSampleSizeInBits > 0 && sampleSize > maxSampleSizeInBits) {
+            encoding = AudioFormat.Encoding.PCM_SIGNED;
+            sampleSize = maxSampleSizeInBits;
+        }
+
+        return new AudioFormat(
+                encoding, format.getSampleRate(), sampleSize, channels,
+                channels * sampleSize / 8, format.getFrameRate(), format.isBigEndian()
+        );
+    }
+
+    /**
+     * @return The channel of the captured audio to send on its own, or -1 to send a mix of all channels.
+     */
+    public int getSourceChannel() {
+        return channelMode.sourceChannel;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == null || !getClass().equals(obj.getClass()))
+            return false;
+
+        AudioStreamShape other = (AudioStreamShape) obj;
+        return channelMode == other.channelMode && maxSampleSizeInBits == other.maxSampleSizeInBits;
+    }
+
+    @Override
+    public int hashCode() {
+        return channelMode.hashCode() * 31 + maxSampleSizeInBits;
+    }
+
+    @Override
+    public String toString() {
+        String bits = (maxSampleSizeInBits == 0 ? "Any Bit Depth" : "At Most " + maxSampleSizeInBits + "-bit");
+        return channelMode + ", " + bits;
+    }
+
+    /**
+     * Which channels of the captured audio to receive.
+     */
+    public enum ChannelMode {
+        ALL("All Channels", -1),
+        DOWNMIX("Mono Downmix", -1),
+        LEFT("Left Channel Only", 0),
+        RIGHT("Right Channel Only", 1);
+
+        private final String name;
+        private final int sourceChannel;
+
+        ChannelMode(String name, int sourceChannel) {
+            this.name = name;
+            this.sourceChannel = sourceChannel;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
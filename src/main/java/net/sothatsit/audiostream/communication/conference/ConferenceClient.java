@@ -0,0 +1,198 @@
+package net.sothatsit.audiostream.communication.conference;
+
+import net.sothatsit.audiostream.audio.AudioReader;
+import net.sothatsit.audiostream.audio.AudioWriter;
+import net.sothatsit.audiostream.communication.audio.AudioFrameHeader;
+import net.sothatsit.audiostream.communication.audio.AudioServer;
+import net.sothatsit.audiostream.communication.packet.PacketInputStream;
+import net.sothatsit.audiostream.communication.packet.PacketOutputStream;
+import net.sothatsit.audiostream.encryption.Encryption;
+import net.sothatsit.audiostream.util.LoopedThread;
+import net.sothatsit.audiostream.util.ServiceState;
+import net.sothatsit.audiostream.util.VariableBuffer;
+import net.sothatsit.property.Property;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.Mixer;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Takes part in a conference hosted by a ConferenceServer, sending it the
+ * audio from our microphone and playing the mix of everyone else that it sends back.
+ *
+ * @author Paddy Lamont
+ */
+public class ConferenceClient {
+
+    private static final int RECONNECT_MILLIS = 1000;
+    private static final long SEND_WAIT_MS = 100;
+
+    private final InetSocketAddress address;
+    private final Mixer.Info inputMixer;
+    private final Mixer.Info outputMixer;
+    private final AudioFormat format;
+    private final int periodBytes;
+    private final int bufferDelayMS;
+    private final int bufferSizeMS;
+    private final Encryption encryption;
+
+    private final LoopedThread thread;
+    private final ServiceState.StateProperty state;
+
+    /**
+     * @param format The format of the conference audio.
+     * @param periodMS The duration of audio to send at a time.
+     */
+    public ConferenceClient(InetSocketAddress address,
+                            Mixer.Info inputMixer,
+                            Mixer.Info outputMixer,
+                            AudioFormat format,
+                            int periodMS,
+                            int bufferDelayMS,
+                            int bufferSizeMS,
+                            Encryption encryption) {
+
+        this.address = address;
+        this.inputMixer = inputMixer;
+        this.outputMixer = outputMixer;
+        this.format = format;
+        this.periodBytes = AudioServer.getBufferSizeBytes(format, periodMS);
+        this.bufferDelayMS = bufferDelayMS;
+        this.bufferSizeMS = bufferSizeMS;
+        this.encryption = encryption;
+
+        this.thread = new LoopedThread("conferenceClient(" + address + ")", this::run, RECONNECT_MILLIS);
+        this.thread.setInterruptStrategy(LoopedThread.InterruptStrategy.SKIP_WAIT);
+        this.state = new ServiceState.StateProperty("state");
+    }
+
+    public InetSocketAddress getAddress() {
+        return address;
+    }
+
+    public Property<ServiceState> getState() {
+        return state.readOnly();
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    public void stop() {
+        thread.stop();
+    }
+
+    private void run(Property<Boolean> running) {
+        try {
+            runClient(running);
+        } catch (IOException | LineUnavailableException exception) {
+            throw new RuntimeException(exception);
+        } finally {
+            state.setToStopped("Stopped");
+        }
+    }
+
+    private void runClient(Property<Boolean> running) throws IOException, LineUnavailableException {
+        state.setToStarting("Establishing connections", false);
+
+        int bufferDelayBytes = AudioServer.getBufferSizeBytes(format, bufferDelayMS);
+        int bufferBytes = AudioServer.getBufferSizeBytes(format, bufferSizeMS);
+        int sampleBytes = format.getSampleSizeInBits() / 8;
+
+        AudioReader reader = new AudioReader(inputMixer, format, periodBytes / sampleBytes);
+        AudioWriter writer = new AudioWriter(outputMixer, format, bufferDelayBytes, bufferBytes);
+        writer.setStreamIds(address.toString(), format.toString());
+        VariableBuffer micBuffer = new VariableBuffer(4 * periodBytes);
+
+        Socket socket = null;
+        LoopedThread sendThread = null;
+        String exitStatus = "Disconnected";
+        Exception connectionException = null;
+
+        try {
+            writer.start();
+
+            socket = new Socket(address.getAddress(), address.getPort());
+            socket.setTcpNoDelay(true);
+
+            PacketInputStream inStream = new PacketInputStream(socket.getInputStream());
+            PacketOutputStream outStream = new PacketOutputStream(socket.getOutputStream());
+
+            reader.addOutBuffer(micBuffer);
+            reader.start();
+
+            sendThread = new LoopedThread(
+                    "conferenceClient(" + address + ")-sendThread",
+                    sendRunning -> send(sendRunning, micBuffer, outStream)
+            );
+            sendThread.start();
+
+            state.setToRunning("Connected");
+
+            // Receive and play the mix of everyone else
+            while (running.get()) {
+                byte[] packet = inStream.readPacket();
+                if (encryption != null) {
+                    packet = encryption.decrypt(packet);
+                }
+
+                writer.write(packet, AudioFrameHeader.SIZE, packet.length - AudioFrameHeader.SIZE);
+            }
+        } catch (ConnectException e) {
+            connectionException = e;
+            exitStatus = "Unable to connect: " + e.getMessage();
+        } catch (RuntimeException e) {
+            connectionException = e;
+            exitStatus = "There was an error: " + e.getMessage();
+            throw e;
+        } finally {
+            state.setToStopping(exitStatus, false, connectionException);
+
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException exception) {
+                    new RuntimeException("Error closing socket", exception).printStackTrace();
+                }
+            }
+
+            if (sendThread != null) {
+                sendThread.stop();
+            }
+
+            reader.stop();
+            writer.stop();
+        }
+    }
+
+    private void send(Property<Boolean> running, VariableBuffer micBuffer, PacketOutputStream outStream) {
+        byte[] buffer = new byte[AudioFrameHeader.SIZE + periodBytes];
+        try {
+            while (running.get()) {
+                // Wake up periodically so that we notice when we are stopped
+                if (!micBuffer.pop(buffer, AudioFrameHeader.SIZE, periodBytes, SEND_WAIT_MS, TimeUnit.MILLISECONDS))
+                    continue;
+
+                long now = System.nanoTime();
+                AudioFrameHeader.write(buffer, now, now);
+
+                byte[] packet = buffer;
+                if (encryption != null) {
+                    packet = encryption.encrypt(buffer);
+                }
+
+                outStream.writePacket(packet, 0, packet.length);
+            }
+        } catch (SocketException exception) {
+            // The socket was closed
+        } catch (IOException exception) {
+            throw new RuntimeException("There was an error sending audio to the conference", exception);
+        }
+    }
+}
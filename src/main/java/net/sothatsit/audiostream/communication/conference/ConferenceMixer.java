@@ -0,0 +1,90 @@
+package net.sothatsit.audiostream.communication.conference;
+
+/**
+ * Mixes the audio of every participant in a conference, such that each participant
+ * receives the audio of everyone except themselves.
+ *
+ * Rather than summing the other N-1 participants separately for each participant, which would
+ * cost O(N^2) per sample, all participants are summed once and then each participant's own audio
+ * is subtracted back out of the total. The loops work on primitive arrays that are allocated
+ * once up front, and are simple enough for the JIT to vectorize.
+ *
+ * This class is NOT thread safe and should
+ * always be used from a single thread.
+ *
+ * @author Paddy Lamont
+ */
+public class ConferenceMixer {
+
+    private final int samples;
+    private final int[] total;
+
+    /**
+     * @param samples The number of samples in each period of audio to mix, across all channels.
+     */
+    public ConferenceMixer(int samples) {
+        this.samples = samples;
+        this.total = new int[samples];
+    }
+
+    public int getSamples() {
+        return samples;
+    }
+
+    /**
+     * Mix the audio of {@param count} participants from {@param inputs}, and write
+     * the mix for each participant into the same index of {@param outputs}.
+     */
+    public void mix(short[][] inputs, short[][] outputs, int count) {
+        int[] total = this.total;
+        for (int index = 0; index < samples; ++index) {
+            total[index] = 0;
+        }
+
+        for (int participant = 0; participant < count; ++participant) {
+            short[] input = inputs[participant];
+            for (int index = 0; index < samples; ++index) {
+                total[index] += input[index];
+            }
+        }
+
+        for (int participant = 0; participant < count; ++participant) {
+            short[] input = inputs[participant];
+            short[] output = outputs[participant];
+            for (int index = 0; index < samples; ++index) {
+                int mixed = total[index] - input[index];
+                output[index] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, mixed));
+            }
+        }
+    }
+
+    /**
+     * Decode {@param samples} 16-bit samples from {@param bytes} starting at {@param offset} into {@param out}.
+     */
+    public static void decode(byte[] bytes, int offset, short[] out, int samples, boolean bigEndian) {
+        if (bigEndian) {
+            for (int index = 0; index < samples; ++index) {
+                int byteIndex = offset + 2 * index;
+                out[index] = (short) ((bytes[byteIndex] << 8) | (bytes[byteIndex + 1] & 0xFF));
+            }
+        } else {
+            for (int index = 0; index < samples; ++index) {
+                int byteIndex = offset + 2 * index;
+                out[index] = (short) ((bytes[byteIndex + 1] << 8) | (bytes[byteIndex] & 0xFF));
+            }
+        }
+    }
+
+    /**
+     * Encode {@param samples} 16-bit samples from {@param in} into {@param bytes} starting at {@param offset}.
+     */
+    public static void encode(short[] in, byte[] bytes, int offset, int samples, boolean bigEndian) {
+        int highOffset = (bigEndian ? 0 : 1);
+        int lowOffset = 1 - highOffset;
+        for (int index = 0; index < samples; ++index) {
+            int byteIndex = offset + 2 * index;
+            bytes[byteIndex + highOffset] = (byte) (in[index] >> 8);
+            bytes[byteIndex + lowOffset] = (byte) in[index];
+        }
+    }
+}
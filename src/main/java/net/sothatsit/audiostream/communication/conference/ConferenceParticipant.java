@@ -0,0 +1,180 @@
+package net.sothatsit.audiostream.communication.conference;
+
+import net.sothatsit.audiostream.communication.audio.AudioFrameHeader;
+import net.sothatsit.audiostream.communication.packet.PacketInputStream;
+import net.sothatsit.audiostream.communication.packet.PacketOutputStream;
+import net.sothatsit.audiostream.encryption.Encryption;
+import net.sothatsit.audiostream.util.LoopedThread;
+import net.sothatsit.audiostream.util.ServiceState;
+import net.sothatsit.audiostream.util.VariableBuffer;
+import net.sothatsit.property.Property;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A participant connected to a ConferenceServer, which sends us their audio and receives the mix of everyone else.
+ *
+ * @author Paddy Lamont
+ */
+public class ConferenceParticipant {
+
+    /**
+     * The number of periods of a participant's audio that is queued before it is mixed, to absorb jitter.
+     */
+    private static final int START_PERIODS = 2;
+
+    /**
+     * The maximum number of periods queued in either direction before audio is dropped to keep latency bounded.
+     */
+    private static final int MAX_QUEUED_PERIODS = 10;
+
+    private static final long SEND_WAIT_MS = 100;
+
+    private final Socket socket;
+    private final Encryption encryption;
+    private final boolean bigEndian;
+    private final int periodBytes;
+
+    private final LoopedThread receiveThread;
+    private final LoopedThread sendThread;
+    private final VariableBuffer inBuffer;
+    private final VariableBuffer outBuffer;
+
+    // Only used by the mixing thread
+    final short[] input;
+    final short[] output;
+    private final byte[] mixBytes;
+    private boolean playing;
+
+    public ConferenceParticipant(Socket socket, Encryption encryption, boolean bigEndian, int periodSamples) {
+        this.socket = socket;
+        this.encryption = encryption;
+        this.bigEndian = bigEndian;
+        this.periodBytes = 2 * periodSamples;
+
+        String name = "conferenceParticipant(" + socket.getRemoteSocketAddress() + ")";
+        this.receiveThread = new LoopedThread(name + "-receiveThread", this::receive);
+        this.sendThread = new LoopedThread(name + "-sendThread", this::send);
+        this.inBuffer = new VariableBuffer(MAX_QUEUED_PERIODS * periodBytes);
+        this.outBuffer = new VariableBuffer(MAX_QUEUED_PERIODS * periodBytes);
+
+        this.input = new short[periodSamples];
+        this.output = new short[periodSamples];
+        this.mixBytes = new byte[periodBytes];
+    }
+
+    public Socket getSocket() {
+        return socket;
+    }
+
+    // TODO : Should manage its own state property which inherits errors from the threads' states.
+    public Property<ServiceState> getState() {
+        return receiveThread.getState();
+    }
+
+    public void start() {
+        receiveThread.start();
+        sendThread.start();
+    }
+
+    /**
+     * Disconnect this participant. The receiving thread stops itself once it notices the socket has been closed.
+     */
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException exception) {
+            new RuntimeException("Error closing socket", exception).printStackTrace();
+        }
+
+        sendThread.stop();
+    }
+
+    /**
+     * Read the next period of this participant's audio into {@link #input}, or silence if none is queued.
+     */
+    void readInput() {
+        int queued = inBuffer.size();
+
+        // Drop the oldest audio if too much has built up, so that this participant doesn't fall behind
+        while (queued > MAX_QUEUED_PERIODS * periodBytes) {
+            inBuffer.pop(mixBytes, 0, periodBytes);
+            queued -= periodBytes;
+        }
+
+        if (!playing && queued >= START_PERIODS * periodBytes) {
+            playing = true;
+        }
+
+        if (!playing || queued < periodBytes) {
+            playing = false;
+            Arrays.fill(input, (short) 0);
+            return;
+        }
+
+        inBuffer.pop(mixBytes, 0, periodBytes);
+        ConferenceMixer.decode(mixBytes, 0, input, input.length, bigEndian);
+    }
+
+    /**
+     * Queue the mix in {@link #output} to be sent to this participant.
+     */
+    void queueOutput() {
+        // If the participant is not keeping up, drop the audio rather than building up latency
+        if (outBuffer.size() >= MAX_QUEUED_PERIODS * periodBytes)
+            return;
+
+        ConferenceMixer.encode(output, mixBytes, 0, output.length, bigEndian);
+        outBuffer.push(mixBytes, 0, periodBytes);
+    }
+
+    private void receive(Property<Boolean> running) {
+        try {
+            PacketInputStream inStream = new PacketInputStream(socket.getInputStream());
+
+            while (running.get()) {
+                byte[] packet = inStream.readPacket();
+                if (encryption != null) {
+                    packet = encryption.decrypt(packet);
+                }
+
+                inBuffer.push(packet, AudioFrameHeader.SIZE, packet.length - AudioFrameHeader.SIZE);
+            }
+        } catch (IOException | IllegalStateException exception) {
+            // The participant has left, or we have closed the socket to remove them
+            receiveThread.stopNextLoop();
+        }
+    }
+
+    private void send(Property<Boolean> running) {
+        try {
+            PacketOutputStream outStream = new PacketOutputStream(socket.getOutputStream());
+
+            byte[] buffer = new byte[AudioFrameHeader.SIZE + periodBytes];
+            while (running.get()) {
+                // Wake up periodically so that we notice when we are stopped
+                if (!outBuffer.pop(buffer, AudioFrameHeader.SIZE, periodBytes, SEND_WAIT_MS, TimeUnit.MILLISECONDS))
+                    continue;
+
+                long now = System.nanoTime();
+                AudioFrameHeader.write(buffer, now, now);
+
+                byte[] packet = buffer;
+                if (encryption != null) {
+                    packet = encryption.encrypt(buffer);
+                }
+
+                outStream.writePacket(packet, 0, packet.length);
+            }
+        } catch (SocketException exception) {
+            // The socket was closed
+            sendThread.stopNextLoop();
+        } catch (IOException exception) {
+            throw new RuntimeException("There was an error sending the conference mix", exception);
+        }
+    }
+}
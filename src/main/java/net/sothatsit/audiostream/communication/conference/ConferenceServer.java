@@ -0,0 +1,215 @@
+package net.sothatsit.audiostream.communication.conference;
+
+import net.sothatsit.audiostream.encryption.Encryption;
+import net.sothatsit.audiostream.util.LoopedThread;
+import net.sothatsit.audiostream.util.ServiceState;
+import net.sothatsit.property.Property;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hosts a conference, in which every participant sends us their audio, and we send
+ * each participant back a single stream containing the audio of everyone else.
+ *
+ * This means each participant only sends and receives one stream, no matter how many
+ * participants there are, instead of one stream to and from each other participant.
+ *
+ * @author Paddy Lamont
+ */
+public class ConferenceServer {
+
+    /**
+     * If mixing falls this many periods behind, we give up on catching up and start again from now.
+     */
+    private static final int MAX_BEHIND_PERIODS = 5;
+
+    private final int port;
+    private final AudioFormat format;
+    private final Encryption encryption;
+    private final int periodSamples;
+    private final long periodNanos;
+
+    private final LoopedThread acceptThread;
+    private final LoopedThread mixThread;
+    private final ConferenceMixer mixer;
+    private final Property<Integer> participantCount;
+
+    private volatile ConferenceParticipant[] participants;
+    private ServerSocket serverSocket;
+
+    // Only used by the mixing thread
+    private ConferenceParticipant[] mixedParticipants;
+    private short[][] inputs;
+    private short[][] outputs;
+    private long nextMixNanos;
+
+    /**
+     * @param format The format of the conference audio, which must be 16-bit signed PCM.
+     * @param periodMS The duration of audio that is mixed at a time.
+     */
+    public ConferenceServer(int port, AudioFormat format, int periodMS, Encryption encryption) {
+        if (!AudioFormat.Encoding.PCM_SIGNED.equals(format.getEncoding()) || format.getSampleSizeInBits() != 16)
+            throw new IllegalArgumentException("Conferences only support 16-bit signed PCM audio");
+
+        this.port = port;
+        this.format = format;
+        this.encryption = encryption;
+        this.periodSamples = (int) (format.getFrameRate() * periodMS / 1000) * format.getChannels();
+        this.periodNanos = periodMS * 1_000_000L;
+
+        this.acceptThread = new LoopedThread("conferenceAcceptThread", this::accept);
+        this.mixThread = new LoopedThread("conferenceMixThread", this::mixNext);
+        this.mixer = new ConferenceMixer(periodSamples);
+        this.participantCount = Property.createNonNull("participantCount", 0);
+
+        this.participants = new ConferenceParticipant[0];
+        this.mixedParticipants = participants;
+        this.inputs = new short[0][];
+        this.outputs = new short[0][];
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    public Property<Integer> getParticipantCount() {
+        return participantCount.readOnly();
+    }
+
+    // TODO : Should manage its own state property which inherits errors from the threads' states.
+    public Property<ServiceState> getState() {
+        return acceptThread.getState();
+    }
+
+    public synchronized void start() throws IOException {
+        if (serverSocket != null)
+            throw new IllegalStateException("Already started");
+
+        serverSocket = new ServerSocket(port);
+        nextMixNanos = System.nanoTime();
+
+        acceptThread.start();
+        mixThread.start();
+    }
+
+    public void stop() {
+        ServerSocket serverSocket;
+        synchronized (this) {
+            serverSocket = this.serverSocket;
+            this.serverSocket = null;
+        }
+        if (serverSocket == null)
+            return;
+
+        try {
+            serverSocket.close();
+        } catch (IOException exception) {
+            new RuntimeException("Error closing conference server socket", exception).printStackTrace();
+        }
+
+        acceptThread.stop();
+        mixThread.stop();
+
+        for (ConferenceParticipant participant : participants) {
+            removeParticipant(participant);
+        }
+    }
+
+    private void accept(Property<Boolean> running) {
+        ServerSocket serverSocket = this.serverSocket;
+        if (serverSocket == null)
+            return;
+
+        Socket socket;
+        try {
+            socket = serverSocket.accept();
+            socket.setTcpNoDelay(true);
+        } catch (SocketException exception) {
+            // The server socket has been closed
+            acceptThread.stopNextLoop();
+            return;
+        } catch (IOException exception) {
+            throw new RuntimeException("Error accepting conference participant", exception);
+        }
+
+        ConferenceParticipant participant = new ConferenceParticipant(
+                socket, encryption, format.isBigEndian(), periodSamples
+        );
+        participant.getState().addValueListener(state -> {
+            if (state.getType() == ServiceState.Type.STOPPED) {
+                removeParticipant(participant);
+            }
+        });
+
+        addParticipant(participant);
+        participant.start();
+    }
+
+    private synchronized void addParticipant(ConferenceParticipant participant) {
+        List<ConferenceParticipant> updated = new ArrayList<>(List.of(participants));
+        updated.add(participant);
+
+        participants = updated.toArray(new ConferenceParticipant[0]);
+        participantCount.set(participants.length);
+    }
+
+    private void removeParticipant(ConferenceParticipant participant) {
+        synchronized (this) {
+            List<ConferenceParticipant> updated = new ArrayList<>(List.of(participants));
+            if (!updated.remove(participant))
+                return;
+
+            participants = updated.toArray(new ConferenceParticipant[0]);
+            participantCount.set(participants.length);
+        }
+
+        participant.close();
+    }
+
+    private void mixNext() {
+        // Wait until it is time to mix the next period
+        long waitNanos = nextMixNanos - System.nanoTime();
+        if (waitNanos > 0) {
+            LockSupport.parkNanos(waitNanos);
+            return;
+        }
+
+        nextMixNanos += periodNanos;
+        if (-waitNanos > MAX_BEHIND_PERIODS * periodNanos) {
+            nextMixNanos = System.nanoTime() + periodNanos;
+        }
+
+        // The arrays passed to the mixer only need to change when participants join or leave
+        ConferenceParticipant[] participants = this.participants;
+        if (participants != mixedParticipants) {
+            mixedParticipants = participants;
+            inputs = new short[participants.length][];
+            outputs = new short[participants.length][];
+            for (int index = 0; index < participants.length; ++index) {
+                inputs[index] = participants[index].input;
+                outputs[index] = participants[index].output;
+            }
+        }
+
+        for (ConferenceParticipant participant : participants) {
+            participant.readInput();
+        }
+
+        mixer.mix(inputs, outputs, participants.length);
+
+        for (ConferenceParticipant participant : participants) {
+            participant.queueOutput();
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package net.sothatsit.audiostream.communication.impairment;
+
+import net.sothatsit.audiostream.metrics.Counter;
+import net.sothatsit.audiostream.metrics.Histogram;
+import net.sothatsit.audiostream.metrics.MetricsRegistry;
+
+import java.nio.ByteBuffer;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * One direction of traffic through an ImpairmentProxy, which decides when each packet sent
+ * through it arrives, or whether it arrives at all, and holds packets until they arrive.
+ *
+ * Reliable links model a TCP connection. Their packets are never lost, but are instead delayed by
+ * a retransmission timeout, and they arrive in order, so that a late packet holds back all of
+ * the packets after it. Unreliable links model UDP, where packets can be lost and reordered.
+ *
+ * @author Paddy Lamont
+ */
+class ImpairedLink {
+
+    /**
+     * The minimum retransmission timeout of TCP on Linux.
+     */
+    private static final long MIN_RETRANSMIT_NANOS = 200_000_000;
+
+    /**
+     * The longest that packets can queue for bandwidth on unreliable links before they are dropped.
+     */
+    private static final long MAX_QUEUE_NANOS = 1_000_000_000;
+
+    /**
+     * The average time that reordered packets are held back by, on top of their usual delay.
+     */
+    private static final double REORDER_HOLD_MS = 10;
+
+    private static final double PARETO_SHAPE = 2.5;
+
+    private final NetworkImpairment impairment;
+    private final boolean reliable;
+    private final Random random;
+    private final PriorityQueue<Delivery> queue;
+
+    private final Counter packets;
+    private final Counter bytes;
+    private final Counter lostPackets;
+    private final Counter retransmittedPackets;
+    private final Counter reorderedPackets;
+    private final Counter queueDroppedPackets;
+    private final Histogram delayNanos;
+
+    private long nextSequence;
+    private long linkFreeNanos;
+    private long lastArrivalNanos;
+    private boolean inLossBurst;
+    private int queuedBytes;
+
+    ImpairedLink(NetworkImpairment impairment, boolean reliable, long seed, MetricsRegistry metrics) {
+        this.impairment = impairment;
+        this.reliable = reliable;
+        this.random = new Random(seed);
+        this.queue = new PriorityQueue<>();
+        this.linkFreeNanos = Long.MIN_VALUE;
+        this.lastArrivalNanos = Long.MIN_VALUE;
+
+        this.packets = metrics.counter("packets");
+        this.bytes = metrics.counter("bytes");
+        this.lostPackets = metrics.counter("packets.lost");
+        this.retransmittedPackets = metrics.counter("packets.retransmitted");
+        this.reorderedPackets = metrics.counter("packets.reordered");
+        this.queueDroppedPackets = metrics.counter("packets.queue.dropped");
+        this.delayNanos = metrics.histogram("delay.nanos");
+    }
+
+    /**
+     * Send the {@param length} bytes from {@param offset} in {@param data} through this link.
+     *
+     * @return Whether the packet will arrive.
+     */
+    public boolean send(byte[] data, int offset, int length, long nowNanos) {
+        packets.increment();
+        bytes.add(length);
+
+        // Packets wait for the packets before them to be transmitted when the bandwidth is limited
+        long transmitNanos = Math.max(nowNanos, linkFreeNanos);
+        if (!reliable && transmitNanos - nowNanos > MAX_QUEUE_NANOS) {
+            queueDroppedPackets.increment();
+            return false;
+        }
+        if (impairment.bandwidthKbps > 0) {
+            transmitNanos += (long) (length * 8e6 / impairment.bandwidthKbps);
+            linkFreeNanos = transmitNanos;
+        }
+
+        long arrivalNanos = transmitNanos + (long) ((impairment.latencyMS + nextJitterMS()) * 1e6);
+
+        if (nextLost()) {
+            if (!reliable) {
+                lostPackets.increment();
+                return false;
+            }
+
+            retransmittedPackets.increment();
+            arrivalNanos += getRetransmitNanos();
+        }
+
+        if (impairment.reorderPercent > 0 && random.nextDouble() * 100 < impairment.reorderPercent) {
+            reorderedPackets.increment();
+            arrivalNanos += (long) (REORDER_HOLD_MS * 2 * random.nextDouble() * 1e6);
+        }
+
+        if (reliable) {
+            arrivalNanos = Math.max(arrivalNanos, lastArrivalNanos);
+        }
+        lastArrivalNanos = Math.max(lastArrivalNanos, arrivalNanos);
+
+        byte[] copy = new byte[length];
+        System.arraycopy(data, offset, copy, 0, length);
+        queue.add(new Delivery(arrivalNanos, nextSequence++, ByteBuffer.wrap(copy)));
+        queuedBytes += length;
+        delayNanos.record(arrivalNanos - nowNanos);
+        return true;
+    }
+
+    private long getRetransmitNanos() {
+        long estimatedRttNanos = (long) (2 * (impairment.latencyMS + 2 * impairment.jitterMS) * 1e6);
+        return Math.max(MIN_RETRANSMIT_NANOS, estimatedRttNanos);
+    }
+
+    /**
+     * Losses follow a Gilbert model, in which each loss starts a burst of losses that has
+     * an average length of {@link NetworkImpairment#meanLossBurst}. The chance of starting
+     * a burst is chosen so that the long run loss rate matches {@link NetworkImpairment#lossPercent}.
+     */
+    private boolean nextLost() {
+        if (impairment.lossPercent == 0)
+            return false;
+
+        if (inLossBurst) {
+            inLossBurst = random.nextDouble() >= 1.0 / impairment.meanLossBurst;
+        } else {
+            double loss = impairment.lossPercent / 100;
+            double burstProbability = loss / (impairment.meanLossBurst * (1 - loss));
+            inLossBurst = random.nextDouble() < burstProbability;
+        }
+        return inLossBurst;
+    }
+
+    private double nextJitterMS() {
+        double jitterMS = impairment.jitterMS;
+        if (jitterMS == 0)
+            return 0;
+
+        double uniform = random.nextDouble();
+        switch (impairment.jitterDistribution) {
+            case UNIFORM:
+                return 2 * jitterMS * uniform;
+            case EXPONENTIAL:
+                return -jitterMS * Math.log(1 - uniform);
+            case PARETO:
+                // A Lomax distribution, which starts at zero, scaled to have a mean of jitterMS
+                double scale = jitterMS * (PARETO_SHAPE - 1);
+                return scale * (Math.pow(1 - uniform, -1 / PARETO_SHAPE) - 1);
+            default:
+                throw new IllegalStateException("Unknown DelayDistribution " + impairment.jitterDistribution);
+        }
+    }
+
+    /**
+     * @return The time that the next packet arrives, or Long.MAX_VALUE if there are no packets in flight.
+     */
+    public long getNextArrivalNanos() {
+        Delivery next = queue.peek();
+        return next != null ? next.arrivalNanos : Long.MAX_VALUE;
+    }
+
+    /**
+     * @return The next packet if it has arrived by {@param nowNanos}, or else null.
+     *         The packet is left in this link until it is removed with {@link #remove()}.
+     */
+    public ByteBuffer peekArrived(long nowNanos) {
+        Delivery next = queue.peek();
+        if (next == null || next.arrivalNanos - nowNanos > 0)
+            return null;
+
+        return next.data;
+    }
+
+    /**
+     * Remove the packet returned by {@link #peekArrived(long)}.
+     */
+    public void remove() {
+        Delivery delivery = queue.poll();
+        if (delivery != null) {
+            queuedBytes -= delivery.data.capacity();
+        }
+    }
+
+    public boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    /**
+     * @return The bytes held in this link that have not yet been delivered.
+     */
+    public int getQueuedBytes() {
+        return queuedBytes;
+    }
+
+    public void clear() {
+        queue.clear();
+        queuedBytes = 0;
+    }
+
+    private static class Delivery implements Comparable<Delivery> {
+
+        private final long arrivalNanos;
+        private final long sequence;
+        private final ByteBuffer data;
+
+        private Delivery(long arrivalNanos, long sequence, ByteBuffer data) {
+            this.arrivalNanos = arrivalNanos;
+            this.sequence = sequence;
+            this.data = data;
+        }
+
+        @Override
+        public int compareTo(Delivery other) {
+            int compare = Long.compare(arrivalNanos - other.arrivalNanos, 0);
+            return compare != 0 ? compare : Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package net.sothatsit.audiostream.communication.impairment;
+
+import net.sothatsit.audiostream.metrics.Counter;
+import net.sothatsit.audiostream.metrics.MetricsRegistry;
+import net.sothatsit.audiostream.util.Exceptions;
+import net.sothatsit.audiostream.util.LoopedThread;
+import net.sothatsit.audiostream.util.ServiceState;
+import net.sothatsit.property.Property;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Random;
+
+/**
+ * A proxy on the loopback address that forwards traffic to a target address, impaired as
+ * described by a NetworkImpairment, so that the behaviour of the application on bad networks
+ * can be reproduced and measured locally.
+ *
+ * All traffic through a proxy is handled by a single thread, so that one proxy can sit in front
+ * of a server with hundreds of connections. Packets are delivered to within a millisecond of
+ * the time the impairment decides they arrive.
+ *
+ * @author Paddy Lamont
+ */
+public abstract class ImpairmentProxy implements AutoCloseable {
+
+    /**
+     * The longest to wait for traffic at once, so that the thread notices being stopped.
+     */
+    private static final long MAX_SELECT_MS = 50;
+
+    protected final InetSocketAddress target;
+    protected final NetworkImpairment impairment;
+    protected final MetricsRegistry metrics;
+    protected final Counter resets;
+
+    private final LoopedThread thread;
+    private final Random seeds;
+
+    protected Selector selector;
+    private InetSocketAddress address;
+
+    /**
+     * @param name The name of the thread of this proxy.
+     */
+    protected ImpairmentProxy(String name, InetSocketAddress target, NetworkImpairment impairment) {
+        if (target == null)
+            throw new IllegalArgumentException("target cannot be null");
+        if (impairment == null)
+            throw new IllegalArgumentException("impairment cannot be null");
+
+        this.target = target;
+        this.impairment = impairment;
+        this.metrics = new MetricsRegistry(name + "(" + target + ")");
+        this.resets = metrics.counter("resets");
+        this.thread = new LoopedThread(name, this::processNext);
+        this.seeds = new Random(impairment.seed);
+    }
+
+    public NetworkImpairment getImpairment() {
+        return impairment;
+    }
+
+    /**
+     * @return The metrics of the traffic through this proxy, combined over both directions.
+     */
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    public Property<ServiceState> getState() {
+        return thread.getState();
+    }
+
+    /**
+     * @return The loopback address that connects to this proxy, or null if it is not open.
+     */
+    public InetSocketAddress getAddress() {
+        return address;
+    }
+
+    public synchronized void open() throws IOException {
+        if (selector != null)
+            throw new IllegalStateException("This proxy has already been opened");
+
+        InetSocketAddress bindAddress = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        selector = Selector.open();
+        try {
+            address = bind(bindAddress);
+        } catch (IOException exception) {
+            selector.close();
+            selector = null;
+            throw exception;
+        }
+
+        thread.start();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (selector == null)
+            throw new IllegalStateException("This proxy is not open");
+
+        selector.wakeup();
+        thread.stop();
+
+        try {
+            Exceptions.closeManyIO(this::closeChannels, selector);
+        } finally {
+            selector = null;
+            address = null;
+        }
+    }
+
+    /**
+     * Open the channels that accept traffic at {@param bindAddress}, and register them with {@link #selector}.
+     *
+     * @return The address that the channels were bound to.
+     */
+    protected abstract InetSocketAddress bind(InetSocketAddress bindAddress) throws IOException;
+
+    /**
+     * Close all of the channels of this proxy, after its thread has stopped.
+     */
+    protected abstract void closeChannels() throws IOException;
+
+    /**
+     * Handle traffic that is ready on the channel of {@param key}.
+     */
+    protected abstract void handle(SelectionKey key, long nowNanos) throws IOException;
+
+    /**
+     * Deliver all of the packets that have arrived by {@param nowNanos}, and reset any connections that are due to be reset.
+     *
+     * @return The time that the next packet arrives or the next reset is due, or Long.MAX_VALUE if neither is waiting.
+     */
+    protected abstract long deliver(long nowNanos);
+
+    /**
+     * @return A link for one direction of one connection, with its own random generator.
+     */
+    protected ImpairedLink createLink(boolean reliable) {
+        return new ImpairedLink(impairment, reliable, seeds.nextLong(), metrics);
+    }
+
+    /**
+     * @return The time to reset a connection created at {@param nowNanos}, or Long.MAX_VALUE to never reset it.
+     */
+    protected long chooseResetNanos(long nowNanos) {
+        if (impairment.meanResetIntervalSecs <= 0)
+            return Long.MAX_VALUE;
+
+        double intervalSecs = -impairment.meanResetIntervalSecs * Math.log(1 - seeds.nextDouble());
+        return nowNanos + (long) (intervalSecs * 1e9);
+    }
+
+    /**
+     * @return The earlier of two times from System.nanoTime(), where Long.MAX_VALUE means never.
+     */
+    protected static long earliest(long nanos1, long nanos2) {
+        if (nanos1 == Long.MAX_VALUE)
+            return nanos2;
+        if (nanos2 == Long.MAX_VALUE)
+            return nanos1;
+
+        return nanos1 - nanos2 <= 0 ? nanos1 : nanos2;
+    }
+
+    private void processNext() {
+        long nowNanos = System.nanoTime();
+        long nextNanos = deliver(nowNanos);
+
+        long timeoutMS = MAX_SELECT_MS;
+        if (nextNanos != Long.MAX_VALUE) {
+            long untilNextMS = (nextNanos - nowNanos + 999_999) / 1_000_000;
+            timeoutMS = Math.max(1, Math.min(MAX_SELECT_MS, untilNextMS));
+        }
+
+        try {
+            selector.select(timeoutMS);
+        } catch (IOException exception) {
+            String exceptionString = exception.getClass() + ": " + exception.getMessage();
+            System.err.println("Error waiting for traffic through " + metrics.getName() + ", " + exceptionString);
+            return;
+        }
+
+        nowNanos = System.nanoTime();
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+
+            if (!key.isValid())
+                continue;
+
+            try {
+                handle(key, nowNanos);
+            } catch (IOException exception) {
+                String exceptionString = exception.getClass() + ": " + exception.getMessage();
+                System.err.println("Error forwarding traffic through " + metrics.getName() + ", " + exceptionString);
+            }
+        }
+    }
+}
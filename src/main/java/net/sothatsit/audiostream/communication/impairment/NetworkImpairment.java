@@ -0,0 +1,175 @@
+package net.sothatsit.audiostream.communication.impairment;
+
+import java.util.Locale;
+
+/**
+ * Describes how badly an ImpairmentProxy should treat the traffic passing through it.
+ *
+ * Every random decision is made using random number generators seeded from {@link #seed},
+ * so the same impairment applied to the same sequence of traffic gives the same result.
+ *
+ * @author Paddy Lamont
+ */
+public class NetworkImpairment {
+
+    public static final NetworkImpairment NONE = new NetworkImpairment(
+            0, 0, 0, DelayDistribution.UNIFORM, 0, 1, 0, 0, 0
+    );
+
+    /**
+     * The distribution of the jitter added on top of the base latency of each packet.
+     */
+    public enum DelayDistribution {
+        /**
+         * Uniformly between 0 and twice the jitter.
+         */
+        UNIFORM,
+        /**
+         * Exponentially, with a mean of the jitter.
+         */
+        EXPONENTIAL,
+        /**
+         * A heavy tailed Pareto distribution with a mean of the jitter, where occasional packets are very late.
+         */
+        PARETO
+    }
+
+    public final long seed;
+    public final double latencyMS;
+    public final double jitterMS;
+    public final DelayDistribution jitterDistribution;
+    public final double lossPercent;
+    public final double meanLossBurst;
+    public final double reorderPercent;
+    public final double bandwidthKbps;
+    public final double meanResetIntervalSecs;
+
+    /**
+     * @param latencyMS The delay added to every packet in each direction.
+     * @param lossPercent The percentage of packets to lose.
+     * @param meanLossBurst The average number of packets lost in a row each time packets are lost.
+     * @param reorderPercent The percentage of packets to hold back, so that they arrive after later packets.
+     * @param bandwidthKbps The capacity of the link in each direction in kilobits per second, or 0 for no limit.
+     * @param meanResetIntervalSecs The average time between resets of each connection, or 0 to never reset them.
+     */
+    public NetworkImpairment(long seed,
+                             double latencyMS,
+                             double jitterMS,
+                             DelayDistribution jitterDistribution,
+                             double lossPercent,
+                             double meanLossBurst,
+                             double reorderPercent,
+                             double bandwidthKbps,
+                             double meanResetIntervalSecs) {
+
+        if (jitterDistribution == null)
+            throw new IllegalArgumentException("jitterDistribution cannot be null");
+        if (latencyMS < 0 || jitterMS < 0 || bandwidthKbps < 0 || meanResetIntervalSecs < 0)
+            throw new IllegalArgumentException("latency, jitter, bandwidth and reset interval cannot be negative");
+        if (lossPercent < 0 || lossPercent >= 100 || reorderPercent < 0 || reorderPercent > 100)
+            throw new IllegalArgumentException("loss must be in [0, 100) and reordering in [0, 100]");
+        if (meanLossBurst < 1)
+            throw new IllegalArgumentException("meanLossBurst must be at least 1");
+
+        this.seed = seed;
+        this.latencyMS = latencyMS;
+        this.jitterMS = jitterMS;
+        this.jitterDistribution = jitterDistribution;
+        this.lossPercent = lossPercent;
+        this.meanLossBurst = meanLossBurst;
+        this.reorderPercent = reorderPercent;
+        this.bandwidthKbps = bandwidthKbps;
+        this.meanResetIntervalSecs = meanResetIntervalSecs;
+    }
+
+    /**
+     * @return Whether this impairment leaves traffic untouched.
+     */
+    public boolean isNone() {
+        return latencyMS == 0 && jitterMS == 0 && lossPercent == 0 && reorderPercent == 0
+                && bandwidthKbps == 0 && meanResetIntervalSecs == 0;
+    }
+
+    /**
+     * Parse an impairment from comma separated key=value pairs, such as "latency=20,jitter=5,loss=1".
+     *
+     * The keys are seed, latency (ms), jitter (ms), distribution (uniform, exponential or pareto),
+     * loss (%), burst (packets), reorder (%), bandwidth (kbps) and reset (secs). Any keys that are
+     * left out are left unimpaired.
+     *
+     * @throws IllegalArgumentException If {@param description} is not a valid impairment.
+     */
+    public static NetworkImpairment parse(String description) {
+        long seed = NONE.seed;
+        double latencyMS = NONE.latencyMS;
+        double jitterMS = NONE.jitterMS;
+        DelayDistribution jitterDistribution = NONE.jitterDistribution;
+        double lossPercent = NONE.lossPercent;
+        double meanLossBurst = NONE.meanLossBurst;
+        double reorderPercent = NONE.reorderPercent;
+        double bandwidthKbps = NONE.bandwidthKbps;
+        double meanResetIntervalSecs = NONE.meanResetIntervalSecs;
+
+        for (String pair : description.split(",")) {
+            if (pair.trim().isEmpty())
+                continue;
+
+            int equalsIndex = pair.indexOf('=');
+            if (equalsIndex < 0)
+                throw new IllegalArgumentException("Expected key=value, got " + pair);
+
+            String key = pair.substring(0, equalsIndex).trim().toLowerCase(Locale.ROOT);
+            String value = pair.substring(equalsIndex + 1).trim();
+            try {
+                switch (key) {
+                    case "seed":
+                        seed = Long.parseLong(value);
+                        break;
+                    case "latency":
+                        latencyMS = Double.parseDouble(value);
+                        break;
+                    case "jitter":
+                        jitterMS = Double.parseDouble(value);
+                        break;
+                    case "distribution":
+                        jitterDistribution = DelayDistribution.valueOf(value.toUpperCase(Locale.ROOT));
+                        break;
+                    case "loss":
+                        lossPercent = Double.parseDouble(value);
+                        break;
+                    case "burst":
+                        meanLossBurst = Double.parseDouble(value);
+                        break;
+                    case "reorder":
+                        reorderPercent = Double.parseDouble(value);
+                        break;
+                    case "bandwidth":
+                        bandwidthKbps = Double.parseDouble(value);
+                        break;
+                    case "reset":
+                        meanResetIntervalSecs = Double.parseDouble(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown impairment " + key);
+                }
+            } catch (NumberFormatException exception) {
+                throw new IllegalArgumentException("Invalid value for " + key + ", " + value, exception);
+            }
+        }
+
+        return new NetworkImpairment(
+                seed, latencyMS, jitterMS, jitterDistribution, lossPercent,
+                meanLossBurst, reorderPercent, bandwidthKbps, meanResetIntervalSecs
+        );
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                Locale.ROOT,
+                "seed=%d,latency=%s,jitter=%s,distribution=%s,loss=%s,burst=%s,reorder=%s,bandwidth=%s,reset=%s",
+                seed, latencyMS, jitterMS, jitterDistribution.name().toLowerCase(Locale.ROOT), lossPercent,
+                meanLossBurst, reorderPercent, bandwidthKbps, meanResetIntervalSecs
+        );
+    }
+}
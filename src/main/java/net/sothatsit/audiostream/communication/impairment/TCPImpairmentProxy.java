@@ -0,0 +1,348 @@
+package net.sothatsit.audiostream.communication.impairment;
+
+import net.sothatsit.audiostream.metrics.Counter;
+import net.sothatsit.audiostream.util.Exceptions;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * An ImpairmentProxy that forwards each TCP connection made to it to a new connection to its target.
+ *
+ * As TCP is reliable, lost packets are delayed by a retransmission timeout instead of being
+ * lost, and late or reordered packets hold back all of the data sent after them. Resets abort
+ * both halves of a connection, so that each end sees the connection reset by its peer.
+ *
+ * @author Paddy Lamont
+ */
+public class TCPImpairmentProxy extends ImpairmentProxy {
+
+    private static final long CONNECT_TIMEOUT_NANOS = 2L * 1_000_000_000L;
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * Stop reading from a connection while this many bytes from it are still in flight,
+     * so that a slow link pushes back on the sender instead of buffering without limit.
+     */
+    private static final int MAX_IN_FLIGHT_BYTES = 1024 * 1024;
+
+    private final List<Connection> connections;
+    private final ByteBuffer readBuffer;
+    private final Counter acceptedConnections;
+    private final Counter failedConnections;
+    private ServerSocketChannel serverSocket;
+
+    public TCPImpairmentProxy(InetSocketAddress target, NetworkImpairment impairment) {
+        super("tcpImpairmentProxy", target, impairment);
+
+        this.connections = new ArrayList<>();
+        this.readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        this.acceptedConnections = metrics.counter("connections");
+        this.failedConnections = metrics.counter("connections.failed");
+    }
+
+    @Override
+    protected InetSocketAddress bind(InetSocketAddress bindAddress) throws IOException {
+        serverSocket = ServerSocketChannel.open();
+        serverSocket.bind(bindAddress);
+        serverSocket.configureBlocking(false);
+        serverSocket.register(selector, SelectionKey.OP_ACCEPT);
+        return (InetSocketAddress) serverSocket.getLocalAddress();
+    }
+
+    @Override
+    protected void closeChannels() throws IOException {
+        List<AutoCloseable> toClose = new ArrayList<>();
+        toClose.add(serverSocket);
+        for (Connection connection : connections) {
+            toClose.add(connection.client);
+            toClose.add(connection.server);
+        }
+        connections.clear();
+        serverSocket = null;
+
+        Exceptions.closeManyIO(toClose);
+    }
+
+    @Override
+    protected void handle(SelectionKey key, long nowNanos) throws IOException {
+        if (key.channel() == serverSocket) {
+            accept(nowNanos);
+            return;
+        }
+
+        Connection connection = (Connection) key.attachment();
+        try {
+            if (key.isConnectable()) {
+                connection.finishConnect();
+            }
+            if (key.isValid() && key.isReadable()) {
+                connection.getPipeFrom(key.channel()).read(nowNanos);
+            }
+            if (key.isValid() && key.isWritable()) {
+                connection.getPipeTo(key.channel()).flush(nowNanos);
+            }
+            connection.updateInterest();
+        } catch (IOException exception) {
+            // Errors from one end of a connection are passed on to the other end as a reset
+            connection.abort();
+        }
+    }
+
+    private void accept(long nowNanos) throws IOException {
+        SocketChannel client = serverSocket.accept();
+        if (client == null)
+            return;
+
+        // The connection to the target is finished once it is connectable, so that other connections are not held up
+        SocketChannel server = SocketChannel.open();
+        Connection connection;
+        try {
+            connection = new Connection(client, server, nowNanos + CONNECT_TIMEOUT_NANOS, chooseResetNanos(nowNanos));
+        } catch (IOException exception) {
+            failedConnections.increment();
+            Exceptions.closeManyIO(server, client);
+            throw exception;
+        }
+
+        acceptedConnections.increment();
+        connections.add(connection);
+    }
+
+    @Override
+    protected long deliver(long nowNanos) {
+        long nextNanos = Long.MAX_VALUE;
+
+        Iterator<Connection> iterator = connections.iterator();
+        while (iterator.hasNext()) {
+            Connection connection = iterator.next();
+            try {
+                if (connection.connecting) {
+                    if (connection.connectDeadlineNanos - nowNanos <= 0) {
+                        failedConnections.increment();
+                        connection.abort();
+                    }
+                } else if (connection.resetNanos != Long.MAX_VALUE && connection.resetNanos - nowNanos <= 0) {
+                    resets.increment();
+                    connection.abort();
+                } else {
+                    connection.toServer.flush(nowNanos);
+                    connection.toClient.flush(nowNanos);
+                    connection.updateInterest();
+                }
+            } catch (IOException exception) {
+                connection.abort();
+            }
+
+            if (connection.isClosed()) {
+                iterator.remove();
+                continue;
+            }
+
+            if (connection.connecting) {
+                nextNanos = earliest(nextNanos, connection.connectDeadlineNanos);
+                continue;
+            }
+
+            nextNanos = earliest(nextNanos, connection.resetNanos);
+            nextNanos = earliest(nextNanos, connection.toServer.getNextArrivalNanos());
+            nextNanos = earliest(nextNanos, connection.toClient.getNextArrivalNanos());
+        }
+        return nextNanos;
+    }
+
+    /**
+     * A connection from a client through this proxy to the target.
+     */
+    private class Connection {
+
+        private final SocketChannel client;
+        private final SocketChannel server;
+        private final SelectionKey clientKey;
+        private final SelectionKey serverKey;
+        private final Pipe toServer;
+        private final Pipe toClient;
+        private final long connectDeadlineNanos;
+        private final long resetNanos;
+        private boolean connecting;
+        private boolean closed;
+
+        /**
+         * Start connecting to the target, which must finish by {@param connectDeadlineNanos}.
+         */
+        private Connection(SocketChannel client,
+                           SocketChannel server,
+                           long connectDeadlineNanos,
+                           long resetNanos) throws IOException {
+
+            this.client = client;
+            this.server = server;
+            this.connectDeadlineNanos = connectDeadlineNanos;
+            this.resetNanos = resetNanos;
+            this.toServer = new Pipe(client, server);
+            this.toClient = new Pipe(server, client);
+
+            for (SocketChannel channel : new SocketChannel[] {client, server}) {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            }
+
+            // Nothing is read from the client until there is somewhere to send it
+            this.connecting = !server.connect(target);
+            this.clientKey = client.register(selector, connecting ? 0 : SelectionKey.OP_READ, this);
+            this.serverKey = server.register(selector, connecting ? SelectionKey.OP_CONNECT : SelectionKey.OP_READ, this);
+        }
+
+        /**
+         * @throws IOException If the connection to the target failed.
+         */
+        private void finishConnect() throws IOException {
+            if (!connecting)
+                return;
+
+            try {
+                if (!server.finishConnect())
+                    return;
+            } catch (IOException exception) {
+                failedConnections.increment();
+                throw exception;
+            }
+
+            connecting = false;
+            clientKey.interestOps(SelectionKey.OP_READ);
+            serverKey.interestOps(SelectionKey.OP_READ);
+        }
+
+        private Pipe getPipeFrom(Object channel) {
+            return channel == client ? toServer : toClient;
+        }
+
+        private Pipe getPipeTo(Object channel) {
+            return channel == client ? toClient : toServer;
+        }
+
+        private boolean isClosed() {
+            return closed;
+        }
+
+        private void updateInterest() throws IOException {
+            if (closed || connecting)
+                return;
+
+            // Close the connection gracefully once both ends have finished sending, and everything sent has arrived
+            if (toServer.isFinished() && toClient.isFinished()) {
+                close();
+                return;
+            }
+
+            clientKey.interestOps(toServer.getReadInterest() | toClient.getWriteInterest());
+            serverKey.interestOps(toClient.getReadInterest() | toServer.getWriteInterest());
+        }
+
+        private void close() throws IOException {
+            closed = true;
+            Exceptions.closeManyIO(client, server);
+        }
+
+        /**
+         * Close both ends of this connection with a reset, discarding any data in flight.
+         */
+        private void abort() {
+            if (closed)
+                return;
+
+            closed = true;
+            toServer.link.clear();
+            toClient.link.clear();
+
+            for (SocketChannel channel : new SocketChannel[] {client, server}) {
+                try {
+                    // A linger time of zero makes closing the socket send a reset
+                    channel.setOption(StandardSocketOptions.SO_LINGER, 0);
+                } catch (IOException exception) {
+                    // The socket may already be closed
+                }
+            }
+
+            try {
+                Exceptions.closeManyIO(client, server);
+            } catch (IOException exception) {
+                String exceptionString = exception.getClass() + ": " + exception.getMessage();
+                System.err.println("Error resetting connection through " + metrics.getName() + ", " + exceptionString);
+            }
+        }
+    }
+
+    /**
+     * One direction of a connection through this proxy.
+     */
+    private class Pipe {
+
+        private final SocketChannel from;
+        private final SocketChannel to;
+        private final ImpairedLink link;
+        private boolean inputEnded;
+        private boolean outputShutdown;
+        private boolean writeBlocked;
+
+        private Pipe(SocketChannel from, SocketChannel to) {
+            this.from = from;
+            this.to = to;
+            this.link = createLink(true);
+        }
+
+        private void read(long nowNanos) throws IOException {
+            readBuffer.clear();
+            int read = from.read(readBuffer);
+            if (read < 0) {
+                inputEnded = true;
+            } else if (read > 0) {
+                link.send(readBuffer.array(), 0, read, nowNanos);
+            }
+        }
+
+        private void flush(long nowNanos) throws IOException {
+            ByteBuffer data;
+            while ((data = link.peekArrived(nowNanos)) != null) {
+                to.write(data);
+                writeBlocked = data.hasRemaining();
+                if (writeBlocked)
+                    return;
+
+                link.remove();
+            }
+
+            if (inputEnded && link.isEmpty() && !outputShutdown) {
+                to.shutdownOutput();
+                outputShutdown = true;
+            }
+        }
+
+        private boolean isFinished() {
+            return outputShutdown;
+        }
+
+        private int getReadInterest() {
+            return inputEnded || link.getQueuedBytes() >= MAX_IN_FLIGHT_BYTES ? 0 : SelectionKey.OP_READ;
+        }
+
+        private int getWriteInterest() {
+            return writeBlocked ? SelectionKey.OP_WRITE : 0;
+        }
+
+        /**
+         * @return The time that the next data arrives, or Long.MAX_VALUE if there is none or it is waiting to be written.
+         */
+        private long getNextArrivalNanos() {
+            return writeBlocked ? Long.MAX_VALUE : link.getNextArrivalNanos();
+        }
+    }
+}
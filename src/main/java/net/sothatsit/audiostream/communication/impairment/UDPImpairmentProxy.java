@@ -0,0 +1,211 @@
+package net.sothatsit.audiostream.communication.impairment;
+
+import net.sothatsit.audiostream.metrics.Counter;
+import net.sothatsit.audiostream.util.Exceptions;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An ImpairmentProxy that forwards UDP packets sent to it on to its target, and forwards the
+ * replies back to their senders.
+ *
+ * Each address that sends packets to the proxy is given its own socket to send to the target
+ * from, so that the target sees each sender as a different peer. Resetting a sender replaces
+ * its socket, so that the target sees its packets come from a new port, as it would after a
+ * NAT mapping expires.
+ *
+ * @author Paddy Lamont
+ */
+public class UDPImpairmentProxy extends ImpairmentProxy {
+
+    private static final int MAX_PACKET_SIZE = 64 * 1024;
+
+    /**
+     * Forget senders that have not sent or received any packets for this long.
+     */
+    private static final long IDLE_TIMEOUT_NANOS = 60L * 1_000_000_000L;
+
+    private final Map<SocketAddress, Peer> peers;
+    private final ByteBuffer receiveBuffer;
+    private final Counter sendDroppedPackets;
+    private DatagramChannel socket;
+
+    public UDPImpairmentProxy(InetSocketAddress target, NetworkImpairment impairment) {
+        super("udpImpairmentProxy", target, impairment);
+
+        this.peers = new HashMap<>();
+        this.receiveBuffer = ByteBuffer.allocate(MAX_PACKET_SIZE);
+        this.sendDroppedPackets = metrics.counter("packets.send.dropped");
+    }
+
+    @Override
+    protected InetSocketAddress bind(InetSocketAddress bindAddress) throws IOException {
+        socket = DatagramChannel.open();
+        socket.bind(bindAddress);
+        socket.configureBlocking(false);
+        socket.register(selector, SelectionKey.OP_READ);
+        return (InetSocketAddress) socket.getLocalAddress();
+    }
+
+    @Override
+    protected void closeChannels() throws IOException {
+        List<AutoCloseable> toClose = new ArrayList<>();
+        toClose.add(socket);
+        for (Peer peer : peers.values()) {
+            toClose.add(peer.upstream);
+        }
+        peers.clear();
+        socket = null;
+
+        Exceptions.closeManyIO(toClose);
+    }
+
+    @Override
+    protected void handle(SelectionKey key, long nowNanos) throws IOException {
+        if (key.channel() == socket) {
+            receiveFromPeers(nowNanos);
+        } else {
+            ((Peer) key.attachment()).receiveFromTarget(nowNanos);
+        }
+    }
+
+    private void receiveFromPeers(long nowNanos) throws IOException {
+        while (true) {
+            receiveBuffer.clear();
+            SocketAddress sender = socket.receive(receiveBuffer);
+            if (sender == null)
+                return;
+
+            Peer peer = peers.get(sender);
+            if (peer == null) {
+                peer = new Peer(sender, chooseResetNanos(nowNanos));
+                peers.put(sender, peer);
+            }
+
+            peer.lastActiveNanos = nowNanos;
+            peer.toTarget.send(receiveBuffer.array(), 0, receiveBuffer.position(), nowNanos);
+        }
+    }
+
+    @Override
+    protected long deliver(long nowNanos) {
+        long nextNanos = Long.MAX_VALUE;
+
+        Iterator<Peer> iterator = peers.values().iterator();
+        while (iterator.hasNext()) {
+            Peer peer = iterator.next();
+            boolean reset = (peer.resetNanos != Long.MAX_VALUE && peer.resetNanos - nowNanos <= 0);
+            boolean idle = (nowNanos - peer.lastActiveNanos > IDLE_TIMEOUT_NANOS);
+            if (reset || idle) {
+                if (reset) {
+                    resets.increment();
+                }
+
+                peer.close();
+                iterator.remove();
+                continue;
+            }
+
+            peer.deliver(nowNanos);
+            nextNanos = earliest(nextNanos, peer.resetNanos);
+            nextNanos = earliest(nextNanos, peer.toTarget.getNextArrivalNanos());
+            nextNanos = earliest(nextNanos, peer.toSender.getNextArrivalNanos());
+        }
+        return nextNanos;
+    }
+
+    /**
+     * An address that has sent packets to this proxy.
+     */
+    private class Peer {
+
+        private final SocketAddress sender;
+        private final DatagramChannel upstream;
+        private final ImpairedLink toTarget;
+        private final ImpairedLink toSender;
+        private final long resetNanos;
+        private long lastActiveNanos;
+
+        private Peer(SocketAddress sender, long resetNanos) throws IOException {
+            this.sender = sender;
+            this.resetNanos = resetNanos;
+            this.toTarget = createLink(false);
+            this.toSender = createLink(false);
+
+            this.upstream = DatagramChannel.open();
+            try {
+                upstream.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+                upstream.connect(target);
+                upstream.configureBlocking(false);
+                upstream.register(selector, SelectionKey.OP_READ, this);
+            } catch (IOException exception) {
+                upstream.close();
+                throw exception;
+            }
+        }
+
+        private void receiveFromTarget(long nowNanos) throws IOException {
+            while (true) {
+                receiveBuffer.clear();
+                int read;
+                try {
+                    read = upstream.read(receiveBuffer);
+                } catch (PortUnreachableException exception) {
+                    // The target is not listening, which it would not tell a real sender about
+                    continue;
+                }
+                if (read <= 0)
+                    return;
+
+                lastActiveNanos = nowNanos;
+                toSender.send(receiveBuffer.array(), 0, read, nowNanos);
+            }
+        }
+
+        private void deliver(long nowNanos) {
+            ByteBuffer data;
+            while ((data = toTarget.peekArrived(nowNanos)) != null) {
+                try {
+                    if (upstream.write(data) == 0) {
+                        sendDroppedPackets.increment();
+                    }
+                } catch (IOException exception) {
+                    sendDroppedPackets.increment();
+                }
+                toTarget.remove();
+            }
+
+            while ((data = toSender.peekArrived(nowNanos)) != null) {
+                try {
+                    if (socket.send(data, sender) == 0) {
+                        sendDroppedPackets.increment();
+                    }
+                } catch (IOException exception) {
+                    sendDroppedPackets.increment();
+                }
+                toSender.remove();
+            }
+        }
+
+        private void close() {
+            try {
+                upstream.close();
+            } catch (IOException exception) {
+                String exceptionString = exception.getClass() + ": " + exception.getMessage();
+                System.err.println("Error closing socket of " + metrics.getName() + ", " + exceptionString);
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package net.sothatsit.audiostream.communication.io;
+
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Caches the set of addresses bound to the local network interfaces, so that
+ * checking whether an address refers to this machine does not require
+ * enumerating the network interfaces every time.
+ *
+ * The cache is refreshed at most once every {@link #REFRESH_INTERVAL_MS}
+ * milliseconds, and listeners are notified if the set of addresses changed.
+ *
+ * @author Paddy Lamont
+ */
+public class LocalAddresses {
+
+    private static final long REFRESH_INTERVAL_MS = 10 * 1000;
+
+    private static final List<Runnable> changeListeners = new CopyOnWriteArrayList<>();
+    private static volatile Set<InetAddress> addresses = Collections.emptySet();
+    private static volatile long lastRefreshTime = -1;
+
+    /**
+     * Add a listener to be notified when the set of local addresses changes.
+     */
+    public static void addChangeListener(Runnable listener) {
+        changeListeners.add(listener);
+    }
+
+    public static void removeChangeListener(Runnable listener) {
+        changeListeners.remove(listener);
+    }
+
+    /**
+     * @return Whether {@param address} refers to this machine.
+     */
+    public static boolean isLocal(InetAddress address) {
+        if (address == null)
+            return false;
+        if (address.isAnyLocalAddress() || address.isLoopbackAddress())
+            return true;
+
+        return getAddresses().contains(address);
+    }
+
+    /**
+     * @return {@param address} with its host replaced by the loopback address if it refers to this machine.
+     */
+    public static InetSocketAddress normalize(InetSocketAddress address) {
+        if (address.isUnresolved() || !isLocal(address.getAddress()))
+            return address;
+
+        return new InetSocketAddress(InetAddress.getLoopbackAddress(), address.getPort());
+    }
+
+    /**
+     * @return The cached set of addresses bound to the local network interfaces.
+     */
+    public static Set<InetAddress> getAddresses() {
+        if (isStale()) {
+            refresh();
+        }
+        return addresses;
+    }
+
+    private static boolean isStale() {
+        return lastRefreshTime < 0 || System.currentTimeMillis() - lastRefreshTime >= REFRESH_INTERVAL_MS;
+    }
+
+    /**
+     * Re-enumerate the local network interfaces, notifying listeners if the addresses changed.
+     */
+    private static void refresh() {
+        Set<InetAddress> newAddresses;
+        synchronized (LocalAddresses.class) {
+            // Another thread may have already refreshed the addresses
+            if (!isStale())
+                return;
+
+            newAddresses = findAddresses();
+            lastRefreshTime = System.currentTimeMillis();
+
+            if (newAddresses.equals(addresses))
+                return;
+
+            addresses = newAddresses;
+        }
+
+        for (Runnable listener : changeListeners) {
+            try {
+                listener.run();
+            } catch (Exception exception) {
+                String exceptionString = exception.getClass() + ": " + exception.getMessage();
+                System.err.println("Error passing local address change to listener, " + exceptionString);
+            }
+        }
+    }
+
+    private static Set<InetAddress> findAddresses() {
+        Set<InetAddress> found = new HashSet<>();
+        try {
+            Enumeration<NetworkInterface> networkInterfaces = NetworkInterface.getNetworkInterfaces();
+            if (networkInterfaces == null)
+                return Collections.emptySet();
+
+            while (networkInterfaces.hasMoreElements()) {
+                NetworkInterface network = networkInterfaces.nextElement();
+                found.addAll(Collections.list(network.getInetAddresses()));
+            }
+        } catch (SocketException exception) {
+            String exceptionString = exception.getClass() + ": " + exception.getMessage();
+            System.err.println("Error enumerating local network interfaces, " + exceptionString);
+            return addresses;
+        }
+        return Collections.unmodifiableSet(found);
+    }
+}
@@ -1,5 +1,6 @@
 package net.sothatsit.audiostream.communication.io;
 
+import net.sothatsit.audiostream.util.Exceptions;
 import net.sothatsit.audiostream.util.LoopedThread;
 import net.sothatsit.audiostream.util.ServiceState;
 import net.sothatsit.property.Property;
@@ -8,41 +9,64 @@ import java.io.IOException;
 import java.net.*;
 import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
-import java.nio.channels.AsynchronousCloseException;
-import java.nio.channels.ClosedByInterruptException;
-import java.nio.channels.DatagramChannel;
-import java.util.Enumeration;
-import java.util.List;
+import java.nio.channels.*;
+import java.util.*;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.Consumer;
 
 /**
  * A class to be used to publish and receive multicast signals across local networks.
  *
+ * Joins the multicast groups on every network interface that supports multicast, and publishes
+ * on each of those interfaces, so that hosts on multi-homed machines can always find each other.
+ *
  * @author Paddy Lamont
  */
 public class Multicast implements AutoCloseable {
 
     private static final int MAX_PACKET_SIZE = 10 * 1024;
+    private static final long DUPLICATE_WINDOW_MS = 1000;
 
     private final LoopedThread receiverThread;
     private final List<Consumer<DatagramPacket>> listeners;
+    private final DuplicateFilter duplicateFilter;
 
     private final InetSocketAddress address;
-    private DatagramChannel receiverSocket;
-    private DatagramChannel publisherSocket;
+    private final InetSocketAddress addressV6;
+    private Selector selector;
+    private List<DatagramChannel> receiverSockets;
+    private volatile List<Publisher> publishers;
 
     public Multicast(String name, InetSocketAddress address) {
+        this(name, address, null);
+    }
+
+    /**
+     * @param address The IPv4 multicast group to join.
+     * @param addressV6 The IPv6 multicast group to join, or null to only use IPv4.
+     */
+    public Multicast(String name, InetSocketAddress address, InetSocketAddress addressV6) {
+        if (!(address.getAddress() instanceof Inet4Address))
+            throw new IllegalArgumentException("address must be an IPv4 address");
+        if (addressV6 != null && !(addressV6.getAddress() instanceof Inet6Address))
+            throw new IllegalArgumentException("addressV6 must be an IPv6 address");
+
         this.address = address;
+        this.addressV6 = addressV6;
 
         this.receiverThread = new LoopedThread(name + "-receiverThread", this::processNext);
         this.listeners = new CopyOnWriteArrayList<>();
+        this.duplicateFilter = new DuplicateFilter(DUPLICATE_WINDOW_MS);
     }
 
     public InetSocketAddress getSocketAddress() {
         return address;
     }
 
+    public InetSocketAddress getSocketAddressV6() {
+        return addressV6;
+    }
+
     // TODO : Should manage its own state property which inherits errors from the thread's state.
     //        Then could make the starting and stopping states more accurate.
     public Property<ServiceState> getState() {
@@ -57,75 +81,178 @@ public class Multicast implements AutoCloseable {
         listeners.remove(listener);
     }
 
-    public void open() throws IOException {
-        if (receiverSocket != null)
-            throw new IllegalStateException("Multicast already started");
+    /**
+     * @return All network interfaces that are up and support multicast.
+     */
+    private static List<NetworkInterface> findMulticastInterfaces() throws IOException {
+        List<NetworkInterface> interfaces = new ArrayList<>();
 
-        // We must find a network interface that supports multicast
-        NetworkInterface networkInterface = null;
         Enumeration<NetworkInterface> networkInterfaces = NetworkInterface.getNetworkInterfaces();
+        if (networkInterfaces == null)
+            return interfaces;
 
-        interfacesLoop: while (networkInterfaces.hasMoreElements()) {
+        while (networkInterfaces.hasMoreElements()) {
             NetworkInterface network = networkInterfaces.nextElement();
 
-            if (!network.supportsMulticast() || network.isPointToPoint())
+            if (!network.isUp() || !network.supportsMulticast() || network.isPointToPoint())
                 continue;
 
-            Enumeration<InetAddress> addresses = network.getInetAddresses();
+            interfaces.add(network);
+        }
 
-            while (addresses.hasMoreElements()) {
-                InetAddress i = addresses.nextElement();
-                if (i instanceof Inet4Address) {
-                    networkInterface = network;
-                    break interfacesLoop;
-                }
+        return interfaces;
+    }
+
+    private static boolean hasAddressOfType(NetworkInterface network, Class<? extends InetAddress> type) {
+        for (InetAddress address : Collections.list(network.getInetAddresses())) {
+            if (type.isInstance(address))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Open a receiving socket for {@param group}, and join it on every interface in {@param interfaces}.
+     * Also opens a publishing socket for each interface the group was joined on.
+     *
+     * @return Whether the group was joined on any interface.
+     */
+    private boolean openGroup(ProtocolFamily family,
+                              Class<? extends InetAddress> addressType,
+                              InetSocketAddress group,
+                              InetSocketAddress bindAddress,
+                              List<NetworkInterface> interfaces) throws IOException {
+
+        DatagramChannel receiver = DatagramChannel.open(family);
+        receiverSockets.add(receiver);
+
+        receiver.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        receiver.bind(bindAddress);
+
+        boolean joined = false;
+        for (NetworkInterface network : interfaces) {
+            if (!hasAddressOfType(network, addressType))
+                continue;
+
+            try {
+                receiver.join(group.getAddress(), network);
+
+                DatagramChannel publisher = DatagramChannel.open(family);
+                publishers.add(new Publisher(network, group, publisher));
+                publisher.setOption(StandardSocketOptions.IP_MULTICAST_IF, network);
+
+                joined = true;
+            } catch (IOException exception) {
+                String exceptionString = exception.getClass() + ": " + exception.getMessage();
+                System.err.println("Unable to join multicast group " + group + " on " + network.getName()
+                        + ", " + exceptionString);
             }
         }
 
-        if (networkInterface == null)
-            throw new IllegalStateException("Could not find valid network interface");
+        receiver.configureBlocking(false);
+        receiver.register(selector, SelectionKey.OP_READ);
+        return joined;
+    }
+
+    public synchronized void open() throws IOException {
+        if (receiverSockets != null)
+            throw new IllegalStateException("Multicast already started");
+
+        List<NetworkInterface> interfaces = findMulticastInterfaces();
 
-        receiverSocket = DatagramChannel.open(StandardProtocolFamily.INET);
-        publisherSocket = DatagramChannel.open(StandardProtocolFamily.INET);
+        selector = Selector.open();
+        receiverSockets = new ArrayList<>();
+        publishers = new ArrayList<>();
 
-        receiverSocket.setOption(StandardSocketOptions.SO_REUSEADDR, true);
-        receiverSocket.bind(address);
-        receiverSocket.join(address.getAddress(), networkInterface);
+        try {
+            InetSocketAddress bindAddress = address;
+            boolean joined = openGroup(StandardProtocolFamily.INET, Inet4Address.class, address, bindAddress, interfaces);
+
+            if (addressV6 != null) {
+                try {
+                    InetSocketAddress bindAddressV6 = new InetSocketAddress(addressV6.getPort());
+                    joined |= openGroup(
+                            StandardProtocolFamily.INET6, Inet6Address.class, addressV6, bindAddressV6, interfaces
+                    );
+                } catch (IOException | UnsupportedOperationException exception) {
+                    // IPv6 may not be supported on this machine, in which case we just use IPv4
+                    String exceptionString = exception.getClass() + ": " + exception.getMessage();
+                    System.err.println("Unable to open IPv6 multicast, " + exceptionString);
+                }
+            }
+
+            if (!joined)
+                throw new IllegalStateException("Could not find valid network interface");
+        } catch (IOException | RuntimeException exception) {
+            closeSockets();
+            throw exception;
+        }
 
         receiverThread.start();
     }
 
     @Override
-    public void close() throws IOException {
-        if (receiverSocket == null)
+    public synchronized void close() throws IOException {
+        if (receiverSockets == null)
             throw new IllegalStateException("Multicast has already been stopped");
 
         receiverThread.stop();
+        closeSockets();
+    }
+
+    private void closeSockets() throws IOException {
+        List<AutoCloseable> toClose = new ArrayList<>(receiverSockets);
+        toClose.addAll(publishers);
+        toClose.add(selector);
 
         try {
-            receiverSocket.close();
-            publisherSocket.close();
+            Exceptions.closeManyIO(toClose);
         } finally {
-            receiverSocket = null;
-            publisherSocket = null;
+            selector = null;
+            receiverSockets = null;
+            publishers = null;
         }
     }
 
+    /**
+     * Publish {@param bytes} on every interface the multicast groups were joined on.
+     *
+     * @throws IOException if the bytes could not be published on any interface.
+     */
     public void broadcast(byte[] bytes) throws IOException {
-        if (receiverSocket == null)
+        List<Publisher> publishers = this.publishers;
+        if (publishers == null)
             throw new IllegalStateException("Multicast is not running");
         if (bytes == null)
             throw new IllegalArgumentException("bytes cannot be null");
         if (bytes.length >= MAX_PACKET_SIZE)
             throw new IllegalArgumentException("bytes exceeds maximum packet size, " + MAX_PACKET_SIZE);
 
-        publisherSocket.send(ByteBuffer.wrap(bytes), address);
+        IOException caughtException = null;
+        boolean sent = false;
+        for (Publisher publisher : publishers) {
+            try {
+                publisher.socket.send(ByteBuffer.wrap(bytes), publisher.group);
+                sent = true;
+            } catch (IOException exception) {
+                if (caughtException == null) {
+                    caughtException = exception;
+                } else {
+                    caughtException.addSuppressed(exception);
+                }
+            }
+        }
+
+        if (!sent && caughtException != null)
+            throw caughtException;
     }
 
-    private DatagramPacket receivePacket() throws IOException {
+    private DatagramPacket receivePacket(DatagramChannel channel) throws IOException {
         byte[] array = new byte[MAX_PACKET_SIZE];
         ByteBuffer buffer = ByteBuffer.wrap(array);
-        SocketAddress address = receiverSocket.receive(buffer);
+        SocketAddress address = channel.receive(buffer);
+        if (address == null)
+            return null;
 
         DatagramPacket packet = new DatagramPacket(array, 0, buffer.position(), address);
 
@@ -142,11 +269,22 @@ public class Multicast implements AutoCloseable {
     }
 
     private void processNext() {
-        DatagramPacket packet;
+        List<DatagramPacket> packets = new ArrayList<>();
         try {
-            packet = receivePacket();
-        } catch (ClosedByInterruptException exception) {
-            // Interrupts are used to stop the multicast receiver thread
+            selector.select();
+
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                DatagramChannel channel = (DatagramChannel) keys.next().channel();
+                keys.remove();
+
+                DatagramPacket packet = receivePacket(channel);
+                if (packet != null) {
+                    packets.add(packet);
+                }
+            }
+        } catch (ClosedSelectorException | ClosedChannelException exception) {
+            // Closing the sockets is used to stop the multicast receiver thread
             return;
         } catch (Exception exception) {
             String exceptionString = exception.getClass() + ": " + exception.getMessage();
@@ -154,15 +292,116 @@ public class Multicast implements AutoCloseable {
             return;
         }
 
-        for (Consumer<DatagramPacket> listener : listeners) {
-            try {
-                listener.accept(packet);
-            } catch (Exception exception) {
-                String listenerString = listener.getClass().toString();
-                String exceptionString = exception.getClass() + ": " + exception.getMessage();
-                System.err.println("Error passing multicast to listener " + listenerString + ", " + exceptionString);
-                exception.printStackTrace();
+        for (DatagramPacket packet : packets) {
+            // The same packet may be received through more than one interface. Packets received through both
+            // IPv4 and IPv6 come from different sender addresses, so the listeners must identify the hosts
+            if (duplicateFilter.isDuplicate(packet))
+                continue;
+
+            for (Consumer<DatagramPacket> listener : listeners) {
+                try {
+                    listener.accept(packet);
+                } catch (Exception exception) {
+                    String listenerString = listener.getClass().toString();
+                    String exceptionString = exception.getClass() + ": " + exception.getMessage();
+                    System.err.println("Error passing multicast to listener " + listenerString + ", " + exceptionString);
+                    exception.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * A socket used to publish to a multicast group on a single network interface.
+     */
+    private static class Publisher implements AutoCloseable {
+
+        private final NetworkInterface network;
+        private final InetSocketAddress group;
+        private final DatagramChannel socket;
+
+        private Publisher(NetworkInterface network, InetSocketAddress group, DatagramChannel socket) {
+            this.network = network;
+            this.group = group;
+            this.socket = socket;
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+
+        @Override
+        public String toString() {
+            return "Publisher(" + network.getName() + ", " + group + ")";
+        }
+    }
+
+    /**
+     * Filters out packets with the same contents that were received from the same sender within a time window.
+     */
+    private static class DuplicateFilter {
+
+        private final long windowMS;
+        private final Map<PacketKey, Long> recentPackets;
+
+        private DuplicateFilter(long windowMS) {
+            this.windowMS = windowMS;
+            this.recentPackets = new LinkedHashMap<>();
+        }
+
+        /**
+         * @return Whether {@param packet} has already been received within the time window.
+         */
+        public boolean isDuplicate(DatagramPacket packet) {
+            long now = System.currentTimeMillis();
+
+            // Entries are in insertion order, so the oldest are always at the start
+            Iterator<Long> receiveTimes = recentPackets.values().iterator();
+            while (receiveTimes.hasNext()) {
+                if (now - receiveTimes.next() < windowMS)
+                    break;
+
+                receiveTimes.remove();
             }
+
+            PacketKey key = new PacketKey(packet);
+            if (recentPackets.containsKey(key))
+                return true;
+
+            recentPackets.put(key, now);
+            return false;
+        }
+    }
+
+    /**
+     * Identifies a packet by its sender's address and its contents.
+     */
+    private static class PacketKey {
+
+        private final InetAddress sender;
+        private final byte[] data;
+        private final int hashCode;
+
+        private PacketKey(DatagramPacket packet) {
+            int offset = packet.getOffset();
+            this.sender = packet.getAddress();
+            this.data = Arrays.copyOfRange(packet.getData(), offset, offset + packet.getLength());
+            this.hashCode = Objects.hashCode(sender) * 31 + Arrays.hashCode(data);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == null || !getClass().equals(obj.getClass()))
+                return false;
+
+            PacketKey other = (PacketKey) obj;
+            return Objects.equals(sender, other.sender) && Arrays.equals(data, other.data);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
         }
     }
 }
@@ -9,6 +9,7 @@ import net.sothatsit.property.Property;
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
 import java.nio.channels.ClosedByInterruptException;
 import java.nio.channels.SocketChannel;
 import java.util.List;
@@ -23,6 +24,7 @@ import java.util.function.Consumer;
 public class TCPConnection implements AutoCloseable {
 
     private final SocketChannel socket;
+    private final SocketAddress remoteAddress;
     private final PacketChannel channel;
     private final LoopedThread receiverThread;
     private final List<Consumer<DatagramPacket>> listeners;
@@ -31,6 +33,9 @@ public class TCPConnection implements AutoCloseable {
 
     public TCPConnection(String name, SocketChannel socket) throws IOException {
         this.socket = socket;
+        // Control packets are small, and delaying them would skew the timing of pings
+        this.socket.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        this.remoteAddress = socket.getRemoteAddress();
         this.channel = new PacketChannel(socket);
         this.receiverThread = new LoopedThread(name + "-clientReceiverThread", this::processNext);
         this.listeners = new CopyOnWriteArrayList<>();
@@ -39,11 +44,7 @@ public class TCPConnection implements AutoCloseable {
     }
 
     public SocketAddress getRemoteAddress() {
-        try {
-            return socket.getRemoteAddress();
-        } catch (IOException exception) {
-            throw new RuntimeException("Well, this is unexpected", exception);
-        }
+        return remoteAddress;
     }
 
     // TODO : Should manage its own state property which inherits errors from the thread's state.
@@ -78,7 +79,7 @@ public class TCPConnection implements AutoCloseable {
         DatagramPacket packet;
         try {
             byte[] data = channel.readPacket();
-            packet = new DatagramPacket(data, 0, data.length, socket.getRemoteAddress());
+            packet = new DatagramPacket(data, 0, data.length, remoteAddress);
         } catch (ClosedByInterruptException exception) {
             // Interrupts are used to stop this thread
             // TODO : If this happens in the middle of the reading of a packet,
@@ -86,8 +87,14 @@ public class TCPConnection implements AutoCloseable {
             //        cause potentially all future read packets to be nonsense.
             return;
         } catch (UnexpectedStreamEndException exception) {
-            // If the other end of the connection was closed, this will be thrown
-            // TODO : This should update the state of this connection
+            // If the other end of the connection was closed, this will be thrown.
+            // Stopping the receiver thread will update the state of this connection.
+            try {
+                socket.close();
+            } catch (IOException closeException) {
+                String exceptionString = closeException.getClass() + ": " + closeException.getMessage();
+                System.err.println("Error closing TCP connection to " + remoteAddress + ", " + exceptionString);
+            }
             receiverThread.stopNextLoop();
             return;
         } catch (Exception exception) {
@@ -22,10 +22,13 @@ import java.util.function.Consumer;
  */
 public class TCPServer implements AutoCloseable {
 
+    private static final int CONNECT_TIMEOUT_MS = 2 * 1000;
+
     private final String name;
     private final int port;
     private final LoopedThread connectThread;
     private final List<Consumer<DatagramPacket>> listeners;
+    private final List<Consumer<SocketAddress>> closeListeners;
 
     private final List<TCPConnection> connections;
     private ServerSocketChannel socket;
@@ -35,6 +38,7 @@ public class TCPServer implements AutoCloseable {
         this.port = port;
         this.connectThread = new LoopedThread(name + "-connectThread", this::receiveConnection);
         this.listeners = new CopyOnWriteArrayList<>();
+        this.closeListeners = new CopyOnWriteArrayList<>();
         this.connections = new CopyOnWriteArrayList<>();
     }
 
@@ -56,6 +60,33 @@ public class TCPServer implements AutoCloseable {
         listeners.remove(listener);
     }
 
+    /**
+     * Add a listener to be notified with the remote address of connections that have been closed.
+     */
+    public void addCloseListener(Consumer<SocketAddress> listener) {
+        closeListeners.add(listener);
+    }
+
+    public void removeCloseListener(Consumer<SocketAddress> listener) {
+        closeListeners.remove(listener);
+    }
+
+    private void propagateClose(TCPConnection connection) {
+        // The connection may have already been removed if it was closed locally
+        if (!connections.remove(connection))
+            return;
+
+        for (Consumer<SocketAddress> listener : closeListeners) {
+            try {
+                listener.accept(connection.getRemoteAddress());
+            } catch (Exception exception) {
+                String listenerString = listener.getClass().toString();
+                String exceptionString = exception.getClass() + ": " + exception.getMessage();
+                System.err.println("Error passing closed connection to listener " + listenerString + ", " + exceptionString);
+            }
+        }
+    }
+
     private void propagatePacket(DatagramPacket packet) {
         for (Consumer<DatagramPacket> listener : listeners) {
             try {
@@ -78,30 +109,45 @@ public class TCPServer implements AutoCloseable {
     }
 
     @Override
-    public synchronized void close() throws IOException {
-        if (socket == null)
-            throw new IllegalStateException("This server has is stopped");
-
+    public void close() throws IOException {
         List<AutoCloseable> toClose = new ArrayList<>();
 
-        toClose.add(connectThread);
-        toClose.addAll(connections);
-        toClose.add(socket);
+        // The lock is not held while closing, as the connection threads may need it to send responses
+        synchronized (this) {
+            if (socket == null)
+                throw new IllegalStateException("This server has is stopped");
 
-        Exceptions.closeManyIO(toClose);
+            toClose.add(connectThread);
+            toClose.addAll(connections);
+            toClose.add(socket);
+        }
 
-        connections.clear();
-        socket = null;
+        try {
+            Exceptions.closeManyIO(toClose);
+        } finally {
+            synchronized (this) {
+                connections.clear();
+                socket = null;
+            }
+        }
     }
 
     private void addConnection(TCPConnection connection) {
-        // TODO : Also listen for the closing of the connection, and when its closed remove it as a connection.
-        //        (Currently it waits for a send to the connection to fail before removing it.)
         connection.addListener(this::propagatePacket);
+        connection.getState().addValueListener(state -> {
+            if (state.getType() == ServiceState.Type.STOPPED) {
+                propagateClose(connection);
+            }
+        });
 
         synchronized (this) {
             connections.add(connection);
         }
+
+        // The connection may have been closed before we started listening to its state
+        if (connection.getState().get().getType() == ServiceState.Type.STOPPED) {
+            propagateClose(connection);
+        }
     }
 
     private void closeConnection(TCPConnection connection) {
@@ -135,7 +181,14 @@ public class TCPServer implements AutoCloseable {
     }
 
     private TCPConnection openNewConnection(InetSocketAddress address) throws IOException {
-        SocketChannel socket = SocketChannel.open(address);
+        SocketChannel socket = SocketChannel.open();
+        try {
+            // Avoid waiting on the OS connect timeout, which can be minutes, for unreachable addresses
+            socket.socket().connect(address, CONNECT_TIMEOUT_MS);
+        } catch (IOException exception) {
+            socket.close();
+            throw exception;
+        }
 
         return new TCPConnection(name, socket);
     }
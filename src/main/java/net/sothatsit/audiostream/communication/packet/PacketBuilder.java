@@ -60,6 +60,11 @@ public class PacketBuilder {
         return this;
     }
 
+    public PacketBuilder writeLong(long number) throws IOException {
+        stream.writeLong(number);
+        return this;
+    }
+
     // TODO : All your standard data writing methods
 
     public PacketBuilder writeBoolean(boolean bool) throws IOException {
@@ -55,6 +55,10 @@ public class PacketReader {
         return stream.readInt();
     }
 
+    public long readLong() throws IOException {
+        return stream.readLong();
+    }
+
     public boolean readBoolean() throws IOException {
         return stream.readBoolean();
     }
@@ -9,5 +9,7 @@ public enum PacketType {
 
     DISCOVERY_REQUEST,
     DISCOVERY_RESPONSE,
-    AUDIO_PACKET
+    AUDIO_PACKET,
+    PING,
+    PONG
 }
@@ -0,0 +1,464 @@
+package net.sothatsit.audiostream.loadtest;
+
+import net.sothatsit.audiostream.AudioStream;
+import net.sothatsit.audiostream.audio.AudioReader;
+import net.sothatsit.audiostream.audio.SoftwareMixer;
+import net.sothatsit.audiostream.audio.SoftwareMixerPool;
+import net.sothatsit.audiostream.audio.virtual.ToneGenerator;
+import net.sothatsit.audiostream.audio.virtual.VirtualSourceDataLine;
+import net.sothatsit.audiostream.audio.virtual.VirtualTargetDataLine;
+import net.sothatsit.audiostream.communication.RemoteServer;
+import net.sothatsit.audiostream.communication.audio.*;
+import net.sothatsit.audiostream.communication.impairment.NetworkImpairment;
+import net.sothatsit.audiostream.communication.impairment.TCPImpairmentProxy;
+import net.sothatsit.audiostream.encryption.Encryption;
+import net.sothatsit.audiostream.encryption.EncryptionVerification;
+import net.sothatsit.audiostream.metrics.Counter;
+import net.sothatsit.audiostream.metrics.Histogram;
+import net.sothatsit.audiostream.metrics.MetricsRegistry;
+import net.sothatsit.audiostream.model.RemoteAudioServerDetails;
+import net.sothatsit.audiostream.model.RemoteServerDetails;
+import net.sothatsit.audiostream.util.ServiceState;
+import net.sothatsit.property.Property;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.Mixer;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Measures how an AudioServer scales with its number of clients, without any sound hardware.
+ *
+ * For each number of clients, a server is started that captures a tone from a virtual line, and
+ * that many AudioClients connect to it over the loopback address. Each client plays through its
+ * own virtual line that discards the audio at the pace of a real device. The clients share the
+ * clock of the server, as they are in the same process, so the time from audio being captured
+ * to it arriving at each client is measured exactly.
+ *
+ * The CPU time and allocation of the server's threads are measured separately to those of the
+ * clients, although both compete for the same CPUs, so results for large numbers of clients
+ * are only an estimate of what a server serving clients on other machines could handle.
+ *
+ * The clients can also be made to connect through a TCPImpairmentProxy, so that the rate of
+ * glitches and reconnects on a bad network can be measured against the latency of the clients.
+ *
+ * @author Paddy Lamont
+ */
+public class LoadTest {
+
+    private static final AudioFormat FORMAT = new AudioFormat(48000, 16, 2, true, false);
+    private static final int CAPTURE_BUFFER_MS = 20;
+    private static final int CLIENT_BUFFER_SIZE_MS = 100;
+    private static final int SERVER_START_TIMEOUT_MS = 5000;
+    private static final double TONE_FREQUENCY = 440;
+    private static final float TONE_AMPLITUDE = 0.5f;
+
+    private static final String RESULT_HEADER = String.format(
+            "%8s %9s %8s %12s %11s %11s %11s %8s %13s %13s %9s %9s %9s %9s %9s %10s %11s %10s",
+            "clients", "connected", "threads", "server cpu %", "cpu/client", "client cpu%",
+            "server MB/s", "all MB/s", "KB/s/client", "min KB/s", "p50 ms", "p90 ms", "p99 ms", "max ms",
+            "overruns", "underruns", "concealed %", "reconnects"
+    );
+
+    private final int clientCount;
+    private final double warmupSecs;
+    private final double measureSecs;
+    private final Encryption encryption;
+    private final NetworkImpairment impairment;
+
+    private AudioServerSettings serverSettings;
+    private AudioServer server;
+    private TCPImpairmentProxy proxy;
+    private SoftwareMixerPool mixerPool;
+    private final List<AudioClient> clients;
+
+    /**
+     * @param impairment How to impair the connections of the clients to the server.
+     */
+    public LoadTest(int clientCount,
+                    double warmupSecs,
+                    double measureSecs,
+                    Encryption encryption,
+                    NetworkImpairment impairment) {
+
+        this.clientCount = clientCount;
+        this.warmupSecs = warmupSecs;
+        this.measureSecs = measureSecs;
+        this.encryption = encryption;
+        this.impairment = impairment;
+        this.clients = new ArrayList<>();
+    }
+
+    public static void displayUsage() {
+        System.err.println("Usage:");
+        System.err.println("  java -cp AudioStream.jar " + LoadTest.class.getName() + " [options]");
+        System.err.println();
+        System.err.println("Options:");
+        System.err.println("  --clients <n,n,...>  The numbers of clients to test with, defaults to 1,10,50,100,250,500");
+        System.err.println("  --warmup <secs>      How long to run before measuring, defaults to 5");
+        System.err.println("  --seconds <secs>     How long to measure for, defaults to 10");
+        System.err.println("  --secret <secret>    Encrypt the audio with the shared secret <secret>");
+        System.err.println("  --impair <impairs>   Connect the clients through a proxy that impairs their connections,");
+        System.err.println("                       described as key=value pairs such as latency=20,jitter=5,loss=1,seed=7");
+        System.err.println("                       using the keys seed, latency (ms), jitter (ms), distribution (uniform,");
+        System.err.println("                       exponential or pareto), loss (%), burst (packets), reorder (%),");
+        System.err.println("                       bandwidth (kbps) and reset (secs)");
+        System.exit(1);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int[] clientCounts = {1, 10, 50, 100, 250, 500};
+        double warmupSecs = 5;
+        double measureSecs = 10;
+        Encryption encryption = null;
+        NetworkImpairment impairment = NetworkImpairment.NONE;
+
+        try {
+            for (int index = 0; index < args.length; ++index) {
+                if (index + 1 >= args.length) {
+                    displayUsage();
+                    return;
+                }
+
+                String value = args[++index];
+                switch (args[index - 1]) {
+                    case "--clients":
+                        clientCounts = parseCounts(value);
+                        break;
+                    case "--warmup":
+                        warmupSecs = Double.parseDouble(value);
+                        break;
+                    case "--seconds":
+                        measureSecs = Double.parseDouble(value);
+                        break;
+                    case "--secret":
+                        encryption = new Encryption(value);
+                        break;
+                    case "--impair":
+                        impairment = NetworkImpairment.parse(value);
+                        break;
+                    default:
+                        displayUsage();
+                        return;
+                }
+            }
+        } catch (IllegalArgumentException exception) {
+            System.err.println(exception.getMessage());
+            displayUsage();
+            return;
+        }
+
+        if (!impairment.isNone()) {
+            System.out.println("Impairment: " + impairment);
+        }
+        System.out.println(RESULT_HEADER);
+        for (int clientCount : clientCounts) {
+            Result result = new LoadTest(clientCount, warmupSecs, measureSecs, encryption, impairment).run();
+            System.out.println(result.toRow());
+        }
+    }
+
+    private static int[] parseCounts(String countsString) {
+        String[] parts = countsString.split(",");
+        int[] counts = new int[parts.length];
+        for (int index = 0; index < parts.length; ++index) {
+            counts[index] = Integer.parseInt(parts[index].trim());
+            if (counts[index] <= 0)
+                throw new NumberFormatException("Client counts must be positive");
+        }
+        return counts;
+    }
+
+    public Result run() throws IOException, InterruptedException {
+        try {
+            startServer();
+            startProxy();
+            startClients();
+            synchronizeClocks();
+
+            Thread.sleep(Math.round(warmupSecs * 1000));
+            Snapshot start = new Snapshot();
+            Thread.sleep(Math.round(measureSecs * 1000));
+            Snapshot end = new Snapshot();
+
+            return new Result(start, end);
+        } finally {
+            stop();
+        }
+    }
+
+    private void startServer() throws IOException, InterruptedException {
+        int port;
+        try (ServerSocket portSocket = new ServerSocket(0)) {
+            port = portSocket.getLocalPort();
+        }
+
+        serverSettings = new AudioServerSettings(
+                FORMAT,
+                null,
+                AudioServer.getBufferSizeBytes(FORMAT, CAPTURE_BUFFER_MS),
+                AudioStream.DEFAULT_PRESENTATION_DELAY_MS,
+                AudioStream.DEFAULT_SILENCE_THRESHOLD_DB,
+                AudioStream.DEFAULT_SILENCE_HANGOVER_MS,
+                false,
+                AudioStream.DEFAULT_REPORT_INTERVAL_SECS,
+                port,
+                encryption
+        );
+
+        server = new AudioServer(Property.createNonNull("settings", serverSettings)) {
+            @Override
+            protected AudioReader createAudioReader(AudioServerSettings settings) {
+                ToneGenerator tone = new ToneGenerator(TONE_FREQUENCY, TONE_AMPLITUDE);
+                return new AudioReader(new VirtualTargetDataLine(settings.format, tone), settings.format, settings.bufferSize);
+            }
+        };
+        server.start();
+
+        long deadline = System.currentTimeMillis() + SERVER_START_TIMEOUT_MS;
+        while (!server.getIsRunning()) {
+            Exception exception = server.takeThreadException();
+            if (exception != null)
+                throw new IOException("Unable to start the server", exception);
+            if (System.currentTimeMillis() > deadline)
+                throw new IOException("Timed out waiting for the server to start");
+
+            Thread.sleep(10);
+        }
+    }
+
+    private void startProxy() throws IOException {
+        if (impairment.isNone())
+            return;
+
+        InetSocketAddress serverAddress = new InetSocketAddress(InetAddress.getLoopbackAddress(), serverSettings.port);
+        proxy = new TCPImpairmentProxy(serverAddress, impairment);
+        proxy.open();
+    }
+
+    private void startClients() {
+        mixerPool = new SoftwareMixerPool() {
+            @Override
+            protected SoftwareMixer createMixer(Mixer.Info mixer, AudioFormat format, int bufferSizeMS, int maxBufferSizeMS) {
+                return new SoftwareMixer(mixer.getName(), new VirtualSourceDataLine(format), format, bufferSizeMS, maxBufferSizeMS);
+            }
+        };
+
+        InetSocketAddress serverAddress = new InetSocketAddress(InetAddress.getLoopbackAddress(), serverSettings.port);
+        InetSocketAddress audioAddress = (proxy != null ? proxy.getAddress() : serverAddress);
+        RemoteServerDetails details = new RemoteServerDetails(
+                0,
+                serverAddress,
+                new RemoteAudioServerDetails(
+                        audioAddress,
+                        AudioServer.getStreamableFormats(serverSettings.format)
+                ),
+                EncryptionVerification.create(encryption)
+        );
+
+        for (int index = 0; index < clientCount; ++index) {
+            RemoteServer remoteServer = new RemoteServer(details.controlAddress);
+            remoteServer.updateDetails(details);
+
+            // Every client gets its own line, as if they were each on their own machine
+            AudioOutputSettings output = new AudioOutputSettings(new NullSinkInfo(index), 0);
+            AudioClientSettings settings = new AudioClientSettings(
+                    Collections.singletonList(output),
+                    AudioStreamShape.FULL,
+                    CLIENT_BUFFER_SIZE_MS,
+                    AudioStream.DEFAULT_BUFFER_DELAY_MS,
+                    AudioStream.DEFAULT_MAX_LATENCY_MS,
+                    false,
+                    AudioStream.DEFAULT_REPORT_INTERVAL_SECS,
+                    encryption
+            );
+
+            AudioClient client = new AudioClient(remoteServer, Property.createNonNull("settings", settings), mixerPool);
+            client.start();
+            clients.add(client);
+        }
+    }
+
+    /**
+     * The clients share the server's clock, so it can be synchronized without any pings. It is only
+     * synchronized once the clients have started, as a real client only receives its first pong after
+     * it has connected, so that the clients switch to synchronized playback part way through.
+     */
+    private void synchronizeClocks() {
+        long now = System.nanoTime();
+        for (AudioClient client : clients) {
+            client.getServer().getClock().addSample(now, now, now, now);
+        }
+    }
+
+    private void stop() throws IOException {
+        clients.forEach(AudioClient::stop);
+        clients.clear();
+
+        if (proxy != null) {
+            proxy.close();
+            proxy = null;
+        }
+
+        if (server != null) {
+            server.stop();
+            server = null;
+        }
+    }
+
+    /**
+     * The metrics of the server and every client at one moment.
+     */
+    private class Snapshot {
+
+        private final ThreadUsage threadUsage;
+        private final long[] bytesReceived;
+        private final Histogram.Snapshot arrivalLatency;
+        private final int connectedClients;
+        private final long captureOverruns;
+        private final long playbackUnderruns;
+        private final long concealedFrames;
+        private final long reconnects;
+
+        private Snapshot() {
+            this.threadUsage = ThreadUsage.measure();
+            this.bytesReceived = new long[clients.size()];
+
+            Histogram.Snapshot arrivalLatency = new Histogram().snapshot();
+            int connectedClients = 0;
+            long concealedFrames = 0;
+            long reconnects = 0;
+            for (int index = 0; index < clients.size(); ++index) {
+                AudioClient client = clients.get(index);
+                bytesReceived[index] = client.getMetrics().counter("bytes.received").get();
+                concealedFrames += sumCounters(client.getMetrics(), "frames.concealed");
+                reconnects += client.getMetrics().counter("reconnects").get();
+                arrivalLatency = arrivalLatency.plus(client.getMetrics().histogram("latency.arrival.nanos").snapshot());
+                if (client.getState().get().getType() == ServiceState.Type.RUNNING) {
+                    connectedClients += 1;
+                }
+            }
+            this.arrivalLatency = arrivalLatency;
+            this.connectedClients = connectedClients;
+            this.concealedFrames = concealedFrames;
+            this.reconnects = reconnects;
+            this.captureOverruns = server.getMetrics().counter("capture.overruns").get();
+
+            long playbackUnderruns = 0;
+            for (MetricsRegistry mixer : mixerPool.getMetrics().getChildren()) {
+                playbackUnderruns += mixer.counter("playback.underruns").get();
+            }
+            this.playbackUnderruns = playbackUnderruns;
+        }
+    }
+
+    /**
+     * @return The sum of the counters named {@param name} in {@param metrics} and all of its descendants.
+     */
+    private static long sumCounters(MetricsRegistry metrics, String name) {
+        long[] sum = {0};
+        metrics.visit((path, registry) -> {
+            Counter counter = registry.getCounters().get(name);
+            if (counter != null) {
+                sum[0] += counter.get();
+            }
+        });
+        return sum[0];
+    }
+
+    /**
+     * The measurements taken at one number of clients.
+     */
+    public class Result {
+
+        private final Snapshot start;
+        private final Snapshot end;
+        private final double seconds;
+
+        private Result(Snapshot start, Snapshot end) {
+            this.start = start;
+            this.end = end;
+            this.seconds = end.threadUsage.getSecondsSince(start.threadUsage);
+        }
+
+        public double getServerCpuPercent() {
+            return 100.0 * end.threadUsage.getCpuNanosSince(start.threadUsage, ThreadUsage.Group.SERVER) / (seconds * 1e9);
+        }
+
+        public double getClientCpuPercent() {
+            return 100.0 * end.threadUsage.getCpuNanosSince(start.threadUsage, ThreadUsage.Group.CLIENTS) / (seconds * 1e9);
+        }
+
+        public double getAllocationMBPerSec(ThreadUsage.Group... groups) {
+            long bytes = 0;
+            for (ThreadUsage.Group group : groups) {
+                bytes += end.threadUsage.getAllocatedBytesSince(start.threadUsage, group);
+            }
+            return bytes / seconds / (1024 * 1024);
+        }
+
+        /**
+         * @return The bytes received per second by each client.
+         */
+        public double[] getThroughputs() {
+            double[] throughputs = new double[end.bytesReceived.length];
+            for (int index = 0; index < throughputs.length; ++index) {
+                throughputs[index] = (end.bytesReceived[index] - start.bytesReceived[index]) / seconds;
+            }
+            return throughputs;
+        }
+
+        /**
+         * @return The percentage of the audio played by the clients that had to be concealed because it arrived late or not at all.
+         *         The inputs of clients are replaced when they reconnect, so this can under count if clients reconnect.
+         */
+        public double getConcealedPercent() {
+            double playedFrames = clientCount * FORMAT.getFrameRate() * seconds;
+            return 100.0 * Math.max(0, end.concealedFrames - start.concealedFrames) / playedFrames;
+        }
+
+        public Histogram.Snapshot getArrivalLatency() {
+            return end.arrivalLatency.since(start.arrivalLatency);
+        }
+
+        public String toRow() {
+            double[] throughputs = getThroughputs();
+            double totalThroughput = 0;
+            double minThroughput = Double.MAX_VALUE;
+            for (double throughput : throughputs) {
+                totalThroughput += throughput;
+                minThroughput = Math.min(minThroughput, throughput);
+            }
+
+            double serverCpu = getServerCpuPercent();
+            Histogram.Snapshot latency = getArrivalLatency();
+            return String.format(
+                    "%8d %9d %8d %12.1f %11.3f %11.1f %11.2f %8.2f %13.1f %13.1f %9.1f %9.1f %9.1f %9.1f %9d %10d %11.2f %10d",
+                    clientCount, end.connectedClients, end.threadUsage.getThreadCount(),
+                    serverCpu, serverCpu / clientCount, getClientCpuPercent(),
+                    getAllocationMBPerSec(ThreadUsage.Group.SERVER),
+                    getAllocationMBPerSec(ThreadUsage.Group.values()),
+                    totalThroughput / throughputs.length / 1024, minThroughput / 1024,
+                    latency.getValueAtPercentile(50) / 1e6, latency.getValueAtPercentile(90) / 1e6,
+                    latency.getValueAtPercentile(99) / 1e6, latency.getMax() / 1e6,
+                    end.captureOverruns - start.captureOverruns, end.playbackUnderruns - start.playbackUnderruns,
+                    getConcealedPercent(), end.reconnects - start.reconnects
+            );
+        }
+    }
+
+    /**
+     * Identifies the virtual line that one client plays through.
+     */
+    private static class NullSinkInfo extends Mixer.Info {
+
+        private NullSinkInfo(int index) {
+            super("Null Sink " + index, "AudioStream", "Discards the audio played by a load test client", "1.0");
+        }
+    }
+}
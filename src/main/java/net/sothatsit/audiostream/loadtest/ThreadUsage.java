@@ -0,0 +1,127 @@
+package net.sothatsit.audiostream.loadtest;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The CPU time used and bytes allocated by each live thread at one moment, grouped by the part of
+ * the application that the threads belong to, so that the usage between two moments can be found.
+ *
+ * Allocation is only measured on JVMs that support measuring it per thread, and is zero otherwise.
+ *
+ * @author Paddy Lamont
+ */
+public class ThreadUsage {
+
+    public enum Group {
+        SERVER,
+        CLIENTS,
+        OTHER
+    }
+
+    private static final String[] SERVER_THREAD_PREFIXES = {
+            "LoopedThread-connectionAccepting",
+            "LoopedThread-readThread",
+            "LoopedThread-streamingThread",
+            "LoopedThread-convertThread("
+    };
+    private static final String[] CLIENT_THREAD_PREFIXES = {
+            "LoopedThread-AudioClient(",
+            "LoopedThread-softwareMixer("
+    };
+
+    private final long timeNanos;
+    private final int threadCount;
+    private final Map<Long, Group> groups;
+    private final Map<Long, Long> cpuNanos;
+    private final Map<Long, Long> allocatedBytes;
+
+    private ThreadUsage(long timeNanos, int threadCount) {
+        this.timeNanos = timeNanos;
+        this.threadCount = threadCount;
+        this.groups = new HashMap<>();
+        this.cpuNanos = new HashMap<>();
+        this.allocatedBytes = new HashMap<>();
+    }
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * @return The seconds that passed between {@param earlier} and this usage.
+     */
+    public double getSecondsSince(ThreadUsage earlier) {
+        return (timeNanos - earlier.timeNanos) * 1e-9;
+    }
+
+    /**
+     * @return The CPU time used by the threads in {@param group} since {@param earlier}, in nanoseconds.
+     */
+    public long getCpuNanosSince(ThreadUsage earlier, Group group) {
+        return sumSince(cpuNanos, earlier.cpuNanos, group);
+    }
+
+    /**
+     * @return The bytes allocated by the threads in {@param group} since {@param earlier}.
+     */
+    public long getAllocatedBytesSince(ThreadUsage earlier, Group group) {
+        return sumSince(allocatedBytes, earlier.allocatedBytes, group);
+    }
+
+    /**
+     * Threads that started since {@param earlierValues} was taken count from zero, and threads that have stopped are left out.
+     */
+    private long sumSince(Map<Long, Long> values, Map<Long, Long> earlierValues, Group group) {
+        long sum = 0;
+        for (Map.Entry<Long, Long> entry : values.entrySet()) {
+            if (groups.get(entry.getKey()) != group)
+                continue;
+
+            sum += entry.getValue() - earlierValues.getOrDefault(entry.getKey(), 0L);
+        }
+        return sum;
+    }
+
+    /**
+     * @return The current usage of every live thread.
+     */
+    public static ThreadUsage measure() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean allocation = (threads instanceof com.sun.management.ThreadMXBean
+                ? (com.sun.management.ThreadMXBean) threads : null);
+
+        long[] ids = threads.getAllThreadIds();
+        ThreadUsage usage = new ThreadUsage(System.nanoTime(), ids.length);
+        for (ThreadInfo info : threads.getThreadInfo(ids)) {
+            // Threads that stopped after their ids were listed have no info
+            if (info == null)
+                continue;
+
+            long id = info.getThreadId();
+            long cpu = threads.getThreadCpuTime(id);
+            if (cpu < 0)
+                continue;
+
+            usage.groups.put(id, getGroup(info.getThreadName()));
+            usage.cpuNanos.put(id, cpu);
+            usage.allocatedBytes.put(id, allocation != null ? Math.max(0, allocation.getThreadAllocatedBytes(id)) : 0);
+        }
+        return usage;
+    }
+
+    private static Group getGroup(String threadName) {
+        for (String prefix : SERVER_THREAD_PREFIXES) {
+            if (threadName.startsWith(prefix))
+                return Group.SERVER;
+        }
+        for (String prefix : CLIENT_THREAD_PREFIXES) {
+            if (threadName.startsWith(prefix))
+                return Group.CLIENTS;
+        }
+        return Group.OTHER;
+    }
+}
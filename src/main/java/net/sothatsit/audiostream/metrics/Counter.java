@@ -0,0 +1,32 @@
+package net.sothatsit.audiostream.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A count of events, such as packets sent, that only ever increases.
+ *
+ * Counts are striped across threads, so many threads may increment
+ * the same counter at once without contending with each other.
+ *
+ * @author Paddy Lamont
+ */
+public class Counter {
+
+    private final LongAdder count;
+
+    public Counter() {
+        this.count = new LongAdder();
+    }
+
+    public void increment() {
+        count.increment();
+    }
+
+    public void add(long amount) {
+        count.add(amount);
+    }
+
+    public long get() {
+        return count.sum();
+    }
+}
@@ -0,0 +1,16 @@
+package net.sothatsit.audiostream.metrics;
+
+/**
+ * A value that is read when it is sampled, such as the depth of a queue,
+ * so that nothing needs to be recorded as the value changes.
+ *
+ * @author Paddy Lamont
+ */
+@FunctionalInterface
+public interface Gauge {
+
+    /**
+     * @return The current value of this gauge. This may be called from any thread, so must not block.
+     */
+    public long get();
+}
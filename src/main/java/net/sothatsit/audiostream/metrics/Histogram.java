@@ -0,0 +1,167 @@
+package net.sothatsit.audiostream.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts how often values of different sizes are recorded, such as the latencies of packets.
+ *
+ * Values are counted in log-linear buckets, in the same way as an HDR histogram: each power of two
+ * is split into {@link #SUB_BUCKETS} linear buckets, so that every value is counted to within about
+ * 6% of its size while the histogram stays a fixed size. Recording a value is a few atomic
+ * increments, with no locking or allocation, so values may be recorded from any thread.
+ *
+ * @author Paddy Lamont
+ */
+public class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts;
+    private final AtomicLong count;
+    private final AtomicLong sum;
+    private final AtomicLong max;
+
+    public Histogram() {
+        this.counts = new AtomicLongArray(BUCKET_COUNT);
+        this.count = new AtomicLong();
+        this.sum = new AtomicLong();
+        this.max = new AtomicLong();
+    }
+
+    /**
+     * Record a single occurrence of {@param value}. Negative values are recorded as zero.
+     */
+    public void record(long value) {
+        value = Math.max(0, value);
+
+        counts.incrementAndGet(getBucket(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+
+        long currentMax;
+        while (value > (currentMax = max.get()) && !max.compareAndSet(currentMax, value)) {
+            // Another thread recorded a new maximum, so try again
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return A copy of the values recorded so far, which does not change as more values are recorded.
+     */
+    public Snapshot snapshot() {
+        long[] snapshotCounts = new long[BUCKET_COUNT];
+        long snapshotCount = 0;
+        for (int bucket = 0; bucket < BUCKET_COUNT; ++bucket) {
+            snapshotCounts[bucket] = counts.get(bucket);
+            snapshotCount += snapshotCounts[bucket];
+        }
+
+        return new Snapshot(snapshotCounts, snapshotCount, sum.get(), max.get());
+    }
+
+    private static int getBucket(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+
+        int exponent = (Long.SIZE - 1) - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @return The value in the middle of the range of values counted in {@param bucket}.
+     */
+    private static long getBucketMidpoint(int bucket) {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lowest + ((1L << shift) >>> 1);
+    }
+
+    /**
+     * The values that had been recorded in a Histogram at some point in time.
+     */
+    public static class Snapshot {
+
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        private Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getSum() {
+            return sum;
+        }
+
+        /**
+         * @return The mean of the recorded values, or 0 if there are none.
+         */
+        public double getMean() {
+            return (count == 0 ? 0 : (double) sum / count);
+        }
+
+        /**
+         * @return The largest value that had been recorded in the histogram, including any before an earlier snapshot.
+         */
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * @return The value below which {@param percentile} percent of the recorded values fall, or 0 if there are none.
+         */
+        public long getValueAtPercentile(double percentile) {
+            if (count == 0)
+                return 0;
+
+            long target = Math.max(1, (long) Math.ceil(count * percentile / 100.0));
+            long seen = 0;
+            for (int bucket = 0; bucket < counts.length; ++bucket) {
+                seen += counts[bucket];
+                if (seen >= target)
+                    return Math.min(max, getBucketMidpoint(bucket));
+            }
+            return max;
+        }
+
+        /**
+         * @return The values recorded in both this snapshot and {@param other}.
+         */
+        public Snapshot plus(Snapshot other) {
+            long[] sum = new long[counts.length];
+            for (int bucket = 0; bucket < counts.length; ++bucket) {
+                sum[bucket] = counts[bucket] + other.counts[bucket];
+            }
+            return new Snapshot(sum, count + other.count, this.sum + other.sum, Math.max(max, other.max));
+        }
+
+        /**
+         * @return The values recorded after {@param earlier} was taken, up until this snapshot was taken.
+         */
+        public Snapshot since(Snapshot earlier) {
+            long[] difference = new long[counts.length];
+            for (int bucket = 0; bucket < counts.length; ++bucket) {
+                difference[bucket] = counts[bucket] - earlier.counts[bucket];
+            }
+            return new Snapshot(difference, count - earlier.count, sum - earlier.sum, max);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package net.sothatsit.audiostream.metrics;
+
+import net.sothatsit.audiostream.util.LoopedThread;
+
+import javax.management.*;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+/**
+ * Publishes a MetricsRegistry and all of its descendants as MBeans, so that they can be monitored using JMX.
+ *
+ * Each registry is published with the name "net.sothatsit.audiostream:type=Metrics,name=path", where path
+ * is its path from the root registry. The registries are re-scanned periodically, so that the MBeans of
+ * connections and clients are published and removed as they come and go. Attributes are only read when
+ * a JMX client requests them, and are read from the registries without blocking the threads updating them.
+ *
+ * @author Paddy Lamont
+ */
+public class JmxExporter implements AutoCloseable {
+
+    public static final String DOMAIN = "net.sothatsit.audiostream";
+    private static final long SYNC_INTERVAL_MS = 1000;
+
+    private final MetricsRegistry root;
+    private final MBeanServer server;
+    private final LoopedThread syncThread;
+    private final Map<MetricsRegistry, ObjectName> published;
+
+    public JmxExporter(MetricsRegistry root) {
+        this(root, ManagementFactory.getPlatformMBeanServer());
+    }
+
+    public JmxExporter(MetricsRegistry root, MBeanServer server) {
+        this.root = root;
+        this.server = server;
+        this.syncThread = new LoopedThread("jmxExporter", this::sync, SYNC_INTERVAL_MS);
+        this.published = new HashMap<>();
+    }
+
+    public void start() {
+        sync();
+        syncThread.start();
+    }
+
+    @Override
+    public void close() {
+        syncThread.stop();
+
+        synchronized (this) {
+            for (ObjectName name : published.values()) {
+                unregister(name);
+            }
+            published.clear();
+        }
+    }
+
+    /**
+     * Publish any registries that have been added to the tree, and remove any that have been removed.
+     */
+    private synchronized void sync() {
+        Map<MetricsRegistry, String> registries = new IdentityHashMap<>();
+        root.visit((path, registry) -> registries.put(registry, path));
+
+        Iterator<Map.Entry<MetricsRegistry, ObjectName>> iterator = published.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<MetricsRegistry, ObjectName> entry = iterator.next();
+            if (registries.containsKey(entry.getKey()))
+                continue;
+
+            unregister(entry.getValue());
+            iterator.remove();
+        }
+
+        for (Map.Entry<MetricsRegistry, String> entry : registries.entrySet()) {
+            MetricsRegistry registry = entry.getKey();
+            if (published.containsKey(registry))
+                continue;
+
+            ObjectName name = register(registry, entry.getValue());
+            if (name != null) {
+                published.put(registry, name);
+            }
+        }
+    }
+
+    /**
+     * @return The name that the registry at {@param path} was published under, or null if it could not be published.
+     */
+    private ObjectName register(MetricsRegistry registry, String path) {
+        try {
+            ObjectName name = new ObjectName(DOMAIN + ":type=Metrics,name=" + ObjectName.quote(path));
+            server.registerMBean(new MetricsMBean(registry), name);
+            return name;
+        } catch (JMException exception) {
+            String exceptionString = exception.getClass() + ": " + exception.getMessage();
+            System.err.println("Error publishing the metrics of " + path + " to JMX, " + exceptionString);
+            return null;
+        }
+    }
+
+    private void unregister(ObjectName name) {
+        try {
+            server.unregisterMBean(name);
+        } catch (JMException exception) {
+            String exceptionString = exception.getClass() + ": " + exception.getMessage();
+            System.err.println("Error removing the metrics " + name + " from JMX, " + exceptionString);
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package net.sothatsit.audiostream.metrics;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Records how long audio spends in each stage of the pipeline between being captured and being played.
+ *
+ * Every packet of audio carries the time its first frame was captured, and the time it was sent, so
+ * that each stage can time itself from them. Each stage records into its own Histogram in a
+ * MetricsRegistry, so recording is cheap enough to be done for every packet, from any thread.
+ *
+ * @author Paddy Lamont
+ */
+public class LatencyTrace {
+
+    /**
+     * The stages of the pipeline, in the order that audio passes through them.
+     */
+    public enum Stage {
+
+        /**
+         * From audio being captured by the device, until it has been read from the line.
+         */
+        CAPTURE("capture"),
+
+        /**
+         * From the last frame of a packet being captured, until the packet is taken from the queue to be sent.
+         */
+        QUEUE("queue"),
+
+        /**
+         * The time taken to encrypt a packet.
+         */
+        ENCRYPT("encrypt"),
+
+        /**
+         * The time taken to write a packet to the socket, including any time blocked because it was full.
+         */
+        SEND("send"),
+
+        /**
+         * From a packet being ready to send until it is received, which is
+         * only known when the clocks of the server and client are synchronized.
+         */
+        TRANSIT("transit"),
+
+        /**
+         * The time taken to decrypt a packet.
+         */
+        DECRYPT("decrypt"),
+
+        /**
+         * How long received audio waits before it is mixed.
+         */
+        PLAYOUT("playout"),
+
+        /**
+         * How long mixed audio waits in the output line before it is heard.
+         */
+        DEVICE("device");
+
+        private final String name;
+
+        Stage(String name) {
+            this.name = name;
+        }
+
+        /**
+         * @return The name of the histogram that latencies of this stage are recorded in.
+         */
+        public String getMetricName() {
+            return "latency." + name + ".nanos";
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private final Map<Stage, Histogram> histograms;
+
+    /**
+     * Record latencies into histograms in {@param metrics}.
+     */
+    public LatencyTrace(MetricsRegistry metrics) {
+        this.histograms = new EnumMap<>(Stage.class);
+        for (Stage stage : Stage.values()) {
+            histograms.put(stage, metrics.histogram(stage.getMetricName()));
+        }
+    }
+
+    public Histogram getHistogram(Stage stage) {
+        return histograms.get(stage);
+    }
+
+    /**
+     * Record that audio spent {@param nanos} nanoseconds in {@param stage}.
+     */
+    public void record(Stage stage, long nanos) {
+        histograms.get(stage).record(nanos);
+    }
+
+    /**
+     * @return A copy of the latencies recorded so far in every stage.
+     */
+    public Snapshot snapshot() {
+        Map<Stage, Histogram.Snapshot> snapshots = new EnumMap<>(Stage.class);
+        for (Map.Entry<Stage, Histogram> entry : histograms.entrySet()) {
+            snapshots.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return new Snapshot(snapshots);
+    }
+
+    /**
+     * The latencies that had been recorded in a LatencyTrace at some point in time.
+     */
+    public static class Snapshot {
+
+        private final Map<Stage, Histogram.Snapshot> snapshots;
+
+        private Snapshot(Map<Stage, Histogram.Snapshot> snapshots) {
+            this.snapshots = snapshots;
+        }
+
+        public Histogram.Snapshot get(Stage stage) {
+            return snapshots.get(stage);
+        }
+
+        /**
+         * @return The latencies recorded in both this snapshot and {@param other}.
+         */
+        public Snapshot plus(Snapshot other) {
+            Map<Stage, Histogram.Snapshot> sum = new EnumMap<>(Stage.class);
+            for (Map.Entry<Stage, Histogram.Snapshot> entry : snapshots.entrySet()) {
+                sum.put(entry.getKey(), entry.getValue().plus(other.get(entry.getKey())));
+            }
+            return new Snapshot(sum);
+        }
+
+        /**
+         * @return The latencies recorded after {@param earlier} was taken, up until this snapshot was taken.
+         */
+        public Snapshot since(Snapshot earlier) {
+            Map<Stage, Histogram.Snapshot> difference = new EnumMap<>(Stage.class);
+            for (Map.Entry<Stage, Histogram.Snapshot> entry : snapshots.entrySet()) {
+                difference.put(entry.getKey(), entry.getValue().since(earlier.get(entry.getKey())));
+            }
+            return new Snapshot(difference);
+        }
+
+        /**
+         * @return The median latency of each stage that has recorded any latencies, in milliseconds.
+         */
+        public String toHumanString() {
+            StringBuilder builder = new StringBuilder();
+            for (Map.Entry<Stage, Histogram.Snapshot> entry : snapshots.entrySet()) {
+                Histogram.Snapshot snapshot = entry.getValue();
+                if (snapshot.getCount() == 0)
+                    continue;
+
+                if (builder.length() > 0) {
+                    builder.append(", ");
+                }
+
+                double medianMS = snapshot.getValueAtPercentile(50) / 1e6;
+                builder.append(entry.getKey()).append(' ').append(Math.round(medianMS * 10) / 10.0);
+            }
+
+            if (builder.length() == 0)
+                return "Unknown";
+
+            return builder.append(" ms").toString();
+        }
+    }
+
+    /**
+     * Reports the latencies recorded since the last report.
+     *
+     * This class is NOT thread safe and should
+     * always be used from a single thread.
+     */
+    public static class Reporter {
+
+        private final Supplier<Snapshot> snapshotSupplier;
+
+        private long lastTime;
+        private Snapshot lastSnapshot;
+        private String status;
+
+        /**
+         * Report on the latencies in the snapshots supplied by {@param snapshotSupplier}.
+         */
+        public Reporter(Supplier<Snapshot> snapshotSupplier) {
+            this.snapshotSupplier = snapshotSupplier;
+            this.lastTime = System.nanoTime();
+            this.lastSnapshot = snapshotSupplier.get();
+            this.status = "Unknown";
+        }
+
+        /**
+         * @return The median latencies recorded since the last status, if at least {@param intervalSecs}
+         *         seconds have passed and any latencies were recorded, or else the last status.
+         */
+        public String report(double intervalSecs) {
+            long time = System.nanoTime();
+            if ((time - lastTime) * 1e-9d < intervalSecs)
+                return status;
+
+            Snapshot snapshot = snapshotSupplier.get();
+            Snapshot recent = snapshot.since(lastSnapshot);
+            lastTime = time;
+            lastSnapshot = snapshot;
+
+            for (Stage stage : Stage.values()) {
+                if (recent.get(stage).getCount() > 0) {
+                    status = recent.toHumanString();
+                    break;
+                }
+            }
+            return status;
+        }
+    }
+}
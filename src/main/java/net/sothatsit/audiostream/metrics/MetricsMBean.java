@@ -0,0 +1,117 @@
+package net.sothatsit.audiostream.metrics;
+
+import javax.management.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Exposes the counters, gauges and histograms of a MetricsRegistry as the read-only attributes of an MBean.
+ *
+ * Counters and gauges are exposed under their own names. Each histogram is exposed as several attributes
+ * named after it, such as "latency.capture.nanos.p99". The attributes are read from the registry whenever
+ * they are requested, and the list of attributes is rebuilt each time it is requested, so metrics that
+ * are added to the registry after it is published are still exposed.
+ *
+ * @author Paddy Lamont
+ */
+public class MetricsMBean implements DynamicMBean {
+
+    private static final String[] HISTOGRAM_SUFFIXES = { "count", "mean", "p50", "p90", "p99", "max" };
+
+    private final MetricsRegistry registry;
+
+    public MetricsMBean(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Counter counter = registry.getCounters().get(attribute);
+        if (counter != null)
+            return counter.get();
+
+        Gauge gauge = registry.getGauges().get(attribute);
+        if (gauge != null)
+            return gauge.get();
+
+        int separator = attribute.lastIndexOf('.');
+        Histogram histogram = (separator < 0 ? null : registry.getHistograms().get(attribute.substring(0, separator)));
+        if (histogram == null)
+            throw new AttributeNotFoundException(attribute);
+
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        switch (attribute.substring(separator + 1)) {
+            case "count":
+                return snapshot.getCount();
+            case "mean":
+                return snapshot.getMean();
+            case "p50":
+                return snapshot.getValueAtPercentile(50);
+            case "p90":
+                return snapshot.getValueAtPercentile(90);
+            case "p99":
+                return snapshot.getValueAtPercentile(99);
+            case "max":
+                return snapshot.getMax();
+            default:
+                throw new AttributeNotFoundException(attribute);
+        }
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            try {
+                list.add(new Attribute(attribute, getAttribute(attribute)));
+            } catch (AttributeNotFoundException exception) {
+                // Attributes that cannot be found are left out of the list
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Metrics are read-only, " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<>();
+
+        for (String name : registry.getCounters().keySet()) {
+            attributes.add(createAttributeInfo(name, Long.class, "Counter " + name));
+        }
+        for (String name : registry.getGauges().keySet()) {
+            attributes.add(createAttributeInfo(name, Long.class, "Gauge " + name));
+        }
+        for (String name : registry.getHistograms().keySet()) {
+            for (String suffix : HISTOGRAM_SUFFIXES) {
+                Class<?> type = ("mean".equals(suffix) ? Double.class : Long.class);
+                attributes.add(createAttributeInfo(name + "." + suffix, type, "The " + suffix + " of histogram " + name));
+            }
+        }
+
+        return new MBeanInfo(
+                getClass().getName(),
+                "The metrics of " + registry.getName(),
+                attributes.toArray(new MBeanAttributeInfo[0]),
+                null, null, null
+        );
+    }
+
+    private static MBeanAttributeInfo createAttributeInfo(String name, Class<?> type, String description) {
+        return new MBeanAttributeInfo(name, type.getName(), description, true, false, false);
+    }
+}
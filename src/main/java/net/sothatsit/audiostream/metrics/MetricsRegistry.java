@@ -0,0 +1,117 @@
+package net.sothatsit.audiostream.metrics;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
+
+/**
+ * The named counters, gauges and histograms of one part of the application, such as a server or a client.
+ *
+ * Metrics are created once when their owner starts, and then only updated on hot paths, so that
+ * nothing is formatted or allocated as audio is streamed. Anything that displays or exports metrics
+ * reads them at its own pace. Registries form a tree, so that the metrics of each connection of a
+ * server can be found from the server's registry, and are removed with the connection.
+ *
+ * @author Paddy Lamont
+ */
+public class MetricsRegistry {
+
+    private final String name;
+    private final Map<String, Counter> counters;
+    private final Map<String, Gauge> gauges;
+    private final Map<String, Histogram> histograms;
+    private final List<MetricsRegistry> children;
+
+    public MetricsRegistry(String name) {
+        this.name = name;
+        this.counters = new ConcurrentSkipListMap<>();
+        this.gauges = new ConcurrentSkipListMap<>();
+        this.histograms = new ConcurrentSkipListMap<>();
+        this.children = new CopyOnWriteArrayList<>();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The counter named {@param name}, which is created if it does not already exist.
+     */
+    public Counter counter(String name) {
+        return counters.computeIfAbsent(name, key -> new Counter());
+    }
+
+    /**
+     * Register {@param gauge} under the name {@param name}, replacing any gauge already registered under it.
+     */
+    public void gauge(String name, Gauge gauge) {
+        gauges.put(name, gauge);
+    }
+
+    /**
+     * @return The histogram named {@param name}, which is created if it does not already exist.
+     */
+    public Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, key -> new Histogram());
+    }
+
+    /**
+     * @return A new registry named {@param name} that is a child of this registry.
+     */
+    public MetricsRegistry createChild(String name) {
+        MetricsRegistry child = new MetricsRegistry(name);
+        children.add(child);
+        return child;
+    }
+
+    public void addChild(MetricsRegistry child) {
+        children.add(child);
+    }
+
+    public void removeChild(MetricsRegistry child) {
+        children.remove(child);
+    }
+
+    /**
+     * @return The counters of this registry, sorted by name.
+     */
+    public Map<String, Counter> getCounters() {
+        return Collections.unmodifiableMap(counters);
+    }
+
+    /**
+     * @return The gauges of this registry, sorted by name.
+     */
+    public Map<String, Gauge> getGauges() {
+        return Collections.unmodifiableMap(gauges);
+    }
+
+    /**
+     * @return The histograms of this registry, sorted by name.
+     */
+    public Map<String, Histogram> getHistograms() {
+        return Collections.unmodifiableMap(histograms);
+    }
+
+    public List<MetricsRegistry> getChildren() {
+        return Collections.unmodifiableList(children);
+    }
+
+    /**
+     * Call {@param visitor} with this registry and then each of its descendants, along with their
+     * paths of names separated by slashes, such as "audioServer/connection(/127.0.0.1:51234)".
+     */
+    public void visit(BiConsumer<String, MetricsRegistry> visitor) {
+        visit(name, visitor);
+    }
+
+    private void visit(String path, BiConsumer<String, MetricsRegistry> visitor) {
+        visitor.accept(path, this);
+        for (MetricsRegistry child : children) {
+            child.visit(path + "/" + child.name, visitor);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package net.sothatsit.audiostream.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A tiny HTTP server that serves a MetricsRegistry and all of its descendants
+ * at /metrics in the Prometheus text exposition format.
+ *
+ * Metrics are named after their names in the registries, with a label holding the path of the
+ * registry that they came from. For example, the counter "packets.sent" of a connection becomes
+ * audiostream_packets_sent_total{registry="audioStream/audioServer/connection(/127.0.0.1:51234)"}.
+ * Histograms are served as summaries. The server only listens on the loopback address, and the
+ * metrics are only read when they are requested, without blocking the threads updating them.
+ *
+ * @author Paddy Lamont
+ */
+public class PrometheusExporter implements AutoCloseable {
+
+    public static final String PREFIX = "audiostream_";
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99 };
+
+    private final MetricsRegistry root;
+    private final int port;
+    private HttpServer server;
+
+    public PrometheusExporter(MetricsRegistry root, int port) {
+        this.root = root;
+        this.port = port;
+    }
+
+    public synchronized void open() throws IOException {
+        if (server != null)
+            throw new IllegalStateException("Already open");
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", this::handle);
+        server.start();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (server == null)
+            return;
+
+        server.stop(0);
+        server = null;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            byte[] body = format().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * @return The metrics of every registry in the Prometheus text format.
+     */
+    public String format() {
+        // Prometheus requires all the samples of a metric to be grouped together under one TYPE line
+        Map<String, StringBuilder> families = new TreeMap<>();
+
+        root.visit((path, registry) -> {
+            String label = "registry=\"" + escapeLabel(path) + "\"";
+
+            for (Map.Entry<String, Counter> entry : registry.getCounters().entrySet()) {
+                String name = PREFIX + sanitizeName(entry.getKey()) + "_total";
+                family(families, name, "counter").append(name).append('{').append(label).append("} ")
+                                                 .append(entry.getValue().get()).append('\n');
+            }
+
+            for (Map.Entry<String, Gauge> entry : registry.getGauges().entrySet()) {
+                String name = PREFIX + sanitizeName(entry.getKey());
+                family(families, name, "gauge").append(name).append('{').append(label).append("} ")
+                                               .append(entry.getValue().get()).append('\n');
+            }
+
+            for (Map.Entry<String, Histogram> entry : registry.getHistograms().entrySet()) {
+                String name = PREFIX + sanitizeName(entry.getKey());
+                Histogram.Snapshot snapshot = entry.getValue().snapshot();
+
+                StringBuilder family = family(families, name, "summary");
+                for (double quantile : QUANTILES) {
+                    family.append(name).append('{').append(label).append(",quantile=\"").append(quantile).append("\"} ")
+                          .append(snapshot.getValueAtPercentile(100 * quantile)).append('\n');
+                }
+                family.append(name).append("_sum{").append(label).append("} ").append(snapshot.getSum()).append('\n');
+                family.append(name).append("_count{").append(label).append("} ").append(snapshot.getCount()).append('\n');
+            }
+        });
+
+        StringBuilder builder = new StringBuilder();
+        for (StringBuilder family : families.values()) {
+            builder.append(family);
+        }
+        return builder.toString();
+    }
+
+    private static StringBuilder family(Map<String, StringBuilder> families, String name, String type) {
+        return families.computeIfAbsent(name, key -> new StringBuilder("# TYPE " + name + " " + type + "\n"));
+    }
+
+    /**
+     * @return {@param name} with every character that is not allowed in a Prometheus metric name replaced by an underscore.
+     */
+    private static String sanitizeName(String name) {
+        StringBuilder builder = new StringBuilder(name.length());
+        for (int index = 0; index < name.length(); ++index) {
+            char ch = name.charAt(index);
+            boolean valid = (ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z') || (ch >= '0' && ch <= '9') || ch == '_';
+            builder.append(valid ? ch : '_');
+        }
+        return builder.toString();
+    }
+
+    private static String escapeLabel(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
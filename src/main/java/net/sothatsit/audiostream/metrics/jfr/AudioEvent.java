@@ -0,0 +1,27 @@
+package net.sothatsit.audiostream.metrics.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.StackTrace;
+
+/**
+ * The base of the Java Flight Recorder events emitted by AudioStream, which identifies the
+ * connection and the stream of audio that each event happened to, so that glitches can be
+ * lined up with GC pauses, safepoints and CPU usage in the same recording.
+ *
+ * Events are only recorded while a recording with them enabled is running, such as one started
+ * using "jcmd <pid> JFR.start". Otherwise, emitting them costs no more than a check of a flag.
+ *
+ * @author Paddy Lamont
+ */
+@Category("AudioStream")
+@StackTrace(false)
+abstract class AudioEvent extends Event {
+
+    @Label("Connection")
+    String connection;
+
+    @Label("Stream")
+    String stream;
+}
@@ -0,0 +1,42 @@
+package net.sothatsit.audiostream.metrics.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A buffer of audio was full, so the thread writing to it was blocked for the duration of the event.
+ *
+ * @author Paddy Lamont
+ */
+@Name("net.sothatsit.audiostream.BufferOverrun")
+@Label("Buffer Overrun")
+@Description("A buffer of audio was full, so writing to it blocked")
+public class BufferOverrunEvent extends AudioEvent {
+
+    @Label("Buffer")
+    String buffer;
+
+    /**
+     * @return A new event that starts now, to be finished once the buffer has room again.
+     */
+    public static BufferOverrunEvent start() {
+        BufferOverrunEvent event = new BufferOverrunEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * End this event now, and record it if recording is enabled.
+     */
+    public void finish(String connection, String stream, String buffer) {
+        end();
+        if (!shouldCommit())
+            return;
+
+        this.connection = connection;
+        this.stream = stream;
+        this.buffer = buffer;
+        commit();
+    }
+}
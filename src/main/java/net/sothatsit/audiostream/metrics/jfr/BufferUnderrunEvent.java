@@ -0,0 +1,37 @@
+package net.sothatsit.audiostream.metrics.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A buffer of audio ran out before more audio was written to it, so there was a gap in the audio played.
+ *
+ * @author Paddy Lamont
+ */
+@Name("net.sothatsit.audiostream.BufferUnderrun")
+@Label("Buffer Underrun")
+@Description("A buffer of audio ran out before more audio was written to it")
+public class BufferUnderrunEvent extends AudioEvent {
+
+    @Label("Buffer")
+    String buffer;
+
+    @Label("Missing Frames")
+    long frames;
+
+    /**
+     * Record that the buffer {@param buffer} was missing {@param frames} frames, if recording is enabled.
+     */
+    public static void emit(String connection, String stream, String buffer, long frames) {
+        BufferUnderrunEvent event = new BufferUnderrunEvent();
+        if (!event.shouldCommit())
+            return;
+
+        event.connection = connection;
+        event.stream = stream;
+        event.buffer = buffer;
+        event.frames = frames;
+        event.commit();
+    }
+}
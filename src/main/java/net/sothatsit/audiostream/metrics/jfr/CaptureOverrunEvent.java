@@ -0,0 +1,33 @@
+package net.sothatsit.audiostream.metrics.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The buffer of a capture device filled up before it was read, so some of the captured audio was lost.
+ *
+ * @author Paddy Lamont
+ */
+@Name("net.sothatsit.audiostream.CaptureOverrun")
+@Label("Capture Overrun")
+@Description("The buffer of a capture device filled up before it was read")
+public class CaptureOverrunEvent extends AudioEvent {
+
+    @Label("Lost Frames")
+    long frames;
+
+    /**
+     * Record that an estimated {@param frames} frames were lost, if recording is enabled.
+     */
+    public static void emit(String connection, String stream, long frames) {
+        CaptureOverrunEvent event = new CaptureOverrunEvent();
+        if (!event.shouldCommit())
+            return;
+
+        event.connection = connection;
+        event.stream = stream;
+        event.frames = frames;
+        event.commit();
+    }
+}
@@ -0,0 +1,54 @@
+package net.sothatsit.audiostream.metrics.jfr;
+
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * A packet of audio was encrypted or decrypted, which took the duration of the event.
+ *
+ * Every packet is encrypted, so by default only those that took longer than a millisecond are recorded.
+ *
+ * @author Paddy Lamont
+ */
+@Name("net.sothatsit.audiostream.Encryption")
+@Label("Encryption")
+@Description("A packet of audio was encrypted or decrypted")
+@Threshold("1 ms")
+public class EncryptionEvent extends AudioEvent {
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Size")
+    @DataAmount
+    int bytes;
+
+    /**
+     * @return A new event that starts now, to be finished once the packet has been encrypted or decrypted.
+     */
+    public static EncryptionEvent start() {
+        EncryptionEvent event = new EncryptionEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * End this event now, and record it if recording is enabled.
+     *
+     * @param operation Either "encrypt" or "decrypt".
+     */
+    public void finish(String connection, String stream, String operation, int bytes) {
+        end();
+        if (!shouldCommit())
+            return;
+
+        this.connection = connection;
+        this.stream = stream;
+        this.operation = operation;
+        this.bytes = bytes;
+        commit();
+    }
+}
@@ -0,0 +1,49 @@
+package net.sothatsit.audiostream.metrics.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Audio that was received is expected to be played later than its target latency allows.
+ *
+ * @author Paddy Lamont
+ */
+@Name("net.sothatsit.audiostream.LateFrame")
+@Label("Late Frames")
+@Description("Received audio is expected to be played later than its target latency")
+public class LateFrameEvent extends AudioEvent {
+
+    @Label("Output")
+    String output;
+
+    @Label("Frames")
+    long frames;
+
+    @Label("Expected Delay")
+    @Timespan
+    long delayNanos;
+
+    @Label("Target Delay")
+    @Timespan
+    long targetNanos;
+
+    /**
+     * Record that {@param frames} frames are expected to be played after a delay of {@param delayNanos},
+     * when they were meant to be played after {@param targetNanos}, if recording is enabled.
+     */
+    public static void emit(String connection, String stream, String output, long frames, long delayNanos, long targetNanos) {
+        LateFrameEvent event = new LateFrameEvent();
+        if (!event.shouldCommit())
+            return;
+
+        event.connection = connection;
+        event.stream = stream;
+        event.output = output;
+        event.frames = frames;
+        event.delayNanos = delayNanos;
+        event.targetNanos = targetNanos;
+        event.commit();
+    }
+}
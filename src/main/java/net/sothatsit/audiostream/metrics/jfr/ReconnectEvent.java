@@ -0,0 +1,38 @@
+package net.sothatsit.audiostream.metrics.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A client lost its connection, or failed to connect, and is trying to connect again.
+ *
+ * @author Paddy Lamont
+ */
+@Name("net.sothatsit.audiostream.Reconnect")
+@Label("Reconnect")
+@Description("A client is connecting again after its last connection ended")
+public class ReconnectEvent extends AudioEvent {
+
+    @Label("Attempt")
+    int attempt;
+
+    @Label("Previous Status")
+    String previousStatus;
+
+    /**
+     * Record the {@param attempt}'th attempt to reconnect after the last connection ended with
+     * the status {@param previousStatus}, if recording is enabled.
+     */
+    public static void emit(String connection, String stream, int attempt, String previousStatus) {
+        ReconnectEvent event = new ReconnectEvent();
+        if (!event.shouldCommit())
+            return;
+
+        event.connection = connection;
+        event.stream = stream;
+        event.attempt = attempt;
+        event.previousStatus = previousStatus;
+        event.commit();
+    }
+}
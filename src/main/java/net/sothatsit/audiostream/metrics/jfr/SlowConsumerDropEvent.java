@@ -0,0 +1,39 @@
+package net.sothatsit.audiostream.metrics.jfr;
+
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Audio queued to be sent to a client was dropped, as the client was not receiving it fast enough.
+ *
+ * @author Paddy Lamont
+ */
+@Name("net.sothatsit.audiostream.SlowConsumerDrop")
+@Label("Slow Consumer Drop")
+@Description("Audio queued for a client that fell too far behind was dropped")
+public class SlowConsumerDropEvent extends AudioEvent {
+
+    @Label("Dropped Frames")
+    long frames;
+
+    @Label("Queued")
+    @DataAmount
+    long queuedBytes;
+
+    /**
+     * Record that {@param frames} frames were dropped when {@param queuedBytes} bytes were queued, if recording is enabled.
+     */
+    public static void emit(String connection, String stream, long frames, long queuedBytes) {
+        SlowConsumerDropEvent event = new SlowConsumerDropEvent();
+        if (!event.shouldCommit())
+            return;
+
+        event.connection = connection;
+        event.stream = stream;
+        event.frames = frames;
+        event.queuedBytes = queuedBytes;
+        event.commit();
+    }
+}
@@ -1,6 +1,7 @@
 package net.sothatsit.audiostream.model;
 
 import net.sothatsit.audiostream.communication.ControlServer;
+import net.sothatsit.audiostream.communication.LinkProber;
 import net.sothatsit.audiostream.communication.RemoteServerIndex;
 import net.sothatsit.audiostream.communication.audio.AudioClientManager;
 import net.sothatsit.audiostream.communication.audio.AudioClientSettings;
@@ -9,6 +10,7 @@ import net.sothatsit.audiostream.communication.audio.AudioServerSettings;
 import net.sothatsit.audiostream.encryption.Encryption;
 import net.sothatsit.audiostream.encryption.EncryptionSettings;
 import net.sothatsit.audiostream.encryption.EncryptionVerification;
+import net.sothatsit.audiostream.metrics.MetricsRegistry;
 import net.sothatsit.property.Attribute;
 import net.sothatsit.property.Property;
 import net.sothatsit.property.SelfMappedProperty;
@@ -16,6 +18,7 @@ import net.sothatsit.property.awt.GuiUtils;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.security.SecureRandom;
 
 /**
  * The state of AudioStream.
@@ -34,18 +37,29 @@ public class AudioStreamModel {
     public final Attribute<AudioServerSettings> audioServerSettings;
     public final AudioServer audioServer;
 
+    /**
+     * Identifies this process to remote hosts, that may discover it through more than one of its addresses.
+     */
+    public final long instanceId;
     public final Attribute<Integer> controlServerPort;
     public final Property<RemoteAudioServerDetails> localAudioServerDetails;
     public final Property<RemoteServerDetails> localServerDetails;
 
     public final Property<ControlServer> controlServer;
     public final RemoteServerIndex remoteServerIndex;
+    public final LinkProber linkProber;
 
     public final Attribute<AudioClientSettings> audioClientSettings;
     public final AudioClientManager audioClientManager;
 
+    /**
+     * The metrics of the whole application, with the metrics of each of its services as children.
+     */
+    public final MetricsRegistry metrics;
+
     public AudioStreamModel() {
         this.running = Property.createNonNull("running", false);
+        this.metrics = new MetricsRegistry("audioStream");
 
         this.encryptionSettings = Attribute.createNonNull("encryptionSettings", EncryptionSettings.NO_ENCRYPTION);
         this.encryption = encryptionSettings.map("encryption", EncryptionSettings::createEncryption);
@@ -54,6 +68,7 @@ public class AudioStreamModel {
         this.audioServerSettings = Attribute.createNullable("audioServerSettings");
         this.audioServer = new AudioServer(audioServerSettings);
 
+        this.instanceId = new SecureRandom().nextLong();
         this.controlServerPort = Attribute.createNullable("controlServerPort");
         this.localAudioServerDetails = Property.map(
                 "localAudioServerDetails",
@@ -62,7 +77,7 @@ public class AudioStreamModel {
                     if (settings == null || !running)
                         return null;
                     InetSocketAddress address = new InetSocketAddress(settings.port);
-                   return new RemoteAudioServerDetails(address, settings.format);
+                    return new RemoteAudioServerDetails(address, AudioServer.getStreamableFormats(settings.format));
         });
         this.localServerDetails = Property.map(
                 "localServerDetails", controlServerPort, localAudioServerDetails, encryptionVerification,
@@ -71,7 +86,7 @@ public class AudioStreamModel {
                         return null;
 
                     InetSocketAddress controlAddress = new InetSocketAddress(port);
-                    return new RemoteServerDetails(controlAddress, audioServerDetails, verification);
+                    return new RemoteServerDetails(instanceId, controlAddress, audioServerDetails, verification);
                 }
         );
 
@@ -80,9 +95,14 @@ public class AudioStreamModel {
         );
         this.remoteServerIndex = new RemoteServerIndex(controlServer);
         this.remoteServerIndex.start(); // TODO : This is never stopped, and shouldn't really be started here
+        this.linkProber = new LinkProber(controlServer, remoteServerIndex);
 
         this.audioClientSettings = Attribute.createNullable("audioClientSettings");
         this.audioClientManager = new AudioClientManager(audioClientSettings);
+
+        metrics.addChild(audioServer.getMetrics());
+        metrics.addChild(remoteServerIndex.getMetrics());
+        metrics.addChild(audioClientManager.getMetrics());
     }
 
     // TODO : This is the model, it shouldn't be handling this logic
@@ -91,6 +111,7 @@ public class AudioStreamModel {
             throw new IllegalStateException("Already started");
 
         running.set(true);
+        linkProber.start();
     }
 
     // TODO : This is the model, it shouldn't be handling this logic
@@ -98,6 +119,7 @@ public class AudioStreamModel {
         if (!running.get())
             throw new IllegalStateException("Not running");
 
+        linkProber.stop();
         running.set(false);
     }
 
@@ -107,6 +129,7 @@ public class AudioStreamModel {
     private ControlServer updateControlServer(ControlServer previousServer, boolean running, Integer port) {
         // Close down the previous server
         if (previousServer != null) {
+            metrics.removeChild(previousServer.getMetrics());
             try {
                 previousServer.close();
             } catch (IOException exception) {
@@ -128,6 +151,7 @@ public class AudioStreamModel {
             return null;
         }
 
+        metrics.addChild(newServer.getMetrics());
         return newServer;
     }
 }
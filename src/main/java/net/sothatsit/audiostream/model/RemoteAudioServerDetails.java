@@ -7,6 +7,9 @@ import javax.sound.sampled.AudioFormat;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
 
 /**
@@ -16,19 +19,40 @@ import java.util.Objects;
  */
 public class RemoteAudioServerDetails {
 
+    /**
+     * Far more formats than a server ever advertises, to reject malformed packets.
+     */
+    private static final int MAX_FORMATS = 64;
+
     public final InetSocketAddress address;
+
+    /**
+     * The format of the audio captured by the server, which can be streamed without any conversion.
+     */
     public final AudioFormat format;
 
+    /**
+     * The formats that the server can stream, from most to least preferred. The first is always {@link #format}.
+     */
+    public final List<AudioFormat> formats;
+
     public RemoteAudioServerDetails(InetSocketAddress address,
-                                    AudioFormat format) {
+                                    List<AudioFormat> formats) {
+
+        if (formats.isEmpty())
+            throw new IllegalArgumentException("The server must be able to stream at least one format");
 
         this.address = address;
-        this.format = format;
+        this.format = formats.get(0);
+        this.formats = Collections.unmodifiableList(new ArrayList<>(formats));
     }
 
     public void writeTo(PacketBuilder builder) throws IOException {
         builder.writeInt(address.getPort());
-        builder.writeAudioFormat(format);
+        builder.writeInt(formats.size());
+        for (AudioFormat format : formats) {
+            builder.writeAudioFormat(format);
+        }
     }
 
     public static RemoteAudioServerDetails readFrom(PacketReader reader,
@@ -36,9 +60,21 @@ public class RemoteAudioServerDetails {
 
         int audioPort = reader.readInt();
         InetSocketAddress audioAddress = new InetSocketAddress(remoteAddress, audioPort);
-        AudioFormat audioFormat = reader.readAudioFormat();
 
-        return new RemoteAudioServerDetails(audioAddress, audioFormat);
+        int formatCount = reader.readInt();
+        if (formatCount <= 0 || formatCount > MAX_FORMATS)
+            throw new IOException("Invalid number of audio formats " + formatCount);
+
+        List<AudioFormat> formats = new ArrayList<>();
+        for (int index = 0; index < formatCount; ++index) {
+            try {
+                formats.add(reader.readAudioFormat());
+            } catch (IllegalArgumentException exception) {
+                throw new IOException("Invalid audio format", exception);
+            }
+        }
+
+        return new RemoteAudioServerDetails(audioAddress, formats);
     }
 
     @Override
@@ -47,6 +83,13 @@ public class RemoteAudioServerDetails {
             return false;
 
         RemoteAudioServerDetails other = (RemoteAudioServerDetails) obj;
-        return Objects.equals(address, other.address) && format.matches(other.format);
+        if (!Objects.equals(address, other.address) || formats.size() != other.formats.size())
+            return false;
+
+        for (int index = 0; index < formats.size(); ++index) {
+            if (!formats.get(index).matches(other.formats.get(index)))
+                return false;
+        }
+        return true;
     }
 }
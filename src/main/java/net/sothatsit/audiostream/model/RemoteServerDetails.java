@@ -16,14 +16,20 @@ import java.util.Objects;
  */
 public class RemoteServerDetails {
 
+    /**
+     * Identifies the process that sent these details, which stays the same across all of its addresses.
+     */
+    public final long instanceId;
     public final InetSocketAddress controlAddress;
     public final RemoteAudioServerDetails audioServerDetails;
     public final EncryptionVerification encryptionVerification;
 
-    public RemoteServerDetails(InetSocketAddress controlAddress,
+    public RemoteServerDetails(long instanceId,
+                               InetSocketAddress controlAddress,
                                RemoteAudioServerDetails audioServerDetails,
                                EncryptionVerification encryptionVerification) {
 
+        this.instanceId = instanceId;
         this.controlAddress = controlAddress;
         this.audioServerDetails = audioServerDetails;
         this.encryptionVerification = encryptionVerification;
@@ -34,6 +40,7 @@ public class RemoteServerDetails {
     }
 
     public void writeTo(PacketBuilder builder) throws IOException {
+        builder.writeLong(instanceId);
         builder.writeInt(controlAddress.getPort());
 
         builder.writeBoolean(audioServerDetails != null);
@@ -47,6 +54,7 @@ public class RemoteServerDetails {
     public static RemoteServerDetails readFrom(PacketReader reader,
                                                InetAddress remoteAddress) throws IOException {
 
+        long instanceId = reader.readLong();
         int controlPort = reader.readInt();
         InetSocketAddress controlAddress = new InetSocketAddress(remoteAddress, controlPort);
 
@@ -58,7 +66,7 @@ public class RemoteServerDetails {
 
         EncryptionVerification encryptionVerification = EncryptionVerification.readFrom(reader);
 
-        return new RemoteServerDetails(controlAddress, audioServerDetails, encryptionVerification);
+        return new RemoteServerDetails(instanceId, controlAddress, audioServerDetails, encryptionVerification);
     }
 
     @Override
@@ -67,7 +75,8 @@ public class RemoteServerDetails {
             return false;
 
         RemoteServerDetails other = (RemoteServerDetails) obj;
-        return Objects.equals(controlAddress, other.controlAddress)
+        return instanceId == other.instanceId
+                && Objects.equals(controlAddress, other.controlAddress)
                 && Objects.equals(audioServerDetails, other.audioServerDetails)
                 && Objects.equals(encryptionVerification, other.encryptionVerification);
     }
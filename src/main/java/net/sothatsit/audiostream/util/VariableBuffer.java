@@ -1,6 +1,7 @@
 package net.sothatsit.audiostream.util;
 
 import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -19,7 +20,7 @@ public class VariableBuffer {
     private final Condition bytesRead;
 
     private byte[] buffer;
-    private int read;
+    private volatile int read;
 
     /**
      * Construct a buffer with an initial
@@ -33,13 +34,11 @@ public class VariableBuffer {
         this.bytesRead = lock.newCondition();
     }
 
+    /**
+     * @return The number of bytes in this buffer, which does not wait for any push or pop in progress.
+     */
     public int size() {
-        lock.lock();
-        try {
-            return read;
-        } finally {
-            lock.unlock();
-        }
+        return read;
     }
 
     /**
@@ -88,4 +87,35 @@ public class VariableBuffer {
             lock.unlock();
         }
     }
+
+    /**
+     * Pop exactly length bytes from this buffer and place them into outBuffer,
+     * waiting at most timeout for enough bytes to become available.
+     *
+     * @return Whether the bytes were popped.
+     */
+    public boolean pop(byte[] outBuffer, int from, int length, long timeout, TimeUnit unit) {
+        lock.lock();
+        try {
+            long remainingNanos = unit.toNanos(timeout);
+            while (read < length) {
+                if (remainingNanos <= 0)
+                    return false;
+
+                try {
+                    remainingNanos = bytesRead.awaitNanos(remainingNanos);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException("Exception while waiting for bytes", e);
+                }
+            }
+
+            System.arraycopy(buffer, 0, outBuffer, from, length);
+            System.arraycopy(buffer, length, buffer, 0, read - length);
+
+            this.read -= length;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
 }
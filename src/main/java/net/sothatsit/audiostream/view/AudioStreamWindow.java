@@ -33,6 +33,7 @@ public class AudioStreamWindow {
         ControlServerPanel controlPanel = new ControlServerPanel(model);
         ClientConfigurationPanel clientPanel = new ClientConfigurationPanel(frame, model);
         ServerConfigurationPanel serverPanel = new ServerConfigurationPanel(model);
+        ConferencePanel conferencePanel = new ConferencePanel(model);
         EncryptionPanel encryptionPanel = new EncryptionPanel(model);
 
         JTabbedPane pane = new JTabbedPane();
@@ -40,6 +41,7 @@ public class AudioStreamWindow {
         pane.add("Control Server", controlPanel.getComponent());
         pane.add("Audio Receiving", clientPanel.getComponent());
         pane.add("Audio Broadcasting", serverPanel.getComponent());
+        pane.add("Conference", conferencePanel.getComponent());
         pane.add("Encryption", encryptionPanel.getComponent());
 
         frame.add(pane);
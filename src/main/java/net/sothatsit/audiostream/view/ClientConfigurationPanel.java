@@ -7,8 +7,11 @@ import net.sothatsit.audiostream.communication.RemoteServerIndex;
 import net.sothatsit.audiostream.communication.audio.AudioClient;
 import net.sothatsit.audiostream.communication.audio.AudioClientManager;
 import net.sothatsit.audiostream.communication.audio.AudioClientSettings;
+import net.sothatsit.audiostream.communication.audio.AudioOutputSettings;
+import net.sothatsit.audiostream.communication.audio.AudioStreamShape;
 import net.sothatsit.audiostream.model.AudioStreamModel;
 import net.sothatsit.audiostream.model.RemoteServerDetails;
+import net.sothatsit.property.ListProperty;
 import net.sothatsit.property.Property;
 import net.sothatsit.function.Either;
 import net.sothatsit.property.awt.*;
@@ -40,8 +43,14 @@ public class ClientConfigurationPanel extends PropertyPanel {
 
     private final AudioProperties audioProperties;
     private final Property<Integer> bufferDelayMS;
+    private final ListProperty<AudioOutputSettings> additionalOutputs;
     private final Property<Either<AudioClientSettings, String>> clientSettings;
 
+    private final JList<AudioOutputSettings> additionalOutputsList;
+    private final BasicListModel<AudioOutputSettings> additionalOutputsModel;
+    private final Action addOutputAction;
+    private final Action removeOutputAction;
+
     private final JList<RemoteServer> availableServersList;
     private final JList<AudioClient> connectedServersList;
     private final BasicListModel<RemoteServer> availableServers;
@@ -68,17 +77,52 @@ public class ClientConfigurationPanel extends PropertyPanel {
         );
         Property<Boolean> isBufferDelayValid = bufferDelayMS.isNotNull("isBufferDelayValid");
 
+        Property<String> maxLatencyString = Property.create(
+                "maxLatencyString", Integer.toString(AudioStream.DEFAULT_MAX_LATENCY_MS)
+        );
+        Property<Integer> maxLatencyMS = maxLatencyString.map(
+                "maxLatencyMS", ClientConfigurationPanel::parseBufferDelay
+        );
+        Property<Boolean> isMaxLatencyValid = maxLatencyMS.isNotNull("isMaxLatencyValid");
+
+        Property<String> outputOffsetString = Property.create("outputOffsetString", "0");
+        Property<Integer> outputOffsetMS = outputOffsetString.map(
+                "outputOffsetMS", ClientConfigurationPanel::parseDelayOffset
+        );
+        Property<Boolean> isOutputOffsetValid = outputOffsetMS.isNotNull("isOutputOffsetValid");
+
+        Property<AudioStreamShape.ChannelMode> channelMode = Property.createNonNull(
+                "channelMode", AudioStreamShape.ChannelMode.ALL
+        );
+        Property<Integer> maxSampleSize = Property.createNonNull("maxSampleSize", 0);
+        Property<Boolean> growBuffers = Property.createNonNull("growBuffers", false);
+        Property<AudioStreamShape> shape = Property.map(
+                "shape", channelMode, maxSampleSize, AudioStreamShape::new
+        );
+
         this.bufferDelayMS = Property.createNonNull("bufferDelayMS", 0);
+        this.additionalOutputs = new ListProperty<>("additionalOutputs");
         this.clientSettings = Property.map(
-                "clientSettings", audioProperties.mixer, audioProperties.bufferSizeMS, bufferDelayMS, model.encryption,
-                (mixer, bufferSizeMS, bufferDelayMSValue, encryption) -> {
+                "clientSettings",
+                audioProperties.mixer, audioProperties.bufferSizeMS, bufferDelayMS, maxLatencyMS,
+                outputOffsetMS, additionalOutputs, shape, growBuffers, model.encryption,
+                (mixer, bufferSizeMS, bufferDelayMSValue, maxLatencyMSValue,
+                 outputOffsetMSValue, additionalOutputs, shapeValue, growBuffersValue, encryption) -> {
                     if (mixer == null)
                         return Either.right("Please select a mixer");
 
+                    // The same stream is played through the main output and every additional output
+                    List<AudioOutputSettings> outputs = new ArrayList<>();
+                    outputs.add(new AudioOutputSettings(mixer, outputOffsetMSValue == null ? 0 : outputOffsetMSValue));
+                    outputs.addAll(additionalOutputs);
+
                     AudioClientSettings settings = new AudioClientSettings(
-                            mixer,
+                            outputs,
+                            shapeValue,
                             bufferSizeMS,
                             bufferDelayMSValue == null ? 0 : bufferDelayMSValue,
+                            maxLatencyMSValue == null ? 0 : maxLatencyMSValue,
+                            growBuffersValue,
                             AudioStream.DEFAULT_REPORT_INTERVAL_SECS,
                             encryption
                     );
@@ -121,6 +165,110 @@ public class ClientConfigurationPanel extends PropertyPanel {
                 add(bufferDelayField, constraints.weightX(1.0).build());
                 constraints.nextRow();
             }
+
+            { // Max Latency
+                PropertyLabel maxLatencyLabel = new PropertyLabel("Max Latency (ms)");
+                PropertyTextField maxLatencyField = new PropertyTextField(maxLatencyString);
+
+                maxLatencyLabel.setForeground(
+                        Property.ternary("maxLatency_fg", isMaxLatencyValid, Color.BLACK, Color.RED)
+                );
+                maxLatencyLabel.setToolTipText("Audio is played slightly faster to catch up when it falls "
+                        + "this far behind. Set to 0 to never catch up.");
+                maxLatencyField.setEnabled(isEnabled());
+
+                add(maxLatencyLabel, constraints.weightX(0).build());
+                add(maxLatencyField, constraints.weightX(1.0).build());
+                constraints.nextRow();
+            }
+
+            { // Output Offset
+                PropertyLabel outputOffsetLabel = new PropertyLabel("Output Offset (ms)");
+                PropertyTextField outputOffsetField = new PropertyTextField(outputOffsetString);
+
+                outputOffsetLabel.setForeground(
+                        Property.ternary("outputOffset_fg", isOutputOffsetValid, Color.BLACK, Color.RED)
+                );
+                outputOffsetField.setEnabled(isEnabled());
+
+                add(outputOffsetLabel, constraints.weightX(0).build());
+                add(outputOffsetField, constraints.weightX(1.0).build());
+                constraints.nextRow();
+            }
+
+            { // Stream Shape
+                PropertyComboBox<AudioStreamShape.ChannelMode> channelModeCombo = new PropertyComboBox<>(
+                        AudioStreamShape.ChannelMode.values(),
+                        channelMode,
+                        AudioStreamShape.ChannelMode::toString
+                );
+                PropertyComboBox<Integer> maxSampleSizeCombo = new PropertyComboBox<>(
+                        new Integer[] { 0, 24, 16, 8 },
+                        maxSampleSize,
+                        bits -> (bits == 0 ? "Any" : bits + "-bit")
+                );
+
+                add("Receive Channels", constraints.weightX(0).build());
+                add(channelModeCombo, constraints.weightX(1.0).build());
+                constraints.nextRow();
+
+                add("Max Bit Depth", constraints.weightX(0).build());
+                add(maxSampleSizeCombo, constraints.weightX(1.0).build());
+                constraints.nextRow();
+            }
+
+            { // Underruns
+                PropertyComboBox<Boolean> growBuffersCombo = new PropertyComboBox<>(
+                        new Boolean[] { false, true },
+                        growBuffers,
+                        grow -> (grow ? "Count and grow the buffer" : "Count only")
+                );
+
+                add("On Underruns", constraints.weightX(0).build());
+                add(growBuffersCombo, constraints.weightX(1.0).build());
+                constraints.nextRow();
+            }
+
+            { // Additional Outputs
+                additionalOutputsModel = new BasicListModel<>();
+                additionalOutputsList = new JList<>();
+                additionalOutputsList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+                additionalOutputsList.setVisibleRowCount(2);
+                additionalOutputsList.setModel(additionalOutputsModel);
+                additionalOutputsList.addListSelectionListener(e -> update());
+
+                addOutputAction = new AbstractAction("Add Output") {
+                    @Override
+                    public void actionPerformed(ActionEvent e) {
+                        addOutput();
+                    }
+                };
+                removeOutputAction = new AbstractAction("Remove Output") {
+                    @Override
+                    public void actionPerformed(ActionEvent e) {
+                        removeOutput();
+                    }
+                };
+
+                JScrollPane outputsScrollPane = new JScrollPane(
+                        additionalOutputsList,
+                        JScrollPane.VERTICAL_SCROLLBAR_AS_NEEDED,
+                        JScrollPane.HORIZONTAL_SCROLLBAR_NEVER
+                );
+
+                add(new JLabel("Additional Outputs"), constraints.weightX(0).build());
+                add(GuiUtils.buildVerticalPanel(
+                        new JComponent[]{
+                                outputsScrollPane,
+                                GuiUtils.buildCenteredPanel(addOutputAction, removeOutputAction)
+                        },
+                        new float[]{
+                                1.0f,
+                                0.0f
+                        }
+                ), constraints.weightX(1.0).build());
+                constraints.nextRow();
+            }
         }
 
         { // Connections
@@ -281,6 +429,19 @@ public class ClientConfigurationPanel extends PropertyPanel {
         }
     }
 
+    private void addOutput() {
+        new OutputInputDialog(parentFrame, additionalOutputs::add).show();
+    }
+
+    private void removeOutput() {
+        AudioOutputSettings output = additionalOutputsList.getSelectedValue();
+        if (output == null)
+            return;
+
+        additionalOutputs.remove(output);
+        update();
+    }
+
     private void removeServer() {
         RemoteServer server = availableServersList.getSelectedValue();
         if (server == null || !remoteServerIndex.isManuallyAddedServer(server))
@@ -346,6 +507,10 @@ public class ClientConfigurationPanel extends PropertyPanel {
         boolean availableSelected = !availableServersList.isSelectionEmpty();
         boolean connectedSelected = !connectedServersList.isSelectionEmpty();
 
+        removeOutputAction.setEnabled(!additionalOutputsList.isSelectionEmpty());
+        additionalOutputsModel.replaceAll(additionalOutputs.get());
+        additionalOutputsModel.fireContentsChanged();
+
         connectAction.setEnabled(availableSelected);
         disconnectAction.setEnabled(connectedSelected);
         viewAction.setEnabled(connectedSelected);
@@ -396,6 +561,18 @@ public class ClientConfigurationPanel extends PropertyPanel {
         return format.toString();
     }
 
+    /**
+     * @return {@param delayOffsetString} converted to an Integer, or null if invalid.
+     */
+    public static Integer parseDelayOffset(String delayOffsetString) {
+        try {
+            int offset = Integer.parseInt(delayOffsetString);
+            return Math.abs(offset) < AudioStream.MAX_BUFFER_DELAY_MS ? offset : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
     /**
      * @return {@param bufferDelayString} converted to an Integer, or null if invalid.
      */
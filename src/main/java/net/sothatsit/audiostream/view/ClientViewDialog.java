@@ -1,7 +1,12 @@
 package net.sothatsit.audiostream.view;
 
+import net.sothatsit.audiostream.AudioStream;
+import net.sothatsit.audiostream.StreamMonitor;
 import net.sothatsit.audiostream.audio.AudioUtils;
+import net.sothatsit.audiostream.communication.LinkQuality;
 import net.sothatsit.audiostream.communication.audio.AudioClient;
+import net.sothatsit.audiostream.communication.audio.AudioClientSettings;
+import net.sothatsit.audiostream.metrics.LatencyTrace;
 import net.sothatsit.audiostream.util.ServiceState;
 import net.sothatsit.property.Property;
 import net.sothatsit.property.awt.GBCBuilder;
@@ -18,12 +23,19 @@ import java.awt.*;
  */
 public class ClientViewDialog {
 
-    private static final Dimension DIALOG_SIZE = new Dimension(400, 100);
+    private static final Dimension DIALOG_SIZE = new Dimension(400, 225);
+    private static final int MAX_VOLUME_PERCENT = 200;
+    private static final int METRICS_UPDATE_MS = 100;
 
     private final AudioClient client;
     private final JDialog dialog;
 
     private final PropertyLabel statusLabel;
+    private final Property<String> stream;
+    private final Property<String> latency;
+    private final StreamMonitor.Reporter streamReporter;
+    private final LatencyTrace.Reporter latencyReporter;
+    private final Timer metricsTimer;
 
     public ClientViewDialog(JFrame parent, AudioClient client) {
         this.client = client;
@@ -47,6 +59,60 @@ public class ClientViewDialog {
             constraints.nextRow();
         }
 
+        { // Volume
+            int volumePercent = (int) Math.round(client.getGain().get() * 100);
+            JSlider volumeSlider = new JSlider(0, MAX_VOLUME_PERCENT, volumePercent);
+            volumeSlider.addChangeListener(event -> client.getGain().set(volumeSlider.getValue() / 100.0d));
+
+            dialog.add(new JLabel("Volume"), constraints.build());
+            dialog.add(volumeSlider, constraints.weightX(1.0).build());
+            constraints.nextRow();
+        }
+
+        { // Stream
+            stream = Property.create("stream", "");
+            streamReporter = new StreamMonitor.Reporter(client.getMetrics());
+
+            PropertyLabel streamLabel = new PropertyLabel(stream);
+            streamLabel.setForeground(Color.DARK_GRAY);
+
+            dialog.add(new JLabel("Stream"), constraints.build());
+            streamLabel.addTo(dialog, constraints.weightX(1.0).build());
+            constraints.nextRow();
+        }
+
+        { // Latency
+            latency = Property.create("latency", "Unknown");
+            latencyReporter = new LatencyTrace.Reporter(client.getLatencyTrace()::snapshot);
+
+            PropertyLabel latencyLabel = new PropertyLabel(latency);
+            latencyLabel.setForeground(Color.DARK_GRAY);
+
+            dialog.add(new JLabel("Latency"), constraints.build());
+            latencyLabel.addTo(dialog, constraints.weightX(1.0).build());
+            constraints.nextRow();
+        }
+
+        { // Link Quality
+            Property<LinkQuality> linkQuality = client.getServer().getLinkQuality();
+
+            PropertyLabel linkLine1 = new PropertyLabel(
+                    linkQuality.map("linkLine1", ClientViewDialog::convertLinkQualityLine1)
+            );
+            PropertyLabel linkLine2 = new PropertyLabel(
+                    linkQuality.map("linkLine2", ClientViewDialog::convertLinkQualityLine2)
+            );
+            linkLine1.setForeground(Color.DARK_GRAY);
+            linkLine2.setForeground(Color.DARK_GRAY);
+
+            dialog.add(new JLabel("Link Quality"), constraints.build());
+            linkLine1.addTo(dialog, constraints.weightX(1.0).build());
+            constraints.nextRow();
+            dialog.add(new JPanel(), constraints.build());
+            linkLine2.addTo(dialog, constraints.weightX(1.0).build());
+            constraints.nextRow();
+        }
+
         { // Audio Format
             JLabel formatTitleLabel = new JLabel("Audio Format");
             formatTitleLabel.setVerticalAlignment(JLabel.TOP);
@@ -82,6 +148,9 @@ public class ClientViewDialog {
             dialog.add(new JPanel(), constraints.weightY(1.0).build());
             constraints.nextRow();
         }
+
+        this.metricsTimer = new Timer(METRICS_UPDATE_MS, event -> updateMetrics());
+        metricsTimer.start();
     }
 
     public void show() {
@@ -114,11 +183,35 @@ public class ClientViewDialog {
         }
     }
 
+    private void updateMetrics() {
+        AudioClientSettings settings = client.getSettings().get();
+        double intervalSecs = (settings != null ? settings.reportIntervalSecs : AudioStream.DEFAULT_REPORT_INTERVAL_SECS);
+
+        stream.set(streamReporter.report(intervalSecs));
+        latency.set(latencyReporter.report(intervalSecs));
+    }
+
     public void dispose() {
+        metricsTimer.stop();
         dialog.setVisible(false);
         dialog.dispose();
     }
 
+    public static String convertLinkQualityLine1(LinkQuality linkQuality) {
+        if (linkQuality == null)
+            return "Unknown";
+
+        return linkQuality.toHumanString();
+    }
+
+    public static String convertLinkQualityLine2(LinkQuality linkQuality) {
+        if (linkQuality == null)
+            return "";
+
+        return "Suggested buffer delay " + linkQuality.suggestBufferDelayMS() + " ms, "
+                + "buffer size " + linkQuality.suggestBufferSizeMS() + " ms";
+    }
+
     public static String convertAudioFormatLine1(AudioFormat format) {
         if (format == null)
             return "Unknown";
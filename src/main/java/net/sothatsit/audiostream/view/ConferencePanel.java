@@ -0,0 +1,254 @@
+package net.sothatsit.audiostream.view;
+
+import net.sothatsit.audiostream.AudioStream;
+import net.sothatsit.audiostream.audio.AudioType;
+import net.sothatsit.audiostream.communication.conference.ConferenceClient;
+import net.sothatsit.audiostream.communication.conference.ConferenceServer;
+import net.sothatsit.audiostream.model.AudioStreamModel;
+import net.sothatsit.audiostream.util.ServiceState;
+import net.sothatsit.property.Property;
+import net.sothatsit.property.awt.*;
+
+import javax.swing.*;
+import java.awt.*;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+/**
+ * A GUI for hosting and joining conferences.
+ *
+ * @author Paddy Lamont
+ */
+public class ConferencePanel extends PropertyPanel {
+
+    private final AudioStreamModel model;
+    private final AudioProperties inputProperties;
+    private final AudioProperties outputProperties;
+
+    private final Property<String> hostPortString;
+    private final Property<Integer> hostPort;
+    private final Property<String> joinAddress;
+    private final Property<Integer> joinPort;
+
+    private final Property<Boolean> isHosting;
+    private final Property<Boolean> isJoined;
+    private final Property<String> hostStatus;
+    private final Property<String> joinStatus;
+
+    private ConferenceServer server;
+    private ConferenceClient client;
+
+    public ConferencePanel(AudioStreamModel model) {
+        this.model = model;
+        this.inputProperties = new AudioProperties();
+        this.outputProperties = new AudioProperties();
+
+        this.hostPortString = Property.create("hostPortString", "");
+        this.hostPort = hostPortString.map("hostPort", ConferencePanel::parsePort);
+        this.joinAddress = Property.create("joinAddress", "");
+        Property<String> joinPortString = Property.create("joinPortString", "");
+        this.joinPort = joinPortString.map("joinPort", ConferencePanel::parsePort);
+
+        this.isHosting = Property.createNonNull("isHosting", false);
+        this.isJoined = Property.createNonNull("isJoined", false);
+        this.hostStatus = Property.create("hostStatus", "Not hosting");
+        this.joinStatus = Property.create("joinStatus", "Not joined");
+
+        Property<Boolean> isJoinValid = Property.and(
+                joinAddress.map("isJoinAddressValid", address -> !address.trim().isEmpty()),
+                joinPort.isNotNull("isJoinPortValid"),
+                inputProperties.mixer.isNotNull("hasInputMixer"),
+                outputProperties.mixer.isNotNull("hasOutputMixer")
+        );
+
+        setLayout(new GridBagLayout());
+
+        GBCBuilder constraints = new GBCBuilder()
+                .anchor(GridBagConstraints.WEST)
+                .fill(GridBagConstraints.HORIZONTAL)
+                .insets(5, 5, 5, 5)
+                .weightX(1);
+
+        { // Hosting
+            add(new PropertySeparator("Host a Conference"), constraints.build(4));
+            constraints.nextRow();
+
+            PropertyLabel portLabel = new PropertyLabel("Port");
+            PropertyTextField portField = new PropertyTextField(hostPortString);
+
+            portLabel.setForeground(Property.ternary(
+                    "hostPortLabel_fg", hostPort.isNotNull("isHostPortValid"), Color.BLACK, Color.RED
+            ));
+            portField.setEnabled(Property.not(isHosting));
+
+            add(portLabel, constraints.weightX(0).build());
+            add(portField, constraints.build(3));
+            constraints.nextRow();
+
+            PropertyLabel statusLabel = new PropertyLabel(hostStatus);
+            statusLabel.setForeground(Property.ternary("hostStatus_fg", isHosting, Color.DARK_GRAY, Color.GRAY));
+
+            add("Status", constraints.weightX(0).build());
+            add(statusLabel, constraints.build(3));
+            constraints.nextRow();
+
+            PropertyButton startButton = new PropertyButton("Start Hosting", this::startHosting);
+            PropertyButton stopButton = new PropertyButton("Stop Hosting", this::stopHosting);
+
+            startButton.setPreferredSize(new Dimension(150, 30));
+            stopButton.setPreferredSize(new Dimension(150, 30));
+
+            startButton.setEnabled(Property.and(Property.not(isHosting), hostPort.isNotNull("canHost")));
+            stopButton.setEnabled(isHosting);
+
+            add(GuiUtils.buildCenteredPanel(startButton, stopButton), constraints.build(4));
+            constraints.nextRow();
+        }
+
+        { // Joining
+            add(new PropertySeparator("Join a Conference"), constraints.build(4));
+            constraints.nextRow();
+
+            Property<Boolean> inSetupMode = Property.not(isJoined);
+
+            AudioPropertiesPanel inputPanel = new AudioPropertiesPanel(AudioType.INPUT, inputProperties, false);
+            AudioPropertiesPanel outputPanel = new AudioPropertiesPanel(AudioType.OUTPUT, outputProperties, false);
+            inputPanel.setEnabled(inSetupMode);
+            outputPanel.setEnabled(inSetupMode);
+
+            add(inputPanel, constraints.build(4));
+            constraints.nextRow();
+            add(outputPanel, constraints.build(4));
+            constraints.nextRow();
+
+            PropertyTextField addressField = new PropertyTextField(joinAddress);
+            PropertyTextField portField = new PropertyTextField(joinPortString);
+            addressField.setEnabled(inSetupMode);
+            portField.setEnabled(inSetupMode);
+
+            add("Address", constraints.weightX(0).build());
+            add(addressField, constraints.weightX(1).build());
+            add("Port", constraints.weightX(0).build());
+            add(portField, constraints.weightX(0).padX(50).build());
+            constraints.nextRow();
+
+            PropertyLabel statusLabel = new PropertyLabel(joinStatus);
+            statusLabel.setForeground(Property.ternary("joinStatus_fg", isJoined, Color.DARK_GRAY, Color.GRAY));
+
+            add("Status", constraints.weightX(0).build());
+            add(statusLabel, constraints.weightX(1).build(3));
+            constraints.nextRow();
+
+            PropertyButton joinButton = new PropertyButton("Join", this::join);
+            PropertyButton leaveButton = new PropertyButton("Leave", this::leave);
+
+            joinButton.setPreferredSize(new Dimension(150, 30));
+            leaveButton.setPreferredSize(new Dimension(150, 30));
+
+            joinButton.setEnabled(Property.and(inSetupMode, isJoinValid));
+            leaveButton.setEnabled(isJoined);
+
+            add(GuiUtils.buildCenteredPanel(joinButton, leaveButton), constraints.build(4));
+            constraints.nextRow();
+        }
+
+        { // Empty space
+            add(new JPanel(), constraints.weightY(1.0).build(0));
+            constraints.nextRow();
+        }
+
+        // Start update loop
+        new Timer(100, event -> update()).start();
+    }
+
+    // TODO : This can be removed with more use of properties...
+    private void update() {
+        ConferenceServer server = this.server;
+        if (server != null) {
+            hostStatus.set(server.getState().get().getStateName()
+                    + ": " + server.getParticipantCount().get() + " participants");
+        }
+
+        ConferenceClient client = this.client;
+        if (client != null) {
+            ServiceState state = client.getState().get();
+            joinStatus.set(state.getStateName() + ": " + state.getStatusMessage());
+        }
+    }
+
+    private void startHosting() {
+        ConferenceServer server = new ConferenceServer(
+                hostPort.get(),
+                AudioStream.CONFERENCE_FORMAT,
+                AudioStream.CONFERENCE_PERIOD_MS,
+                model.encryption.get()
+        );
+
+        try {
+            server.start();
+        } catch (IOException exception) {
+            GuiUtils.reportError(exception);
+            return;
+        }
+
+        this.server = server;
+        isHosting.set(true);
+    }
+
+    private void stopHosting() {
+        ConferenceServer server = this.server;
+        this.server = null;
+        isHosting.set(false);
+        hostStatus.set("Not hosting");
+
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    private void join() {
+        InetSocketAddress address = new InetSocketAddress(joinAddress.get().trim(), joinPort.get());
+        if (address.isUnresolved()) {
+            GuiUtils.reportError(new IOException("Unable to resolve " + address.getHostString()));
+            return;
+        }
+
+        ConferenceClient client = new ConferenceClient(
+                address,
+                inputProperties.mixer.get(),
+                outputProperties.mixer.get(),
+                AudioStream.CONFERENCE_FORMAT,
+                AudioStream.CONFERENCE_PERIOD_MS,
+                AudioStream.DEFAULT_BUFFER_DELAY_MS,
+                outputProperties.bufferSizeMS.get(),
+                model.encryption.get()
+        );
+        client.start();
+
+        this.client = client;
+        isJoined.set(true);
+    }
+
+    private void leave() {
+        ConferenceClient client = this.client;
+        this.client = null;
+        isJoined.set(false);
+        joinStatus.set("Not joined");
+
+        if (client != null) {
+            client.stop();
+        }
+    }
+
+    /**
+     * @return {@param portString} converted to an Integer, or null if invalid.
+     */
+    private static Integer parsePort(String portString) {
+        try {
+            int port = Integer.parseInt(portString.trim());
+            return (port > 0 && port <= 0xFFFF ? port : null);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package net.sothatsit.audiostream.view;
+
+import net.sothatsit.audiostream.audio.AudioType;
+import net.sothatsit.audiostream.communication.audio.AudioOutputSettings;
+import net.sothatsit.property.Property;
+import net.sothatsit.property.awt.*;
+
+import javax.sound.sampled.Mixer;
+import javax.swing.*;
+import java.awt.*;
+import java.util.function.Consumer;
+
+/**
+ * A window for adding an additional output for clients to play audio through.
+ *
+ * @author Paddy Lamont
+ */
+public class OutputInputDialog extends PropertyDialog {
+
+    private static final Dimension DIALOG_SIZE = new Dimension(400, 130);
+
+    private final Consumer<AudioOutputSettings> applyCallback;
+
+    private final Property<Mixer.Info> mixer;
+    private final Property<Integer> delayOffsetMS;
+
+    public OutputInputDialog(JFrame parent, Consumer<AudioOutputSettings> applyCallback) {
+        super(parent, "Add New Output");
+
+        this.applyCallback = applyCallback;
+
+        Mixer.Info[] availableMixers = AudioType.OUTPUT.findAvailableMixers();
+        this.mixer = Property.create("mixer", availableMixers.length > 0 ? availableMixers[0] : null);
+
+        Property<String> delayOffsetString = Property.createNonNull("delayOffsetString", "0");
+        this.delayOffsetMS = delayOffsetString.map("delayOffsetMS", ClientConfigurationPanel::parseDelayOffset);
+
+        Property<Boolean> isMixerValid = mixer.isNotNull("isMixerValid");
+        Property<Boolean> isDelayOffsetValid = delayOffsetMS.isNotNull("isDelayOffsetValid");
+        Property<Boolean> isValidOutput = Property.and(isMixerValid, isDelayOffsetValid);
+
+        JDialog dialog = getComponent();
+        dialog.setDefaultCloseOperation(JFrame.HIDE_ON_CLOSE);
+        dialog.setLocationRelativeTo(parent);
+        dialog.setLayout(new GridBagLayout());
+        dialog.setPreferredSize(DIALOG_SIZE);
+        dialog.setAlwaysOnTop(true);
+
+        GBCBuilder constraints = new GBCBuilder()
+                .anchor(GridBagConstraints.NORTHWEST)
+                .fill(GridBagConstraints.BOTH)
+                .insets(5, 5, 5, 5);
+
+        { // Input Fields
+            PropertyComboBox<Mixer.Info> mixerCombo = new PropertyComboBox<>(
+                    availableMixers, mixer, Mixer.Info::getName
+            );
+
+            PropertyLabel delayOffsetLabel = new PropertyLabel("Delay Offset (ms)");
+            PropertyTextField delayOffsetField = new PropertyTextField(delayOffsetString);
+
+            delayOffsetLabel.setForeground(
+                    Property.ternary("delayOffsetFg", isDelayOffsetValid, Color.BLACK, Color.RED)
+            );
+
+            add(AudioType.OUTPUT.toString(), constraints.build());
+            add(mixerCombo, constraints.weightX(1.0).build());
+            constraints.nextRow();
+
+            add(delayOffsetLabel, constraints.build());
+            add(delayOffsetField, constraints.weightX(1.0).build());
+            constraints.nextRow();
+        }
+
+        { // Action Buttons
+            PropertyButton addButton = new PropertyButton("Add Output", this::addOutput);
+            PropertyButton cancelButton = new PropertyButton("Cancel", this::dispose);
+
+            addButton.setEnabled(isValidOutput);
+
+            add(GuiUtils.buildCenteredPanel(addButton, cancelButton), constraints.build(2));
+            constraints.nextRow();
+        }
+
+        { // Empty space
+            add(new JPanel(), constraints.weightY(1.0).build());
+            constraints.nextRow();
+        }
+    }
+
+    private void addOutput() {
+        dispose();
+
+        Mixer.Info mixer = this.mixer.get();
+        Integer delayOffsetMS = this.delayOffsetMS.get();
+
+        if (mixer == null || delayOffsetMS == null)
+            return;
+
+        applyCallback.accept(new AudioOutputSettings(mixer, delayOffsetMS));
+    }
+
+    public void show() {
+        if (!dialog.isVisible()) {
+            dialog.pack();
+            dialog.setVisible(true);
+        }
+
+        dialog.toFront();
+        dialog.requestFocus();
+    }
+
+    public void dispose() {
+        dialog.setVisible(false);
+        dialog.dispose();
+    }
+}
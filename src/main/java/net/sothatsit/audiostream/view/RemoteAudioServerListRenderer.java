@@ -1,6 +1,7 @@
 package net.sothatsit.audiostream.view;
 
 import net.sothatsit.audiostream.AudioStreamIcons;
+import net.sothatsit.audiostream.communication.LinkQuality;
 import net.sothatsit.audiostream.communication.RemoteServer;
 import net.sothatsit.audiostream.encryption.Encryption;
 import net.sothatsit.audiostream.encryption.EncryptionVerification;
@@ -58,6 +59,14 @@ public class RemoteAudioServerListRenderer implements ListCellRenderer<RemoteSer
         JLabel icon = new JLabel(getStatusIcon(server));
         icon.setHorizontalAlignment(JLabel.RIGHT);
 
+        LinkQuality linkQuality = server.getLinkQuality().get();
+        if (linkQuality != null) {
+            icon.setText(String.format("%.0f ms", linkQuality.rttMS));
+            icon.setHorizontalTextPosition(JLabel.LEFT);
+            icon.setForeground(Color.GRAY);
+            icon.setToolTipText(linkQuality.toHumanString());
+        }
+
         JPanel panel = new JPanel();
         panel.setLayout(new BorderLayout());
         panel.add(label, BorderLayout.WEST);
@@ -4,6 +4,7 @@ import net.sothatsit.audiostream.AudioStream;
 import net.sothatsit.audiostream.audio.AudioType;
 import net.sothatsit.audiostream.audio.AudioUtils;
 import net.sothatsit.audiostream.encryption.Encryption;
+import net.sothatsit.audiostream.metrics.LatencyTrace;
 import net.sothatsit.audiostream.model.AudioStreamModel;
 import net.sothatsit.property.Property;
 import net.sothatsit.audiostream.communication.audio.AudioServer;
@@ -28,6 +29,8 @@ public class ServerConfigurationPanel extends PropertyPanel {
     private final AudioStreamModel model;
     private final AudioServer server;
     private final Property<String> status;
+    private final Property<String> latency;
+    private final LatencyTrace.Reporter latencyReporter;
 
     public ServerConfigurationPanel(AudioStreamModel model) {
         this.model = model;
@@ -37,10 +40,15 @@ public class ServerConfigurationPanel extends PropertyPanel {
         Property<Boolean> inSetupMode = Property.not(isServerRunning);
 
         AudioProperties audioProperties = new AudioProperties();
+        Property<Double> silenceThresholdDB = Property.createNonNull(
+                "silenceThresholdDB", AudioStream.DEFAULT_SILENCE_THRESHOLD_DB
+        );
+        Property<Boolean> growBuffers = Property.createNonNull("growBuffers", false);
 
         Property<Either<AudioServerSettings, String>> serverSettings = Property.map(
                 "serverSettings",
-                audioProperties.mixer, audioProperties.audioFormat, audioProperties.bufferSizeMS, model.encryption,
+                audioProperties.mixer, audioProperties.audioFormat, audioProperties.bufferSizeMS,
+                silenceThresholdDB, growBuffers, model.encryption,
                 ServerConfigurationPanel::constructServerSettings
         );
         Property<String> serverPortString = Either.getLeftOrNull(serverSettings).map("serverPort", settings -> {
@@ -50,6 +58,8 @@ public class ServerConfigurationPanel extends PropertyPanel {
         Property<Boolean> hasValidServerSettings = Either.isLeft("hasValidServerSettings", serverSettings);
 
         this.status = Property.create("status");
+        this.latency = Property.create("latency", "Unknown");
+        this.latencyReporter = new LatencyTrace.Reporter(server::getLatencySnapshot);
 
         setLayout(new GridBagLayout());
 
@@ -71,6 +81,28 @@ public class ServerConfigurationPanel extends PropertyPanel {
 
             add(audioPropertiesPanel, constraints.build(4));
             constraints.nextRow();
+
+            PropertyComboBox<Double> silenceThresholdCombo = new PropertyComboBox<>(
+                    new Double[] { Double.NEGATIVE_INFINITY, -80.0, -70.0, -60.0, -50.0 },
+                    silenceThresholdDB,
+                    db -> (db == Double.NEGATIVE_INFINITY ? "Off" : "Below " + db.intValue() + " dB")
+            );
+            silenceThresholdCombo.setEnabled(inSetupMode);
+
+            add("Silence Suppression", constraints.weightX(0).build());
+            add(silenceThresholdCombo, constraints.weightX(1.0).build(3));
+            constraints.nextRow();
+
+            PropertyComboBox<Boolean> growBuffersCombo = new PropertyComboBox<>(
+                    new Boolean[] { false, true },
+                    growBuffers,
+                    grow -> (grow ? "Count and grow the buffer" : "Count only")
+            );
+            growBuffersCombo.setEnabled(inSetupMode);
+
+            add("On Overruns", constraints.weightX(0).build());
+            add(growBuffersCombo, constraints.weightX(1.0).build(3));
+            constraints.nextRow();
         }
 
         { // Connection
@@ -84,6 +116,13 @@ public class ServerConfigurationPanel extends PropertyPanel {
             add(statusLabel, constraints.build(3));
             constraints.nextRow();
 
+            PropertyLabel latencyLabel = new PropertyLabel(latency);
+            latencyLabel.setForeground(Property.ternary("latency_fg", isServerRunning, Color.DARK_GRAY, Color.GRAY));
+
+            add("Latency", constraints.weightX(0).build());
+            add(latencyLabel, constraints.build(3));
+            constraints.nextRow();
+
             PropertyLabel portLabel = new PropertyLabel(serverPortString);
             portLabel.setForeground(Property.ternary("port_fg", isServerRunning, Color.DARK_GRAY, Color.GRAY));
 
@@ -117,6 +156,7 @@ public class ServerConfigurationPanel extends PropertyPanel {
     public void update() {
         if (server.getIsRunning()) {
             status.set("Running: " + server.getConnectionCount() + " clients");
+            latency.set(latencyReporter.report(AudioStream.DEFAULT_REPORT_INTERVAL_SECS));
             return;
         }
 
@@ -146,6 +186,8 @@ public class ServerConfigurationPanel extends PropertyPanel {
             Mixer.Info mixer,
             Either<AudioFormat, String> audioFormatEither,
             int bufferSizeMS,
+            double silenceThresholdDB,
+            boolean growBuffers,
             Encryption encryption) {
 
         if (mixer == null)
@@ -171,6 +213,10 @@ public class ServerConfigurationPanel extends PropertyPanel {
                 format,
                 mixer,
                 bufferSizeBytes,
+                AudioStream.DEFAULT_PRESENTATION_DELAY_MS,
+                silenceThresholdDB,
+                AudioStream.DEFAULT_SILENCE_HANGOVER_MS,
+                growBuffers,
                 reportIntervalSecs,
                 port,
                 encryption